@@ -0,0 +1,39 @@
+import java.util.List;
+
+/**
+ * The trivial broadphase: every ball is a candidate for every other, forever.  Cheapest for small scenes.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class AllPairsBroadphase extends Broadphase {
+
+	//The Universe's own list of balls
+	protected List<Ball> balls;
+
+	public void rebuild( List<Ball> balls ) {
+		this.balls = balls;
+	}
+
+	public void add( Ball ball ) {
+		//The Universe's list already holds it
+	}
+
+	public void remove( Ball ball ) {
+	}
+
+	public void update( Ball ball ) {
+	}
+
+	public void candidates( Ball ball, List<Ball> result ) {
+		for( int i = 0; i < this.balls.size(); i++ ) {
+			Ball other = this.balls.get(i);
+
+			if ( other != ball ) result.add( other );
+		}
+	}
+
+	public double getHorizon() {
+		return Double.POSITIVE_INFINITY;
+	}
+}
@@ -0,0 +1,369 @@
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Chooses how a Universe runs from how its scene behaves, so that it runs near its best without tuning by hand.  It picks the
+ * broadphase, the scheduler, whether predictions stop at a horizon of a few mean free times, and optionally whether the soft sphere
+ * engine may take over collision storms.
+ *
+ * It works in windows of steps.  A baseline window measures the scene under the current choice: the balls, the events and pair checks
+ * per event, the event rate per ball, the spread of times between events, and the collisions performed per second.  Rules then propose
+ * a choice, which runs for a trial window and is kept only if it performs collisions no slower than the baseline.  Collisions per second
+ * rather than simulated time per second are compared, as a scene can collide more often from one window to the next, e.g. as it settles.
+ * Once settled, each window is compared with the one the choice was made on, and the scene is profiled again when it drifts, e.g. when a
+ * gas settles into a pile under gravity.  The soft sphere engine is never proposed for a scene with obstacles, sources or sinks.
+ * Every choice and the measurements behind it are logged.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class Autotuner {
+
+	protected static final Logger LOG = Logger.getLogger( Autotuner.class.getName() );
+
+	//Fewest balls worth sweep and prune, and pair checks per event above which it pays
+	protected static final int SWEEP_MIN_BALLS = 256;
+	protected static final double SWEEP_MIN_CHECKS = 32;
+
+	//Fewest pending collisions worth a calendar queue
+	protected static final int CALENDAR_MIN_QUEUE = 20000;
+
+	//Mean free times the horizon covers when one is used
+	protected static final double HORIZON_FACTOR = 2;
+
+	//A trial is kept unless it runs this much slower than the baseline
+	protected static final double TRIAL_TOLERANCE = 0.9;
+
+	//Factors by which the number of balls, and the event rate or typical gap between events, must change to count as drift
+	protected static final double BALL_DRIFT = 2;
+	protected static final double RATE_DRIFT = 4;
+
+	//Binary orders of magnitude below 1 the gap histogram reaches down to
+	protected static final int GAP_OFFSET = 40;
+
+	protected enum Phase { BASELINE, TRIAL, SETTLED }
+
+	/**
+	 * One way of running the Universe
+	 */
+	protected static class Choice {
+
+		protected final boolean sweepAndPrune;
+		protected final boolean calendar;
+		protected final boolean horizon;
+		protected final boolean automatic;
+
+		protected Choice( boolean sweepAndPrune, boolean calendar, boolean horizon, boolean automatic ) {
+			this.sweepAndPrune = sweepAndPrune;
+			this.calendar = calendar;
+			this.horizon = horizon;
+			this.automatic = automatic;
+		}
+
+		/**
+		 * @return Returns the choice a Universe is currently running with
+		 */
+		protected static Choice of( Universe universe ) {
+			return new Choice( universe.broadphase instanceof SweepAndPruneBroadphase, universe.collisions instanceof CalendarScheduler,
+					universe.horizonFactor > 0, universe.engine == Universe.Engine.AUTOMATIC );
+		}
+
+		public boolean equals( Object other ) {
+			if ( !( other instanceof Choice ) ) return false;
+
+			Choice choice = (Choice) other;
+
+			return this.sweepAndPrune == choice.sweepAndPrune && this.calendar == choice.calendar && this.horizon == choice.horizon && this.automatic == choice.automatic;
+		}
+
+		public int hashCode() {
+			return ( this.sweepAndPrune ? 1 : 0 ) | ( this.calendar ? 2 : 0 ) | ( this.horizon ? 4 : 0 ) | ( this.automatic ? 8 : 0 );
+		}
+
+		public String toString() {
+			return ( this.sweepAndPrune ? "sweep and prune" : "all pairs" ) + ", " + ( this.calendar ? "calendar queue" : "binary heap" ) + ", "
+					+ ( this.horizon ? "horizon of " + HORIZON_FACTOR + " mean free times" : "no horizon" ) + ( this.automatic ? ", soft sphere in storms" : "" );
+		}
+	}
+
+	//Steps in a window
+	protected int windowSteps = 10;
+
+	//Whether the soft sphere engine, which only approximates collisions, may be chosen
+	protected boolean allowSoftSphere;
+
+	protected Phase phase = Phase.BASELINE;
+
+	//The choice measured by the baseline window, and the one on trial
+	protected Choice baseline;
+	protected Choice trial;
+
+	//Totals for the current window
+	protected int steps = 0;
+	protected double simulated = 0;
+	protected long nanos = 0;
+	protected long events = 0;
+	protected long collisions = 0;
+	protected long pairChecksAtStart = -1;
+
+	//Times between events in binary orders of magnitude, bin k counting gaps in [2^(k - GAP_OFFSET), 2^(k + 1 - GAP_OFFSET))
+	protected long[] gaps = new long[64];
+
+	//Measurements of the baseline window, and of the window the settled choice was made on
+	protected double baselineThroughput;
+	protected int referenceBalls;
+	protected double referenceRate;
+	protected double referenceGap;
+
+	/**
+	 * Creates an autotuner that leaves collisions exact, never choosing the soft sphere engine
+	 */
+	public Autotuner() {
+		this( false );
+	}
+
+	/**
+	 * Creates an autotuner
+	 * @param allowSoftSphere True to let the soft sphere engine take over collision storms, at the cost of exactness
+	 */
+	public Autotuner( boolean allowSoftSphere ) {
+		this.allowSoftSphere = allowSoftSphere;
+	}
+
+	/**
+	 * Sets the number of steps measured before each decision
+	 * @param steps The number of steps
+	 */
+	public void setWindowSteps( int steps ) {
+		if ( steps < 1 ) throw new IllegalArgumentException("Window must be at least one step");
+
+		this.windowSteps = steps;
+	}
+
+	/**
+	 * Notes the simulated time between two events
+	 * @param gap The time
+	 */
+	public void sampleGap( double gap ) {
+
+		int bin = ( gap > 0 ) ? Math.getExponent( gap ) + GAP_OFFSET : 0;
+
+		this.gaps[Math.min( Math.max( bin, 0 ), this.gaps.length - 1 )]++;
+	}
+
+	/**
+	 * Notes a step of the Universe, and decides once a window is complete
+	 * @param universe The Universe
+	 * @param time Simulated time the step ran
+	 * @param events Events taken from the queue in the step
+	 * @param horizons Events that were horizons, rather than collisions or crossings
+	 * @param nanos Real time the step took, in nanoseconds
+	 */
+	public void afterStep( Universe universe, double time, int events, int horizons, long nanos ) {
+
+		//Soft sphere steps have no events to measure
+		if ( universe.softSphereActive ) return;
+
+		if ( this.pairChecksAtStart < 0 ) this.pairChecksAtStart = universe.pairChecks;
+
+		this.steps++;
+		this.simulated += time;
+		this.nanos += nanos;
+		this.events += events;
+		this.collisions += events - horizons;
+
+		if ( this.steps < this.windowSteps ) return;
+
+		int balls = universe.actors.size();
+		double throughput = this.collisions / ( this.nanos / 1e9 );
+		double checksPerEvent = ( universe.pairChecks - this.pairChecksAtStart ) / (double) Math.max( 1, this.events );
+		double rate = (double) this.events / Math.max( 1, balls ) / this.simulated;
+		double gap = this.gapQuantile( 0.5 );
+		double gapSpread = this.gapQuantile( 0.9 ) / this.gapQuantile( 0.1 );
+
+		String measured = String.format( "%d balls, %.3g collisions per second, %.3g simulated time per second, %.3g pair checks per event, "
+				+ "%.3g events per ball per unit time, median gap %.3g, gap spread %.3g, %d queued",
+				balls, throughput, this.simulated / ( this.nanos / 1e9 ), checksPerEvent, rate, gap, gapSpread, universe.collisions.size() );
+
+		switch( this.phase ) {
+		case BASELINE:
+			this.baseline = Choice.of( universe );
+			this.baselineThroughput = throughput;
+
+			Choice proposed = this.propose( universe, balls, checksPerEvent, rate );
+
+			if ( proposed.equals( this.baseline ) ) {
+				LOG.info( "Keeping " + this.baseline + ": " + this.reasons( universe, balls, checksPerEvent, rate ) + " (" + measured + ")" );
+				this.settle( balls, rate, gap );
+			}
+			else {
+				LOG.info( "Trying " + proposed + " instead of " + this.baseline + ": " + this.reasons( universe, balls, checksPerEvent, rate ) + " (" + measured + ")" );
+				this.trial = proposed;
+				this.apply( universe, proposed );
+				this.phase = Phase.TRIAL;
+			}
+			break;
+
+		case TRIAL:
+			if ( throughput < TRIAL_TOLERANCE * this.baselineThroughput ) {
+				LOG.info( String.format( "Going back to %s: %s ran %.3g collisions per second against %.3g (%s)",
+						this.baseline, this.trial, throughput, this.baselineThroughput, measured ) );
+				this.apply( universe, this.baseline );
+			}
+			else {
+				LOG.info( String.format( "Keeping %s: ran %.3g collisions per second against %.3g (%s)", this.trial, throughput, this.baselineThroughput, measured ) );
+			}
+
+			this.settle( balls, rate, gap );
+			break;
+
+		case SETTLED:
+			String drift = this.drift( balls, rate, gap );
+
+			if ( drift != null ) {
+				LOG.info( "Profiling again, the scene has changed: " + drift + " (" + measured + ")" );
+				this.phase = Phase.BASELINE;
+			}
+			break;
+		}
+
+		this.startWindow( universe );
+	}
+
+	/**
+	 * @return Returns the choice the rules make for measurements of a scene
+	 */
+	protected Choice propose( Universe universe, int balls, double checksPerEvent, double rate ) {
+
+		//Checks measured under sweep and prune are already pruned, and all pairs would check every ball
+		boolean pruning = universe.broadphase instanceof SweepAndPruneBroadphase;
+		boolean sweepAndPrune = balls >= SWEEP_MIN_BALLS && ( pruning || checksPerEvent > SWEEP_MIN_CHECKS );
+		boolean calendar = universe.collisions.size() >= CALENDAR_MIN_QUEUE;
+		boolean automatic = this.allowSoftSphere ? rate > universe.autoEventRate / 4 && universe.isSoftSphereCapable() : universe.engine == Universe.Engine.AUTOMATIC;
+
+		return new Choice( sweepAndPrune, calendar, sweepAndPrune, automatic );
+	}
+
+	/**
+	 * @return Returns why the rules made their choice, for the log
+	 */
+	protected String reasons( Universe universe, int balls, double checksPerEvent, double rate ) {
+
+		StringBuffer result = new StringBuffer();
+
+		if ( balls < SWEEP_MIN_BALLS ) result.append( "too few balls for sweep and prune to pay" );
+		else if ( universe.broadphase instanceof SweepAndPruneBroadphase ) result.append( String.format( "sweep and prune cuts pair checks to %.3g per event, where all pairs would check %d balls a prediction", checksPerEvent, balls - 1 ) );
+		else if ( checksPerEvent > SWEEP_MIN_CHECKS ) result.append( String.format( "%.3g pair checks per event are worth pruning, with boxes covering a horizon", checksPerEvent ) );
+		else result.append( String.format( "only %.3g pair checks per event", checksPerEvent ) );
+
+		if ( universe.collisions.size() >= CALENDAR_MIN_QUEUE ) result.append( "; the queue is large enough for a calendar" );
+		else result.append( "; the queue is small enough for a heap" );
+
+		if ( this.allowSoftSphere ) {
+			if ( !universe.isSoftSphereCapable() ) result.append( "; the soft sphere engine cannot run obstacles, sources or sinks" );
+			else if ( rate > universe.autoEventRate / 4 ) result.append( String.format( "; %.3g events per ball per unit time approach a collision storm", rate ) );
+			else result.append( "; no collision storm" );
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * @return Returns a description of how the scene has drifted from the one the choice was made on, or null if it has not
+	 */
+	protected String drift( int balls, double rate, double gap ) {
+
+		if ( Autotuner.factor( balls, this.referenceBalls ) >= BALL_DRIFT ) return "balls went from " + this.referenceBalls + " to " + balls;
+		if ( Autotuner.factor( rate, this.referenceRate ) >= RATE_DRIFT ) return String.format( "event rate went from %.3g to %.3g", this.referenceRate, rate );
+		if ( Autotuner.factor( gap, this.referenceGap ) >= RATE_DRIFT ) return String.format( "median gap went from %.3g to %.3g", this.referenceGap, gap );
+
+		return null;
+	}
+
+	/**
+	 * @return Returns the ratio of the larger of two positive values to the smaller, infinite if only one is 0
+	 */
+	protected static double factor( double a, double b ) {
+		if ( a == b ) return 1;
+		return Math.max( a, b ) / Math.min( a, b );
+	}
+
+	/**
+	 * Settles on the current choice, remembering the scene it was made for
+	 */
+	protected void settle( int balls, double rate, double gap ) {
+		this.phase = Phase.SETTLED;
+		this.referenceBalls = balls;
+		this.referenceRate = rate;
+		this.referenceGap = gap;
+	}
+
+	/**
+	 * Switches a Universe to a choice
+	 */
+	protected void apply( Universe universe, Choice choice ) {
+
+		Choice current = Choice.of( universe );
+
+		if ( choice.horizon != current.horizon ) universe.setAdaptiveHorizon( choice.horizon ? HORIZON_FACTOR : 0 );
+
+		if ( choice.automatic != current.automatic ) universe.setEngine( choice.automatic ? Universe.Engine.AUTOMATIC : Universe.Engine.EVENT_DRIVEN );
+
+		if ( choice.calendar != current.calendar ) universe.setScheduler( choice.calendar ? new CalendarScheduler() : new HeapScheduler() );
+
+		if ( choice.sweepAndPrune != current.sweepAndPrune ) {
+			if ( choice.sweepAndPrune ) {
+				//Boxes start out covering a few mean free times, or the whole of a step before one has been measured
+				double meanFreeTime = universe.getMeanFreeTime();
+				double horizon = Double.isNaN( meanFreeTime ) ? universe.timeStep : HORIZON_FACTOR * meanFreeTime;
+
+				universe.setBroadphase( new SweepAndPruneBroadphase( universe.lowerBounds, universe.upperBounds, horizon ) );
+			}
+			else {
+				universe.setBroadphase( new AllPairsBroadphase() );
+			}
+		}
+	}
+
+	/**
+	 * Clears the totals for a new window
+	 */
+	protected void startWindow( Universe universe ) {
+		this.steps = 0;
+		this.simulated = 0;
+		this.nanos = 0;
+		this.events = 0;
+		this.collisions = 0;
+		this.pairChecksAtStart = universe.pairChecks;
+		Arrays.fill( this.gaps, 0 );
+	}
+
+	/**
+	 * @return Returns roughly the gap between events below which a fraction of the window's gaps fall, 0 if there were none
+	 */
+	protected double gapQuantile( double fraction ) {
+
+		long total = 0;
+		for( long count : this.gaps ) {
+			total += count;
+		}
+
+		if ( total == 0 ) return 0;
+
+		long seen = 0;
+		for( int k = 0; k < this.gaps.length; k++ ) {
+			seen += this.gaps[k];
+
+			if ( seen >= fraction * total ) return Math.scalb( 1.5, k - GAP_OFFSET );
+		}
+
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return Returns a description of the current phase
+	 */
+	public String toString() {
+		return this.phase + ( this.phase == Phase.TRIAL ? " of " + this.trial : "" );
+	}
+}
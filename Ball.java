@@ -17,6 +17,24 @@ public class Ball extends JComponent {
 	
 	protected DoubleVector pos;
 	protected DoubleVector vel;
+
+	//Acceleration the ball is under until its next event, set by the Universe from gravity and the force regions it is in
+	protected DoubleVector accel;
+
+	//Scales the field of a force region, as charge does an electric field
+	protected double charge = 0;
+
+	//Counts changes to the ball's trajectory, so that collisions predicted before a change can be recognised as stale
+	protected int eventCount = 0;
+
+	//Absolute time pos and vel hold at.  The Universe only brings them up to date when they are needed.
+	protected double time = 0;
+
+	//Histogram bin the ball's speed was last counted in by the Universe's Observables
+	protected int speedBin;
+
+	//Position of the ball in its Universe's actors, so it can be found and taken out without a search.  -1 while in none.
+	protected int actorIndex = -1;
 	
 	
 	protected static double drawXScale = 1;
@@ -35,6 +53,7 @@ public class Ball extends JComponent {
 		
 		this.pos = initPos;
 		this.vel = initVel;
+		this.accel = new DoubleVector( new double[initPos.order] );
 		
 	}
 	
@@ -51,9 +70,32 @@ public class Ball extends JComponent {
 		
 		this.pos = new DoubleVector( initPosComps );
 		this.vel = new DoubleVector( initVelComps );
+		this.accel = new DoubleVector( new double[initPosComps.length] );
 		
 	}
 	
+	/**
+	 * Sets the charge of the ball, which scales the field of every force region it enters.  Only to be set before the ball is added to a Universe.
+	 * @param charge The charge
+	 */
+	public void setCharge( double charge ) {
+		this.charge = charge;
+	}
+	
+	/**
+	 * @return Returns the charge of the ball
+	 */
+	public double getCharge() {
+		return this.charge;
+	}
+	
+	/**
+	 * @return Returns a copy of the acceleration the ball is under
+	 */
+	public DoubleVector getAccel() {
+		return new DoubleVector( this.accel.comps );
+	}
+	
 	/**
 	 * @return Returns a string representation of the ball
 	 */
@@ -0,0 +1,321 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Draws every ball of a Universe into a single image by writing its pixels directly, instead of painting each ball as its own component.
+ * Balls of the same size share a cached sprite, stored as the span of pixels the disc covers on each row and filled with each ball's
+ * colour as it is drawn.  When balls shrink below a pixel the renderer drops to single points, and when there are more balls than the
+ * image can show individually, to a density map.  Balls outside the view are skipped.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class BallRenderer {
+
+	/**
+	 * How much detail the balls are drawn with
+	 */
+	public enum Detail { SPRITES, POINTS, DENSITY }
+
+	/**
+	 * The pixels a disc of a given diameter covers
+	 */
+	protected static class Sprite {
+
+		protected final int diameter;
+
+		//First and one past the last pixel covered on each row
+		protected final int[] rowStart;
+		protected final int[] rowEnd;
+
+		protected Sprite( int diameter ) {
+			this.diameter = diameter;
+
+			this.rowStart = new int[diameter];
+			this.rowEnd = new int[diameter];
+
+			double r = diameter / 2.0;
+
+			for( int y = 0; y < diameter; y++ ) {
+				double dy = y + 0.5 - r;
+				double halfWidth = Math.sqrt( Math.max( r * r - dy * dy, 0 ) );
+
+				this.rowStart[y] = (int) Math.round( r - halfWidth );
+				this.rowEnd[y] = Math.max( (int) Math.round( r + halfWidth ), this.rowStart[y] + 1 );
+			}
+		}
+	}
+
+	//Mean ball diameter in pixels below which balls are drawn as points
+	protected static final double POINT_DIAMETER = 1.5;
+
+	//Balls per pixel above which the density map is drawn instead of points
+	protected static final double DENSITY_FILL = 1.0 / 16;
+
+	protected BufferedImage image;
+	protected int[] pixels;
+
+	//Balls counted per pixel, for the density map
+	protected int[] density;
+
+	//Colours of the density map, from empty to densest
+	protected int[] densityColors = new int[256];
+
+	//Sprites indexed by diameter, up to the largest drawn at the current scale, and that scale in pixels per unit length
+	protected Sprite[] sprites = new Sprite[64];
+	protected double spriteScale = 0;
+
+	protected int background = Color.GRAY.getRGB();
+
+	//World coordinates shown at the top left corner of the image, and the magnification on top of the balls' draw scale
+	protected double originX = 0;
+	protected double originY = 0;
+	protected double zoom = 1;
+
+	protected Detail detail = Detail.SPRITES;
+
+	//Balls drawn in the last frame, the rest having been culled
+	protected int drawn;
+
+	/**
+	 * Creates a new renderer
+	 */
+	public BallRenderer() {
+		for( int k = 0; k < this.densityColors.length; k++ ) {
+			//Dark blue through to white
+			int red = Math.min( 255, 2 * k );
+			int green = Math.max( 0, 2 * k - 255 );
+			int blue = Math.min( 255, 64 + k );
+
+			this.densityColors[k] = 0xff000000 | ( red << 16 ) | ( green << 8 ) | blue;
+		}
+	}
+
+	/**
+	 * Sets the colour drawn behind the balls
+	 * @param color The colour
+	 */
+	public void setBackground( Color color ) {
+		this.background = color.getRGB();
+	}
+
+	/**
+	 * Sets the part of the Universe shown
+	 * @param originX X-coordinate shown at the left edge of the image
+	 * @param originY Y-coordinate shown at the top edge of the image
+	 * @param zoom Magnification, 1 to show the Universe at its usual size
+	 */
+	public void setView( double originX, double originY, double zoom ) {
+		if ( zoom <= 0 ) throw new IllegalArgumentException("Zoom must be positive");
+
+		this.originX = originX;
+		this.originY = originY;
+		this.zoom = zoom;
+	}
+
+	public double getOriginX() {
+		return this.originX;
+	}
+
+	public double getOriginY() {
+		return this.originY;
+	}
+
+	public double getZoom() {
+		return this.zoom;
+	}
+
+	/**
+	 * @return Returns the detail the last frame was drawn with
+	 */
+	public Detail getDetail() {
+		return this.detail;
+	}
+
+	/**
+	 * @return Returns the number of balls drawn in the last frame
+	 */
+	public int getDrawn() {
+		return this.drawn;
+	}
+
+	/**
+	 * Draws the balls
+	 * @param balls The balls
+	 * @param width Width of the image in pixels
+	 * @param height Height of the image in pixels
+	 * @param scaleX Pixels per unit length along x at a zoom of 1
+	 * @param scaleY Pixels per unit length along y at a zoom of 1
+	 * @return Returns the image, which is reused by the next frame
+	 */
+	public BufferedImage render( List<Ball> balls, int width, int height, double scaleX, double scaleY ) {
+
+		width = Math.max( width, 1 );
+		height = Math.max( height, 1 );
+
+		if ( this.image == null || this.image.getWidth() != width || this.image.getHeight() != height ) {
+			this.image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+			this.pixels = ( (DataBufferInt) this.image.getRaster().getDataBuffer() ).getData();
+			this.density = null;
+		}
+
+		Arrays.fill( this.pixels, this.background );
+
+		double sx = scaleX * this.zoom;
+		double sy = scaleY * this.zoom;
+
+		double radiusSum = 0;
+		for( int i = 0; i < balls.size(); i++ ) {
+			radiusSum += balls.get(i).radius;
+		}
+
+		double meanDiameter = ( balls.isEmpty() ) ? 0 : 2 * radiusSum / balls.size() * Math.min( sx, sy );
+
+		if ( meanDiameter >= POINT_DIAMETER ) {
+			this.detail = Detail.SPRITES;
+			this.drawSprites( balls, width, height, sx, sy );
+		}
+		else if ( balls.size() > DENSITY_FILL * width * height ) {
+			this.detail = Detail.DENSITY;
+			this.drawDensity( balls, width, height, sx, sy );
+		}
+		else {
+			this.detail = Detail.POINTS;
+			this.drawPoints( balls, width, height, sx, sy );
+		}
+
+		return this.image;
+	}
+
+	/**
+	 * Draws each ball as a filled disc
+	 */
+	protected void drawSprites( List<Ball> balls, int width, int height, double sx, double sy ) {
+
+		//Zooming or resizing changes the diameters drawn, so the sprites cached for the old ones are let go
+		if ( Math.min( sx, sy ) != this.spriteScale ) {
+			this.sprites = new Sprite[64];
+			this.spriteScale = Math.min( sx, sy );
+		}
+
+		int count = 0;
+
+		for( int i = 0; i < balls.size(); i++ ) {
+			Ball ball = balls.get(i);
+
+			int diameter = Math.max( 1, (int) Math.round( 2 * ball.radius * Math.min( sx, sy ) ) );
+
+			int left = (int) Math.floor( ( ball.pos.comps[0] - this.originX ) * sx - diameter / 2.0 );
+			int top = (int) Math.floor( ( ball.pos.comps[1] - this.originY ) * sy - diameter / 2.0 );
+
+			//Cull balls entirely outside the image
+			if ( left + diameter <= 0 || top + diameter <= 0 || left >= width || top >= height ) continue;
+
+			Sprite sprite = this.getSprite( diameter );
+			int rgb = ball.color.getRGB();
+
+			int firstRow = Math.max( 0, -top );
+			int lastRow = Math.min( diameter, height - top );
+
+			for( int y = firstRow; y < lastRow; y++ ) {
+				int from = Math.max( left + sprite.rowStart[y], 0 );
+				int to = Math.min( left + sprite.rowEnd[y], width );
+
+				if ( from < to ) {
+					int row = ( top + y ) * width;
+					Arrays.fill( this.pixels, row + from, row + to, rgb );
+				}
+			}
+
+			count++;
+		}
+
+		this.drawn = count;
+	}
+
+	/**
+	 * Draws each ball as a single pixel
+	 */
+	protected void drawPoints( List<Ball> balls, int width, int height, double sx, double sy ) {
+
+		int count = 0;
+
+		for( int i = 0; i < balls.size(); i++ ) {
+			Ball ball = balls.get(i);
+
+			int x = (int) Math.floor( ( ball.pos.comps[0] - this.originX ) * sx );
+			int y = (int) Math.floor( ( ball.pos.comps[1] - this.originY ) * sy );
+
+			if ( x < 0 || y < 0 || x >= width || y >= height ) continue;
+
+			this.pixels[y * width + x] = ball.color.getRGB();
+			count++;
+		}
+
+		this.drawn = count;
+	}
+
+	/**
+	 * Counts the balls falling in each pixel and shades the pixel by the count, on a log scale
+	 */
+	protected void drawDensity( List<Ball> balls, int width, int height, double sx, double sy ) {
+
+		if ( this.density == null ) this.density = new int[width * height];
+		else Arrays.fill( this.density, 0 );
+
+		int count = 0;
+		int max = 0;
+
+		for( int i = 0; i < balls.size(); i++ ) {
+			Ball ball = balls.get(i);
+
+			int x = (int) Math.floor( ( ball.pos.comps[0] - this.originX ) * sx );
+			int y = (int) Math.floor( ( ball.pos.comps[1] - this.originY ) * sy );
+
+			if ( x < 0 || y < 0 || x >= width || y >= height ) continue;
+
+			int k = y * width + x;
+			this.density[k]++;
+			max = Math.max( max, this.density[k] );
+			count++;
+		}
+
+		if ( max > 0 ) {
+			//Shade for each count up to the maximum, so the log is only taken once per distinct count
+			int[] shades = new int[max + 1];
+			double scale = ( this.densityColors.length - 1 ) / Math.log( 1 + max );
+
+			shades[0] = this.background;
+			for( int c = 1; c <= max; c++ ) {
+				shades[c] = this.densityColors[(int) ( Math.log( 1 + c ) * scale )];
+			}
+
+			for( int k = 0; k < this.density.length; k++ ) {
+				int c = this.density[k];
+				if ( c > 0 ) this.pixels[k] = shades[c];
+			}
+		}
+
+		this.drawn = count;
+	}
+
+	/**
+	 * @return Returns the sprite for the given diameter, creating it the first time it is needed
+	 */
+	protected Sprite getSprite( int diameter ) {
+
+		if ( diameter >= this.sprites.length ) this.sprites = Arrays.copyOf( this.sprites, Math.max( diameter + 1, 2 * this.sprites.length ) );
+
+		Sprite sprite = this.sprites[diameter];
+
+		if ( sprite == null ) {
+			sprite = new Sprite( diameter );
+			this.sprites[diameter] = sprite;
+		}
+
+		return sprite;
+	}
+}
@@ -0,0 +1,106 @@
+import java.util.Random;
+
+/**
+ * Injects new balls through one face of the Universe's box at random times with a steady mean rate, to feed an open system.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class BallSource {
+
+	protected final int compIndex;
+	protected final boolean upper;
+
+	//Mean number of balls emitted per unit time
+	protected final double rate;
+
+	protected final double mass;
+	protected final double radius;
+	protected final double speed;
+
+	protected Random rnd;
+
+	//Absolute time of the next emission
+	protected double nextEmission;
+
+	/**
+	 *
+	 * @param compIndex Direction normal to the face balls enter through
+	 * @param upper True to emit through the upper face, false for the lower face
+	 * @param rate Mean number of balls emitted per unit time
+	 * @param mass Mass of the emitted balls
+	 * @param radius Radius of the emitted balls
+	 * @param speed Inward speed of the emitted balls
+	 * @param rnd Random number generator for emission times, positions and directions
+	 */
+	public BallSource( int compIndex, boolean upper, double rate, double mass, double radius, double speed, Random rnd ) {
+
+		if ( !( rate > 0 ) ) throw new IllegalArgumentException("Rate must be positive");
+
+		this.compIndex = compIndex;
+		this.upper = upper;
+		this.rate = rate;
+		this.mass = mass;
+		this.radius = radius;
+		this.speed = speed;
+		this.rnd = rnd;
+	}
+
+	/**
+	 * Schedules the first emission
+	 * @param time The current absolute time
+	 */
+	public void start( double time ) {
+		this.nextEmission = time + this.interval();
+	}
+
+	/**
+	 * Creates the ball due at the next emission time, just inside the face, and schedules the following emission.
+	 * The caller decides whether there is room for it.
+	 * @param lowerBounds Lower boundary vector of the region
+	 * @param upperBounds Upper boundary vector of the region
+	 * @return Returns the new ball
+	 */
+	public Ball emit( DoubleVector lowerBounds, DoubleVector upperBounds ) {
+
+		int order = lowerBounds.order;
+
+		double[] pos = new double[order];
+		double[] vel = new double[order];
+
+		for( int n = 0; n < order; n++ ) {
+			double lower = lowerBounds.getComp( n );
+			double upper = upperBounds.getComp( n );
+
+			if ( n == this.compIndex ) {
+				//Clear of the wall, so the ball does not start out colliding with it
+				double inset = this.radius * ( 1 + 1e-9 );
+
+				pos[n] = this.upper ? upper - inset : lower + inset;
+				vel[n] = this.upper ? -this.speed : this.speed;
+			}
+			else {
+				pos[n] = lower + this.radius + this.rnd.nextDouble() * ( upper - lower - 2 * this.radius );
+				vel[n] = ( this.rnd.nextDouble() - 0.5 ) * this.speed;
+			}
+		}
+
+		this.nextEmission += this.interval();
+
+		return new Ball( this.mass, this.radius, pos, vel );
+	}
+
+	/**
+	 * @return Returns a random time between emissions.  Emissions are a Poisson process, so the intervals are exponentially distributed.
+	 */
+	protected double interval() {
+		return -Math.log( 1 - this.rnd.nextDouble() ) / this.rate;
+	}
+
+	/**
+	 * @return Returns the absolute time of the next emission
+	 */
+	public double getNextEmission() {
+		return this.nextEmission;
+	}
+}
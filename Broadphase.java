@@ -0,0 +1,67 @@
+import java.util.List;
+
+/**
+ * Narrows down the balls a ball could collide with, so that exact collision times only need solving for those.
+ *
+ * A broadphase may only vouch for its candidates up to a horizon: a ball that is not a candidate cannot collide with the ball until
+ * at least that long after the ball's trajectory was last given to the broadphase.  The Universe re-predicts a ball when its horizon passes.
+ *
+ * @author Alex Weeks
+ *
+ */
+public abstract class Broadphase {
+
+	//True when the Universe has periodic boundaries, so that balls near one boundary can collide with balls near the opposite one
+	protected boolean periodic = false;
+
+	/**
+	 * Sets whether the Universe has periodic boundaries.  Takes effect from the next rebuild.
+	 * @param periodic True for periodic boundaries
+	 */
+	public void setPeriodic( boolean periodic ) {
+		this.periodic = periodic;
+	}
+
+	/**
+	 * Discards everything and takes the current trajectories of a set of balls, each under its own acceleration
+	 * @param balls The balls
+	 */
+	public abstract void rebuild( List<Ball> balls );
+
+	/**
+	 * Adds a ball
+	 * @param ball The ball
+	 */
+	public abstract void add( Ball ball );
+
+	/**
+	 * Removes a ball.  Does nothing if the ball is not held.
+	 * @param ball The ball
+	 */
+	public abstract void remove( Ball ball );
+
+	/**
+	 * Takes the current trajectory of a ball, after it has changed or its horizon has passed
+	 * @param ball The ball
+	 */
+	public abstract void update( Ball ball );
+
+	/**
+	 * Finds the balls that could collide with a ball within the horizon
+	 * @param ball The ball
+	 * @param result List the candidates are appended to.  The ball itself is not included.
+	 */
+	public abstract void candidates( Ball ball, List<Ball> result );
+
+	/**
+	 * @return Returns the time after a ball's last update for which its candidates are complete, infinite if they always are
+	 */
+	public abstract double getHorizon();
+
+	/**
+	 * Asks for candidates to be complete for a given time after each update.  Broadphases whose candidates are always complete ignore it.
+	 * @param horizon The time
+	 */
+	public void setHorizon( double horizon ) {
+	}
+}
@@ -0,0 +1,256 @@
+import java.util.Arrays;
+
+/**
+ * A calendar queue: collisions are filed into buckets by time, like appointments into the days of a calendar, with the buckets reused
+ * year after year.  Each bucket is kept in order, and taking the earliest collision only looks at the bucket for the current day and,
+ * when that is empty, the days following it.  With the bucket width matched to the spacing of the collisions at the front of the queue,
+ * adding and taking collisions both take constant time on average.
+ *
+ * The number of buckets follows the number of collisions held.  Whenever it changes, the bucket width is re-tuned from a sample of
+ * recent prediction times, and it is also re-tuned whenever the front of the queue has to be searched for directly.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class CalendarScheduler extends EventScheduler {
+
+	protected static final int MIN_BUCKETS = 16;
+
+	//Recent prediction times kept for tuning the bucket width
+	protected static final int SAMPLES = 128;
+
+	//Direct searches for the front of the queue tolerated before the width is re-tuned
+	protected static final int MAX_DIRECT_SEARCHES = 8;
+
+	//Record indices in each bucket in order of decreasing time, so the earliest collision is last
+	protected int[][] buckets;
+	protected int[] counts;
+	protected int mask;
+
+	protected double width = 1;
+
+	//Index of the day the front of the queue is in, counting from time zero.  The bucket for a day is its index modulo the number of buckets.
+	protected long current = 0;
+
+	protected double[] samples = new double[SAMPLES];
+	protected int sampleCount = 0;
+
+	protected int directSearches = 0;
+
+	/**
+	 * Creates an empty scheduler
+	 */
+	public CalendarScheduler() {
+		this.allocate( MIN_BUCKETS );
+	}
+
+	/**
+	 * @return Returns the width of each bucket in time
+	 */
+	public double getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * @return Returns the number of buckets
+	 */
+	public int getBucketCount() {
+		return this.buckets.length;
+	}
+
+	protected void sample( double deltaT ) {
+		this.samples[this.sampleCount++ % SAMPLES] = deltaT;
+	}
+
+	protected void insert( int id ) {
+
+		if ( this.size > 2 * this.buckets.length ) this.resize( 2 * this.buckets.length );
+
+		this.file( id );
+	}
+
+	protected int front() {
+
+		int b = this.findFront();
+
+		return ( b < 0 ) ? -1 : this.buckets[b][this.counts[b] - 1];
+	}
+
+	protected int removeFront() {
+
+		int b = this.findFront();
+
+		if ( b < 0 ) return -1;
+
+		int id = this.buckets[b][--this.counts[b]];
+
+		//The record is released once it has been read, so the count still includes it
+		if ( this.size - 1 < this.buckets.length / 2 && this.buckets.length > MIN_BUCKETS ) this.resize( this.buckets.length / 2 );
+
+		return id;
+	}
+
+	protected int drain( int[] ids ) {
+
+		int k = 0;
+
+		for( int b = 0; b < this.buckets.length; b++ ) {
+			for( int i = 0; i < this.counts[b]; i++ ) {
+				ids[k++] = this.buckets[b][i];
+			}
+			this.counts[b] = 0;
+		}
+
+		return k;
+	}
+
+	protected void reset() {
+
+		//Buckets of the size to start with are emptied rather than made again
+		if ( this.buckets.length == MIN_BUCKETS ) Arrays.fill( this.counts, 0 );
+		else this.allocate( MIN_BUCKETS );
+
+		this.current = 0;
+	}
+
+	public void purge() {
+
+		super.purge();
+
+		int target = this.buckets.length;
+		while( target > MIN_BUCKETS && this.size < target / 2 ) target /= 2;
+
+		if ( target != this.buckets.length ) this.resize( target );
+	}
+
+	/**
+	 * @return Returns the index of the day a time falls in
+	 */
+	protected long day( double time ) {
+		return (long) Math.floor( time / this.width );
+	}
+
+	/**
+	 * Files a record in its bucket, keeping the bucket in order
+	 */
+	protected void file( int id ) {
+
+		double t = this.time[id];
+		long day = this.day( t );
+
+		//Collisions are not normally added behind the front, but if one is the front moves back to it
+		if ( day < this.current ) this.current = day;
+
+		int b = (int) ( day & this.mask );
+
+		int[] bucket = this.buckets[b];
+		int count = this.counts[b];
+
+		if ( count == bucket.length ) {
+			bucket = Arrays.copyOf( bucket, 2 * bucket.length );
+			this.buckets[b] = bucket;
+		}
+
+		//Buckets are short, so a linear scan from the early end is quickest
+		int i = count;
+		while( i > 0 && this.time[bucket[i - 1]] < t ) {
+			bucket[i] = bucket[i - 1];
+			i--;
+		}
+
+		bucket[i] = id;
+		this.counts[b] = count + 1;
+	}
+
+	/**
+	 * Finds the bucket holding the earliest collision, moving the current day up to it
+	 * @return Returns the bucket, or -1 if there are no collisions
+	 */
+	protected int findFront() {
+
+		if ( this.size == 0 ) return -1;
+
+		//The earliest collision is the first found in its own day, searching from the current day through one year
+		for( int i = 0; i < this.buckets.length; i++ ) {
+			long day = this.current + i;
+			int b = (int) ( day & this.mask );
+
+			if ( this.counts[b] > 0 && this.day( this.time[this.buckets[b][this.counts[b] - 1]] ) <= day ) {
+				this.current = day;
+				return b;
+			}
+		}
+
+		//Nothing for a whole year, so the buckets are too narrow for how spread out the collisions are.  Look at the earliest of each bucket.
+		int front = -1;
+		for( int b = 0; b < this.buckets.length; b++ ) {
+			if ( this.counts[b] > 0 && ( front < 0 || this.time[this.buckets[b][this.counts[b] - 1]] < this.time[this.buckets[front][this.counts[front] - 1]] ) ) front = b;
+		}
+
+		this.current = this.day( this.time[this.buckets[front][this.counts[front] - 1]] );
+
+		if ( ++this.directSearches > MAX_DIRECT_SEARCHES ) {
+			this.resize( this.buckets.length );
+			return this.findFront();
+		}
+
+		return front;
+	}
+
+	/**
+	 * Changes the number of buckets and re-tunes the width, refiling every collision
+	 * @param bucketCount New number of buckets, a power of two
+	 */
+	protected void resize( int bucketCount ) {
+
+		int[] all = new int[this.size];
+		int count = 0;
+
+		for( int b = 0; b < this.buckets.length; b++ ) {
+			for( int i = 0; i < this.counts[b]; i++ ) {
+				all[count++] = this.buckets[b][i];
+			}
+		}
+
+		this.tune( count );
+		this.allocate( bucketCount );
+
+		this.current = Long.MAX_VALUE;
+		for( int k = 0; k < count; k++ ) {
+			this.file( all[k] );
+		}
+		if ( count == 0 ) this.current = 0;
+
+		this.directSearches = 0;
+	}
+
+	/**
+	 * Sets the bucket width to about three times the spacing of the collisions at the front of the queue, judged from the sampled
+	 * prediction times: about half the collisions held fall within the median prediction time of now.
+	 */
+	protected void tune( int count ) {
+
+		int n = Math.min( this.sampleCount, SAMPLES );
+
+		if ( n == 0 || count == 0 ) return;
+
+		double[] sorted = Arrays.copyOf( this.samples, n );
+		Arrays.sort( sorted );
+
+		double median = sorted[n / 2];
+		double spacing = median / ( count / 2.0 );
+
+		double width = 3 * spacing;
+
+		if ( width > 0 && width < Double.POSITIVE_INFINITY ) this.width = width;
+	}
+
+	/**
+	 * Creates empty buckets
+	 */
+	protected void allocate( int bucketCount ) {
+		this.buckets = new int[bucketCount][4];
+		this.counts = new int[bucketCount];
+		this.mask = bucketCount - 1;
+	}
+}
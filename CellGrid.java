@@ -0,0 +1,361 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A uniform grid of cells over the Universe, each listing the balls whose centres lie in it, so that the balls near a point are found
+ * by looking in a handful of cells rather than at every ball.
+ *
+ * The grid is rebuilt in one pass from a list of balls, with a counting sort of ball indices by cell into flat arrays, and keeps its
+ * own copy of their positions and radii.  Once built it describes the balls as they were, and can be queried from another thread
+ * while they move on.  Building and querying are synchronized on the grid.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class CellGrid {
+
+	//Most cells per ball, so that sparse scenes do not pay for a fine grid
+	protected static final int CELLS_PER_BALL = 4;
+
+	protected final int order;
+	protected final double[] lower;
+	protected final double[] upper;
+
+	protected double cellSize;
+	protected int[] cellsPerDim;
+	protected int cellCount = 1;
+
+	//Balls in cell c are entries[cellStart[c]] to entries[cellStart[c + 1] - 1], as indices into balls
+	protected int[] cellStart = new int[2];
+	protected int[] entries = new int[0];
+
+	//Cell of each ball, used while building
+	protected int[] ballCell = new int[0];
+
+	//The balls and their state when the grid was built, positions indexed [ball * order + component]
+	protected Ball[] balls = new Ball[0];
+	protected double[] pos = new double[0];
+	protected double[] radius = new double[0];
+	protected int ballCount = 0;
+	protected double maxRadius = 0;
+
+	/**
+	 * Creates an empty grid over a region
+	 * @param lowerBounds Lower corner of the region
+	 * @param upperBounds Upper corner of the region
+	 */
+	public CellGrid( DoubleVector lowerBounds, DoubleVector upperBounds ) {
+		this.order = lowerBounds.order;
+		this.lower = lowerBounds.comps.clone();
+		this.upper = upperBounds.comps.clone();
+		this.cellsPerDim = new int[this.order];
+
+		//One cell covering everything until the grid is built
+		Arrays.fill( this.cellsPerDim, 1 );
+		this.cellSize = Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Rebuilds the grid from balls whose positions are up to date, with cells twice the mean ball diameter across
+	 * @param balls The balls
+	 */
+	public void build( List<Ball> balls ) {
+
+		double diameters = 0;
+		for( Ball ball : balls ) {
+			diameters += 2 * ball.radius;
+		}
+
+		this.build( balls, balls.isEmpty() ? 1 : 2 * diameters / balls.size() );
+	}
+
+	/**
+	 * Rebuilds the grid from balls whose positions are up to date
+	 * @param balls The balls
+	 * @param cellSize Width of a cell, widened if the region would need more than a few cells per ball
+	 */
+	public synchronized void build( List<Ball> balls, double cellSize ) {
+
+		if ( !( cellSize > 0 ) ) throw new IllegalArgumentException("Cell size must be positive");
+
+		int order = this.order;
+		int n = balls.size();
+
+		//Widen the cells until there are few enough of them
+		long maxCells = (long) CELLS_PER_BALL * n + 16;
+		while( this.countCells( cellSize ) > maxCells ) {
+			cellSize *= 1.5;
+		}
+
+		this.cellSize = cellSize;
+		this.cellCount = (int) this.countCells( cellSize );
+		for( int d = 0; d < order; d++ ) {
+			this.cellsPerDim[d] = (int) Math.max( 1, Math.ceil( ( this.upper[d] - this.lower[d] ) / cellSize ) );
+		}
+
+		if ( this.balls.length < n ) {
+			this.balls = new Ball[n];
+			this.pos = new double[n * order];
+			this.radius = new double[n];
+			this.entries = new int[n];
+			this.ballCell = new int[n];
+		}
+		if ( this.cellStart.length < this.cellCount + 1 ) this.cellStart = new int[this.cellCount + 1];
+
+		//Let go of balls no longer in the grid
+		if ( this.ballCount > n ) Arrays.fill( this.balls, n, this.ballCount, null );
+		this.ballCount = n;
+		this.maxRadius = 0;
+
+		int[] ballCell = this.ballCell;
+		int[] start = this.cellStart;
+		Arrays.fill( start, 0, this.cellCount + 1, 0 );
+
+		//Copy the balls and count them per cell
+		for( int i = 0; i < n; i++ ) {
+			Ball ball = balls.get( i );
+
+			this.balls[i] = ball;
+			System.arraycopy( ball.pos.comps, 0, this.pos, i * order, order );
+			this.radius[i] = ball.radius;
+			this.maxRadius = Math.max( this.maxRadius, ball.radius );
+
+			ballCell[i] = this.cellOf( this.pos, i * order );
+			start[ballCell[i] + 1]++;
+		}
+
+		for( int c = 0; c < this.cellCount; c++ ) {
+			start[c + 1] += start[c];
+		}
+
+		//Place each ball after those already in its cell, then shift the starts back
+		for( int i = 0; i < n; i++ ) {
+			this.entries[start[ballCell[i]]++] = i;
+		}
+
+		for( int c = this.cellCount; c > 0; c-- ) {
+			start[c] = start[c - 1];
+		}
+		start[0] = 0;
+	}
+
+	/**
+	 * Finds the ball covering a point.  Where several do, the one whose centre is nearest is taken.
+	 * @param point The point
+	 * @return Returns the ball, or null if the point is not on any ball
+	 */
+	public synchronized Ball pick( double[] point ) {
+
+		if ( point.length != this.order ) throw new IllegalArgumentException("Point has the wrong order");
+
+		int order = this.order;
+
+		//Only balls whose centres are within the largest radius can cover the point
+		int[] low = new int[order];
+		int[] high = new int[order];
+		for( int d = 0; d < order; d++ ) {
+			low[d] = this.cellIndex( d, point[d] - this.maxRadius );
+			high[d] = this.cellIndex( d, point[d] + this.maxRadius );
+		}
+
+		Ball best = null;
+		double bestDistSq = Double.POSITIVE_INFINITY;
+
+		int[] cell = low.clone();
+		while( true ) {
+
+			int c = 0;
+			for( int d = order - 1; d >= 0; d-- ) {
+				c = c * this.cellsPerDim[d] + cell[d];
+			}
+
+			for( int k = this.cellStart[c]; k < this.cellStart[c + 1]; k++ ) {
+				int i = this.entries[k];
+
+				double distSq = 0;
+				for( int d = 0; d < order; d++ ) {
+					double delta = point[d] - this.pos[i * order + d];
+					distSq += delta * delta;
+				}
+
+				if ( distSq <= this.radius[i] * this.radius[i] && distSq < bestDistSq ) {
+					best = this.balls[i];
+					bestDistSq = distSq;
+				}
+			}
+
+			//Step to the next cell in the box, as an odometer
+			int d = 0;
+			while( d < order && cell[d] == high[d] ) {
+				cell[d] = low[d];
+				d++;
+			}
+			if ( d == order ) break;
+			cell[d]++;
+		}
+
+		return best;
+	}
+
+	/**
+	 * Adds the distances between the centres of every pair of balls closer than a range to a histogram, looking only in cells near
+	 * each other rather than at every pair.  Build the grid with cells about the range across for this to be quick.
+	 * @param range Longest distance counted
+	 * @param periodic True to measure between nearest periodic images, in which case the range must be at most half the region's width
+	 * @param counts Histogram added to, whose bins evenly divide 0 to the range
+	 * @return Returns the number of pairs counted
+	 */
+	public synchronized long countPairs( double range, boolean periodic, long[] counts ) {
+
+		int order = this.order;
+
+		double[] size = new double[order];
+		int[] reach = new int[order];
+		int[] span = new int[order];
+
+		for( int d = 0; d < order; d++ ) {
+			size[d] = this.upper[d] - this.lower[d];
+
+			if ( periodic && range > size[d] / 2 ) throw new IllegalArgumentException("Range is more than half the width of the periodic region");
+
+			//A narrower last cell can bring the images of further cells into range across a periodic boundary
+			reach[d] = (int) Math.ceil( range / this.cellSize ) + ( periodic ? 1 : 0 );
+			span[d] = Math.min( 2 * reach[d] + 1, this.cellsPerDim[d] );
+		}
+
+		double rangeSq = range * range;
+		double binWidth = range / counts.length;
+
+		int[] cell = new int[order];
+		int[] offset = new int[order];
+		long pairs = 0;
+
+		for( int c = 0; c < this.cellCount; c++ ) {
+
+			if ( this.cellStart[c] == this.cellStart[c + 1] ) continue;
+
+			int rest = c;
+			for( int d = 0; d < order; d++ ) {
+				cell[d] = rest % this.cellsPerDim[d];
+				rest /= this.cellsPerDim[d];
+			}
+
+			//Every cell in reach of this one, each once, as an odometer over the offsets
+			Arrays.fill( offset, 0 );
+			while( true ) {
+
+				int other = 0;
+				boolean inside = true;
+
+				for( int d = order - 1; d >= 0; d-- ) {
+					int n = this.cellsPerDim[d];
+
+					//Where the reach covers the whole axis, every cell along it is visited in order
+					int x = ( span[d] == n ) ? offset[d] : cell[d] - reach[d] + offset[d];
+
+					if ( periodic ) x = ( x % n + n ) % n;
+					else if ( x < 0 || x >= n ) inside = false;
+
+					other = other * n + x;
+				}
+
+				if ( inside ) pairs += this.countPairs( c, other, rangeSq, binWidth, periodic ? size : null, counts );
+
+				int d = 0;
+				while( d < order && offset[d] == span[d] - 1 ) {
+					offset[d] = 0;
+					d++;
+				}
+				if ( d == order ) break;
+				offset[d]++;
+			}
+		}
+
+		return pairs;
+	}
+
+	/**
+	 * Counts the pairs between two cells, each pair once by taking only those whose second ball comes later in the grid
+	 * @param size Width of the periodic region along each axis, or null if it is not periodic
+	 * @return Returns the number of pairs counted
+	 */
+	private long countPairs( int cell, int other, double rangeSq, double binWidth, double[] size, long[] counts ) {
+
+		int order = this.order;
+		long pairs = 0;
+
+		for( int k = this.cellStart[cell]; k < this.cellStart[cell + 1]; k++ ) {
+			int i = this.entries[k];
+
+			for( int m = this.cellStart[other]; m < this.cellStart[other + 1]; m++ ) {
+				int j = this.entries[m];
+
+				if ( j <= i ) continue;
+
+				double distSq = 0;
+				for( int d = 0; d < order; d++ ) {
+					double delta = this.pos[j * order + d] - this.pos[i * order + d];
+					if ( size != null ) delta -= size[d] * Math.rint( delta / size[d] );
+					distSq += delta * delta;
+				}
+
+				if ( distSq >= rangeSq ) continue;
+
+				int bin = (int) ( Math.sqrt( distSq ) / binWidth );
+				counts[Math.min( bin, counts.length - 1 )]++;
+				pairs++;
+			}
+		}
+
+		return pairs;
+	}
+
+	/**
+	 * @return Returns the number of balls the grid was last built from
+	 */
+	public synchronized int getBallCount() {
+		return this.ballCount;
+	}
+
+	/**
+	 * @return Returns the width of a cell
+	 */
+	public synchronized double getCellSize() {
+		return this.cellSize;
+	}
+
+	/**
+	 * @return Returns the number of cells the region would need with cells of a given width
+	 */
+	protected long countCells( double cellSize ) {
+
+		long cells = 1;
+		for( int d = 0; d < this.order; d++ ) {
+			cells *= (long) Math.max( 1, Math.ceil( ( this.upper[d] - this.lower[d] ) / cellSize ) );
+			if ( cells > Integer.MAX_VALUE ) return Long.MAX_VALUE;
+		}
+
+		return cells;
+	}
+
+	/**
+	 * @return Returns the index along an axis of the cell holding a coordinate, clamped to the grid
+	 */
+	protected int cellIndex( int d, double x ) {
+		int index = (int) Math.floor( ( x - this.lower[d] ) / this.cellSize );
+		return Math.min( Math.max( index, 0 ), this.cellsPerDim[d] - 1 );
+	}
+
+	/**
+	 * @return Returns the cell holding the position starting at an offset in an array
+	 */
+	protected int cellOf( double[] comps, int offset ) {
+
+		int c = 0;
+		for( int d = this.order - 1; d >= 0; d-- ) {
+			c = c * this.cellsPerDim[d] + this.cellIndex( d, comps[offset + d] );
+		}
+
+		return c;
+	}
+}
@@ -5,14 +5,43 @@
  */
 public class Collision {
 
+	//Time to the collision from when it was predicted, and the absolute time it happens at
 	public double deltaT;
+	public double time;
 
-	public final Ball ball1;
+	public Ball ball1;
 
-	public final Ball ball2;
+	public Ball ball2;
 
-	public final boolean isWallCollision;
-	public final int wallCompIndex;
+	public boolean isWallCollision;
+	public int wallCompIndex;
+
+	//The obstacle hit, null unless this is an obstacle collision
+	public Obstacle obstacle;
+
+	//For a ball crossing a periodic boundary, the distance it is moved along wallCompIndex to wrap it to the opposite side
+	public boolean isWrapCrossing;
+	public double wrapShift;
+
+	//For a horizon, the ball does nothing but its collisions are predicted again
+	public boolean isHorizon;
+
+	//For a ball's centre crossing a face of a force region, the ball keeps its velocity but its acceleration changes
+	public boolean isRegionCrossing;
+	public ForceRegion region;
+
+	//With periodic boundaries, the offset from ball2 to the image of it that ball1 collides with.  Null for ball2 itself.
+	public double[] imageShift;
+
+	//Event counts of the balls when the collision was predicted.  If either has changed since, the collision will not happen.
+	protected int ball1Count;
+	protected int ball2Count;
+
+	/**
+	 * Creates a blank collision, for a scheduler to fill in from its records
+	 */
+	Collision() {
+	}
 
 	/**
 	 * Creates a new ball-to-ball collision object
@@ -21,12 +50,33 @@ public class Collision {
 	 * @param deltaT Time to the collision
 	 */
 	public Collision(Ball actor1, Ball actor2, double deltaT) {
+		this( actor1, actor2, deltaT, null );
+	}
+
+	/**
+	 * Creates a new collision object between a ball and a periodic image of another
+	 * @param actor1 The first ball
+	 * @param actor2 The second ball
+	 * @param deltaT Time to the collision
+	 * @param imageShift Offset from actor2 to the image of it that actor1 collides with
+	 */
+	public Collision(Ball actor1, Ball actor2, double deltaT, double[] imageShift) {
 		this.ball1 = actor1;
 		this.ball2 = actor2;
 		this.deltaT = deltaT;
 
 		this.isWallCollision = false;
 		this.wallCompIndex = 0;
+		this.obstacle = null;
+		this.isWrapCrossing = false;
+		this.wrapShift = 0;
+		this.imageShift = imageShift;
+		this.isHorizon = false;
+		this.isRegionCrossing = false;
+		this.region = null;
+
+		this.ball1Count = actor1.eventCount;
+		this.ball2Count = actor2.eventCount;
 
 	}
 
@@ -43,16 +93,141 @@ public class Collision {
 		this.deltaT = deltaT;
 		this.isWallCollision = true;
 		this.wallCompIndex = wallCompIndex;
+		this.obstacle = null;
+		this.isWrapCrossing = false;
+		this.wrapShift = 0;
+		this.imageShift = null;
+		this.isHorizon = false;
+		this.isRegionCrossing = false;
+		this.region = null;
+
+		this.ball1Count = ball.eventCount;
+	}
+
+	/**
+	 * Creates a new periodic boundary crossing object
+	 * @param ball The ball
+	 * @param deltaT Time to the crossing
+	 * @param wallCompIndex Direction of the crossing
+	 * @param wrapShift Distance the ball is moved along wallCompIndex to the opposite boundary
+	 */
+	public Collision( Ball ball, double deltaT, int wallCompIndex, double wrapShift ) {
+		this.ball1 = ball;
+		this.ball2 = null;
+
+		this.deltaT = deltaT;
+		this.isWallCollision = false;
+		this.wallCompIndex = wallCompIndex;
+		this.obstacle = null;
+		this.isWrapCrossing = true;
+		this.wrapShift = wrapShift;
+		this.imageShift = null;
+		this.isHorizon = false;
+		this.isRegionCrossing = false;
+		this.region = null;
+
+		this.ball1Count = ball.eventCount;
+	}
+
+	/**
+	 * Creates a new obstacle collision object
+	 * @param ball The ball
+	 * @param obstacle The obstacle
+	 * @param deltaT Time to the collision
+	 */
+	public Collision( Ball ball, Obstacle obstacle, double deltaT ) {
+		this.ball1 = ball;
+		this.ball2 = null;
+
+		this.deltaT = deltaT;
+		this.isWallCollision = false;
+		this.wallCompIndex = 0;
+		this.obstacle = obstacle;
+		this.isWrapCrossing = false;
+		this.wrapShift = 0;
+		this.imageShift = null;
+		this.isHorizon = false;
+		this.isRegionCrossing = false;
+		this.region = null;
+
+		this.ball1Count = ball.eventCount;
+	}
+
+	/**
+	 * Creates a new horizon object, marking when a broadphase stops vouching for a ball's candidates
+	 * @param ball The ball
+	 * @param deltaT Time to the horizon
+	 */
+	public Collision( Ball ball, double deltaT ) {
+		this.ball1 = ball;
+		this.ball2 = null;
+
+		this.deltaT = deltaT;
+		this.isWallCollision = false;
+		this.wallCompIndex = 0;
+		this.obstacle = null;
+		this.isWrapCrossing = false;
+		this.wrapShift = 0;
+		this.imageShift = null;
+		this.isHorizon = true;
+		this.isRegionCrossing = false;
+		this.region = null;
+
+		this.ball1Count = ball.eventCount;
+	}
+
+	/**
+	 * Creates a new force region crossing object
+	 * @param ball The ball
+	 * @param deltaT Time to the crossing
+	 * @param region The region whose face the ball's centre crosses
+	 */
+	public Collision( Ball ball, double deltaT, ForceRegion region ) {
+		this.ball1 = ball;
+		this.ball2 = null;
+
+		this.deltaT = deltaT;
+		this.isWallCollision = false;
+		this.wallCompIndex = 0;
+		this.obstacle = null;
+		this.isWrapCrossing = false;
+		this.wrapShift = 0;
+		this.imageShift = null;
+		this.isHorizon = false;
+		this.isRegionCrossing = true;
+		this.region = region;
+
+		this.ball1Count = ball.eventCount;
+	}
+
+	/**
+	 * @return Returns true if no ball in the collision has changed trajectory since it was predicted
+	 */
+	public boolean isValid() {
+		return this.ball1.eventCount == this.ball1Count && ( this.ball2 == null || this.ball2.eventCount == this.ball2Count );
 	}
 
 	/**
 	 * Performs the collision
 	 */
 	public void doCollision() {
-		if( this.isWallCollision ) {
+		if( this.isHorizon ) {
+			return;
+		}
+		else if( this.isRegionCrossing ) {
+			//The Universe sets the ball's new acceleration, as it knows every region
+			return;
+		}
+		else if( this.isWallCollision ) {
 			Physics.doWallCollision(ball1, wallCompIndex);
 		}
-		else Physics.doElasticCollision( ball1, ball2 );
+		else if( this.obstacle != null ) {
+			this.obstacle.doCollision( ball1 );
+		}
+		else if( this.isWrapCrossing ) {
+			Physics.doWrapCrossing( ball1, wallCompIndex, wrapShift );
+		}
+		else Physics.doElasticCollision( ball1, ball2, imageShift );
 	}
 
 
@@ -0,0 +1,262 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * Runs an ensemble of independent headless Universes, one per seed, concurrently on a work-stealing pool.  Each run is measured as soon as
+ * it finishes and its result handed to an aggregator, so results stream out instead of piling up, and only a bounded number of Universes
+ * are alive at any time.
+ *
+ * @author Alex Weeks
+ *
+ * @param <R> Type of the measurement taken from each run
+ */
+public class EnsembleRunner<R> {
+
+	/**
+	 * Outcome of one run
+	 *
+	 * @param <R> Type of the measurement
+	 */
+	public static class Result<R> {
+
+		public final long seed;
+
+		//False if the run used up its time budget before reaching the requested simulated time
+		public final boolean completed;
+		public final double simulatedTime;
+
+		//The measurement, or null if the run failed
+		public final R value;
+		public final Throwable error;
+
+		Result( long seed, boolean completed, double simulatedTime, R value, Throwable error ) {
+			this.seed = seed;
+			this.completed = completed;
+			this.simulatedTime = simulatedTime;
+			this.value = value;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Running mean, variance and range of a stream of values, updated in constant memory
+	 */
+	public static class Summary {
+
+		protected long count = 0;
+		protected double mean = 0;
+		protected double sumSquares = 0;
+		protected double min = Double.POSITIVE_INFINITY;
+		protected double max = Double.NEGATIVE_INFINITY;
+
+		/**
+		 * Adds a value
+		 * @param value The value
+		 */
+		public synchronized void add( double value ) {
+			this.count++;
+
+			//Welford's update, stable for long streams
+			double delta = value - this.mean;
+			this.mean += delta / this.count;
+			this.sumSquares += delta * ( value - this.mean );
+
+			this.min = Math.min( this.min, value );
+			this.max = Math.max( this.max, value );
+		}
+
+		public synchronized long getCount() {
+			return this.count;
+		}
+
+		public synchronized double getMean() {
+			return this.mean;
+		}
+
+		/**
+		 * @return Returns the sample variance
+		 */
+		public synchronized double getVariance() {
+			return ( this.count > 1 ) ? this.sumSquares / ( this.count - 1 ) : 0;
+		}
+
+		public synchronized double getMin() {
+			return this.min;
+		}
+
+		public synchronized double getMax() {
+			return this.max;
+		}
+
+		/**
+		 * @return Returns a string representation of the summary
+		 */
+		public synchronized String toString() {
+			return "n = " + this.count + "  mean = " + this.mean + "  sd = " + Math.sqrt( this.getVariance() ) + "  range = [" + this.min + ", " + this.max + "]";
+		}
+	}
+
+	//Builds the Universe for a seed.  It should be headless.
+	protected final LongFunction<Universe> factory;
+
+	//Takes the measurement from a finished Universe
+	protected final Function<Universe, R> measurement;
+
+	protected int parallelism = Runtime.getRuntime().availableProcessors();
+
+	//Most Universes alive at once
+	protected int maxInFlight = 2 * Runtime.getRuntime().availableProcessors();
+
+	//Wall clock time each slice of a run aims to take, so that the time budget is checked that often however dense the run
+	protected static final long SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos( 10 );
+
+	//Simulated time of a run's first slice.  Later slices are scaled by the wall clock time the ones before took.
+	protected double sliceTime = 0.001;
+
+	/**
+	 * Creates a new runner
+	 * @param factory Builds the headless Universe for a seed
+	 * @param measurement Takes the measurement from a finished Universe
+	 */
+	public EnsembleRunner( LongFunction<Universe> factory, Function<Universe, R> measurement ) {
+		this.factory = factory;
+		this.measurement = measurement;
+	}
+
+	/**
+	 * Sets the number of worker threads
+	 * @param parallelism Number of threads
+	 */
+	public void setParallelism( int parallelism ) {
+		if ( parallelism < 1 ) throw new IllegalArgumentException("Parallelism must be at least 1");
+
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Sets the most Universes alive at once, which bounds the memory used
+	 * @param maxInFlight Number of Universes
+	 */
+	public void setMaxInFlight( int maxInFlight ) {
+		if ( maxInFlight < 1 ) throw new IllegalArgumentException("At least one run must be allowed in flight");
+
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Runs the ensemble, returning once every run has been aggregated
+	 * @param firstSeed Seed of the first run, the rest follow consecutively
+	 * @param runs Number of runs
+	 * @param time Simulated time to run each Universe for
+	 * @param budgetMillis Wall clock time each run may take before it is cut short
+	 * @param aggregator Receives each result as its run finishes.  Calls are serialised, so it need not be thread safe.
+	 * @throws InterruptedException If interrupted while waiting for runs
+	 * @throws RuntimeException The first exception the aggregator threw, after which no more runs are started
+	 * @throws Error The first Error a run or the aggregator threw, after which no more runs are started
+	 */
+	public void run( long firstSeed, int runs, final double time, final long budgetMillis, final Consumer<Result<R>> aggregator ) throws InterruptedException {
+
+		ForkJoinPool pool = new ForkJoinPool( this.parallelism );
+		final Semaphore permits = new Semaphore( this.maxInFlight );
+
+		//Whatever escapes a task would otherwise only reach the pool's uncaught exception handler
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		try {
+			for( int k = 0; k < runs && failure.get() == null; k++ ) {
+
+				//Wait for a run to finish before starting another once the limit is reached
+				permits.acquire();
+
+				//The run just finished may have failed
+				if ( failure.get() != null ) {
+					permits.release();
+					break;
+				}
+
+				final long seed = firstSeed + k;
+
+				pool.execute( new Runnable() {
+					public void run() {
+						try {
+							Result<R> result = EnsembleRunner.this.runOne( seed, time, budgetMillis );
+
+							synchronized( aggregator ) {
+								aggregator.accept( result );
+							}
+						}
+						catch( Throwable t ) {
+							failure.compareAndSet( null, t );
+						}
+						finally {
+							permits.release();
+						}
+					}
+				});
+			}
+
+			//Every permit back means every run is done
+			permits.acquire( this.maxInFlight );
+			permits.release( this.maxInFlight );
+		}
+		finally {
+			pool.shutdown();
+			pool.awaitTermination( 1, TimeUnit.MINUTES );
+		}
+
+		Throwable t = failure.get();
+
+		if ( t instanceof RuntimeException ) throw (RuntimeException) t;
+		if ( t instanceof Error ) throw (Error) t;
+		if ( t != null ) throw new IllegalStateException( "Run failed", t );
+	}
+
+	/**
+	 * Builds, runs and measures one Universe.  An exception from the run is its result's error, an Error is thrown on.  The Universe is run
+	 * in slices sized from the rate it has run at so far, so that none takes much longer than SLICE_NANOS or runs past the deadline.
+	 * @return Returns the result of the run
+	 */
+	protected Result<R> runOne( long seed, double time, long budgetMillis ) {
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( budgetMillis );
+
+		try {
+			Universe universe = this.factory.apply( seed );
+
+			double start = universe.getTime();
+			double endTime = start + time;
+
+			double slice = this.sliceTime;
+			long now = System.nanoTime();
+
+			while( universe.getTime() < endTime && now < deadline ) {
+				double before = universe.getTime();
+
+				universe.runFor( Math.min( slice, endTime - before ) );
+
+				long after = System.nanoTime();
+
+				//Wall clock time per unit of simulated time, which the density of the run sets
+				double rate = ( after - now ) / ( universe.getTime() - before );
+
+				//At most double the slice each time, so one quick slice cannot make the next a long one
+				if ( rate > 0 ) slice = Math.min( 2 * slice, Math.min( SLICE_NANOS, deadline - after ) / rate );
+				else slice = 2 * slice;
+
+				now = after;
+			}
+
+			boolean completed = universe.getTime() >= endTime;
+
+			return new Result<R>( seed, completed, universe.getTime() - start, this.measurement.apply( universe ), null );
+		}
+		catch( RuntimeException e ) {
+			return new Result<R>( seed, false, 0, null, e );
+		}
+	}
+}
@@ -0,0 +1,466 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Remembers the recent past of a Universe, so that it can be rewound to any time still held without running it again.
+ *
+ * Every event that changes a ball is kept in a ring buffer of primitive records: its time, the balls in it, their velocities before it,
+ * and their positions, velocities and accelerations after it.  A ball added or removed one at a time, as sources and absorbing walls do,
+ * is kept as a record too.  Every so many records, and whenever balls are changed from outside, a keyframe holds the state of every ball.
+ * A past time is reconstructed from the latest keyframe before it, by laying the recorded events, additions and removals over it and
+ * moving each ball in free flight from its last event to the time.  Nothing is predicted.  The events themselves, with the velocities
+ * before and after, can be read back to see what happened.
+ *
+ * Memory is capped by a budget, half for the events and half for the keyframes.  Keyframes are spaced so that those covering the
+ * ring buffer fit in their half, and the oldest are dropped when they no longer fit or the events after them have been overwritten.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class EventHistory {
+
+	/**
+	 * An event as recorded, with the velocities of its balls just before and just after it
+	 */
+	public static class RecordedEvent {
+
+		public final double time;
+
+		//The balls, the second null for an event with a wall, obstacle or region
+		public final Ball ball1;
+		public final Ball ball2;
+
+		public final double[] preVel1;
+		public final double[] postVel1;
+		public final double[] preVel2;
+		public final double[] postVel2;
+
+		protected RecordedEvent( double time, Ball ball1, Ball ball2, double[] preVel1, double[] postVel1, double[] preVel2, double[] postVel2 ) {
+			this.time = time;
+			this.ball1 = ball1;
+			this.ball2 = ball2;
+			this.preVel1 = preVel1;
+			this.postVel1 = postVel1;
+			this.preVel2 = preVel2;
+			this.postVel2 = postVel2;
+		}
+	}
+
+	/**
+	 * The state of every ball at a moment
+	 */
+	protected static class Keyframe {
+
+		protected final double time;
+
+		//Sequence number of the first event after the keyframe
+		protected final long firstEvent;
+
+		protected final Ball[] balls;
+
+		//Positions, velocities and accelerations, indexed [ball * order + component]
+		protected final double[] pos;
+		protected final double[] vel;
+		protected final double[] accel;
+
+		protected final double[] gravity;
+
+		protected Keyframe( double time, long firstEvent, List<Ball> balls, DoubleVector gravity, int order ) {
+			this.time = time;
+			this.firstEvent = firstEvent;
+			this.balls = balls.toArray( new Ball[balls.size()] );
+			this.pos = new double[this.balls.length * order];
+			this.vel = new double[this.balls.length * order];
+			this.accel = new double[this.balls.length * order];
+			this.gravity = gravity.comps.clone();
+
+			for( int i = 0; i < this.balls.length; i++ ) {
+				System.arraycopy( this.balls[i].pos.comps, 0, this.pos, i * order, order );
+				System.arraycopy( this.balls[i].vel.comps, 0, this.vel, i * order, order );
+				System.arraycopy( this.balls[i].accel.comps, 0, this.accel, i * order, order );
+			}
+		}
+
+		/**
+		 * @return Returns roughly the memory the keyframe takes, in bytes
+		 */
+		protected long bytes() {
+			return 64 + 4L * this.balls.length + 24L * this.pos.length;
+		}
+	}
+
+	//Fewest events between keyframes taken on schedule
+	protected static final int MIN_KEYFRAME_INTERVAL = 16;
+
+	//Kinds of record
+	protected static final byte EVENT = 0;
+	protected static final byte ADDED = 1;
+	protected static final byte REMOVED = 2;
+
+	protected final int order;
+	protected final long budget;
+
+	//Event records, the event with sequence number s at index s % capacity
+	protected final int capacity;
+	protected final double[] eventTime;
+	protected final Ball[] eventBall1;
+	protected final Ball[] eventBall2;
+	protected final byte[] eventKind;
+
+	//Velocities before, positions, velocities and accelerations after, indexed [( index * 2 + ball ) * order + component]
+	protected final double[] preVel;
+	protected final double[] postPos;
+	protected final double[] postVel;
+	protected final double[] postAccel;
+
+	//Sequence number the next event will get, and of the oldest event not yet overwritten
+	protected long eventCount = 0;
+	protected long firstHeld = 0;
+
+	protected final ArrayDeque<Keyframe> keyframes = new ArrayDeque<Keyframe>();
+	protected long keyframeBytes = 0;
+
+	protected int keyframeInterval = MIN_KEYFRAME_INTERVAL;
+	protected boolean sceneChanged = true;
+
+	//Latest time the Universe has been run to
+	protected double latestTime = Double.NaN;
+
+	//Velocities captured by beforeEvent
+	private double[] preVel1;
+	private double[] preVel2;
+
+	/**
+	 * Creates an empty history
+	 * @param order Order of the position and velocity vectors
+	 * @param budget Most memory to use, in bytes
+	 */
+	public EventHistory( int order, long budget ) {
+
+		if ( budget <= 0 ) throw new IllegalArgumentException("Memory budget must be positive");
+
+		this.order = order;
+		this.budget = budget;
+
+		//Time, two references, and four vectors for each of two balls
+		long eventBytes = 8 + 8 + 8 * 8 * order;
+
+		this.capacity = (int) Math.max( 16, Math.min( Integer.MAX_VALUE / ( 2 * order ), budget / 2 / eventBytes ) );
+
+		this.eventTime = new double[this.capacity];
+		this.eventBall1 = new Ball[this.capacity];
+		this.eventBall2 = new Ball[this.capacity];
+		this.eventKind = new byte[this.capacity];
+		this.preVel = new double[this.capacity * 2 * order];
+		this.postPos = new double[this.capacity * 2 * order];
+		this.postVel = new double[this.capacity * 2 * order];
+		this.postAccel = new double[this.capacity * 2 * order];
+
+		this.preVel1 = new double[order];
+		this.preVel2 = new double[order];
+	}
+
+	/**
+	 * Captures the velocities of the balls in an event.  Must be called immediately before the event is performed.
+	 * @param c The event about to be performed
+	 */
+	public void beforeEvent( Collision c ) {
+		System.arraycopy( c.ball1.vel.comps, 0, this.preVel1, 0, this.order );
+		if ( c.ball2 != null ) System.arraycopy( c.ball2.vel.comps, 0, this.preVel2, 0, this.order );
+	}
+
+	/**
+	 * Records an event.  Must be called once the event has been performed.
+	 * @param c The event just performed
+	 */
+	public void afterEvent( Collision c ) {
+
+		int index = this.nextRecord( c.time, EVENT, c.ball1 );
+
+		this.eventBall2[index] = c.ball2;
+
+		this.store( index, 0, c.ball1, this.preVel1 );
+		if ( c.ball2 != null ) this.store( index, 1, c.ball2, this.preVel2 );
+	}
+
+	/**
+	 * Records a ball added to the Universe, so that no keyframe is needed for it
+	 * @param time The current time
+	 * @param ball The ball, up to date at the time
+	 */
+	public void ballAdded( double time, Ball ball ) {
+
+		int index = this.nextRecord( time, ADDED, ball );
+
+		this.eventBall2[index] = null;
+		this.store( index, 0, ball, ball.vel.comps );
+	}
+
+	/**
+	 * Records a ball removed from the Universe, so that no keyframe is needed for it
+	 * @param time The current time
+	 * @param ball The ball
+	 */
+	public void ballRemoved( double time, Ball ball ) {
+
+		int index = this.nextRecord( time, REMOVED, ball );
+
+		this.eventBall2[index] = null;
+	}
+
+	/**
+	 * Takes the next record in the ring buffer, overwriting the oldest once it is full
+	 * @return Returns the index of the record
+	 */
+	private int nextRecord( double time, byte kind, Ball ball ) {
+
+		int index = (int) ( this.eventCount % this.capacity );
+
+		this.eventTime[index] = time;
+		this.eventKind[index] = kind;
+		this.eventBall1[index] = ball;
+
+		this.eventCount++;
+		this.firstHeld = Math.max( this.firstHeld, this.eventCount - this.capacity );
+
+		//Drop keyframes whose events have started to be overwritten, as long as a later one remains
+		while( this.keyframes.size() > 1 && !this.isComplete( this.keyframes.peekFirst() ) ) {
+			this.keyframeBytes -= this.keyframes.pollFirst().bytes();
+		}
+
+		return index;
+	}
+
+	/**
+	 * Copies the state of one ball of an event into its record
+	 */
+	private void store( int index, int which, Ball ball, double[] vel ) {
+
+		int offset = ( index * 2 + which ) * this.order;
+
+		System.arraycopy( vel, 0, this.preVel, offset, this.order );
+		System.arraycopy( ball.pos.comps, 0, this.postPos, offset, this.order );
+		System.arraycopy( ball.vel.comps, 0, this.postVel, offset, this.order );
+		System.arraycopy( ball.accel.comps, 0, this.postAccel, offset, this.order );
+	}
+
+	/**
+	 * Notes that balls have been changed other than by an event, or added or removed without being recorded, so a keyframe is needed
+	 * before the next event
+	 */
+	public void sceneChanged() {
+		this.sceneChanged = true;
+	}
+
+	/**
+	 * @return Returns true if a keyframe should be taken now
+	 */
+	public boolean isKeyframeDue() {
+		return this.sceneChanged || this.keyframes.isEmpty() || this.eventCount - this.keyframes.peekLast().firstEvent >= this.keyframeInterval;
+	}
+
+	/**
+	 * Takes a keyframe
+	 * @param time The current time
+	 * @param balls Every ball, up to date at the time
+	 * @param gravity Acceleration (gravity) vector
+	 */
+	public void addKeyframe( double time, List<Ball> balls, DoubleVector gravity ) {
+
+		Keyframe keyframe = new Keyframe( time, this.eventCount, balls, gravity, this.order );
+
+		this.keyframes.addLast( keyframe );
+		this.keyframeBytes += keyframe.bytes();
+
+		//Space keyframes so that enough to cover the whole ring buffer fit in half the budget
+		this.keyframeInterval = (int) Math.max( MIN_KEYFRAME_INTERVAL, Math.min( this.capacity, this.capacity * keyframe.bytes() / Math.max( 1, this.budget / 2 ) + 1 ) );
+
+		while( this.keyframes.size() > 1 && ( this.keyframeBytes > this.budget / 2 || !this.isComplete( this.keyframes.peekFirst() ) ) ) {
+			this.keyframeBytes -= this.keyframes.pollFirst().bytes();
+		}
+
+		this.sceneChanged = false;
+
+		this.markTime( time );
+	}
+
+	/**
+	 * Notes that the Universe has been run up to a time
+	 * @param time The time
+	 */
+	public void markTime( double time ) {
+		if ( !( time <= this.latestTime ) ) this.latestTime = time;
+	}
+
+	/**
+	 * @return Returns true if every event since a keyframe is still held
+	 */
+	protected boolean isComplete( Keyframe keyframe ) {
+		return keyframe.firstEvent >= this.firstHeld;
+	}
+
+	/**
+	 * @return Returns the earliest time that can be rewound to, NaN if none can
+	 */
+	public double getEarliestTime() {
+
+		for( Keyframe keyframe : this.keyframes ) {
+			if ( this.isComplete( keyframe ) ) return keyframe.time;
+		}
+
+		return Double.NaN;
+	}
+
+	/**
+	 * @return Returns the latest time that can be rewound to, NaN if none can
+	 */
+	public double getLatestTime() {
+		return this.keyframes.isEmpty() ? Double.NaN : this.latestTime;
+	}
+
+	/**
+	 * @return Returns roughly the memory in use, in bytes
+	 */
+	public long getMemoryUsed() {
+		return this.keyframeBytes + (long) this.capacity * ( 8 + 8 + 8 * 8 * this.order );
+	}
+
+	/**
+	 * Reads back the events still held in a span of time
+	 * @param from Earliest time
+	 * @param to Latest time
+	 * @return Returns the events, oldest first.  Balls added and removed are not included.
+	 */
+	public List<RecordedEvent> getEvents( double from, double to ) {
+
+		ArrayList<RecordedEvent> events = new ArrayList<RecordedEvent>();
+
+		for( long s = this.firstHeld; s < this.eventCount; s++ ) {
+			int index = (int) ( s % this.capacity );
+
+			if ( this.eventTime[index] > to ) break;
+			if ( this.eventTime[index] < from || this.eventKind[index] != EVENT ) continue;
+
+			Ball ball2 = this.eventBall2[index];
+
+			int offset1 = index * 2 * this.order;
+			int offset2 = offset1 + this.order;
+
+			double[] preVel2 = ( ball2 == null ) ? null : Arrays.copyOfRange( this.preVel, offset2, offset2 + this.order );
+			double[] postVel2 = ( ball2 == null ) ? null : Arrays.copyOfRange( this.postVel, offset2, offset2 + this.order );
+
+			events.add( new RecordedEvent( this.eventTime[index], this.eventBall1[index], ball2,
+					Arrays.copyOfRange( this.preVel, offset1, offset1 + this.order ), Arrays.copyOfRange( this.postVel, offset1, offset1 + this.order ),
+					preVel2, postVel2 ) );
+		}
+
+		return events;
+	}
+
+	/**
+	 * Puts every ball back into the state it was in at a past time, moving each in free flight under the acceleration it had then
+	 * @param time The time, between getEarliestTime and getLatestTime
+	 * @param balls Filled with the balls present at the time, in the order they were added
+	 * @return Returns the keyframe the state was rebuilt from, whose gravity was in force
+	 */
+	protected Keyframe restore( double time, List<Ball> balls ) {
+
+		if ( !( time >= this.getEarliestTime() && time <= this.getLatestTime() ) ) throw new IllegalArgumentException("Time is outside the history kept");
+
+		//The latest complete keyframe at or before the time
+		Keyframe keyframe = null;
+		for( Keyframe candidate : this.keyframes ) {
+			if ( candidate.time > time ) break;
+			if ( this.isComplete( candidate ) ) keyframe = candidate;
+		}
+
+		int order = this.order;
+
+		LinkedHashSet<Ball> present = new LinkedHashSet<Ball>();
+
+		for( int i = 0; i < keyframe.balls.length; i++ ) {
+			Ball ball = keyframe.balls[i];
+
+			System.arraycopy( keyframe.pos, i * order, ball.pos.comps, 0, order );
+			System.arraycopy( keyframe.vel, i * order, ball.vel.comps, 0, order );
+			System.arraycopy( keyframe.accel, i * order, ball.accel.comps, 0, order );
+			ball.time = keyframe.time;
+
+			present.add( ball );
+		}
+
+		for( long s = keyframe.firstEvent; s < this.eventCount; s++ ) {
+			int index = (int) ( s % this.capacity );
+
+			if ( this.eventTime[index] > time ) break;
+
+			if ( this.eventKind[index] == REMOVED ) {
+				present.remove( this.eventBall1[index] );
+				continue;
+			}
+
+			this.load( index, 0, this.eventBall1[index] );
+			if ( this.eventBall2[index] != null ) this.load( index, 1, this.eventBall2[index] );
+
+			if ( this.eventKind[index] == ADDED ) present.add( this.eventBall1[index] );
+		}
+
+		for( Ball ball : present ) {
+			double deltaT = time - ball.time;
+
+			for( int n = 0; n < order; n++ ) {
+				double a = ball.accel.comps[n];
+
+				ball.pos.comps[n] += ball.vel.comps[n] * deltaT + a * deltaT * deltaT / 2;
+				ball.vel.comps[n] += a * deltaT;
+			}
+
+			ball.time = time;
+		}
+
+		balls.clear();
+		balls.addAll( present );
+
+		return keyframe;
+	}
+
+	/**
+	 * Sets one ball of an event to its state just after it
+	 */
+	private void load( int index, int which, Ball ball ) {
+
+		int offset = ( index * 2 + which ) * this.order;
+
+		System.arraycopy( this.postPos, offset, ball.pos.comps, 0, this.order );
+		System.arraycopy( this.postVel, offset, ball.vel.comps, 0, this.order );
+		System.arraycopy( this.postAccel, offset, ball.accel.comps, 0, this.order );
+		ball.time = this.eventTime[index];
+	}
+
+	/**
+	 * Forgets everything after a time, once the Universe has been rewound to it and is to run on from there
+	 * @param time The time
+	 */
+	public void truncate( double time ) {
+
+		while( this.eventCount > this.firstHeld && this.eventTime[(int) ( ( this.eventCount - 1 ) % this.capacity )] > time ) {
+			this.eventCount--;
+		}
+
+		Iterator<Keyframe> later = this.keyframes.descendingIterator();
+		while( later.hasNext() ) {
+			Keyframe keyframe = later.next();
+
+			if ( keyframe.time <= time ) break;
+
+			this.keyframeBytes -= keyframe.bytes();
+			later.remove();
+		}
+
+		this.latestTime = time;
+	}
+}
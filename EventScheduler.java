@@ -0,0 +1,397 @@
+import java.util.Arrays;
+
+/**
+ * Holds pending collisions and hands them back in order of absolute time.
+ *
+ * Collisions are not kept as objects.  Each is a record spread across primitive columns: its absolute time, the ball or balls and
+ * obstacle or force region involved, the event counts the balls had when it was predicted, and its kind and axis packed into one int.
+ * Records are recycled through a free list and a pending collision takes a few dozen bytes.  The Universe adds each kind of event
+ * through its own entry point, which writes straight into a record; add copies a Collision for callers that already have one.  Subclasses
+ * decide only the order records are taken in, working with record indices.
+ *
+ * Collisions go stale when a ball in them changes trajectory, but schedulers do not look for stale entries when they are added or
+ * taken: the Universe discards them as they come up, and calls purge once they pile up.
+ *
+ * @author Alex Weeks
+ *
+ */
+public abstract class EventScheduler {
+
+	//Kinds of record, held in the low bits of the flags with the axis above them
+	protected static final int PAIR = 0;
+	protected static final int WALL = 1;
+	protected static final int WRAP = 2;
+	protected static final int OBSTACLE = 3;
+	protected static final int HORIZON = 4;
+	protected static final int REGION = 5;
+
+	protected static final int KIND_BITS = 3;
+	protected static final int KIND_MASK = ( 1 << KIND_BITS ) - 1;
+
+	//Record columns
+	protected double[] time;
+	protected double[] wrapShift;
+	protected Ball[] ball1;
+	protected Object[] other;
+	protected int[] ball1Count;
+	protected int[] ball2Count;
+	protected int[] flags;
+
+	//Records not in use
+	protected int[] free;
+	protected int freeCount;
+
+	protected int size = 0;
+
+	//Returned by peek and poll, refilled from a record each time
+	protected final Collision view = new Collision();
+
+	/**
+	 * Creates an empty scheduler
+	 */
+	protected EventScheduler() {
+		this.allocateRecords( 64 );
+	}
+
+	/**
+	 * Adds a collision, whose absolute time has been set.  The collision is copied, so the object may be reused.
+	 * @param collision The collision
+	 */
+	public void add( Collision collision ) {
+
+		if ( collision.isHorizon ) this.addHorizon( collision.ball1, collision.time, collision.deltaT );
+		else if ( collision.isWallCollision ) this.addWall( collision.ball1, collision.time, collision.deltaT, collision.wallCompIndex );
+		else if ( collision.isWrapCrossing ) this.addWrap( collision.ball1, collision.time, collision.deltaT, collision.wallCompIndex, collision.wrapShift );
+		else if ( collision.obstacle != null ) this.addObstacle( collision.ball1, collision.obstacle, collision.time, collision.deltaT );
+		else if ( collision.isRegionCrossing ) this.addRegion( collision.ball1, collision.region, collision.time, collision.deltaT );
+		else this.addPair( collision.ball1, collision.ball2, collision.time, collision.deltaT );
+	}
+
+	/**
+	 * Adds a collision between two balls
+	 * @param ball1 The first ball
+	 * @param ball2 The second ball
+	 * @param time Absolute time of the collision
+	 * @param deltaT Time from now to the collision
+	 */
+	public void addPair( Ball ball1, Ball ball2, double time, double deltaT ) {
+
+		int id = this.newRecord( ball1, time );
+
+		this.flags[id] = PAIR;
+		this.other[id] = ball2;
+		this.ball2Count[id] = ball2.eventCount;
+
+		this.sample( deltaT );
+		this.insert( id );
+	}
+
+	/**
+	 * Adds a collision between a ball and a wall
+	 * @param ball The ball
+	 * @param time Absolute time of the collision
+	 * @param deltaT Time from now to the collision
+	 * @param compIndex Axis the wall is across
+	 */
+	public void addWall( Ball ball, double time, double deltaT, int compIndex ) {
+
+		int id = this.newRecord( ball, time );
+
+		this.flags[id] = WALL | ( compIndex << KIND_BITS );
+
+		this.sample( deltaT );
+		this.insert( id );
+	}
+
+	/**
+	 * Adds a ball's crossing of a periodic boundary
+	 * @param ball The ball
+	 * @param time Absolute time of the crossing
+	 * @param deltaT Time from now to the crossing
+	 * @param compIndex Axis the boundary is across
+	 * @param shift Distance the ball is moved along compIndex when it crosses
+	 */
+	public void addWrap( Ball ball, double time, double deltaT, int compIndex, double shift ) {
+
+		int id = this.newRecord( ball, time );
+
+		this.flags[id] = WRAP | ( compIndex << KIND_BITS );
+		this.wrapShift[id] = shift;
+
+		this.sample( deltaT );
+		this.insert( id );
+	}
+
+	/**
+	 * Adds a collision between a ball and an obstacle
+	 * @param ball The ball
+	 * @param obstacle The obstacle
+	 * @param time Absolute time of the collision
+	 * @param deltaT Time from now to the collision
+	 */
+	public void addObstacle( Ball ball, Obstacle obstacle, double time, double deltaT ) {
+
+		int id = this.newRecord( ball, time );
+
+		this.flags[id] = OBSTACLE;
+		this.other[id] = obstacle;
+
+		this.sample( deltaT );
+		this.insert( id );
+	}
+
+	/**
+	 * Adds a ball's crossing of the edge of a force region
+	 * @param ball The ball
+	 * @param region The region
+	 * @param time Absolute time of the crossing
+	 * @param deltaT Time from now to the crossing
+	 */
+	public void addRegion( Ball ball, ForceRegion region, double time, double deltaT ) {
+
+		int id = this.newRecord( ball, time );
+
+		this.flags[id] = REGION;
+		this.other[id] = region;
+
+		this.sample( deltaT );
+		this.insert( id );
+	}
+
+	/**
+	 * Adds a horizon, when a ball is to be re-predicted
+	 * @param ball The ball
+	 * @param time Absolute time of the horizon
+	 * @param deltaT Time from now to the horizon
+	 */
+	public void addHorizon( Ball ball, double time, double deltaT ) {
+
+		int id = this.newRecord( ball, time );
+
+		this.flags[id] = HORIZON;
+
+		this.sample( deltaT );
+		this.insert( id );
+	}
+
+	/**
+	 * @return Returns the earliest collision without removing it, or null if there are none.  The object is only valid until the scheduler is next used.
+	 */
+	public Collision peek() {
+
+		int id = this.front();
+
+		return ( id < 0 ) ? null : this.fill( id );
+	}
+
+	/**
+	 * Removes the earliest collision
+	 * @return Returns the collision, or null if there are none.  The object is only valid until the scheduler is next used.
+	 */
+	public Collision poll() {
+
+		int id = this.removeFront();
+
+		if ( id < 0 ) return null;
+
+		this.fill( id );
+		this.release( id );
+
+		return this.view;
+	}
+
+	/**
+	 * @return Returns the number of collisions held, stale ones included
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Removes every collision.  The record columns are kept for the collisions that follow, only emptied.
+	 */
+	public void clear() {
+		this.reset();
+
+		//Nothing is kept alive by the records let go
+		Arrays.fill( this.ball1, null );
+		Arrays.fill( this.other, null );
+
+		this.freeAll();
+		this.size = 0;
+	}
+
+	/**
+	 * Removes every stale collision
+	 */
+	public void purge() {
+
+		int[] ids = new int[this.size];
+		int count = this.drain( ids );
+
+		for( int k = 0; k < count; k++ ) {
+			if ( this.isValid( ids[k] ) ) this.insert( ids[k] );
+			else this.release( ids[k] );
+		}
+	}
+
+	/**
+	 * @return Returns true if neither ball in a record has changed trajectory since it was predicted
+	 */
+	protected boolean isValid( int id ) {
+		return this.ball1[id].eventCount == this.ball1Count[id] && ( ( this.flags[id] & KIND_MASK ) != PAIR || ( (Ball) this.other[id] ).eventCount == this.ball2Count[id] );
+	}
+
+	/**
+	 * Takes a free record and sets its time and first ball
+	 * @return Returns the record
+	 */
+	protected int newRecord( Ball ball, double time ) {
+
+		if ( this.freeCount == 0 ) this.growRecords();
+
+		int id = this.free[--this.freeCount];
+
+		this.time[id] = time;
+		this.ball1[id] = ball;
+		this.ball1Count[id] = ball.eventCount;
+
+		this.size++;
+
+		return id;
+	}
+
+	/**
+	 * Returns a record to the free list
+	 */
+	protected void release( int id ) {
+
+		//Let go of the balls, obstacle and region so nothing is kept alive by a dead record
+		this.ball1[id] = null;
+		this.other[id] = null;
+
+		this.free[this.freeCount++] = id;
+		this.size--;
+	}
+
+	/**
+	 * Copies a record into the view
+	 * @return Returns the view
+	 */
+	protected Collision fill( int id ) {
+
+		Collision c = this.view;
+
+		int kind = this.flags[id] & KIND_MASK;
+
+		c.time = this.time[id];
+		c.deltaT = 0;
+		c.ball1 = this.ball1[id];
+		c.ball2 = ( kind == PAIR ) ? (Ball) this.other[id] : null;
+		c.obstacle = ( kind == OBSTACLE ) ? (Obstacle) this.other[id] : null;
+		c.isWallCollision = ( kind == WALL );
+		c.isWrapCrossing = ( kind == WRAP );
+		c.isHorizon = ( kind == HORIZON );
+		c.isRegionCrossing = ( kind == REGION );
+		c.region = ( kind == REGION ) ? (ForceRegion) this.other[id] : null;
+		c.wallCompIndex = this.flags[id] >>> KIND_BITS;
+		c.wrapShift = this.wrapShift[id];
+		c.imageShift = null;
+		c.ball1Count = this.ball1Count[id];
+		c.ball2Count = this.ball2Count[id];
+
+		return c;
+	}
+
+	/**
+	 * Creates empty record columns, every record free
+	 */
+	protected void allocateRecords( int capacity ) {
+
+		this.time = new double[capacity];
+		this.wrapShift = new double[capacity];
+		this.ball1 = new Ball[capacity];
+		this.other = new Object[capacity];
+		this.ball1Count = new int[capacity];
+		this.ball2Count = new int[capacity];
+		this.flags = new int[capacity];
+
+		this.free = new int[capacity];
+		this.freeAll();
+	}
+
+	/**
+	 * Puts every record on the free list
+	 */
+	protected void freeAll() {
+
+		int capacity = this.free.length;
+
+		this.freeCount = capacity;
+
+		//Lowest indices handed out first
+		for( int k = 0; k < capacity; k++ ) {
+			this.free[k] = capacity - 1 - k;
+		}
+	}
+
+	/**
+	 * Doubles the record columns, called when every record is in use
+	 */
+	protected void growRecords() {
+
+		int old = this.time.length;
+		int capacity = 2 * old;
+
+		this.time = Arrays.copyOf( this.time, capacity );
+		this.wrapShift = Arrays.copyOf( this.wrapShift, capacity );
+		this.ball1 = Arrays.copyOf( this.ball1, capacity );
+		this.other = Arrays.copyOf( this.other, capacity );
+		this.ball1Count = Arrays.copyOf( this.ball1Count, capacity );
+		this.ball2Count = Arrays.copyOf( this.ball2Count, capacity );
+		this.flags = Arrays.copyOf( this.flags, capacity );
+
+		this.free = new int[capacity];
+		this.freeCount = 0;
+
+		for( int k = capacity - 1; k >= old; k-- ) {
+			this.free[this.freeCount++] = k;
+		}
+	}
+
+	/**
+	 * Notes the time ahead a collision was predicted, for schedulers that tune themselves to it
+	 * @param deltaT The time
+	 */
+	protected void sample( double deltaT ) {
+	}
+
+	/**
+	 * Puts a record into order
+	 * @param id The record
+	 */
+	protected abstract void insert( int id );
+
+	/**
+	 * @return Returns the earliest record without removing it, or -1 if there are none
+	 */
+	protected abstract int front();
+
+	/**
+	 * Takes the earliest record out of order
+	 * @return Returns the record, or -1 if there are none
+	 */
+	protected abstract int removeFront();
+
+	/**
+	 * Takes every record out of order
+	 * @param ids Filled with the records
+	 * @return Returns the number of records
+	 */
+	protected abstract int drain( int[] ids );
+
+	/**
+	 * Forgets the order of every record
+	 */
+	protected abstract void reset();
+}
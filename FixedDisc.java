@@ -0,0 +1,51 @@
+import java.awt.Color;
+import java.awt.Graphics;
+
+/**
+ * A disc fixed in place
+ *
+ * @author Alex Weeks
+ *
+ */
+public class FixedDisc extends Obstacle {
+
+	protected final double[] centre;
+	protected final double radius;
+
+	/**
+	 *
+	 * @param centre Centre of the disc
+	 * @param radius Radius of the disc
+	 */
+	public FixedDisc( DoubleVector centre, double radius ) {
+		this.centre = centre.comps.clone();
+		this.radius = radius;
+
+		this.lowerCorner = new double[this.centre.length];
+		this.upperCorner = new double[this.centre.length];
+
+		for( int n = 0; n < this.centre.length; n++ ) {
+			this.lowerCorner[n] = this.centre[n] - radius;
+			this.upperCorner[n] = this.centre[n] + radius;
+		}
+	}
+
+	public double collisionTime( Ball ball, DoubleVector accelVec ) {
+		return Obstacle.pointCollisionTime( ball, this.centre, this.radius + ball.radius, accelVec );
+	}
+
+	public void doCollision( Ball ball ) {
+		Obstacle.reflectFrom( ball, this.centre );
+	}
+
+	public double distanceTo( DoubleVector point ) {
+		return Math.max( 0, point.subtractComps( this.centre ).magnitude() - this.radius );
+	}
+
+	public void paint( Graphics g ) {
+		g.setColor( Color.DARK_GRAY );
+
+		g.fillOval( (int) ( this.centre[0] - this.radius ), (int) ( this.centre[1] - this.radius ), (int) ( 2 * this.radius ) + 1, (int) ( 2 * this.radius ) + 1 );
+	}
+
+}
@@ -0,0 +1,239 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events for the simulation, so that its steps, collisions, predictions, repaints and scene changes show up in a
+ * recording alongside the JVM's own allocation, GC and CPU samples.
+ *
+ * Collision and prediction events happen millions of times a second, so they are disabled unless a recording enables them, and even
+ * then only one in every Universe.setFlightSampling is recorded.  Every event can be given a threshold in the recording settings, for
+ * example balls.Collision#threshold=20 us, so that only slow ones are kept.  While an event is disabled it costs a check of a flag.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class FlightEvents {
+
+	/**
+	 * A call to Universe.runFor
+	 */
+	@Name( "balls.Step" )
+	@Label( "Step" )
+	@Category( "Balls" )
+	@Description( "Runs the Universe forward by a step" )
+	@StackTrace( false )
+	@Threshold( "0 ms" )
+	public static class StepEvent extends Event {
+
+		@Label( "Step Length" )
+		@Description( "Simulated time run" )
+		public double time;
+
+		@Label( "Events" )
+		@Description( "Collisions, crossings and horizons taken from the queue" )
+		public int events;
+
+		@Label( "Balls" )
+		public int balls;
+
+		@Label( "Queued" )
+		@Description( "Pending collisions at the end of the step, stale ones included" )
+		public int queued;
+
+		@Label( "Soft Sphere" )
+		@Description( "True if the soft sphere engine ran the step" )
+		public boolean softSphere;
+
+		/**
+		 * Ends the event and records it, if it is enabled and over its threshold
+		 */
+		public void finish( double time, int events, int balls, int queued, boolean softSphere ) {
+
+			this.end();
+
+			if ( !this.shouldCommit() ) return;
+
+			this.time = time;
+			this.events = events;
+			this.balls = balls;
+			this.queued = queued;
+			this.softSphere = softSphere;
+
+			this.commit();
+		}
+	}
+
+	/**
+	 * A collision being performed
+	 */
+	@Name( "balls.Collision" )
+	@Label( "Collision" )
+	@Category( "Balls" )
+	@Description( "Resolves a collision of a ball with another ball, a wall or an obstacle, or a periodic boundary or force region crossing" )
+	@StackTrace( false )
+	@Enabled( false )
+	public static class CollisionEvent extends Event {
+
+		@Label( "Type" )
+		public String type;
+
+		@Label( "Simulated Time" )
+		public double time;
+
+		@Label( "Delta T" )
+		@Description( "Simulated time since the previous event.  Runs of tiny values are collision storms." )
+		public double deltaT;
+
+		/**
+		 * @return Returns a started event, or null if collision events are disabled
+		 */
+		public static CollisionEvent start() {
+
+			CollisionEvent event = new CollisionEvent();
+
+			if ( !event.isEnabled() ) return null;
+
+			event.begin();
+
+			return event;
+		}
+
+		/**
+		 * Ends the event and records it, if it is over its threshold
+		 * @param collision The collision performed
+		 * @param deltaT Simulated time since the previous event
+		 */
+		public void finish( Collision collision, double deltaT ) {
+
+			this.end();
+
+			if ( !this.shouldCommit() ) return;
+
+			if ( collision.isWallCollision ) this.type = "wall";
+			else if ( collision.obstacle != null ) this.type = "obstacle";
+			else if ( collision.isWrapCrossing ) this.type = "wrap";
+			else if ( collision.isRegionCrossing ) this.type = "region";
+			else this.type = "pair";
+
+			this.time = collision.time;
+			this.deltaT = deltaT;
+
+			this.commit();
+		}
+	}
+
+	/**
+	 * A batch of collisions being predicted
+	 */
+	@Name( "balls.Prediction" )
+	@Label( "Prediction" )
+	@Category( "Balls" )
+	@Description( "Predicts and queues the collisions of one ball, or of every ball when they are all recomputed" )
+	@StackTrace( false )
+	@Enabled( false )
+	public static class PredictionEvent extends Event {
+
+		@Label( "Balls" )
+		@Description( "Balls whose collisions were predicted" )
+		public int balls;
+
+		@Label( "Candidates" )
+		@Description( "Pairs the broadphase passed on to be solved" )
+		public int candidates;
+
+		@Label( "Horizon" )
+		@Description( "Simulated time ahead collisions were solved for" )
+		public double horizon;
+
+		/**
+		 * @return Returns a started event, or null if prediction events are disabled
+		 */
+		public static PredictionEvent start() {
+
+			PredictionEvent event = new PredictionEvent();
+
+			if ( !event.isEnabled() ) return null;
+
+			event.begin();
+
+			return event;
+		}
+
+		/**
+		 * Ends the event and records it, if it is over its threshold
+		 */
+		public void finish( int balls, int candidates, double horizon ) {
+
+			this.end();
+
+			if ( !this.shouldCommit() ) return;
+
+			this.balls = balls;
+			this.candidates = candidates;
+			this.horizon = horizon;
+
+			this.commit();
+		}
+	}
+
+	/**
+	 * A repaint of the Universe, and the snapshot published with it
+	 */
+	@Name( "balls.Refresh" )
+	@Label( "Refresh" )
+	@Category( "Balls" )
+	@Description( "Publishes a snapshot and repaints the Universe" )
+	@StackTrace( false )
+	@Threshold( "0 ms" )
+	public static class RefreshEvent extends Event {
+
+		@Label( "Balls" )
+		public int balls;
+
+		@Label( "Headless" )
+		public boolean headless;
+	}
+
+	/**
+	 * Balls being added, removed or changed by hand, or every collision being recomputed
+	 */
+	@Name( "balls.SceneChange" )
+	@Label( "Scene Change" )
+	@Category( "Balls" )
+	@Description( "Changes the balls in the Universe from outside the simulation" )
+	@Threshold( "0 ms" )
+	public static class SceneEvent extends Event {
+
+		@Label( "Change" )
+		public String change;
+
+		@Label( "Balls Changed" )
+		public int changed;
+
+		@Label( "Balls" )
+		@Description( "Balls in the Universe afterwards" )
+		public int balls;
+
+		/**
+		 * Ends the event and records it, if it is enabled and over its threshold
+		 */
+		public void finish( String change, int changed, int balls ) {
+
+			this.end();
+
+			if ( !this.shouldCommit() ) return;
+
+			this.change = change;
+			this.changed = changed;
+			this.balls = balls;
+
+			this.commit();
+		}
+	}
+}
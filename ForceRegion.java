@@ -0,0 +1,177 @@
+import java.awt.Color;
+import java.awt.Graphics;
+
+/**
+ * A box in which balls feel a constant acceleration on top of gravity: one the same for every ball, as in a zone of different gravity
+ * or a conveyor pushing balls along, plus a field scaled by each ball's charge over its mass, as an electric field would be.  Where
+ * regions overlap their accelerations add.
+ *
+ * A ball is in a region while its centre is, so its acceleration only changes as its centre crosses a face.  Between crossings every
+ * ball still flies on a parabola, and the Universe predicts each crossing exactly as an event of its own.  The crossings are found
+ * axis by axis, one for each face plane the centre passes into or out of the region's extent along that axis, so a ball passing
+ * beside a region has an event where it passes the plane of a face even though its acceleration does not change there.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class ForceRegion {
+
+	//Corners of the region.  A centre on a face counts as in or out by the way it is heading.
+	protected final double[] lowerCorner;
+	protected final double[] upperCorner;
+
+	//Acceleration of every ball in the region, and acceleration per unit of charge over mass
+	protected final double[] accel;
+	protected final double[] field;
+
+	/**
+	 * Creates a region accelerating every ball the same
+	 * @param lowerCorner Lower corner of the region
+	 * @param upperCorner Upper corner of the region
+	 * @param accel Acceleration of the balls in the region, on top of gravity
+	 */
+	public ForceRegion( DoubleVector lowerCorner, DoubleVector upperCorner, DoubleVector accel ) {
+		this( lowerCorner, upperCorner, accel, new DoubleVector( new double[lowerCorner.order] ) );
+	}
+
+	/**
+	 * Creates a region with a field acting on charged balls
+	 * @param lowerCorner Lower corner of the region
+	 * @param upperCorner Upper corner of the region
+	 * @param accel Acceleration of every ball in the region, on top of gravity
+	 * @param field Field of the region, accelerating a ball by its charge over its mass times the field
+	 */
+	public ForceRegion( DoubleVector lowerCorner, DoubleVector upperCorner, DoubleVector accel, DoubleVector field ) {
+
+		int order = lowerCorner.order;
+
+		if ( upperCorner.order != order || accel.order != order || field.order != order ) throw new IllegalArgumentException("Corners, acceleration and field must have the same order");
+
+		for( int n = 0; n < order; n++ ) {
+			if ( !( lowerCorner.comps[n] < upperCorner.comps[n] ) ) throw new IllegalArgumentException("Lower corner must be below upper corner");
+		}
+
+		this.lowerCorner = lowerCorner.comps.clone();
+		this.upperCorner = upperCorner.comps.clone();
+		this.accel = accel.comps.clone();
+		this.field = field.comps.clone();
+	}
+
+	/**
+	 * @return Returns the order of the region
+	 */
+	public int getOrder() {
+		return this.lowerCorner.length;
+	}
+
+	/**
+	 * Adds the acceleration the region gives a ball to a vector
+	 * @param charge Charge of the ball
+	 * @param mass Mass of the ball
+	 * @param accel Components of the acceleration, added to in place
+	 */
+	public void addAcceleration( double charge, double mass, double[] accel ) {
+
+		double perField = charge / mass;
+
+		for( int n = 0; n < accel.length; n++ ) {
+			accel[n] += this.accel[n] + perField * this.field[n];
+		}
+	}
+
+	/**
+	 * @param ball The ball, up to date
+	 * @return Returns true if the ball's centre is in the region
+	 */
+	public boolean contains( Ball ball ) {
+
+		for( int n = 0; n < this.lowerCorner.length; n++ ) {
+			if ( this.side( ball, n ) != 0 ) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param point The point
+	 * @return Returns true if the point is in the region, counting the lower faces in and the upper faces out
+	 */
+	public boolean contains( double[] point ) {
+
+		for( int n = 0; n < this.lowerCorner.length; n++ ) {
+			if ( point[n] < this.lowerCorner[n] || point[n] >= this.upperCorner[n] ) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Finds where a ball's centre is along one axis, relative to the region's extent along it.  Rounding leaves a ball that has just
+	 * crossed a face a hair short of it, so the centre is taken a moment ahead, shorter than any crossing the Universe would predict.
+	 * A centre exactly on a face counts as on the side it is heading for.
+	 * @param ball The ball, up to date
+	 * @param n The axis
+	 * @return Returns -1 below the region's extent, 0 within it and 1 above it
+	 */
+	protected int side( Ball ball, int n ) {
+
+		double v = ball.vel.comps[n];
+		double a = ball.accel.comps[n];
+
+		double t = 2 * Physics.DOUBLE_THRESHOLD;
+		double p = ball.pos.comps[n] + v * t + a * t * t / 2;
+
+		double heading = ( v != 0 ) ? v : a;
+
+		if ( p < this.lowerCorner[n] || ( p == this.lowerCorner[n] && heading < 0 ) ) return -1;
+		if ( p > this.upperCorner[n] || ( p == this.upperCorner[n] && heading >= 0 ) ) return 1;
+
+		return 0;
+	}
+
+	/**
+	 * Finds when a ball's centre next crosses into or out of the region's extent along any axis, flying under the acceleration it has now
+	 * @param ball The ball, up to date
+	 * @return Returns the time until the crossing, infinite if there is none
+	 */
+	public double crossingTime( Ball ball ) {
+
+		double soonest = Double.POSITIVE_INFINITY;
+
+		for( int n = 0; n < this.lowerCorner.length; n++ ) {
+			double p = ball.pos.comps[n];
+			double v = ball.vel.comps[n];
+			double a = ball.accel.comps[n];
+
+			double lower = this.lowerCorner[n];
+			double upper = this.upperCorner[n];
+
+			//Each is a gap closing to a face plane, from the side the ball is judged to be on
+			switch( this.side( ball, n ) ) {
+			case -1:
+				soonest = Math.min( soonest, Physics.closingTime( lower - p, -v, -a ) );
+				break;
+
+			case 1:
+				soonest = Math.min( soonest, Physics.closingTime( p - upper, v, a ) );
+				break;
+
+			default:
+				soonest = Math.min( soonest, Physics.closingTime( p - lower, v, a ) );
+				soonest = Math.min( soonest, Physics.closingTime( upper - p, -v, -a ) );
+			}
+		}
+
+		return soonest;
+	}
+
+	/**
+	 * Outlines the region in the plane of the first two axes
+	 * @param g Graphics of the Universe
+	 */
+	public void paint( Graphics g ) {
+		g.setColor( Color.GRAY );
+
+		g.drawRect( (int) this.lowerCorner[0], (int) this.lowerCorner[1], (int) ( this.upperCorner[0] - this.lowerCorner[0] ), (int) ( this.upperCorner[1] - this.lowerCorner[1] ) );
+	}
+}
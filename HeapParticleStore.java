@@ -0,0 +1,198 @@
+import java.util.Arrays;
+
+/**
+ * A particle store in ordinary Java arrays, growing as particles are added
+ *
+ * @author Alex Weeks
+ *
+ */
+public class HeapParticleStore extends ParticleStore {
+
+	//Positions, velocities and accelerations indexed [component][particle]
+	protected double[][] pos;
+	protected double[][] vel;
+	protected double[][] accel;
+
+	protected double[] mass;
+	protected double[] radius;
+	protected double[] charge;
+	protected int[] eventCount;
+
+	protected int size = 0;
+	protected double time = 0;
+
+	//The scene the particles belong to
+	protected double[] gravity;
+	protected double[] lowerBounds;
+	protected double[] upperBounds;
+	protected boolean periodic = false;
+
+	/**
+	 * Creates a new, empty store
+	 * @param order Order of the position and velocity vectors
+	 * @param capacity Number of particles to make room for initially
+	 */
+	public HeapParticleStore( int order, int capacity ) {
+		capacity = Math.max( capacity, 1 );
+
+		this.pos = new double[order][capacity];
+		this.vel = new double[order][capacity];
+		this.accel = new double[order][capacity];
+		this.mass = new double[capacity];
+		this.radius = new double[capacity];
+		this.charge = new double[capacity];
+		this.eventCount = new int[capacity];
+
+		this.gravity = new double[order];
+		this.lowerBounds = new double[order];
+		this.upperBounds = new double[order];
+	}
+
+	public int order() {
+		return this.pos.length;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int add( double mass, double radius, double[] pos, double[] vel ) {
+
+		if ( this.size == this.mass.length ) {
+			int capacity = 2 * this.mass.length;
+
+			for( int n = 0; n < this.pos.length; n++ ) {
+				this.pos[n] = Arrays.copyOf( this.pos[n], capacity );
+				this.vel[n] = Arrays.copyOf( this.vel[n], capacity );
+				this.accel[n] = Arrays.copyOf( this.accel[n], capacity );
+			}
+
+			this.mass = Arrays.copyOf( this.mass, capacity );
+			this.radius = Arrays.copyOf( this.radius, capacity );
+			this.charge = Arrays.copyOf( this.charge, capacity );
+			this.eventCount = Arrays.copyOf( this.eventCount, capacity );
+		}
+
+		int index = this.size++;
+
+		for( int n = 0; n < this.pos.length; n++ ) {
+			this.pos[n][index] = pos[n];
+			this.vel[n][index] = vel[n];
+			this.accel[n][index] = 0;
+		}
+
+		this.mass[index] = mass;
+		this.radius[index] = radius;
+		this.charge[index] = 0;
+		this.eventCount[index] = 0;
+
+		return index;
+	}
+
+	public void clear() {
+		this.size = 0;
+	}
+
+	public double getPos( int index, int compIndex ) {
+		return this.pos[compIndex][index];
+	}
+
+	public void setPos( int index, int compIndex, double value ) {
+		this.pos[compIndex][index] = value;
+	}
+
+	public double getVel( int index, int compIndex ) {
+		return this.vel[compIndex][index];
+	}
+
+	public void setVel( int index, int compIndex, double value ) {
+		this.vel[compIndex][index] = value;
+	}
+
+	public double getAccel( int index, int compIndex ) {
+		return this.accel[compIndex][index];
+	}
+
+	public void setAccel( int index, int compIndex, double value ) {
+		this.accel[compIndex][index] = value;
+	}
+
+	public double getMass( int index ) {
+		return this.mass[index];
+	}
+
+	public double getRadius( int index ) {
+		return this.radius[index];
+	}
+
+	public double getCharge( int index ) {
+		return this.charge[index];
+	}
+
+	public void setCharge( int index, double charge ) {
+		this.charge[index] = charge;
+	}
+
+	public int getEventCount( int index ) {
+		return this.eventCount[index];
+	}
+
+	public void setEventCount( int index, int count ) {
+		this.eventCount[index] = count;
+	}
+
+	public double getTime() {
+		return this.time;
+	}
+
+	public void setTime( double time ) {
+		this.time = time;
+	}
+
+	public double getGravity( int compIndex ) {
+		return this.gravity[compIndex];
+	}
+
+	public void setGravity( int compIndex, double value ) {
+		this.gravity[compIndex] = value;
+	}
+
+	public double getLowerBound( int compIndex ) {
+		return this.lowerBounds[compIndex];
+	}
+
+	public double getUpperBound( int compIndex ) {
+		return this.upperBounds[compIndex];
+	}
+
+	public void setBounds( int compIndex, double lower, double upper ) {
+		this.lowerBounds[compIndex] = lower;
+		this.upperBounds[compIndex] = upper;
+	}
+
+	public boolean isPeriodic() {
+		return this.periodic;
+	}
+
+	public void setPeriodic( boolean periodic ) {
+		this.periodic = periodic;
+	}
+
+	public void advance( double deltaT, DoubleVector accelVec ) {
+
+		double halfTSquared = deltaT * deltaT / 2;
+
+		//One straight pass per component, which the JIT can vectorise
+		for( int n = 0; n < this.pos.length; n++ ) {
+			double[] p = this.pos[n];
+			double[] v = this.vel[n];
+			double a = accelVec.getComp( n );
+
+			for( int i = 0; i < this.size; i++ ) {
+				p[i] = p[i] + v[i] * deltaT;
+				p[i] = p[i] + a * halfTSquared;
+				v[i] = v[i] + a * deltaT;
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+import java.util.Arrays;
+
+/**
+ * A scheduler on a binary heap of record indices, taking logarithmic time to add or take a collision
+ *
+ * @author Alex Weeks
+ *
+ */
+public class HeapScheduler extends EventScheduler {
+
+	protected int[] heap = new int[64];
+	protected int heapSize = 0;
+
+	protected void insert( int id ) {
+
+		if ( this.heapSize == this.heap.length ) this.heap = Arrays.copyOf( this.heap, 2 * this.heap.length );
+
+		//Sift up
+		double t = this.time[id];
+		int i = this.heapSize++;
+
+		while( i > 0 ) {
+			int parent = ( i - 1 ) >>> 1;
+			if ( this.time[this.heap[parent]] <= t ) break;
+			this.heap[i] = this.heap[parent];
+			i = parent;
+		}
+
+		this.heap[i] = id;
+	}
+
+	protected int front() {
+		return ( this.heapSize == 0 ) ? -1 : this.heap[0];
+	}
+
+	protected int removeFront() {
+
+		if ( this.heapSize == 0 ) return -1;
+
+		int top = this.heap[0];
+		int last = this.heap[--this.heapSize];
+
+		if ( this.heapSize == 0 ) return top;
+
+		//Sift the last record down from the root
+		double t = this.time[last];
+		int i = 0;
+		int half = this.heapSize >>> 1;
+
+		while( i < half ) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+
+			if ( right < this.heapSize && this.time[this.heap[right]] < this.time[this.heap[child]] ) child = right;
+			if ( t <= this.time[this.heap[child]] ) break;
+
+			this.heap[i] = this.heap[child];
+			i = child;
+		}
+
+		this.heap[i] = last;
+
+		return top;
+	}
+
+	protected int drain( int[] ids ) {
+
+		int count = this.heapSize;
+
+		System.arraycopy( this.heap, 0, ids, 0, count );
+		this.heapSize = 0;
+
+		return count;
+	}
+
+	protected void reset() {
+		this.heapSize = 0;
+	}
+}
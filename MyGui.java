@@ -2,6 +2,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
 import javax.swing.*;
+import javax.swing.event.*;
 
 /**
  * 
@@ -22,6 +23,20 @@ public class MyGui extends JFrame {
 	private JButton toggleGravity = new JButton();
 	private Font defaultFont = new Font("Arial", 0, 12);
 
+	//Steps across the timeline, which spans the history the Universe keeps
+	private static final int TIMELINE_STEPS = 1000;
+
+	//Memory for the history, in bytes
+	private static final long HISTORY_BUDGET = 32L << 20;
+
+	private JSlider timeline = new JSlider( 0, TIMELINE_STEPS, TIMELINE_STEPS );
+
+	//True while the timeline is being moved to follow the Universe, rather than by the user
+	private boolean followingTimeline = false;
+
+	//Real seconds between steps of a running Universe, to turn the speed of a flick into simulated time
+	private static final double FRAME_SECONDS = 0.02;
+
 	Thread universeThread;
 
 	/**
@@ -29,7 +44,7 @@ public class MyGui extends JFrame {
 	 */
 	public MyGui() {
 		setLayout(null);  // throw away the layout manager for this container
-		setSize(720,800); //change the size if you want
+		setSize(720,830); //change the size if you want
 		setLocation(20,40); //change the location if you want
 		setDefaultCloseOperation(EXIT_ON_CLOSE);
 		setTitle("Elastic Collision Simulation");
@@ -114,30 +129,47 @@ public class MyGui extends JFrame {
 		toggleGravity.setFont(defaultFont);
 		this.getContentPane().add(toggleGravity);
 		
+		//Timeline to rewind and scrub through the recent past
+		timeline.setSize(680, 30);
+		timeline.setLocation(20, 760);
+		timeline.setVisible(true);
+		timeline.addChangeListener(new Scrub());
+
+		this.getContentPane().add(timeline);
+
+		//Pick balls up, drag them and flick them with the mouse
+		Grab grab = new Grab();
+		uni.addMouseListener(grab);
+		uni.addMouseMotionListener(grab);
+
+		//Keep the timeline at the present while the Universe runs
+		new javax.swing.Timer(200, new FollowTimeline()).start();
+
 		//Initialize starting random balls
 		uni.addRandomActors(7); 
 
-		JOptionPane.showMessageDialog(this,
-				"Please note:  There are several known issues with this simulation, and I do not \n" +
-				"consider it complete from a simulation accuracy, or reliability standpoint.  Known issues include: \n\n" +
-				"-Increasing the speed excessively causes objects to be lost\n" +
-				"-Adding an excessive number of balls both increases the simulation complexity, and increases the\n" +
-				"chances of objects becoming stuck within other objects, despite the great deal of effort\n" +
-				"I have put into preventing this.\n" +
-				"-Occasionally, even at normal speeds, and with a reasonable number of balls present,\n" +
-				"particularly when adding balls, a ball will be lost out of a wall or become stuck in another object.\n\n" +
-				"The majority of these issues stem from the unusual method of simulation:  This program does not operate\n" +
-				"iteratively.  It solves for moments of collision exactly, finds the soonest collision, performs the collision, and moves on. \n" +
-				"In particular, collisions involving more than two objects are not implemented, and if two objects should collide\n" +
-				"within a very short amount of time, one usually ends up inside another. \n\n" +
-				"Given more time, these problems could probably be solved, but alas the deadline is approaching...\n\n" +
-		"If the simulation freaks out, re-launching the program is the most sure way to solve it.  Have fun :)");
+		uni.setHistory( new EventHistory( 2, HISTORY_BUDGET ) );
 
 		universeThread = new Thread(uni);
 		universeThread.start();
 
 	}
 
+	/**
+	 * Stops the Universe's thread, if it is running, and waits for it to finish its step.  Anything changing the Universe from the
+	 * event thread must call this first, as the Universe keeps balls, broadphase and scheduler in step only between steps.
+	 */
+	protected void stopUniverse() {
+
+		if ( universeThread == null ) return;
+
+		universeThread.interrupt();
+
+		try { universeThread.join(); } catch (InterruptedException ex) { }
+
+		universeThread = null;
+	}
+
 	/**
 	 * Implenents start/stop action
 	 *
@@ -150,14 +182,148 @@ public class MyGui extends JFrame {
 				universeThread = new Thread(uni);
 				universeThread.start();
 			} else {
-				universeThread.interrupt();
-				universeThread = null;
+				stopUniverse();
 			}
 
 		}
 
 	}
 
+	/**
+	 * Rewinds the Universe to the time picked on the timeline, stopping it first
+	 */
+	public class Scrub implements ChangeListener {
+
+		public void stateChanged(ChangeEvent e) {
+
+			if ( followingTimeline ) return;
+
+			stopUniverse();
+
+			EventHistory history = uni.getHistory();
+
+			double earliest = history.getEarliestTime();
+			double latest = history.getLatestTime();
+
+			if ( Double.isNaN( earliest ) ) return;
+
+			uni.rewindTo( earliest + ( latest - earliest ) * timeline.getValue() / TIMELINE_STEPS );
+		}
+	}
+
+	/**
+	 * Picks up the ball under the mouse, holds it under the pointer while dragged, and lets it go with the pointer's velocity.
+	 * Balls are found through the Universe's grid and moved through its queued edits, so this stays quick with any number of balls.
+	 */
+	public class Grab extends MouseAdapter {
+
+		private Ball grabbed = null;
+
+		//Last pointer position in the Universe, when it was there, and the smoothed pointer velocity in units per real second
+		private double[] last;
+		private long lastNanos;
+		private double[] pointerVel = new double[2];
+
+		public void mouseEntered(MouseEvent e) {
+
+			uni.setPickable(true);
+
+			//A stopped Universe is not refreshed by itself
+			if ( universeThread == null ) uni.refresh();
+		}
+
+		public void mouseExited(MouseEvent e) {
+			if ( grabbed == null ) uni.setPickable(false);
+		}
+
+		public void mousePressed(MouseEvent e) {
+
+			double[] point = toWorld(e);
+
+			grabbed = uni.pick( new DoubleVector( point ) );
+			if ( grabbed == null ) return;
+
+			last = point;
+			lastNanos = System.nanoTime();
+			pointerVel[0] = pointerVel[1] = 0;
+
+			move( point, new double[2] );
+		}
+
+		public void mouseDragged(MouseEvent e) {
+
+			if ( grabbed == null ) return;
+
+			double[] point = toWorld(e);
+			long nanos = System.nanoTime();
+			double seconds = ( nanos - lastNanos ) / 1e9;
+
+			if ( seconds > 0 ) {
+				for( int n = 0; n < 2; n++ ) {
+					pointerVel[n] = ( pointerVel[n] + ( point[n] - last[n] ) / seconds ) / 2;
+				}
+			}
+
+			last = point;
+			lastNanos = nanos;
+
+			//Held still under the pointer
+			move( point, new double[2] );
+		}
+
+		public void mouseReleased(MouseEvent e) {
+
+			if ( grabbed == null ) return;
+
+			//A pointer that stopped before letting go throws nothing
+			double scale = ( System.nanoTime() - lastNanos > 100000000L ) ? 0 : uni.timeStep / FRAME_SECONDS;
+
+			move( toWorld(e), new double[] { pointerVel[0] * scale, pointerVel[1] * scale } );
+
+			grabbed = null;
+
+			if ( !uni.contains(e.getPoint()) ) uni.setPickable(false);
+		}
+
+		/**
+		 * Queues the grabbed ball's new state, making it at once if the Universe is stopped
+		 */
+		private void move( double[] pos, double[] vel ) {
+
+			uni.queueEdit( grabbed, new DoubleVector( pos ), new DoubleVector( vel ) );
+
+			if ( universeThread == null ) uni.applyEdits();
+		}
+
+		/**
+		 * @return Returns the point in the Universe under the mouse, undoing the renderer's view
+		 */
+		private double[] toWorld(MouseEvent e) {
+
+			BallRenderer renderer = uni.renderer;
+
+			return new double[] {
+				renderer.getOriginX() + e.getX() / ( renderer.getZoom() * Ball.drawXScale ),
+				renderer.getOriginY() + e.getY() / ( renderer.getZoom() * Ball.drawYScale )
+			};
+		}
+	}
+
+	/**
+	 * Moves the timeline to the present while the Universe is running
+	 */
+	public class FollowTimeline implements ActionListener {
+
+		public void actionPerformed(ActionEvent e) {
+
+			if ( universeThread == null || timeline.getValueIsAdjusting() ) return;
+
+			followingTimeline = true;
+			timeline.setValue( TIMELINE_STEPS );
+			followingTimeline = false;
+		}
+	}
+
 	/**
 	 * 
 	 * Speeds up simulation
@@ -167,7 +333,7 @@ public class MyGui extends JFrame {
 
 		public void actionPerformed(ActionEvent e) {
 
-			if ( universeThread != null ) universeThread.interrupt();
+			stopUniverse();
 			uni.timeStep *= 1.25;			
 			universeThread = new Thread(uni);
 			universeThread.start();
@@ -181,7 +347,7 @@ public class MyGui extends JFrame {
 	 */
 	public class SlowDown implements ActionListener {
 		public void actionPerformed(ActionEvent e) {
-			if ( universeThread != null ) universeThread.interrupt();
+			stopUniverse();
 			uni.timeStep *= 4d/5d;
 			universeThread = new Thread(uni);
 			universeThread.start();
@@ -226,7 +392,7 @@ public class MyGui extends JFrame {
 	 */
 	public class AddBall implements ActionListener {
 		public void actionPerformed(ActionEvent e) {
-			if ( universeThread != null ) universeThread.interrupt();
+			stopUniverse();
 			uni.addRandomActors(1);			
 			universeThread = new Thread(uni);
 			universeThread.start();
@@ -239,14 +405,14 @@ public class MyGui extends JFrame {
 	 */
 	public class ToggleGravity implements ActionListener {
 		public void actionPerformed(ActionEvent e) {
-			if ( universeThread != null ) universeThread.interrupt();
+			stopUniverse();
 			if ( uni.gravity.magnitude() == 0 ) {
 				uni.gravity = new DoubleVector( new double[] {0, 400} );
 			} else {
 				uni.gravity.scalarMultTo(0);
 			}
 
-			uni.nextCollision = uni.nextCollision();
+			uni.recomputeCollisions();
 
 			universeThread = new Thread(uni);
 			universeThread.start();
@@ -0,0 +1,403 @@
+/**
+ * Thermodynamic observables of the Universe, treated as an ideal gas.  Everything is accumulated incrementally from the event stream,
+ * so each collision and each free flight costs O(1) regardless of the number of balls, and the actors are never rescanned.
+ *
+ * Quantities are reported both as running totals and as averages over the last completed window of simulated time.
+ * Units are the simulation's own, with the Boltzmann constant taken to be 1.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class Observables {
+
+	//Length of an averaging window in simulated time
+	protected double windowLength = 1;
+
+	//Region the gas is confined to.  References to the Universe's own bounds, so they are always current.
+	protected DoubleVector lowerBounds;
+	protected DoubleVector upperBounds;
+
+	//Population totals
+	protected int count = 0;
+	protected double totalMass = 0;
+	protected double[] momentum;
+	protected double kineticEnergy = 0;
+
+	//Totals of each ball's mass times its acceleration, times its acceleration dotted with its velocity, and times its acceleration squared.
+	//Every ball's acceleration is constant between events, so these carry the population through a free flight.
+	protected double[] force;
+	protected double power = 0;
+	protected double forceDotAccel = 0;
+
+	protected double elapsed = 0;
+
+	//Impulse delivered to each wall, indexed [compIndex][0 for the lower wall, 1 for the upper wall]
+	protected double[][] totalImpulse;
+	protected double[][] windowImpulse;
+
+	//Integral of the kinetic energy over the current window
+	protected double windowEnergyIntegral = 0;
+	protected double windowElapsed = 0;
+
+	//Results of the last completed window
+	protected double[][] windowPressure;
+	protected double windowTemperature = 0;
+	protected int windowsCompleted = 0;
+
+	//Speed distribution as of when each ball was last brought up to date, which runFor does for every ball before it returns.
+	//The last bin collects everything beyond the range of the histogram.
+	protected double speedBinWidth = 10;
+	protected int[] speedHistogram = new int[64];
+
+	//State of the colliding balls captured by beforeCollision
+	private double[] preVel1;
+	private double[] preVel2;
+
+	/**
+	 * Creates a new set of observables for a region
+	 * @param lowerBounds Lower boundary vector of the region
+	 * @param upperBounds Upper boundary vector of the region
+	 */
+	public Observables( DoubleVector lowerBounds, DoubleVector upperBounds ) {
+
+		this.lowerBounds = lowerBounds;
+		this.upperBounds = upperBounds;
+
+		int order = lowerBounds.order;
+
+		this.momentum = new double[order];
+		this.force = new double[order];
+		this.totalImpulse = new double[order][2];
+		this.windowImpulse = new double[order][2];
+		this.windowPressure = new double[order][2];
+
+		this.preVel1 = new double[order];
+		this.preVel2 = new double[order];
+	}
+
+	/**
+	 * Adds a ball to the population
+	 * @param ball The ball
+	 */
+	public void addBall( Ball ball ) {
+		this.count++;
+		this.totalMass += ball.mass;
+
+		for( int n = 0; n < this.momentum.length; n++ ) {
+			this.momentum[n] += ball.mass * ball.vel.getComp( n );
+			this.force[n] += ball.mass * ball.accel.getComp( n );
+		}
+
+		this.power += ball.mass * DoubleVector.dotProduct( ball.accel, ball.vel );
+		this.forceDotAccel += ball.mass * ball.accel.squareSumOfComps();
+
+		this.kineticEnergy += 0.5 * ball.mass * ball.vel.squareSumOfComps();
+
+		ball.speedBin = this.speedBin( ball.vel.magnitude() );
+		this.speedHistogram[ ball.speedBin ]++;
+	}
+
+	/**
+	 * Removes a ball from the population
+	 * @param ball The ball
+	 */
+	public void removeBall( Ball ball ) {
+		this.count--;
+		this.totalMass -= ball.mass;
+
+		for( int n = 0; n < this.momentum.length; n++ ) {
+			this.momentum[n] -= ball.mass * ball.vel.getComp( n );
+			this.force[n] -= ball.mass * ball.accel.getComp( n );
+		}
+
+		this.power -= ball.mass * DoubleVector.dotProduct( ball.accel, ball.vel );
+		this.forceDotAccel -= ball.mass * ball.accel.squareSumOfComps();
+
+		this.kineticEnergy -= 0.5 * ball.mass * ball.vel.squareSumOfComps();
+
+		this.speedHistogram[ ball.speedBin ]--;
+	}
+
+	/**
+	 * Accounts for every ball flying freely under its own constant acceleration for deltaT.  The change in total kinetic energy depends
+	 * only on totals kept as balls come and go: KE(t) = KE + t * sum( m * a.v ) + 1/2 * t^2 * sum( m * |a|^2 )
+	 * @param deltaT Time interval of the free flight
+	 */
+	public void advance( double deltaT ) {
+		this.elapse( deltaT, true );
+	}
+
+	/**
+	 * Accounts for time passing with the population held as it is, e.g. over a step whose motion is not followed, and is taken up
+	 * afterwards by removing and adding the balls
+	 * @param deltaT Time interval
+	 */
+	public void hold( double deltaT ) {
+		this.elapse( deltaT, false );
+	}
+
+	/**
+	 * Accounts for time passing, with the balls flying freely or held still
+	 */
+	private void elapse( double deltaT, boolean flying ) {
+
+		if ( !( deltaT >= 0 ) ) throw new IllegalArgumentException("Time interval must not be negative");
+
+		double power = flying ? this.power : 0;
+		double forceDotAccel = flying ? this.forceDotAccel : 0;
+
+		double remaining = deltaT;
+
+		//Split the interval wherever it crosses the end of a window
+		while( remaining != 0 ) {
+			double toWindowEnd = this.windowLength - this.windowElapsed;
+			boolean closes = remaining >= toWindowEnd;
+			double t = closes ? toWindowEnd : remaining;
+
+			//Exact integral of the kinetic energy polynomial over [0, t]
+			this.windowEnergyIntegral += this.kineticEnergy * t + power * t * t / 2 + forceDotAccel * t * t * t / 6;
+
+			this.kineticEnergy += power * t + 0.5 * forceDotAccel * t * t;
+			power += forceDotAccel * t;
+
+			if ( flying ) {
+				for( int n = 0; n < this.momentum.length; n++ ) {
+					this.momentum[n] += this.force[n] * t;
+				}
+			}
+
+			this.windowElapsed += t;
+			this.elapsed += t;
+			remaining = closes ? remaining - t : 0;
+
+			if ( closes ) this.closeWindow();
+		}
+
+		if ( flying ) this.power = power;
+	}
+
+	/**
+	 * Records the state of the balls involved in a collision.  Must be called immediately before the collision is performed.
+	 * @param c The collision about to be performed
+	 */
+	public void beforeCollision( Collision c ) {
+		System.arraycopy( c.ball1.vel.comps, 0, this.preVel1, 0, this.preVel1.length );
+		if ( c.ball2 != null ) System.arraycopy( c.ball2.vel.comps, 0, this.preVel2, 0, this.preVel2.length );
+	}
+
+	/**
+	 * Accumulates the effects of a collision.  Must be called immediately after the collision is performed.
+	 * @param c The collision just performed
+	 */
+	public void afterCollision( Collision c ) {
+
+		if ( c.isWallCollision ) {
+			int n = c.wallCompIndex;
+
+			//The wall reverses the normal component, so it received twice the incoming normal momentum.
+			//A ball leaving with positive velocity bounced off the lower wall.
+			double postV = c.ball1.vel.getComp( n );
+			int side = postV > 0 ? 0 : 1;
+			double impulse = c.ball1.mass * Math.abs( postV - this.preVel1[n] );
+
+			this.totalImpulse[n][side] += impulse;
+			this.windowImpulse[n][side] += impulse;
+		}
+
+		this.applyChange( c.ball1, this.preVel1 );
+		if ( c.ball2 != null ) this.applyChange( c.ball2, this.preVel2 );
+	}
+
+	/**
+	 * Updates the population totals for a ball whose velocity changed
+	 * @param ball The ball
+	 * @param preVel Velocity components before the change
+	 */
+	protected void applyChange( Ball ball, double[] preVel ) {
+		double preSquare = 0;
+
+		for( int n = 0; n < preVel.length; n++ ) {
+			double change = ball.vel.getComp( n ) - preVel[n];
+
+			this.momentum[n] += ball.mass * change;
+			this.power += ball.mass * ball.accel.getComp( n ) * change;
+			preSquare += preVel[n] * preVel[n];
+		}
+
+		double postSquare = ball.vel.squareSumOfComps();
+
+		this.kineticEnergy += 0.5 * ball.mass * ( postSquare - preSquare );
+
+		//Acceleration may have moved the speed since it was last counted, so remove it from the bin it was counted in
+		this.speedHistogram[ ball.speedBin ]--;
+		ball.speedBin = this.speedBin( Math.sqrt( postSquare ) );
+		this.speedHistogram[ ball.speedBin ]++;
+	}
+
+	/**
+	 * Moves a ball to the histogram bin of its speed, after its acceleration has changed its velocity in a free flight
+	 * @param ball The ball, up to date
+	 */
+	public void speedChanged( Ball ball ) {
+		int bin = this.speedBin( ball.vel.magnitude() );
+
+		if ( bin == ball.speedBin ) return;
+
+		this.speedHistogram[ ball.speedBin ]--;
+		ball.speedBin = bin;
+		this.speedHistogram[ bin ]++;
+	}
+
+	/**
+	 * Completes the current averaging window and starts a new one
+	 */
+	protected void closeWindow() {
+
+		for( int n = 0; n < this.windowImpulse.length; n++ ) {
+			double area = this.wallArea( n );
+
+			for( int side = 0; side < 2; side++ ) {
+				this.windowPressure[n][side] = this.windowImpulse[n][side] / ( this.windowElapsed * area );
+				this.windowImpulse[n][side] = 0;
+			}
+		}
+
+		this.windowTemperature = this.temperature( this.windowEnergyIntegral / this.windowElapsed );
+
+		this.windowEnergyIntegral = 0;
+		this.windowElapsed = 0;
+		this.windowsCompleted++;
+	}
+
+	/**
+	 * @param compIndex Direction normal to the wall
+	 * @return Returns the extent (length in 2D) of a wall normal to the given direction
+	 */
+	protected double wallArea( int compIndex ) {
+		double area = 1;
+
+		for( int n = 0; n < this.lowerBounds.order; n++ ) {
+			if ( n != compIndex ) area *= this.upperBounds.getComp( n ) - this.lowerBounds.getComp( n );
+		}
+
+		return area;
+	}
+
+	/**
+	 * @param kineticEnergy Total kinetic energy of the population
+	 * @return Returns the temperature by equipartition, 1/2 kT per degree of freedom
+	 */
+	protected double temperature( double kineticEnergy ) {
+		if ( this.count == 0 ) return 0;
+
+		return 2 * kineticEnergy / ( this.count * this.lowerBounds.order );
+	}
+
+	/**
+	 * @param speed A speed
+	 * @return Returns the histogram bin for the speed
+	 */
+	protected int speedBin( double speed ) {
+		int bin = (int) ( speed / this.speedBinWidth );
+
+		if ( bin >= this.speedHistogram.length ) bin = this.speedHistogram.length - 1;
+
+		return bin;
+	}
+
+	/**
+	 * Sets the length of the averaging window.  Takes effect from the current window.
+	 * @param windowLength Window length in simulated time
+	 */
+	public void setWindowLength( double windowLength ) {
+		if ( !( windowLength > 0 ) ) throw new IllegalArgumentException("Window length must be positive");
+
+		this.windowLength = windowLength;
+	}
+
+	/**
+	 * @return Returns the current total kinetic energy
+	 */
+	public double getKineticEnergy() {
+		return this.kineticEnergy;
+	}
+
+	/**
+	 * @param compIndex Component
+	 * @return Returns the component of the current total momentum
+	 */
+	public double getMomentum( int compIndex ) {
+		return this.momentum[compIndex];
+	}
+
+	/**
+	 * @return Returns the current temperature
+	 */
+	public double getTemperature() {
+		return this.temperature( this.kineticEnergy );
+	}
+
+	/**
+	 * @return Returns the mean temperature over the last completed window
+	 */
+	public double getWindowTemperature() {
+		return this.windowTemperature;
+	}
+
+	/**
+	 * @param compIndex Direction normal to the wall
+	 * @param upper True for the upper wall, false for the lower wall
+	 * @return Returns the mean pressure on the wall over the last completed window
+	 */
+	public double getWindowPressure( int compIndex, boolean upper ) {
+		return this.windowPressure[compIndex][ upper ? 1 : 0 ];
+	}
+
+	/**
+	 * @param compIndex Direction normal to the wall
+	 * @param upper True for the upper wall, false for the lower wall
+	 * @return Returns the mean pressure on the wall since the observables were created
+	 */
+	public double getPressure( int compIndex, boolean upper ) {
+		if ( this.elapsed == 0 ) return 0;
+
+		return this.totalImpulse[compIndex][ upper ? 1 : 0 ] / ( this.elapsed * this.wallArea( compIndex ) );
+	}
+
+	/**
+	 * @return Returns the number of completed averaging windows
+	 */
+	public int getWindowsCompleted() {
+		return this.windowsCompleted;
+	}
+
+	/**
+	 * @return Returns a copy of the speed histogram.  Bin k counts speeds in [k * width, (k + 1) * width), the last bin also counts everything faster.
+	 */
+	public int[] getSpeedHistogram() {
+		return this.speedHistogram.clone();
+	}
+
+	/**
+	 * @return Returns the width of a speed histogram bin
+	 */
+	public double getSpeedBinWidth() {
+		return this.speedBinWidth;
+	}
+
+	/**
+	 * @return Returns a string representation of the observables
+	 */
+	public String toString() {
+		StringBuffer result = new StringBuffer();
+
+		result.append( "T = " + this.getTemperature() + "  ");
+		result.append( "T(window) = " + this.windowTemperature + "  ");
+
+		for( int n = 0; n < this.windowPressure.length; n++ ) {
+			result.append( "P" + n + "(window) = { " + this.windowPressure[n][0] + ", " + this.windowPressure[n][1] + " }  ");
+		}
+
+		return result.toString();
+	}
+}
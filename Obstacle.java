@@ -0,0 +1,134 @@
+import java.awt.Graphics;
+
+/**
+ * A static, immovable obstacle.  Balls bounce off obstacles elastically, as though the obstacle had infinite mass.
+ *
+ * @author Alex Weeks
+ *
+ */
+public abstract class Obstacle {
+
+	//Corners of an axis aligned bounding box containing the obstacle
+	protected double[] lowerCorner;
+	protected double[] upperCorner;
+
+	/**
+	 *
+	 * @param ball The ball
+	 * @param accelVec Acceleration vector of the ball
+	 * @return Returns the time until the ball next touches the obstacle while approaching it.  Returns infinity if it never does.
+	 */
+	public abstract double collisionTime( Ball ball, DoubleVector accelVec );
+
+	/**
+	 * Updates the velocity of a ball touching the obstacle to the one the moment after the collision.
+	 * @param ball The ball
+	 */
+	public abstract void doCollision( Ball ball );
+
+	/**
+	 *
+	 * @param point A point
+	 * @return Returns the distance from the point to the nearest point of the obstacle
+	 */
+	public abstract double distanceTo( DoubleVector point );
+
+	/**
+	 * Paints the obstacle
+	 * @param g Graphics of the Universe
+	 */
+	public abstract void paint( Graphics g );
+
+	/**
+	 *
+	 * @param n Direction
+	 * @return Returns the centre of the obstacle's bounding box in the given direction
+	 */
+	public double getCentre( int n ) {
+		return 0.5 * ( this.lowerCorner[n] + this.upperCorner[n] );
+	}
+
+	/**
+	 *
+	 * @param ball The ball
+	 * @param point The fixed point
+	 * @param distance Distance between the ball's centre and the point at the moment of collision
+	 * @param accelVec Acceleration vector of the ball
+	 * @return Returns the time until the ball's centre comes within distance of the point while approaching it.  Returns infinity if it never does.
+	 */
+	protected static double pointCollisionTime( Ball ball, double[] point, double distance, DoubleVector accelVec ) {
+
+		//|d + v * t + h * t^2|^2 = distance^2, with d the offset from the point and h half the acceleration, is a quartic in t
+		double dDotd = 0, dDotv = 0, vDotv = 0, dDoth = 0, vDoth = 0, hDoth = 0;
+
+		for( int n = 0; n < point.length; n++ ) {
+			double d = ball.pos.getComp( n ) - point[n];
+			double v = ball.vel.getComp( n );
+			double h = 0.5 * accelVec.getComp( n );
+
+			dDotd += d * d;
+			dDotv += d * v;
+			vDotv += v * v;
+			dDoth += d * h;
+			vDoth += v * h;
+			hDoth += h * h;
+		}
+
+		//Already within distance and approaching, so rounding has carried it past the contact
+		if ( dDotd <= distance * distance && dDotv < 0 ) return 0;
+
+		//Without acceleration the quartic is a quadratic, solved without allocating anything
+		if ( hDoth == 0 ) return Physics.contactTime( vDotv, dDotv, dDotd, distance );
+
+		double[] roots = Physics.positivePolynomialRoots( new double[] { dDotd - distance * distance, 2 * dDotv, vDotv + 2 * dDoth, 2 * vDoth, hDoth } );
+
+		for( double t : roots ) {
+
+			//Only count the ball arriving, not leaving.  The offset and relative velocity at contact must point against each other.
+			double approach = 0;
+			for( int n = 0; n < point.length; n++ ) {
+				double h = 0.5 * accelVec.getComp( n );
+				double d = ball.pos.getComp( n ) - point[n] + ball.vel.getComp( n ) * t + h * t * t;
+				double v = ball.vel.getComp( n ) + 2 * h * t;
+
+				approach += d * v;
+			}
+
+			if ( approach < 0 ) return t;
+		}
+
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Reflects the velocity of a ball off a surface touching it at the given point.  Does nothing if the ball is already moving away.
+	 * @param ball The ball
+	 * @param point The point of contact
+	 */
+	protected static void reflectFrom( Ball ball, double[] point ) {
+
+		double[] pos = ball.pos.comps;
+		double[] vel = ball.vel.comps;
+
+		//Offset from the point squared, and dotted with the velocity
+		double dDotd = 0;
+		double dDotv = 0;
+
+		for( int n = 0; n < point.length; n++ ) {
+			double d = pos[n] - point[n];
+
+			dDotd += d * d;
+			dDotv += d * vel[n];
+		}
+
+		//Take off twice the velocity along the normal, working on the components in place
+		if ( dDotv < 0 ) {
+			double scale = 2 * dDotv / dDotd;
+
+			for( int n = 0; n < point.length; n++ ) {
+				vel[n] -= scale * ( pos[n] - point[n] );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * A static bounding volume hierarchy over the obstacles of a Universe.  Finding a ball's next obstacle collision descends the tree
+ * nearest box first, skipping every subtree the ball cannot reach before the best collision found so far, so for a ball
+ * that only ever meets a few obstacles the cost grows with the logarithm of the obstacle count.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class ObstacleTree {
+
+	//Maximum number of obstacles kept in a leaf
+	protected static final int LEAF_SIZE = 4;
+
+	protected Node root;
+
+	protected int size;
+
+	//Result of the last search, reused rather than made afresh for each
+	private final Search found = new Search();
+
+	/**
+	 * Node of the hierarchy.  Leaves hold obstacles, inner nodes hold exactly two children.
+	 */
+	protected static class Node {
+		double[] lowerCorner;
+		double[] upperCorner;
+
+		Node left;
+		Node right;
+
+		Obstacle[] obstacles;
+	}
+
+	/**
+	 * Builds a new hierarchy
+	 * @param obstacles Obstacles to index
+	 */
+	public ObstacleTree( Collection<Obstacle> obstacles ) {
+
+		Obstacle[] all = obstacles.toArray( new Obstacle[obstacles.size()] );
+
+		this.size = all.length;
+
+		if ( this.size > 0 ) this.root = this.build( all, 0, all.length );
+	}
+
+	/**
+	 * Builds the subtree over a range of obstacles, splitting at the median along the longest axis of the range's bounding box
+	 * @param obstacles Obstacles, reordered as the tree is built
+	 * @param from First index of the range
+	 * @param to Index after the last of the range
+	 * @return Returns the root of the subtree
+	 */
+	private Node build( Obstacle[] obstacles, int from, int to ) {
+
+		Node node = new Node();
+
+		int order = obstacles[from].lowerCorner.length;
+
+		node.lowerCorner = obstacles[from].lowerCorner.clone();
+		node.upperCorner = obstacles[from].upperCorner.clone();
+
+		for( int i = from + 1; i < to; i++ ) {
+			for( int n = 0; n < order; n++ ) {
+				node.lowerCorner[n] = Math.min( node.lowerCorner[n], obstacles[i].lowerCorner[n] );
+				node.upperCorner[n] = Math.max( node.upperCorner[n], obstacles[i].upperCorner[n] );
+			}
+		}
+
+		if ( to - from <= LEAF_SIZE ) {
+			node.obstacles = Arrays.copyOfRange( obstacles, from, to );
+			return node;
+		}
+
+		int axis = 0;
+		for( int n = 1; n < order; n++ ) {
+			if ( node.upperCorner[n] - node.lowerCorner[n] > node.upperCorner[axis] - node.lowerCorner[axis] ) axis = n;
+		}
+
+		final int splitAxis = axis;
+		Arrays.sort( obstacles, from, to, new Comparator<Obstacle>() {
+			public int compare( Obstacle o1, Obstacle o2 ) {
+				return Double.compare( o1.getCentre( splitAxis ), o2.getCentre( splitAxis ) );
+			}
+		});
+
+		int mid = ( from + to ) / 2;
+
+		node.left = this.build( obstacles, from, mid );
+		node.right = this.build( obstacles, mid, to );
+
+		return node;
+	}
+
+	/**
+	 * Calculates the next collision between a ball and any obstacle
+	 * @param ball The ball
+	 * @param accelVec Acceleration vector of the ball
+	 * @param limit Collisions at or after this time are of no interest, typically the ball's next wall collision
+	 * @return Returns a new Collision object for the soonest obstacle collision before limit, or null if there is none
+	 */
+	public Collision nextCollision( Ball ball, DoubleVector accelVec, double limit ) {
+
+		double t = this.nextCollisionTime( ball, accelVec, limit );
+
+		if ( t == Double.POSITIVE_INFINITY ) return null;
+
+		return new Collision( ball, this.found.obstacle, t );
+	}
+
+	/**
+	 * Calculates the next collision between a ball and any obstacle without creating a Collision.  The obstacle is then given by
+	 * getFoundObstacle.
+	 * @param ball The ball
+	 * @param accelVec Acceleration vector of the ball
+	 * @param limit Collisions at or after this time are of no interest, typically the ball's next wall collision
+	 * @return Returns the time until the soonest obstacle collision before limit, or infinity if there is none
+	 */
+	public double nextCollisionTime( Ball ball, DoubleVector accelVec, double limit ) {
+
+		this.found.time = limit;
+		this.found.obstacle = null;
+
+		if ( this.root != null && this.entryTime( this.root, ball, accelVec ) < limit ) this.search( this.root, ball, accelVec, this.found );
+
+		return ( this.found.obstacle != null ) ? this.found.time : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return Returns the obstacle hit in the collision the last search found, or null if it found none
+	 */
+	public Obstacle getFoundObstacle() {
+		return this.found.obstacle;
+	}
+
+	/**
+	 * Best collision found so far by a search
+	 */
+	private static class Search {
+		double time;
+		Obstacle obstacle;
+	}
+
+	/**
+	 * Searches a subtree whose box the ball can reach before the best collision found so far
+	 */
+	private void search( Node node, Ball ball, DoubleVector accelVec, Search search ) {
+
+		if ( node.obstacles != null ) {
+			for( Obstacle obstacle : node.obstacles ) {
+				double t = obstacle.collisionTime( ball, accelVec );
+
+				if ( t < search.time ) {
+					search.time = t;
+					search.obstacle = obstacle;
+				}
+			}
+			return;
+		}
+
+		double leftT = this.entryTime( node.left, ball, accelVec );
+		double rightT = this.entryTime( node.right, ball, accelVec );
+
+		//Nearest first, so the far child is more likely to be pruned
+		Node first = node.left, second = node.right;
+		double firstT = leftT, secondT = rightT;
+
+		if ( rightT < leftT ) {
+			first = node.right;
+			second = node.left;
+			firstT = rightT;
+			secondT = leftT;
+		}
+
+		if ( firstT < search.time ) this.search( first, ball, accelVec, search );
+		if ( secondT < search.time ) this.search( second, ball, accelVec, search );
+	}
+
+	/**
+	 *
+	 * @return Returns a lower bound on the time until the ball touches the node's box.  The ball must be within every slab of the box at
+	 * the same time, so it cannot touch the box before it has entered the last slab.
+	 */
+	private double entryTime( Node node, Ball ball, DoubleVector accelVec ) {
+
+		double result = 0;
+
+		for( int n = 0; n < node.lowerCorner.length; n++ ) {
+			double p = ball.pos.getComp( n );
+			double v = ball.vel.getComp( n );
+			double h = 0.5 * accelVec.getComp( n );
+
+			double lower = node.lowerCorner[n] - ball.radius;
+			double upper = node.upperCorner[n] + ball.radius;
+
+			double t;
+
+			if ( p < lower ) t = ObstacleTree.firstCrossing( h, v, p - lower );
+			else if ( p > upper ) t = ObstacleTree.firstCrossing( h, v, p - upper );
+			else t = 0;
+
+			if ( t > result ) result = t;
+		}
+
+		return result;
+	}
+
+	/**
+	 *
+	 * @return Returns the smallest non-negative solution of a*t^2 + b*t + c = 0, or infinity if there is none
+	 */
+	private static double firstCrossing( double a, double b, double c ) {
+
+		if ( a == 0 ) {
+			if ( b == 0 ) return Double.POSITIVE_INFINITY;
+
+			double t = -c / b;
+			return t >= 0 ? t : Double.POSITIVE_INFINITY;
+		}
+
+		double discriminant = b * b - 4 * a * c;
+
+		if ( discriminant < 0 ) return Double.POSITIVE_INFINITY;
+
+		double root = Math.sqrt( discriminant );
+		double t1 = ( -b - root ) / ( 2 * a );
+		double t2 = ( -b + root ) / ( 2 * a );
+
+		double lo = Math.min( t1, t2 );
+		double hi = Math.max( t1, t2 );
+
+		if ( lo >= 0 ) return lo;
+		if ( hi >= 0 ) return hi;
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return Returns the number of obstacles in the hierarchy
+	 */
+	public int size() {
+		return this.size;
+	}
+}
@@ -0,0 +1,340 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A particle store outside the Java heap, so that it adds nothing to garbage collection however many particles it holds.
+ * Each column lives in its own direct buffer, or its own region of a memory mapped file.  A mapped store survives the process:
+ * opening the same file again gives back the particles as they were, so the file is a checkpoint.  A file is written little endian
+ * throughout, whatever the machine, so it can be opened on any other.
+ *
+ * The capacity is fixed when the store is created.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class OffHeapParticleStore extends ParticleStore {
+
+	//Identifies a particle store file
+	protected static final int MAGIC = 0x42414c4c;
+
+	//Layout of the file, changed whenever the columns or the header change
+	protected static final int VERSION = 2;
+
+	//Bytes reserved at the start of a file for the fixed header: magic, order, capacity, size, time, version and periodic flag.
+	//The gravity, lower bounds and upper bounds of the scene follow it.
+	protected static final int HEADER_SIZE = 64;
+
+	protected final int order;
+	protected final int capacity;
+
+	protected ByteBuffer header;
+
+	protected DoubleBuffer[] pos;
+	protected DoubleBuffer[] vel;
+	protected DoubleBuffer[] accel;
+	protected DoubleBuffer mass;
+	protected DoubleBuffer radius;
+	protected DoubleBuffer charge;
+	protected IntBuffer eventCount;
+
+	//Every mapped region, so they can all be flushed
+	protected MappedByteBuffer[] regions;
+
+	protected int size;
+
+	/**
+	 * Lays out the columns of a store
+	 * @param order Order of the position and velocity vectors
+	 * @param capacity Maximum number of particles
+	 * @param buffers Header followed by one buffer per column: positions, velocities, accelerations, mass, radius, charge and event count
+	 */
+	protected OffHeapParticleStore( int order, int capacity, ByteBuffer[] buffers ) {
+		this.order = order;
+		this.capacity = capacity;
+
+		this.header = buffers[0];
+
+		this.pos = new DoubleBuffer[order];
+		this.vel = new DoubleBuffer[order];
+		this.accel = new DoubleBuffer[order];
+
+		for( int n = 0; n < order; n++ ) {
+			this.pos[n] = buffers[1 + n].asDoubleBuffer();
+			this.vel[n] = buffers[1 + order + n].asDoubleBuffer();
+			this.accel[n] = buffers[1 + 2 * order + n].asDoubleBuffer();
+		}
+
+		this.mass = buffers[1 + 3 * order].asDoubleBuffer();
+		this.radius = buffers[2 + 3 * order].asDoubleBuffer();
+		this.charge = buffers[3 + 3 * order].asDoubleBuffer();
+		this.eventCount = buffers[4 + 3 * order].asIntBuffer();
+	}
+
+	/**
+	 * Creates a new, empty store in direct memory
+	 * @param order Order of the position and velocity vectors
+	 * @param capacity Maximum number of particles
+	 * @return Returns the store
+	 */
+	public static OffHeapParticleStore allocate( int order, int capacity ) {
+
+		ByteBuffer[] buffers = new ByteBuffer[5 + 3 * order];
+
+		for( int k = 0; k < buffers.length; k++ ) {
+			buffers[k] = ByteBuffer.allocateDirect( OffHeapParticleStore.columnBytes( k, order, capacity ) ).order( ByteOrder.nativeOrder() );
+		}
+
+		OffHeapParticleStore store = new OffHeapParticleStore( order, capacity, buffers );
+		store.writeHeader();
+
+		return store;
+	}
+
+	/**
+	 * Opens a store backed by a memory mapped file.  If the file already holds a store, its particles are kept, otherwise an empty store is created.
+	 * @param file The file
+	 * @param order Order of the position and velocity vectors
+	 * @param capacity Maximum number of particles, used when creating the file
+	 * @return Returns the store
+	 * @throws IOException If the file cannot be mapped
+	 * @throws IllegalArgumentException If the file holds a store of a different order or layout
+	 */
+	public static OffHeapParticleStore map( File file, int order, int capacity ) throws IOException {
+
+		boolean existing = file.length() >= HEADER_SIZE;
+
+		RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+
+		try {
+			FileChannel channel = raf.getChannel();
+
+			if ( existing ) {
+				ByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+
+				if ( header.getInt( 0 ) != MAGIC ) throw new IllegalArgumentException("Not a particle store: " + file);
+				if ( header.getInt( 24 ) != VERSION ) throw new IllegalArgumentException("Store has layout " + header.getInt( 24 ) + ", expected " + VERSION);
+				if ( header.getInt( 4 ) != order ) throw new IllegalArgumentException("Store has order " + header.getInt( 4 ) + ", expected " + order);
+
+				capacity = header.getInt( 8 );
+			}
+
+			MappedByteBuffer[] regions = new MappedByteBuffer[5 + 3 * order];
+
+			long position = 0;
+			for( int k = 0; k < regions.length; k++ ) {
+				int bytes = OffHeapParticleStore.columnBytes( k, order, capacity );
+
+				regions[k] = channel.map( FileChannel.MapMode.READ_WRITE, position, bytes );
+				position += bytes;
+			}
+
+			//Every region has the same fixed byte order so the file can be read anywhere.  It is the native order on common machines,
+			//so the columns cost nothing to read there.
+			ByteBuffer[] buffers = new ByteBuffer[regions.length];
+			for( int k = 0; k < regions.length; k++ ) {
+				buffers[k] = regions[k].order( ByteOrder.LITTLE_ENDIAN );
+			}
+
+			OffHeapParticleStore store = new OffHeapParticleStore( order, capacity, buffers );
+			store.regions = regions;
+
+			if ( existing ) store.size = store.header.getInt( 12 );
+			else store.writeHeader();
+
+			return store;
+		}
+		finally {
+			//The mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return Returns the number of bytes in the given column (the header being column 0)
+	 */
+	private static int columnBytes( int column, int order, int capacity ) {
+
+		if ( column == 0 ) return HEADER_SIZE + 3 * 8 * order;
+
+		long bytes = ( column == 4 + 3 * order ) ? 4L * capacity : 8L * capacity;
+
+		if ( bytes > Integer.MAX_VALUE ) throw new IllegalArgumentException("Capacity too large: " + capacity);
+
+		return (int) bytes;
+	}
+
+	/**
+	 * Writes the header, keeping the time and scene already recorded
+	 */
+	protected void writeHeader() {
+		this.header.putInt( 0, MAGIC );
+		this.header.putInt( 4, this.order );
+		this.header.putInt( 8, this.capacity );
+		this.header.putInt( 12, this.size );
+		this.header.putInt( 24, VERSION );
+	}
+
+	/**
+	 * Writes any changes to a mapped store out to its file.  Does nothing for a store in direct memory.
+	 */
+	public void force() {
+		if ( this.regions == null ) return;
+
+		for( MappedByteBuffer region : this.regions ) {
+			region.force();
+		}
+	}
+
+	public int order() {
+		return this.order;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return Returns the maximum number of particles
+	 */
+	public int capacity() {
+		return this.capacity;
+	}
+
+	public int add( double mass, double radius, double[] pos, double[] vel ) {
+
+		if ( this.size == this.capacity ) throw new IllegalStateException("Particle store is full");
+
+		int index = this.size;
+
+		for( int n = 0; n < this.order; n++ ) {
+			this.pos[n].put( index, pos[n] );
+			this.vel[n].put( index, vel[n] );
+			this.accel[n].put( index, 0 );
+		}
+
+		this.mass.put( index, mass );
+		this.radius.put( index, radius );
+		this.charge.put( index, 0 );
+		this.eventCount.put( index, 0 );
+
+		this.size++;
+		this.header.putInt( 12, this.size );
+
+		return index;
+	}
+
+	public void clear() {
+		this.size = 0;
+		this.header.putInt( 12, 0 );
+	}
+
+	public double getPos( int index, int compIndex ) {
+		return this.pos[compIndex].get( index );
+	}
+
+	public void setPos( int index, int compIndex, double value ) {
+		this.pos[compIndex].put( index, value );
+	}
+
+	public double getVel( int index, int compIndex ) {
+		return this.vel[compIndex].get( index );
+	}
+
+	public void setVel( int index, int compIndex, double value ) {
+		this.vel[compIndex].put( index, value );
+	}
+
+	public double getAccel( int index, int compIndex ) {
+		return this.accel[compIndex].get( index );
+	}
+
+	public void setAccel( int index, int compIndex, double value ) {
+		this.accel[compIndex].put( index, value );
+	}
+
+	public double getMass( int index ) {
+		return this.mass.get( index );
+	}
+
+	public double getRadius( int index ) {
+		return this.radius.get( index );
+	}
+
+	public double getCharge( int index ) {
+		return this.charge.get( index );
+	}
+
+	public void setCharge( int index, double charge ) {
+		this.charge.put( index, charge );
+	}
+
+	public int getEventCount( int index ) {
+		return this.eventCount.get( index );
+	}
+
+	public void setEventCount( int index, int count ) {
+		this.eventCount.put( index, count );
+	}
+
+	public double getTime() {
+		return this.header.getDouble( 16 );
+	}
+
+	public void setTime( double time ) {
+		this.header.putDouble( 16, time );
+	}
+
+	public double getGravity( int compIndex ) {
+		return this.header.getDouble( HEADER_SIZE + 8 * compIndex );
+	}
+
+	public void setGravity( int compIndex, double value ) {
+		this.header.putDouble( HEADER_SIZE + 8 * compIndex, value );
+	}
+
+	public double getLowerBound( int compIndex ) {
+		return this.header.getDouble( HEADER_SIZE + 8 * ( this.order + compIndex ) );
+	}
+
+	public double getUpperBound( int compIndex ) {
+		return this.header.getDouble( HEADER_SIZE + 8 * ( 2 * this.order + compIndex ) );
+	}
+
+	public void setBounds( int compIndex, double lower, double upper ) {
+		this.header.putDouble( HEADER_SIZE + 8 * ( this.order + compIndex ), lower );
+		this.header.putDouble( HEADER_SIZE + 8 * ( 2 * this.order + compIndex ), upper );
+	}
+
+	public boolean isPeriodic() {
+		return this.header.getInt( 28 ) != 0;
+	}
+
+	public void setPeriodic( boolean periodic ) {
+		this.header.putInt( 28, periodic ? 1 : 0 );
+	}
+
+	public void advance( double deltaT, DoubleVector accelVec ) {
+
+		double halfTSquared = deltaT * deltaT / 2;
+
+		for( int n = 0; n < this.order; n++ ) {
+			DoubleBuffer p = this.pos[n];
+			DoubleBuffer v = this.vel[n];
+			double a = accelVec.getComp( n );
+
+			for( int i = 0; i < this.size; i++ ) {
+				double vi = v.get( i );
+
+				p.put( i, p.get( i ) + vi * deltaT + a * halfTSquared );
+				v.put( i, vi + a * deltaT );
+			}
+		}
+	}
+}
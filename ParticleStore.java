@@ -0,0 +1,246 @@
+/**
+ * Particle state kept in flat columns instead of one Ball object per particle: positions, velocities, accelerations, masses, radii,
+ * charges and event counts, addressed by particle index.  The store also holds the gravity, bounds and boundary mode of the scene, so
+ * that restoring it reproduces the scene.  The soft sphere engine sweeps over its balls in one, and a Universe or ShardCoordinator is
+ * checkpointed to one and restored from it.  The event-driven engine itself still simulates Ball objects, so a store is a copy of a
+ * scene, not where a running scene lives.
+ *
+ * @author Alex Weeks
+ *
+ */
+public abstract class ParticleStore {
+
+	/**
+	 * @return Returns the order of the position and velocity vectors
+	 */
+	public abstract int order();
+
+	/**
+	 * @return Returns the number of particles held
+	 */
+	public abstract int size();
+
+	/**
+	 * Adds a particle, with no charge and no acceleration
+	 * @param mass Mass of the particle
+	 * @param radius Radius of the particle
+	 * @param pos Position components
+	 * @param vel Velocity components
+	 * @return Returns the index of the new particle
+	 */
+	public abstract int add( double mass, double radius, double[] pos, double[] vel );
+
+	/**
+	 * Removes every particle
+	 */
+	public abstract void clear();
+
+	/**
+	 * @param index Index of a particle
+	 * @param compIndex Component
+	 * @return Returns the component of the particle's position
+	 */
+	public abstract double getPos( int index, int compIndex );
+
+	/**
+	 * Sets a component of a particle's position
+	 * @param index Index of a particle
+	 * @param compIndex Component
+	 * @param value Value to set
+	 */
+	public abstract void setPos( int index, int compIndex, double value );
+
+	/**
+	 * @param index Index of a particle
+	 * @param compIndex Component
+	 * @return Returns the component of the particle's velocity
+	 */
+	public abstract double getVel( int index, int compIndex );
+
+	/**
+	 * Sets a component of a particle's velocity
+	 * @param index Index of a particle
+	 * @param compIndex Component
+	 * @param value Value to set
+	 */
+	public abstract void setVel( int index, int compIndex, double value );
+
+	/**
+	 * @param index Index of a particle
+	 * @param compIndex Component
+	 * @return Returns the component of the particle's acceleration
+	 */
+	public abstract double getAccel( int index, int compIndex );
+
+	/**
+	 * Sets a component of a particle's acceleration
+	 * @param index Index of a particle
+	 * @param compIndex Component
+	 * @param value Value to set
+	 */
+	public abstract void setAccel( int index, int compIndex, double value );
+
+	/**
+	 * @param index Index of a particle
+	 * @return Returns the mass of the particle
+	 */
+	public abstract double getMass( int index );
+
+	/**
+	 * @param index Index of a particle
+	 * @return Returns the radius of the particle
+	 */
+	public abstract double getRadius( int index );
+
+	/**
+	 * @param index Index of a particle
+	 * @return Returns the charge of the particle
+	 */
+	public abstract double getCharge( int index );
+
+	/**
+	 * Sets the charge of a particle
+	 * @param index Index of a particle
+	 * @param charge The charge
+	 */
+	public abstract void setCharge( int index, double charge );
+
+	/**
+	 * @param index Index of a particle
+	 * @return Returns the number of changes to the particle's trajectory
+	 */
+	public abstract int getEventCount( int index );
+
+	/**
+	 * Sets the number of changes to a particle's trajectory
+	 * @param index Index of a particle
+	 * @param count The count
+	 */
+	public abstract void setEventCount( int index, int count );
+
+	/**
+	 * @return Returns the absolute time the state was recorded at
+	 */
+	public abstract double getTime();
+
+	/**
+	 * Sets the absolute time the state was recorded at
+	 * @param time The time
+	 */
+	public abstract void setTime( double time );
+
+	/**
+	 * @param compIndex Component
+	 * @return Returns the component of the scene's gravity
+	 */
+	public abstract double getGravity( int compIndex );
+
+	/**
+	 * Sets a component of the scene's gravity
+	 * @param compIndex Component
+	 * @param value Value to set
+	 */
+	public abstract void setGravity( int compIndex, double value );
+
+	/**
+	 * @param compIndex Component
+	 * @return Returns the lower bound of the scene in the component
+	 */
+	public abstract double getLowerBound( int compIndex );
+
+	/**
+	 * @param compIndex Component
+	 * @return Returns the upper bound of the scene in the component
+	 */
+	public abstract double getUpperBound( int compIndex );
+
+	/**
+	 * Sets the bounds of the scene in a component
+	 * @param compIndex Component
+	 * @param lower Lower bound
+	 * @param upper Upper bound
+	 */
+	public abstract void setBounds( int compIndex, double lower, double upper );
+
+	/**
+	 * @return Returns true if the scene has periodic boundaries rather than reflecting walls
+	 */
+	public abstract boolean isPeriodic();
+
+	/**
+	 * Sets whether the scene has periodic boundaries rather than reflecting walls
+	 * @param periodic True for periodic boundaries
+	 */
+	public abstract void setPeriodic( boolean periodic );
+
+	/**
+	 * Records the gravity, bounds and boundary mode of a scene
+	 * @param gravity Gravity acceleration vector
+	 * @param lowerBounds Lower bounds
+	 * @param upperBounds Upper bounds
+	 * @param periodic True for periodic boundaries
+	 */
+	public void setScene( DoubleVector gravity, DoubleVector lowerBounds, DoubleVector upperBounds, boolean periodic ) {
+
+		if ( gravity.order != this.order() || lowerBounds.order != this.order() || upperBounds.order != this.order() ) throw new IllegalArgumentException("Scene must match the order of the store");
+
+		for( int n = 0; n < this.order(); n++ ) {
+			this.setGravity( n, gravity.comps[n] );
+			this.setBounds( n, lowerBounds.comps[n], upperBounds.comps[n] );
+		}
+
+		this.setPeriodic( periodic );
+	}
+
+	/**
+	 * Integrates and updates the positions and velocities of all particles under a constant acceleration, without regard for collisions
+	 * @param deltaT Time interval to integrate over
+	 * @param accelVec Acceleration (gravity) vector
+	 */
+	public abstract void advance( double deltaT, DoubleVector accelVec );
+
+	/**
+	 * Adds a copy of a ball
+	 * @param ball The ball
+	 * @return Returns the index of the new particle
+	 */
+	public int add( Ball ball ) {
+		int index = this.add( ball.mass, ball.radius, ball.pos.comps, ball.vel.comps );
+
+		for( int n = 0; n < this.order(); n++ ) {
+			this.setAccel( index, n, ball.accel.comps[n] );
+		}
+
+		this.setCharge( index, ball.charge );
+		this.setEventCount( index, ball.eventCount );
+
+		return index;
+	}
+
+	/**
+	 * @param index Index of a particle
+	 * @return Returns a new Ball with the particle's state
+	 */
+	public Ball toBall( int index ) {
+		int order = this.order();
+
+		double[] pos = new double[order];
+		double[] vel = new double[order];
+
+		for( int n = 0; n < order; n++ ) {
+			pos[n] = this.getPos( index, n );
+			vel[n] = this.getVel( index, n );
+		}
+
+		Ball ball = new Ball( this.getMass( index ), this.getRadius( index ), pos, vel );
+
+		for( int n = 0; n < order; n++ ) {
+			ball.accel.comps[n] = this.getAccel( index, n );
+		}
+
+		ball.charge = this.getCharge( index );
+		ball.eventCount = this.getEventCount( index );
+
+		return ball;
+	}
+}
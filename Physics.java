@@ -1,5 +1,5 @@
 import java.lang.reflect.Array;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * 
@@ -18,34 +18,77 @@ public class Physics {
 	 */
 	public static void doElasticCollision( Ball b1, Ball b2 ) {
 		
+		Physics.doElasticCollision( b1, b2, null );
+	}
+	
+	/**
+	 * Updates the velocity vectors of both actors to those the moment after a collision between b1 and a periodic image of b2.
+	 * @param b1 The first ball 
+	 * @param b2 The second ball
+	 * @param imageShift Offset from b2 to the image of it that b1 collides with, or null for b2 itself
+	 */
+	public static void doElasticCollision( Ball b1, Ball b2, double[] imageShift ) {
+		
 		double m1 = b1.mass;
 		double m2 = b2.mass;
 		
-		//Compute the basis vector upon which all further calculations will be based.
-		//The unit position vector from b1 to b2
-		DoubleVector pHat = ( b2.pos.subtract(b1.pos) ).unitVector();
+		//The velocities are worked on in place, one component at a time, so a collision creates no garbage
+		double[] u1 = b1.vel.comps;
+		double[] u2 = b2.vel.comps;
 		
+		//Compute the basis vector upon which all further calculations will be based.
+		//The unit position vector from b1 to b2, pHat, is scale times the offset
+		double scale = 1d / Math.sqrt( Physics.offsetSquared( b1, b2, imageShift ) );
 		
 		//Compute initial scalar velocities of actor1 and actor2 in the new coordinate system
-		double v1Init = DoubleVector.dotProduct(b1.vel, pHat);
-		double v2Init = DoubleVector.dotProduct(b2.vel, pHat);
+		double v1Init = 0;
+		double v2Init = 0;
 		
-		//Compute the vector components of actor1 and actor2 parallel to the surface of collision
-		//Will not be affected by the collision
-		DoubleVector b1ParVel = b1.vel.subtract(  pHat.scalarMult( v1Init )  );
-		DoubleVector b2ParVel = b2.vel.subtract(  pHat.scalarMult( v2Init )  );
+		for( int n = 0; n < u1.length; n++ ) {
+			double pHat = Physics.offset( b1, b2, imageShift, n ) * scale;
+			
+			v1Init += u1[n] * pHat;
+			v2Init += u2[n] * pHat;
+		}
 		
 		//Compute final scalar velocities of actor1 and actor2 in the new coordinate system
 		double v1Final = (  v1Init * ( m1 - m2 ) + 2 * m2 * v2Init  ) / ( m1 + m2 );
 		double v2Final = (  v2Init * ( m2 - m1 ) + 2 * m1 * v1Init  ) / ( m1 + m2 );
 		
-		//Put everything back together to yield the final vector velocities for both objects:
-		b1.vel = b1ParVel.add(  pHat.scalarMult( v1Final )  );
-		b2.vel = b2ParVel.add(  pHat.scalarMult( v2Final )  );
+		//The components parallel to the surface of collision are not affected by it, so swap only the components along pHat
+		for( int n = 0; n < u1.length; n++ ) {
+			double pHat = Physics.offset( b1, b2, imageShift, n ) * scale;
+			
+			u1[n] = ( u1[n] - pHat * v1Init ) + pHat * v1Final;
+			u2[n] = ( u2[n] - pHat * v2Init ) + pHat * v2Final;
+		}
+	}
+	
+	/**
+	 * @param imageShift Offset from b2 to the image of it wanted, or null for b2 itself
+	 * @return Returns one component of the offset from b1 to b2
+	 */
+	private static double offset( Ball b1, Ball b2, double[] imageShift, int n ) {
 		
-
+		double d = b2.pos.comps[n] - b1.pos.comps[n];
+		
+		return ( imageShift != null ) ? d + imageShift[n] : d;
+	}
+	
+	/**
+	 * @param imageShift Offset from b2 to the image of it wanted, or null for b2 itself
+	 * @return Returns the squared distance from b1 to b2
+	 */
+	private static double offsetSquared( Ball b1, Ball b2, double[] imageShift ) {
 		
+		double result = 0;
 		
+		for( int n = 0; n < b1.pos.order; n++ ) {
+			double d = Physics.offset( b1, b2, imageShift, n );
+			result += d * d;
+		}
+		
+		return result;
 	}
 	
 	
@@ -59,137 +102,424 @@ public class Physics {
 		ball.vel.setComp(  compIndex, -1 * ball.vel.getComp( compIndex ) );		
 	}
 	
+	/**
+	 * Moves a ball that has reached a periodic boundary to the opposite boundary
+	 * @param ball The ball
+	 * @param compIndex Direction of the crossing
+	 * @param shift Distance to move the ball along compIndex
+	 */
+	public static void doWrapCrossing( Ball ball, int compIndex, double shift ) {
+		
+		ball.pos.setComp( compIndex, ball.pos.getComp( compIndex ) + shift );
+	}
+	
+	/**
+	 * 
+	 * @param ball The ball
+	 * @param lowerBounds Lower boundary vector of the periodic region
+	 * @param upperBounds Upper boundary vector of the periodic region
+	 * @param accelVec acceleration vector of the ball
+	 * @return Returns a new Collision object for the next time the ball's centre leaves the region, or null if it never does
+	 */
+	public static Collision checkWrapCrossing( Ball ball, DoubleVector lowerBounds, DoubleVector upperBounds, DoubleVector accelVec ) {
+		
+		Collision result = null;
+		
+		for( int n = 0; n < lowerBounds.order; n++ ) {
+			double lowerT = Physics.wrapCrossingTime( ball, lowerBounds, upperBounds, accelVec, n, false );
+			double upperT = Physics.wrapCrossingTime( ball, lowerBounds, upperBounds, accelVec, n, true );
+			
+			double size = upperBounds.getComp( n ) - lowerBounds.getComp( n );
+			
+			if ( lowerT < Double.POSITIVE_INFINITY && ( result == null || lowerT < result.deltaT ) ) result = new Collision( ball, lowerT, n, size );
+			if ( upperT < Double.POSITIVE_INFINITY && ( result == null || upperT < result.deltaT ) ) result = new Collision( ball, upperT, n, -size );
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Finds when a ball's centre leaves a periodic region through one boundary.  Leaving through the lower boundary means reaching it
+	 * while moving down, and through the upper boundary while moving up.  A ball that has just been wrapped sits on a boundary moving
+	 * inwards, and is not counted as leaving again.
+	 * @param ball The ball
+	 * @param lowerBounds Lower boundary vector of the periodic region
+	 * @param upperBounds Upper boundary vector of the periodic region
+	 * @param accelVec acceleration vector of the ball
+	 * @param compIndex Axis the boundary is across
+	 * @param upper True for the upper boundary, false for the lower
+	 * @return Returns the time until the ball leaves, infinite if it never does
+	 */
+	public static double wrapCrossingTime( Ball ball, DoubleVector lowerBounds, DoubleVector upperBounds, DoubleVector accelVec, int compIndex, boolean upper ) {
+		
+		double a = accelVec.comps[compIndex];
+		double v = ball.vel.comps[compIndex];
+		double p = ball.pos.comps[compIndex];
+		
+		if ( upper ) return Physics.closingTime( upperBounds.comps[compIndex] - p, -v, -a );
+		else return Physics.closingTime( p - lowerBounds.comps[compIndex], v, a );
+	}
+	
 	/**
 	 * 
 	 * @param ball The ball
 	 * @param lowerBounds Lower boundary vector
 	 * @param upperBounds Upper boundary vector
-	 * @param accelVec acceleration (gravity) vector of the Universe
+	 * @param accelVec acceleration vector of the ball
 	 * @return Returns a new Collision object
 	 */
 	public static Collision checkWallCollision( Ball ball, DoubleVector lowerBounds, DoubleVector upperBounds, DoubleVector accelVec ) {
 		
+		//Only the soonest wall matters, so keep that rather than a Collision for every axis
+		double soonestT = Double.POSITIVE_INFINITY;
+		int soonestN = -1;
+		
+		for( int n = 0; n < lowerBounds.order; n++ ) {
+			double t = Physics.wallCollisionTime( ball, lowerBounds, upperBounds, accelVec, n );
+			
+			if ( t < soonestT ) {
+				soonestT = t;
+				soonestN = n;
+			}
+		}
+		
+		if ( soonestN >= 0 ) return new Collision(ball, soonestT, soonestN);
+		else return null;
+
+	}
+	
+	/**
+	 * Finds when a ball next hits either wall across one axis
+	 * @param ball The ball
+	 * @param lowerBounds Lower boundary vector
+	 * @param upperBounds Upper boundary vector
+	 * @param accelVec acceleration vector of the ball
+	 * @param compIndex The axis
+	 * @return Returns the time until the ball hits a wall across the axis, infinite if it never does
+	 */
+	public static double wallCollisionTime( Ball ball, DoubleVector lowerBounds, DoubleVector upperBounds, DoubleVector accelVec, int compIndex ) {
+		
 		double r = ball.radius;
+		double a = accelVec.comps[compIndex];
+		double v = ball.vel.comps[compIndex];
+		double p = ball.pos.comps[compIndex];
 		
-		ArrayList<Collision> collisions = new ArrayList<Collision>();
+		//The gap to the lower wall grows with the ball's motion, the gap to the upper wall shrinks with it
+		double lowerT = Physics.closingTime( p - lowerBounds.comps[compIndex] - r, v, a );
+		double upperT = Physics.closingTime( upperBounds.comps[compIndex] - r - p, -v, -a );
 		
-		Double lowerT = null;
-		Double upperT = null;
+		return Math.min( lowerT, upperT );
+	}
+	
+	
+	/**
+	 * 
+	 * @param b1 The first ball
+	 * @param b2 The second ball
+	 * @return Returns a new Collision object containing the next collision between the balls.  Returns null if no such collision exists
+	 */
+	public static Collision checkCollision( Ball b1, Ball b2 ) {
+		return Physics.checkCollision( b1, b2, Double.POSITIVE_INFINITY );
+	}
+	
+	/**
+	 * 
+	 * @param b1 The first ball
+	 * @param b2 The second ball
+	 * @param limit Latest time of interest
+	 * @return Returns a new Collision object containing the next collision between the balls up to the limit.  Returns null if no such collision exists
+	 */
+	public static Collision checkCollision( Ball b1, Ball b2, double limit ) {
 		
-		//Check collisions
-		for( int n = 0; n < lowerBounds.order; n++ ) {
-			double a = accelVec.getComp( n );
-			double v = ball.vel.getComp( n );
-			double p = ball.pos.getComp( n );
+		double t = Physics.pairCollisionTime( b1, b2, limit );
+		
+		if ( t < Double.POSITIVE_INFINITY ) return new Collision(b1, b2, t );
+		else return null;
+	}
+	
+	/**
+	 * Finds when two balls next collide, working on their components directly so that nothing is allocated
+	 * @param b1 The first ball
+	 * @param b2 The second ball
+	 * @param limit Latest time of interest
+	 * @return Returns the time until the balls collide, infinite if they do not by the limit
+	 */
+	public static double pairCollisionTime( Ball b1, Ball b2, double limit ) {
+		
+		//Dot products of the differences in position, velocity, and half the differences in acceleration.  The last is zero under
+		//gravity alone, but not for balls in different force regions or with different charges.
+		double pDotp = 0;
+		double vDotp = 0;
+		double vDotv = 0;
+		double pDoth = 0;
+		double vDoth = 0;
+		double hDoth = 0;
+		
+		for( int n = 0; n < b1.pos.order; n++ ) {
+			double p = b1.pos.comps[n] - b2.pos.comps[n];
+			double v = b1.vel.comps[n] - b2.vel.comps[n];
+			double h = ( b1.accel.comps[n] - b2.accel.comps[n] ) * 0.5;
 			
-			double lowerBound = lowerBounds.getComp( n );
-			double upperBound = upperBounds.getComp( n );
+			pDotp += p * p;
+			vDotp += v * p;
+			vDotv += v * v;
+			pDoth += p * h;
+			vDoth += v * h;
+			hDoth += h * h;
+		}
+		
+		//Sum of the radii of the actors.  The actors will be at exactly this distance when a collision occurs.
+		return Physics.acceleratedContactTime( pDotp, vDotp, vDotv, pDoth, vDoth, hDoth, b1.radius + b2.radius, limit );
+	}
+	
+	/**
+	 * 
+	 * @param b1 The first ball
+	 * @param b2 The second ball
+	 * @param boxSize Size of the periodic region the balls are in
+	 * @return Returns a new Collision object containing the next collision between the balls or any of their periodic images.  Returns null if no such collision exists
+	 */
+	public static Collision checkCollision( Ball b1, Ball b2, DoubleVector boxSize ) {
+		return Physics.checkCollision( b1, b2, boxSize, Double.POSITIVE_INFINITY );
+	}
+	
+	/**
+	 * 
+	 * @param b1 The first ball
+	 * @param b2 The second ball
+	 * @param boxSize Size of the periodic region the balls are in
+	 * @param limit Latest time of interest
+	 * @return Returns a new Collision object containing the next collision between the balls or any of their periodic images up to the limit.  Returns null if no such collision exists
+	 */
+	public static Collision checkCollision( Ball b1, Ball b2, DoubleVector boxSize, double limit ) {
+		
+		int order = boxSize.order;
+		
+		//Difference in position vectors to the nearest image of b2
+		double[] deltaP = b1.pos.subtract( b2.pos ).comps;
+		
+		for( int n = 0; n < order; n++ ) {
+			double size = boxSize.getComp( n );
+			deltaP[n] -= size * Math.rint( deltaP[n] / size );
+		}
+		
+		//Difference in velocity vectors, and half the difference in acceleration vectors
+		DoubleVector deltaV = b1.vel.subtract( b2.vel );
+		DoubleVector halfDeltaA = b1.accel.subtract( b2.accel ).scalarMult( 0.5 );
+		
+		double vDotv = DoubleVector.dotProduct(deltaV, deltaV);
+		double vDoth = DoubleVector.dotProduct(deltaV, halfDeltaA);
+		double hDoth = DoubleVector.dotProduct(halfDeltaA, halfDeltaA);
+		
+		double radiusSum = b1.radius + b2.radius;
+		
+		//The nearest image now need not be the one that collides first, so check it and its neighbours
+		double t = Double.POSITIVE_INFINITY;
+		double[] imageShift = null;
+		
+		int images = 1;
+		for( int n = 0; n < order; n++ ) images *= 3;
+		
+		//Offset from b2 to the image being checked
+		double[] shift = new double[order];
+		
+		for( int image = 0; image < images; image++ ) {
 			
+			double vDotp = 0;
+			double pDotp = 0;
+			double pDoth = 0;
 			
-			//If the object is accelerating in this component direction, then we have a quadratic equation:
-			//1/2 * t^2 + v * t + p - x = lowerBound +- r
-			if ( a != 0 ) {
-				lowerT = Physics.leastPositiveQuadraticSolution(0.5 * a, v, -lowerBound - r + p);
-				upperT = Physics.leastPositiveQuadraticSolution(0.5 * a, v, -upperBound + r + p);
-			}
-			//Otherwise, if the object has no velocity, then it can never collide with a wall
-			else if ( v == 0) {
-				lowerT = null;
-				upperT = null;
-			}
-			//Finally, if v is not zero and there is no acceleration, then we have a linear equation:
-			// v * t + p = x +- r
-			else {
-				lowerT = ( lowerBound + r - p ) / v;
-				upperT = ( upperBound - r - p ) / v;
+			int code = image;
+			for( int n = 0; n < order; n++ ) {
+				double p = deltaP[n] + ( code % 3 - 1 ) * boxSize.getComp( n );
+				shift[n] = b1.pos.getComp( n ) - b2.pos.getComp( n ) - p;
+				code /= 3;
 				
-				//System.out.println("lower: " + lowerT);
-				//System.out.println("upper: " + upperT);
+				vDotp += deltaV.getComp( n ) * p;
+				pDotp += p * p;
+				pDoth += halfDeltaA.getComp( n ) * p;
 			}
 			
-			Double t = null;
-			
-			if (  ( lowerT != null) && ( upperT == null )  ) {
-				if ( lowerT - DOUBLE_THRESHOLD > 0 ) t = lowerT;
-			}
-			if (  ( upperT != null) && ( lowerT == null )  ) {
-				if( upperT - DOUBLE_THRESHOLD > 0 ) t = upperT;
-			}
+			double imageT = Physics.acceleratedContactTime( pDotp, vDotp, vDotv, pDoth, vDoth, hDoth, radiusSum, Math.min( t, limit ) );
 			
-			if (  ( upperT != null ) && ( lowerT != null )  ) {
-				
-				if ( (upperT - DOUBLE_THRESHOLD < 0) && (lowerT -DOUBLE_THRESHOLD> 0) ) {
-					t = lowerT;
-				}
-				if ( (lowerT - DOUBLE_THRESHOLD < 0) && (upperT -DOUBLE_THRESHOLD > 0) ){
-					t = upperT;
-				}
-				if ( ( lowerT -DOUBLE_THRESHOLD> 0 ) && ( upperT -DOUBLE_THRESHOLD> 0) ) {
-					
-					
-					if ( ( upperT < lowerT )) t = upperT;
-					else t = lowerT;
-				}
+			if ( imageT < t ) {
+				t = imageT;
+				imageShift = shift.clone();
 			}
+		}
+		
+		if ( t < Double.POSITIVE_INFINITY ) return new Collision(b1, b2, t, imageShift );
+		else return null;
+	}
+	
+	/**
+	 * Finds when two balls, or any of their periodic images, next collide, working on their components directly so that nothing is
+	 * allocated.  Gives the same time as checkCollision over the same region.
+	 * @param b1 The first ball
+	 * @param b2 The second ball
+	 * @param lowerBounds Lower boundary vector of the periodic region
+	 * @param upperBounds Upper boundary vector of the periodic region
+	 * @param limit Latest time of interest
+	 * @return Returns the time until the balls collide, infinite if they do not by the limit
+	 */
+	public static double pairCollisionTime( Ball b1, Ball b2, DoubleVector lowerBounds, DoubleVector upperBounds, double limit ) {
+		
+		int order = lowerBounds.order;
+		
+		double vDotv = 0;
+		double vDoth = 0;
+		double hDoth = 0;
+		
+		for( int n = 0; n < order; n++ ) {
+			double v = b1.vel.comps[n] - b2.vel.comps[n];
+			double h = ( b1.accel.comps[n] - b2.accel.comps[n] ) * 0.5;
 			
+			vDotv += v * v;
+			vDoth += v * h;
+			hDoth += h * h;
+		}
+		
+		double radiusSum = b1.radius + b2.radius;
+		
+		//The nearest image need not be the one that collides first, so check it and its neighbours
+		double t = Double.POSITIVE_INFINITY;
+		
+		int images = 1;
+		for( int n = 0; n < order; n++ ) images *= 3;
+		
+		for( int image = 0; image < images; image++ ) {
 			
+			double vDotp = 0;
+			double pDotp = 0;
+			double pDoth = 0;
 			
-			//System.out.println("t = " + t + " n = " + n);
+			int code = image;
+			for( int n = 0; n < order; n++ ) {
+				double size = upperBounds.comps[n] - lowerBounds.comps[n];
+				
+				//Difference in position to the nearest image of b2, then to the image being checked
+				double nearest = b1.pos.comps[n] - b2.pos.comps[n];
+				nearest -= size * Math.rint( nearest / size );
+				
+				double p = nearest + ( code % 3 - 1 ) * size;
+				code /= 3;
+				
+				vDotp += ( b1.vel.comps[n] - b2.vel.comps[n] ) * p;
+				pDotp += p * p;
+				pDoth += ( ( b1.accel.comps[n] - b2.accel.comps[n] ) * 0.5 ) * p;
+			}
 			
-			if ( ( t!= null ) && ( t - DOUBLE_THRESHOLD > 0) ) collisions.add( new Collision(ball, t.doubleValue(), n) );
+			t = Math.min( t, Physics.acceleratedContactTime( pDotp, vDotp, vDotv, pDoth, vDoth, hDoth, radiusSum, Math.min( t, limit ) ) );
+		}
+		
+		return t;
+	}
+	
+	/**
+	 * Finds when two balls with a relative acceleration come into contact.  Their offset moves as d + v * t + h * t^2, with h half the
+	 * relative acceleration, so the squared distance is a quartic in t.  Without relative acceleration it is only a quadratic, and
+	 * contactTime gives the same answer cheaply.  Pairs too far apart to meet by the limit are turned away before anything is solved,
+	 * and roots are only bracketed up to the limit.
+	 * @param dDotd Relative position dotted with itself
+	 * @param dDotv Relative position dotted with relative velocity
+	 * @param vDotv Relative velocity dotted with itself
+	 * @param dDoth Relative position dotted with half the relative acceleration
+	 * @param vDoth Relative velocity dotted with half the relative acceleration
+	 * @param hDoth Half the relative acceleration dotted with itself
+	 * @param radiusSum Sum of the radii
+	 * @param limit Latest time of interest
+	 * @return Returns the time until contact, infinite if the balls do not meet by the limit
+	 */
+	public static double acceleratedContactTime( double dDotd, double dDotv, double vDotv, double dDoth, double vDoth, double hDoth, double radiusSum, double limit ) {
+		
+		if ( hDoth == 0 ) {
+			double t = Physics.contactTime( vDotv, dDotv, dDotd, radiusSum );
 			
+			return ( t <= limit ) ? t : Double.POSITIVE_INFINITY;
 		}
 		
-		if ( collisions.size() > 0 ) {
-			Collision result = collisions.get(0);
-						
-			for ( Collision c: collisions ) {
-				if ( ( c.deltaT < result.deltaT ) && ( c.deltaT  > 0 ) ) result = c;
-			}			
-			return result;
+		double gap = dDotd - radiusSum * radiusSum;
+		
+		//Touching or overlapping while approaching, or at rest relative to each other and about to
+		if ( gap <= 0 && ( dDotv < 0 || ( dDotv == 0 && vDotv + 2 * dDoth < 0 ) ) ) return 0;
+		
+		//The offset cannot shrink faster than the relative speed and acceleration allow
+		if ( limit < Double.POSITIVE_INFINITY ) {
+			double reach = radiusSum + Math.sqrt( vDotv ) * limit + Math.sqrt( hDoth ) * limit * limit;
 			
+			if ( dDotd > reach * reach ) return Double.POSITIVE_INFINITY;
+		}
+		
+		double[] roots = Physics.polynomialRootsBefore( new double[] { gap, 2 * dDotv, vDotv + 2 * dDoth, 2 * vDoth, hDoth }, limit );
+		
+		for( double t : roots ) {
 			
+			//Only count the balls arriving, where the distance is shrinking: half the derivative of the quartic is negative
+			if ( dDotv + ( vDotv + 2 * dDoth ) * t + 3 * vDoth * t * t + 2 * hDoth * t * t * t < 0 ) return t;
 		}
-		else return null;
-
+		
+		return Double.POSITIVE_INFINITY;
 	}
 	
-	
 	/**
-	 * 
-	 * @param b1 The first ball
-	 * @param b2 The second ball
-	 * @return Returns a new Collision object containing the next collision between the balls.  Returns null if no such collision exists
+	 * Finds when two balls come into contact.  Balls already touching or overlapping collide at once if they are approaching and never if
+	 * they are separating, so rounding can neither lose a collision nor make one repeat.
+	 * @param vDotv Relative velocity dotted with itself
+	 * @param vDotp Relative velocity dotted with relative position
+	 * @param pDotp Relative position dotted with itself
+	 * @param radiusSum Sum of the radii
+	 * @return Returns the time until contact, infinite if the balls never meet
 	 */
-	public static Collision checkCollision( Ball b1, Ball b2 ) {
+	public static double contactTime( double vDotv, double vDotp, double pDotp, double radiusSum ) {
 		
-		//Difference in position vectors
-		DoubleVector deltaP = b1.pos.subtract( b2.pos );
+		//Separating, or keeping their distance, so they cannot meet
+		if ( !( vDotp < 0 ) ) return Double.POSITIVE_INFINITY;
 		
-		//Difference in velocity vectors
-		DoubleVector deltaV = b1.vel.subtract( b2.vel );
+		double gap = pDotp - radiusSum * radiusSum;
 		
-		//The difference in acceleration vectors is always zero, because the acceleration field is linear and static.  See detailed explanation above.
+		//Touching or overlapping while approaching
+		if ( gap <= 0 ) return 0;
 		
-		//Dot product of deltaV with itself (its magnitude squared)
-		double vDotv = DoubleVector.dotProduct(deltaV, deltaV);
+		double discriminant = vDotp * vDotp - vDotv * gap;
 		
+		//Passing each other without touching
+		if ( !( discriminant > 0 ) ) return Double.POSITIVE_INFINITY;
 		
-		//deltaV dot deltaP
-		double vDotp = DoubleVector.dotProduct(deltaV, deltaP);
+		//The smaller root of vDotv * t^2 + 2 * vDotp * t + gap, in the form where nothing cancels
+		return gap / ( -vDotp + Math.sqrt( discriminant ) );
+	}
+	
+	/**
+	 * Finds when a gap, changing as gap + rate * t + accel * t^2 / 2, closes.  Only closing counts, not opening: a gap already closed
+	 * closes at once if it is shrinking and is ignored while it grows, so rounding cannot let a ball slip through a boundary.
+	 * @param gap The gap now
+	 * @param rate Rate the gap is growing at
+	 * @param accel Acceleration of the gap
+	 * @return Returns the time until the gap closes, infinite if it never does
+	 */
+	public static double closingTime( double gap, double rate, double accel ) {
 		
-		//Dot product of deltaP with itself (its magnitude squared)
-		double pDotp = DoubleVector.dotProduct(deltaP, deltaP);
+		if ( gap <= 0 && rate < 0 ) return 0;
 		
-		//Sum of the radii of the actors.  The actors will be at exactly this distance when a collision occurs.
-		double radiusSum = b1.radius + b2.radius;
+		double a = 0.5 * accel;
 		
-		Double t = Physics.leastPositiveQuadraticSolution( vDotv, 2 * vDotp, pDotp - radiusSum * radiusSum);
+		if ( a == 0 ) return ( gap > 0 && rate < 0 ) ? -gap / rate : Double.POSITIVE_INFINITY;
 		
-		if ( t != null ) return new Collision(b1, b2, t.doubleValue() );
-		else return null;
+		double discriminant = rate * rate - 4 * a * gap;
+		
+		if ( !( discriminant > 0 ) ) return Double.POSITIVE_INFINITY;
 		
+		//Both roots in the forms where nothing cancels
+		double q = -0.5 * ( rate + Math.copySign( Math.sqrt( discriminant ), rate ) );
 		
+		double first = Math.min( q / a, gap / q );
+		double second = Math.max( q / a, gap / q );
+		
+		//The gap closes through a root where it is shrinking
+		if ( first >= 0 && rate + accel * first < 0 ) return first;
+		if ( second >= 0 && rate + accel * second < 0 ) return second;
+		
+		return Double.POSITIVE_INFINITY;
 	}
 	
 	/**
@@ -230,6 +560,151 @@ public class Physics {
 		return null;
 	}
 	
+	/**
+	 * 
+	 * @param coeffs Coefficients of the polynomial, coeffs[k] multiplies x^k
+	 * @return Returns every real root of the polynomial greater than DOUBLE_THRESHOLD in increasing order.  Roots of even multiplicity (tangencies) are not reported.
+	 */
+	public static double[] positivePolynomialRoots( double[] coeffs ) {
+		
+		//Vanishing leading coefficients lower the degree
+		int degree = coeffs.length - 1;
+		while( degree > 0 && coeffs[degree] == 0 ) degree--;
+		
+		if ( degree == 0 ) return new double[0];
+		
+		//Cauchy's bound: every root lies within 1 + max |c_k / c_n| of the origin
+		double bound = 0;
+		for( int k = 0; k < degree; k++ ) {
+			bound = Math.max( bound, Math.abs( coeffs[k] / coeffs[degree] ) );
+		}
+		
+		return Physics.polynomialRoots( coeffs, degree, Physics.DOUBLE_THRESHOLD, bound + 1 );
+	}
+	
+	/**
+	 * 
+	 * @param coeffs Coefficients of the polynomial, coeffs[k] multiplies x^k
+	 * @param limit Upper end of the interval searched
+	 * @return Returns every real root of the polynomial in (0, limit) in increasing order.  Unlike positivePolynomialRoots, roots just
+	 * after 0 are reported.  Roots of even multiplicity (tangencies) are not.
+	 */
+	public static double[] polynomialRootsBefore( double[] coeffs, double limit ) {
+		
+		int degree = coeffs.length - 1;
+		while( degree > 0 && coeffs[degree] == 0 ) degree--;
+		
+		if ( degree == 0 ) return new double[0];
+		
+		double bound = 0;
+		for( int k = 0; k < degree; k++ ) {
+			bound = Math.max( bound, Math.abs( coeffs[k] / coeffs[degree] ) );
+		}
+		
+		//Only the part of the interval that can hold a root is bracketed
+		return Physics.polynomialRoots( coeffs, degree, 0, Math.min( bound + 1, limit ) );
+	}
+	
+	/**
+	 * 
+	 * @param coeffs Coefficients of the polynomial, coeffs[k] multiplies x^k
+	 * @param degree Degree of the polynomial, coeffs[degree] must not be zero
+	 * @param lo Lower end of the interval
+	 * @param hi Upper end of the interval
+	 * @return Returns the roots of the polynomial strictly inside (lo, hi) at which it changes sign, in increasing order
+	 */
+	private static double[] polynomialRoots( double[] coeffs, int degree, double lo, double hi ) {
+		
+		if ( degree == 1 ) {
+			double x = -coeffs[0] / coeffs[1];
+			
+			if ( x > lo && x < hi ) return new double[] { x };
+			else return new double[0];
+		}
+		
+		//Between consecutive roots of the derivative the polynomial is monotonic, so each piece brackets at most one root
+		double[] deriv = new double[degree];
+		for( int k = 1; k <= degree; k++ ) {
+			deriv[k - 1] = k * coeffs[k];
+		}
+		
+		double[] critical = Physics.polynomialRoots( deriv, degree - 1, lo, hi );
+		
+		double[] roots = new double[critical.length + 1];
+		int found = 0;
+		
+		double left = lo;
+		double fLeft = Physics.polynomialValue( coeffs, degree, lo );
+		
+		for( int i = 0; i <= critical.length; i++ ) {
+			double right = ( i < critical.length ) ? critical[i] : hi;
+			double fRight = Physics.polynomialValue( coeffs, degree, right );
+			
+			if ( ( fLeft < 0 && fRight > 0 ) || ( fLeft > 0 && fRight < 0 ) ) {
+				roots[found++] = Physics.refineRoot( coeffs, deriv, degree, left, right, fLeft );
+			}
+			
+			left = right;
+			fLeft = fRight;
+		}
+		
+		return Arrays.copyOf( roots, found );
+	}
+	
+	/**
+	 * Finds the root of a polynomial inside a bracket using Newton steps, falling back to bisection whenever a step leaves the bracket
+	 * @param coeffs Coefficients of the polynomial
+	 * @param deriv Coefficients of its derivative
+	 * @param degree Degree of the polynomial
+	 * @param lo Lower end of the bracket
+	 * @param hi Upper end of the bracket
+	 * @param fLo Value of the polynomial at lo, of opposite sign to its value at hi
+	 * @return Returns the root
+	 */
+	private static double refineRoot( double[] coeffs, double[] deriv, int degree, double lo, double hi, double fLo ) {
+		
+		double x = 0.5 * ( lo + hi );
+		
+		for( int iter = 0; iter < 200; iter++ ) {
+			double f = Physics.polynomialValue( coeffs, degree, x );
+			
+			if ( f == 0 ) return x;
+			
+			//Shrink the bracket
+			if ( ( f < 0 ) == ( fLo < 0 ) ) {
+				lo = x;
+				fLo = f;
+			}
+			else hi = x;
+			
+			double next = x - f / Physics.polynomialValue( deriv, degree - 1, x );
+			
+			if ( !( next > lo && next < hi ) ) next = 0.5 * ( lo + hi );
+			
+			//Stop once the bracket can no longer be narrowed
+			if ( next == x || next <= lo || next >= hi ) return x;
+			
+			x = next;
+		}
+		
+		return x;
+	}
+	
+	/**
+	 * 
+	 * @param coeffs Coefficients of the polynomial, coeffs[k] multiplies x^k
+	 * @param degree Degree of the polynomial
+	 * @param x Point to evaluate at
+	 * @return Returns the value of the polynomial at x
+	 */
+	public static double polynomialValue( double[] coeffs, int degree, double x ) {
+		double result = coeffs[degree];
+		
+		for( int k = degree - 1; k >= 0; k-- ) {
+			result = result * x + coeffs[k];
+		}
+		
+		return result;
+	}
 	
-
 }
@@ -0,0 +1,142 @@
+import java.awt.Color;
+import java.awt.Graphics;
+
+/**
+ * A static line segment in the plane.  Polygons are built from one segment per edge.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class Segment extends Obstacle {
+
+	protected final double[] start;
+	protected final double[] end;
+
+	//Unit vector from start to end, and the unit normal to its left
+	protected final double[] direction;
+	protected final double[] normal;
+
+	protected final double length;
+
+	/**
+	 *
+	 * @param start First end point
+	 * @param end Second end point
+	 */
+	public Segment( DoubleVector start, DoubleVector end ) {
+
+		if ( start.order != 2 || end.order != 2 ) throw new IllegalArgumentException("Segments are only supported in two dimensions");
+
+		this.start = start.comps.clone();
+		this.end = end.comps.clone();
+
+		DoubleVector along = end.subtract( start );
+
+		this.length = along.magnitude();
+
+		if ( this.length == 0 ) throw new IllegalArgumentException("Segment has no length");
+
+		this.direction = along.unitVector().comps;
+		this.normal = new double[] { -this.direction[1], this.direction[0] };
+
+		this.lowerCorner = new double[] { Math.min( this.start[0], this.end[0] ), Math.min( this.start[1], this.end[1] ) };
+		this.upperCorner = new double[] { Math.max( this.start[0], this.end[0] ), Math.max( this.start[1], this.end[1] ) };
+	}
+
+	public double collisionTime( Ball ball, DoubleVector accelVec ) {
+
+		//The ball's signed distance from the line is s + sv * t + sa * t^2, its position along the segment u + uv * t + ua * t^2
+		double s = 0, sv = 0, sa = 0, u = 0, uv = 0, ua = 0;
+
+		for( int n = 0; n < 2; n++ ) {
+			double d = ball.pos.getComp( n ) - this.start[n];
+			double v = ball.vel.getComp( n );
+			double h = 0.5 * accelVec.getComp( n );
+
+			s += this.normal[n] * d;
+			sv += this.normal[n] * v;
+			sa += this.normal[n] * h;
+
+			u += this.direction[n] * d;
+			uv += this.direction[n] * v;
+			ua += this.direction[n] * h;
+		}
+
+		//Work on the side of the line the ball is on, so the face is hit when the distance falls to the radius.  Of the times the
+		//distance reaches the radius only the one where it is falling counts, and that only within the segment rather than beyond an end.
+		double side = ( s > 0 || ( s == 0 && sv < 0 ) ) ? 1 : -1;
+
+		double result = Physics.closingTime( side * s - ball.radius, side * sv, 2 * side * sa );
+
+		if ( result < Double.POSITIVE_INFINITY ) {
+			double along = u + uv * result + ua * result * result;
+
+			if ( along < 0 || along > this.length ) result = Double.POSITIVE_INFINITY;
+		}
+
+		//The ends behave like points
+		result = Math.min( result, Obstacle.pointCollisionTime( ball, this.start, ball.radius, accelVec ) );
+		result = Math.min( result, Obstacle.pointCollisionTime( ball, this.end, ball.radius, accelVec ) );
+
+		return result;
+	}
+
+	public void doCollision( Ball ball ) {
+
+		double along = this.closestAlong( ball.pos );
+
+		double[] pos = ball.pos.comps;
+		double[] vel = ball.vel.comps;
+
+		//Offset of the ball from the point of contact, worked out in place so a collision allocates nothing
+		double dx = pos[0] - ( this.start[0] + this.direction[0] * along );
+		double dy = pos[1] - ( this.start[1] + this.direction[1] * along );
+
+		double dDotv = dx * vel[0] + dy * vel[1];
+
+		if ( dDotv < 0 ) {
+			double scale = 2 * dDotv / ( dx * dx + dy * dy );
+
+			vel[0] -= scale * dx;
+			vel[1] -= scale * dy;
+		}
+	}
+
+	public double distanceTo( DoubleVector point ) {
+		return point.subtractComps( this.closestPoint( point ) ).magnitude();
+	}
+
+	/**
+	 *
+	 * @param point A point
+	 * @return Returns the point on the segment closest to the given point
+	 */
+	protected double[] closestPoint( DoubleVector point ) {
+
+		double along = this.closestAlong( point );
+
+		return new double[] { this.start[0] + this.direction[0] * along, this.start[1] + this.direction[1] * along };
+	}
+
+	/**
+	 *
+	 * @param point A point
+	 * @return Returns how far along the segment from its start the point closest to the given point is
+	 */
+	protected double closestAlong( DoubleVector point ) {
+
+		double along = 0;
+		for( int n = 0; n < 2; n++ ) {
+			along += this.direction[n] * ( point.getComp( n ) - this.start[n] );
+		}
+
+		return Math.max( 0, Math.min( this.length, along ) );
+	}
+
+	public void paint( Graphics g ) {
+		g.setColor( Color.DARK_GRAY );
+
+		g.drawLine( (int) this.start[0], (int) this.start[1], (int) this.end[0], (int) this.end[1] );
+	}
+
+}
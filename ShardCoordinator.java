@@ -0,0 +1,591 @@
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs one scene across several worker processes, for scenes too big for one JVM.  The box is cut into slabs along x, and each
+ * ShardWorker owns the balls whose centres are in its slab and runs them in a Universe of its own.  The coordinator keeps the workers
+ * in step and gathers checkpoints.
+ *
+ * Time advances in epochs.  At the start of an epoch each worker is handed ghosts: copies of the balls its neighbours own within a halo
+ * of its slab.  Every worker runs the epoch at once, its balls colliding with its ghosts as with anything else, then drops its ghosts and
+ * reports the balls that have left its slab, to be handed to the neighbour now owning them, and the balls near its edges, to become
+ * that neighbour's ghosts.  An epoch is chosen short enough that no ball going at the fastest speed of the last one travels further than
+ * the halo less the widest diameter, so any ball that can reach one of a worker's balls within the epoch is among its balls or ghosts
+ * at the start.  Collisions can make balls faster than that, a light ball hit by a heavy one up to twice the heavy one's speed and more
+ * along a chain, so each worker reports the fastest speed any ball reached during the epoch.  If that could have taken a ball further,
+ * every worker puts its balls back as they were at the start and the epoch is run again, shorter, for the speed reached.
+ *
+ * A collision across a slab boundary is resolved on both sides, each worker colliding its own ball with a ghost of the other.  Both
+ * sides see the same pair in the same state and compute the same collision, unless within the same epoch a ghost would first have been
+ * hit by a ball its copy cannot see.  That is the approximation this makes: near slab boundaries the trajectories can differ from a
+ * single Universe's over chains of collisions shorter than an epoch.  Energy and momentum are still conserved by every collision.
+ *
+ * Protocol: the coordinator sends a command byte then its arguments, and reads a reply where there is one.  Balls are sent as an int
+ * count and then, for each, double mass, double radius, the position and velocity components as doubles, and an int RGB colour.
+ * SETUP has the shard index and count, the order, the bounds of the box, the bounds of the slab, the halo and the gravity.  ADD has
+ * balls for the worker to own, and GHOSTS balls to add as ghosts until the end of the next epoch.  STEP has the double time to run,
+ * and the reply has the double fastest speed any ball reached during the epoch, the double fastest speed and widest radius of the
+ * worker's balls at its end, then the balls that left through its lower and upper slab edges and the balls within the halo of its
+ * lower and upper edges.  UNDO, straight after a STEP, puts the worker back as it was before it.  GATHER is answered with every ball
+ * the worker owns, and STOP ends the worker.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class ShardCoordinator {
+
+	public static final int DEFAULT_PORT = 4456;
+
+	//Commands
+	public static final byte SETUP = 0;
+	public static final byte ADD = 1;
+	public static final byte GHOSTS = 2;
+	public static final byte STEP = 3;
+	public static final byte GATHER = 4;
+	public static final byte STOP = 5;
+	public static final byte UNDO = 6;
+
+	//Relative distance beyond the reach allowed a ball in an epoch, for rounding in safeEpoch
+	protected static final double SLACK = 1e-9;
+
+	/**
+	 * A connected worker and the slab it owns
+	 */
+	protected static class Shard {
+
+		protected final Socket socket;
+		protected final DataInputStream in;
+		protected final DataOutputStream out;
+
+		protected double lower;
+		protected double upper;
+
+		//Fastest speed and widest radius of the worker's balls at the end of the last epoch
+		protected double maxSpeed = 0;
+		protected double maxRadius = 0;
+
+		//Fastest speed any of the worker's balls reached during the last epoch
+		protected double peakSpeed = 0;
+
+		//Balls reported at the end of the last epoch, to be handed on
+		protected List<Ball> leftLower;
+		protected List<Ball> leftUpper;
+		protected List<Ball> haloLower;
+		protected List<Ball> haloUpper;
+
+		protected Shard( Socket socket ) throws IOException {
+			this.socket = socket;
+			this.in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+			this.out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+		}
+	}
+
+	protected final ServerSocket server;
+	protected final ArrayList<Shard> shards = new ArrayList<Shard>();
+
+	protected final DoubleVector lowerBounds;
+	protected final DoubleVector upperBounds;
+	protected final DoubleVector gravity;
+
+	//Width of the strip beyond its slab each worker sees its neighbours' balls in
+	protected final double halo;
+
+	protected double time = 0;
+	protected long epochs = 0;
+	protected long redoneEpochs = 0;
+
+	/**
+	 * Starts listening for workers
+	 * @param port Port to listen on, or 0 for any free port
+	 * @param lowerBounds Lower bounds of the box
+	 * @param upperBounds Upper bounds of the box
+	 * @param gravity Gravity acceleration vector
+	 * @param halo Width of the strip beyond its slab each worker sees its neighbours' balls in, which must be wider than any ball
+	 * @throws IOException If the port cannot be opened
+	 */
+	public ShardCoordinator( int port, DoubleVector lowerBounds, DoubleVector upperBounds, DoubleVector gravity, double halo ) throws IOException {
+
+		if ( !( halo > 0 ) ) throw new IllegalArgumentException("Halo must be positive");
+
+		this.lowerBounds = lowerBounds;
+		this.upperBounds = upperBounds;
+		this.gravity = gravity;
+		this.halo = halo;
+
+		this.server = new ServerSocket( port, 50, InetAddress.getLoopbackAddress() );
+	}
+
+	/**
+	 * @return Returns the port workers connect to
+	 */
+	public int getPort() {
+		return this.server.getLocalPort();
+	}
+
+	/**
+	 * Starts worker processes on this machine, running the same Java with the same class path, which connect to this coordinator
+	 * @param count The number of workers
+	 * @return Returns the processes
+	 * @throws IOException If a process cannot be started
+	 */
+	public List<Process> launchLocalWorkers( int count ) throws IOException {
+
+		String java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+		String classPath = System.getProperty( "java.class.path" );
+
+		ArrayList<Process> processes = new ArrayList<Process>();
+
+		for( int k = 0; k < count; k++ ) {
+			ProcessBuilder builder = new ProcessBuilder( java, "-cp", classPath, "ShardWorker", "localhost", Integer.toString( this.getPort() ) );
+			builder.inheritIO();
+			processes.add( builder.start() );
+		}
+
+		return processes;
+	}
+
+	/**
+	 * Waits for workers to connect, then cuts the box into equal slabs along x and sets each worker up with one
+	 * @param count The number of workers
+	 * @throws IOException If a worker cannot be reached
+	 */
+	public void accept( int count ) throws IOException {
+
+		if ( count < 1 ) throw new IllegalArgumentException("Need at least one worker");
+		if ( !this.shards.isEmpty() ) throw new IllegalStateException("Workers have already connected");
+
+		double x0 = this.lowerBounds.comps[0];
+		double width = ( this.upperBounds.comps[0] - x0 ) / count;
+
+		if ( count > 1 && width < this.halo ) throw new IllegalArgumentException("Slabs would be narrower than the halo");
+
+		for( int k = 0; k < count; k++ ) {
+			Socket socket = this.server.accept();
+			socket.setTcpNoDelay( true );
+
+			Shard shard = new Shard( socket );
+			shard.lower = x0 + k * width;
+			shard.upper = ( k == count - 1 ) ? this.upperBounds.comps[0] : x0 + ( k + 1 ) * width;
+
+			this.shards.add( shard );
+		}
+
+		int order = this.lowerBounds.order;
+
+		for( int k = 0; k < count; k++ ) {
+			Shard shard = this.shards.get( k );
+			DataOutputStream out = shard.out;
+
+			out.writeByte( SETUP );
+			out.writeInt( k );
+			out.writeInt( count );
+			out.writeInt( order );
+			for( int n = 0; n < order; n++ ) {
+				out.writeDouble( this.lowerBounds.comps[n] );
+				out.writeDouble( this.upperBounds.comps[n] );
+			}
+			out.writeDouble( shard.lower );
+			out.writeDouble( shard.upper );
+			out.writeDouble( this.halo );
+			for( int n = 0; n < order; n++ ) {
+				out.writeDouble( this.gravity.comps[n] );
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Adds balls, each to the worker whose slab holds its centre and as a ghost to the neighbours whose halos it is in
+	 * @param balls The balls
+	 * @throws IOException If a worker cannot be reached
+	 */
+	public void addBalls( List<Ball> balls ) throws IOException {
+
+		int count = this.shards.size();
+
+		ArrayList<List<Ball>> owned = new ArrayList<List<Ball>>();
+		ArrayList<List<Ball>> ghosts = new ArrayList<List<Ball>>();
+		for( int k = 0; k < count; k++ ) {
+			owned.add( new ArrayList<Ball>() );
+			ghosts.add( new ArrayList<Ball>() );
+		}
+
+		for( Ball ball : balls ) {
+			double x = ball.pos.comps[0];
+			int k = this.shardOf( x );
+
+			owned.get( k ).add( ball );
+
+			Shard shard = this.shards.get( k );
+			shard.maxSpeed = Math.max( shard.maxSpeed, ball.vel.magnitude() );
+			shard.maxRadius = Math.max( shard.maxRadius, ball.radius );
+
+			if ( k > 0 && x < this.shards.get( k ).lower + this.halo ) ghosts.get( k - 1 ).add( ball );
+			if ( k < count - 1 && x >= this.shards.get( k ).upper - this.halo ) ghosts.get( k + 1 ).add( ball );
+		}
+
+		for( int k = 0; k < count; k++ ) {
+			this.send( this.shards.get( k ), owned.get( k ), ghosts.get( k ) );
+		}
+	}
+
+	/**
+	 * Runs the scene forward, in as many epochs as keep every ball within the halo
+	 * @param time Simulated time to run
+	 * @throws IOException If a worker cannot be reached
+	 */
+	public void runFor( double time ) throws IOException {
+
+		if ( time < 0 ) throw new IllegalArgumentException("Negative time specified");
+
+		double endTime = this.time + time;
+
+		//An epoch that is run again leaves the time where it was, and the next is shorter
+		while( this.time < endTime ) {
+			double epoch = Math.min( this.safeEpoch(), endTime - this.time );
+
+			this.step( epoch );
+		}
+	}
+
+	/**
+	 * Runs one epoch: every worker runs it at once, then balls that left their slabs are handed on and the ghosts renewed.  If a ball
+	 * got fast enough to go further than the halo allows, every worker is put back as it was instead, and safeEpoch then allows for
+	 * the speed it reached.
+	 * @param epoch Simulated time to run, no longer than safeEpoch
+	 * @return Returns whether the epoch was kept
+	 * @throws IOException If a worker cannot be reached
+	 */
+	public boolean step( double epoch ) throws IOException {
+
+		double reach = this.reach();
+		double g = this.gravity.magnitude();
+
+		for( Shard shard : this.shards ) {
+			shard.out.writeByte( STEP );
+			shard.out.writeDouble( epoch );
+			shard.out.flush();
+		}
+
+		double[] maxSpeeds = new double[this.shards.size()];
+		double[] maxRadii = new double[this.shards.size()];
+		boolean kept = true;
+
+		for( int k = 0; k < this.shards.size(); k++ ) {
+			Shard shard = this.shards.get( k );
+
+			shard.peakSpeed = shard.in.readDouble();
+			maxSpeeds[k] = shard.in.readDouble();
+			maxRadii[k] = shard.in.readDouble();
+			shard.leftLower = ShardCoordinator.readBalls( shard.in, this.lowerBounds.order );
+			shard.leftUpper = ShardCoordinator.readBalls( shard.in, this.lowerBounds.order );
+			shard.haloLower = ShardCoordinator.readBalls( shard.in, this.lowerBounds.order );
+			shard.haloUpper = ShardCoordinator.readBalls( shard.in, this.lowerBounds.order );
+
+			//Between its events a ball gains no more than g t of speed
+			if ( shard.peakSpeed * epoch + g * epoch * epoch / 2 > reach * ( 1 + SLACK ) ) kept = false;
+		}
+
+		if ( !kept ) {
+			for( Shard shard : this.shards ) {
+				shard.out.writeByte( UNDO );
+				shard.out.flush();
+
+				shard.maxSpeed = Math.max( shard.maxSpeed, shard.peakSpeed );
+			}
+
+			this.redoneEpochs++;
+
+			return false;
+		}
+
+		for( int k = 0; k < this.shards.size(); k++ ) {
+			this.shards.get( k ).maxSpeed = maxSpeeds[k];
+			this.shards.get( k ).maxRadius = maxRadii[k];
+		}
+
+		this.exchange();
+
+		this.time += epoch;
+		this.epochs++;
+
+		return true;
+	}
+
+	/**
+	 * Hands each worker the balls that have entered its slab and its ghosts for the next epoch
+	 */
+	protected void exchange() throws IOException {
+
+		int count = this.shards.size();
+
+		for( int k = 0; k < count; k++ ) {
+			Shard shard = this.shards.get( k );
+			Shard below = ( k > 0 ) ? this.shards.get( k - 1 ) : null;
+			Shard above = ( k < count - 1 ) ? this.shards.get( k + 1 ) : null;
+
+			ArrayList<Ball> entered = new ArrayList<Ball>();
+			ArrayList<Ball> ghosts = new ArrayList<Ball>();
+
+			if ( below != null ) {
+				entered.addAll( below.leftUpper );
+				ghosts.addAll( below.haloUpper );
+			}
+			if ( above != null ) {
+				entered.addAll( above.leftLower );
+				ghosts.addAll( above.haloLower );
+			}
+
+			//Balls that have just left are still near the slab, but their new owners reported their halos before taking them
+			for( Ball ball : shard.leftLower ) {
+				if ( ball.pos.comps[0] >= shard.lower - this.halo ) ghosts.add( ball );
+			}
+			for( Ball ball : shard.leftUpper ) {
+				if ( ball.pos.comps[0] < shard.upper + this.halo ) ghosts.add( ball );
+			}
+
+			this.send( shard, entered, ghosts );
+		}
+	}
+
+	/**
+	 * Sends a worker balls to own and ghosts to add
+	 */
+	protected void send( Shard shard, List<Ball> owned, List<Ball> ghosts ) throws IOException {
+
+		shard.out.writeByte( ADD );
+		ShardCoordinator.writeBalls( shard.out, owned );
+		shard.out.writeByte( GHOSTS );
+		ShardCoordinator.writeBalls( shard.out, ghosts );
+		shard.out.flush();
+	}
+
+	/**
+	 * @return Returns the longest epoch in which no ball going at the fastest speed of the last one can travel further than the halo
+	 * less the widest diameter
+	 */
+	public double safeEpoch() {
+
+		double speed = 0;
+
+		for( Shard shard : this.shards ) {
+			speed = Math.max( speed, shard.maxSpeed );
+		}
+
+		double reach = this.reach();
+
+		//Longest t with speed t + g t^2 / 2 within reach
+		double g = this.gravity.magnitude();
+
+		if ( g == 0 ) return ( speed > 0 ) ? reach / speed : Double.POSITIVE_INFINITY;
+
+		return 2 * reach / ( speed + Math.sqrt( speed * speed + 2 * g * reach ) );
+	}
+
+	/**
+	 * @return Returns the furthest a ball may travel in an epoch, the halo less the widest diameter
+	 */
+	protected double reach() {
+
+		double radius = 0;
+
+		for( Shard shard : this.shards ) {
+			radius = Math.max( radius, shard.maxRadius );
+		}
+
+		double reach = this.halo - 2 * radius;
+
+		if ( !( reach > 0 ) ) throw new IllegalStateException("Halo is narrower than the widest ball");
+
+		return reach;
+	}
+
+	/**
+	 * Copies the gravity, the bounds and every ball from every worker into a particle store, replacing what it held.  With a memory
+	 * mapped store this is a checkpoint.
+	 * @param store The store
+	 * @throws IOException If a worker cannot be reached
+	 */
+	public void writeTo( ParticleStore store ) throws IOException {
+
+		store.clear();
+		store.setScene( this.gravity, this.lowerBounds, this.upperBounds, false );
+
+		for( Shard shard : this.shards ) {
+			shard.out.writeByte( GATHER );
+			shard.out.flush();
+		}
+
+		for( Shard shard : this.shards ) {
+			for( Ball ball : ShardCoordinator.readBalls( shard.in, this.lowerBounds.order ) ) {
+				store.add( ball );
+			}
+		}
+
+		store.setTime( this.time );
+	}
+
+	/**
+	 * Stops every worker and stops listening
+	 */
+	public void close() {
+
+		for( Shard shard : this.shards ) {
+			try {
+				shard.out.writeByte( STOP );
+				shard.out.flush();
+				shard.socket.close();
+			}
+			catch( IOException e ) {
+				//Already gone
+			}
+		}
+
+		this.shards.clear();
+
+		try { this.server.close(); } catch( IOException e ) {}
+	}
+
+	/**
+	 * @return Returns the simulated time all the workers have reached
+	 */
+	public double getTime() {
+		return this.time;
+	}
+
+	/**
+	 * @return Returns the number of epochs run
+	 */
+	public long getEpochs() {
+		return this.epochs;
+	}
+
+	/**
+	 * @return Returns the number of epochs run again because a ball got faster than they allowed for
+	 */
+	public long getRedoneEpochs() {
+		return this.redoneEpochs;
+	}
+
+	/**
+	 * @return Returns the index of the worker whose slab holds an x-coordinate
+	 */
+	protected int shardOf( double x ) {
+
+		for( int k = 0; k < this.shards.size() - 1; k++ ) {
+			if ( x < this.shards.get( k ).upper ) return k;
+		}
+
+		return this.shards.size() - 1;
+	}
+
+	/**
+	 * Writes a count of balls and then each ball
+	 */
+	protected static void writeBalls( DataOutputStream out, List<Ball> balls ) throws IOException {
+
+		out.writeInt( balls.size() );
+
+		for( Ball ball : balls ) {
+			out.writeDouble( ball.mass );
+			out.writeDouble( ball.radius );
+			for( double comp : ball.pos.comps ) {
+				out.writeDouble( comp );
+			}
+			for( double comp : ball.vel.comps ) {
+				out.writeDouble( comp );
+			}
+			out.writeInt( ball.color.getRGB() );
+		}
+	}
+
+	/**
+	 * Reads a count of balls and then each ball
+	 */
+	protected static List<Ball> readBalls( DataInputStream in, int order ) throws IOException {
+
+		int count = in.readInt();
+
+		ArrayList<Ball> balls = new ArrayList<Ball>( count );
+
+		for( int i = 0; i < count; i++ ) {
+			double mass = in.readDouble();
+			double radius = in.readDouble();
+
+			double[] pos = new double[order];
+			double[] vel = new double[order];
+			for( int n = 0; n < order; n++ ) {
+				pos[n] = in.readDouble();
+			}
+			for( int n = 0; n < order; n++ ) {
+				vel[n] = in.readDouble();
+			}
+
+			Ball ball = new Ball( mass, radius, pos, vel );
+			ball.color = new Color( in.readInt() );
+
+			balls.add( ball );
+		}
+
+		return balls;
+	}
+
+	/**
+	 * Runs a gas of random balls across worker processes on this machine and reports the throughput
+	 * @param args Optional number of workers, number of balls and simulated time to run
+	 * @throws IOException If the workers cannot be started or reached
+	 */
+	public static void main( String[] args ) throws IOException {
+
+		int workers = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 4;
+		int count = ( args.length > 1 ) ? Integer.parseInt( args[1] ) : 20000;
+		double time = ( args.length > 2 ) ? Double.parseDouble( args[2] ) : 1;
+
+		DoubleVector lower = new DoubleVector( new double[] { 0, 0 } );
+		DoubleVector upper = new DoubleVector( new double[] { 4000, 4000 } );
+
+		ShardCoordinator coordinator = new ShardCoordinator( 0, lower, upper, new DoubleVector( new double[] { 0, 0 } ), 20 );
+		List<Process> processes = coordinator.launchLocalWorkers( workers );
+		coordinator.accept( workers );
+
+		//Balls on a jittered lattice, so none overlap
+		Random rnd = new Random( 1 );
+		int side = (int) Math.ceil( Math.sqrt( count ) );
+		double spacing = 4000.0 / side;
+
+		ArrayList<Ball> balls = new ArrayList<Ball>();
+		for( int i = 0; i < count; i++ ) {
+			double x = ( i % side + 0.5 ) * spacing + ( rnd.nextDouble() - 0.5 ) * ( spacing - 6 );
+			double y = ( i / side + 0.5 ) * spacing + ( rnd.nextDouble() - 0.5 ) * ( spacing - 6 );
+			balls.add( new Ball( 1, 2, new double[] { x, y }, new double[] { rnd.nextGaussian() * 50, rnd.nextGaussian() * 50 } ) );
+		}
+
+		coordinator.addBalls( balls );
+
+		long start = System.nanoTime();
+		coordinator.runFor( time );
+		double seconds = ( System.nanoTime() - start ) / 1e9;
+
+		HeapParticleStore store = new HeapParticleStore( 2, count );
+		coordinator.writeTo( store );
+
+		System.out.println( workers + " workers, " + store.size() + " balls, " + coordinator.getEpochs() + " epochs, " + coordinator.getRedoneEpochs() + " run again, " + time / seconds + " simulated time per second" );
+
+		coordinator.close();
+
+		for( Process process : processes ) {
+			try { process.waitFor(); } catch( InterruptedException e ) {}
+		}
+	}
+}
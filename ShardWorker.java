@@ -0,0 +1,300 @@
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * A worker process of a sharded scene, owning the balls in one slab of the box and running them in a headless Universe of its own
+ * under the direction of a ShardCoordinator, whose class comment describes the scheme and the protocol.
+ *
+ * The worker's Universe spans its slab and twice the halo beyond each edge it shares with a neighbour, so that ghosts and balls that
+ * have just left the slab stay clear of the Universe's walls there.  The box's own walls are the Universe's walls.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class ShardWorker {
+
+	protected Universe universe;
+
+	//Copies of the neighbours' balls near the slab, for the current epoch only
+	protected ArrayList<Ball> ghosts = new ArrayList<Ball>();
+
+	protected int order;
+	protected double slabLower;
+	protected double slabUpper;
+	protected double halo;
+
+	//Whether there are neighbours beyond the lower and upper edges of the slab
+	protected boolean hasLower;
+	protected boolean hasUpper;
+
+	//The balls as they were at the start of the last epoch, with their colours and which were ghosts, to run it again if told to
+	protected HeapParticleStore start;
+	protected int[] startColors = new int[0];
+	protected boolean[] startGhosts = new boolean[0];
+
+	protected PeakSpeed peak;
+
+	/**
+	 * Observables that also keep the fastest speed any ball has had since they were reset.  A ball's speed only jumps at its
+	 * events, and gravity adds no more than g t to it in time t after, so this bounds how far any ball can have gone.
+	 */
+	protected static class PeakSpeed extends Observables {
+
+		protected double peak = 0;
+
+		protected PeakSpeed( Universe universe ) {
+			super( universe.lowerBounds, universe.upperBounds );
+
+			universe.observables = this;
+		}
+
+		/**
+		 * Starts again from the fastest of some balls
+		 */
+		protected void reset( List<Ball> balls ) {
+
+			this.peak = 0;
+
+			for( Ball ball : balls ) {
+				this.peak = Math.max( this.peak, ball.vel.magnitude() );
+			}
+		}
+
+		public void afterCollision( Collision c ) {
+			super.afterCollision( c );
+
+			this.peak = Math.max( this.peak, c.ball1.vel.magnitude() );
+			if ( c.ball2 != null ) this.peak = Math.max( this.peak, c.ball2.vel.magnitude() );
+		}
+	}
+
+	/**
+	 * Takes commands from a coordinator until it says to stop
+	 * @param socket Connection to the coordinator
+	 * @throws IOException If the connection fails
+	 */
+	public void serve( Socket socket ) throws IOException {
+
+		socket.setTcpNoDelay( true );
+
+		DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+
+		while( true ) {
+			byte command = in.readByte();
+
+			switch( command ) {
+			case ShardCoordinator.SETUP:
+				this.setup( in );
+				break;
+
+			case ShardCoordinator.ADD:
+				this.universe.addActors( ShardCoordinator.readBalls( in, this.order ) );
+				break;
+
+			case ShardCoordinator.GHOSTS:
+				List<Ball> ghosts = ShardCoordinator.readBalls( in, this.order );
+				this.ghosts.addAll( ghosts );
+				this.universe.addActors( ghosts );
+				break;
+
+			case ShardCoordinator.STEP:
+				this.step( in.readDouble(), out );
+				out.flush();
+				break;
+
+			case ShardCoordinator.UNDO:
+				this.undo();
+				break;
+
+			case ShardCoordinator.GATHER:
+				ShardCoordinator.writeBalls( out, this.getOwned() );
+				out.flush();
+				break;
+
+			case ShardCoordinator.STOP:
+				return;
+
+			default:
+				throw new IOException("Unknown command " + command);
+			}
+		}
+	}
+
+	/**
+	 * Reads the worker's slab and creates its Universe
+	 */
+	protected void setup( DataInputStream in ) throws IOException {
+
+		int shard = in.readInt();
+		int shards = in.readInt();
+
+		this.order = in.readInt();
+
+		double[] lower = new double[this.order];
+		double[] upper = new double[this.order];
+		for( int n = 0; n < this.order; n++ ) {
+			lower[n] = in.readDouble();
+			upper[n] = in.readDouble();
+		}
+
+		this.slabLower = in.readDouble();
+		this.slabUpper = in.readDouble();
+		this.halo = in.readDouble();
+
+		double[] gravity = new double[this.order];
+		for( int n = 0; n < this.order; n++ ) {
+			gravity[n] = in.readDouble();
+		}
+
+		this.hasLower = shard > 0;
+		this.hasUpper = shard < shards - 1;
+
+		if ( this.hasLower ) lower[0] = this.slabLower - 2 * this.halo;
+		if ( this.hasUpper ) upper[0] = this.slabUpper + 2 * this.halo;
+
+		this.universe = new Universe( new DoubleVector( gravity ), true );
+		this.universe.setBounds( lower, upper );
+		this.universe.setBroadphase( new SweepAndPruneBroadphase( this.universe.lowerBounds, this.universe.upperBounds, 1 ) );
+
+		this.start = new HeapParticleStore( this.order, 0 );
+		this.peak = new PeakSpeed( this.universe );
+	}
+
+	/**
+	 * Runs an epoch, drops the ghosts, and reports the fastest speed any ball reached, the balls that left the slab, which are given
+	 * up, and those near its edges
+	 */
+	protected void step( double time, DataOutputStream out ) throws IOException {
+
+		this.keepStart();
+
+		//No ball goes further than the halo in an epoch, or the epoch is run again, so boxes need not cover more
+		if ( time > 0 ) this.universe.setHorizon( time );
+
+		this.peak.reset( this.universe.actors );
+		this.universe.runFor( time );
+
+		this.universe.removeActors( this.ghosts );
+		this.ghosts.clear();
+
+		ArrayList<Ball> leftLower = new ArrayList<Ball>();
+		ArrayList<Ball> leftUpper = new ArrayList<Ball>();
+		ArrayList<Ball> haloLower = new ArrayList<Ball>();
+		ArrayList<Ball> haloUpper = new ArrayList<Ball>();
+
+		double maxSpeed = 0;
+		double maxRadius = 0;
+
+		for( Ball ball : this.universe.actors ) {
+			double x = ball.pos.comps[0];
+
+			maxSpeed = Math.max( maxSpeed, ball.vel.magnitude() );
+			maxRadius = Math.max( maxRadius, ball.radius );
+
+			if ( this.hasLower && x < this.slabLower ) leftLower.add( ball );
+			else if ( this.hasUpper && x >= this.slabUpper ) leftUpper.add( ball );
+			else {
+				if ( this.hasLower && x < this.slabLower + this.halo ) haloLower.add( ball );
+				if ( this.hasUpper && x >= this.slabUpper - this.halo ) haloUpper.add( ball );
+			}
+		}
+
+		ArrayList<Ball> left = new ArrayList<Ball>( leftLower );
+		left.addAll( leftUpper );
+		this.universe.removeActors( left );
+
+		out.writeDouble( this.peak.peak );
+		out.writeDouble( maxSpeed );
+		out.writeDouble( maxRadius );
+		ShardCoordinator.writeBalls( out, leftLower );
+		ShardCoordinator.writeBalls( out, leftUpper );
+		ShardCoordinator.writeBalls( out, haloLower );
+		ShardCoordinator.writeBalls( out, haloUpper );
+	}
+
+	/**
+	 * Copies the balls, ghosts included, as they are at the start of an epoch
+	 */
+	protected void keepStart() {
+
+		HashSet<Ball> ghosts = new HashSet<Ball>( this.ghosts );
+
+		List<Ball> actors = this.universe.actors;
+		int count = actors.size();
+
+		if ( this.startColors.length < count ) {
+			this.startColors = new int[count];
+			this.startGhosts = new boolean[count];
+		}
+
+		this.universe.writeTo( this.start );
+
+		for( int i = 0; i < count; i++ ) {
+			Ball ball = actors.get(i);
+
+			this.startColors[i] = ball.color.getRGB();
+			this.startGhosts[i] = ghosts.contains( ball );
+		}
+	}
+
+	/**
+	 * Puts the balls back as they were at the start of the last epoch, ghosts and balls given up included, so it can be run again
+	 */
+	protected void undo() {
+
+		this.universe.readFrom( this.start );
+		this.ghosts.clear();
+
+		//The Universe adds the particles in the order they were stored
+		for( int i = 0; i < this.universe.actors.size(); i++ ) {
+			Ball ball = this.universe.actors.get(i);
+
+			ball.color = new Color( this.startColors[i] );
+			if ( this.startGhosts[i] ) this.ghosts.add( ball );
+		}
+	}
+
+	/**
+	 * @return Returns the balls the worker owns, leaving out its ghosts
+	 */
+	protected List<Ball> getOwned() {
+
+		HashSet<Ball> ghosts = new HashSet<Ball>( this.ghosts );
+
+		ArrayList<Ball> owned = new ArrayList<Ball>();
+		for( Ball ball : this.universe.actors ) {
+			if ( !ghosts.contains( ball ) ) owned.add( ball );
+		}
+
+		return owned;
+	}
+
+	/**
+	 * Connects to a coordinator and works for it until told to stop
+	 * @param args Optional host and port of the coordinator
+	 * @throws IOException If the connection fails
+	 */
+	public static void main( String[] args ) throws IOException {
+
+		String host = ( args.length > 0 ) ? args[0] : "localhost";
+		int port = ( args.length > 1 ) ? Integer.parseInt( args[1] ) : ShardCoordinator.DEFAULT_PORT;
+
+		Socket socket = new Socket( host, port );
+
+		try {
+			new ShardWorker().serve( socket );
+		}
+		finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,375 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streams snapshots of a Universe to remote viewers over TCP, so a headless engine can be watched from another machine.
+ *
+ * Positions are quantised to 16 bits across the Universe's bounds.  Each viewer is sent a key frame holding every ball's position, radius
+ * and colour, then frames holding only the change in each position since the last frame that viewer received, and the whole stream is
+ * deflated.  Delta frames pair balls by their index, so a fresh key frame is sent whenever balls are added, removed or reordered, as
+ * well as every so often for colour changes.  Snapshots are taken no more often than the frame rate allows.  Each viewer has its own
+ * sending thread holding only the newest snapshot, so a slow viewer misses frames rather than holding up the engine.
+ *
+ * Protocol, per frame: byte type (KEY_FRAME or DELTA_FRAME), double time, int ball count, then for a key frame four doubles giving the
+ * lower and upper x and y bounds and for each ball a float radius, an int RGB colour and the quantised x and y as unsigned varints, or
+ * for a delta frame the change in quantised x and y of each ball as zigzag varints.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class SnapshotPublisher {
+
+	public static final int DEFAULT_PORT = 4455;
+
+	public static final byte KEY_FRAME = 0;
+	public static final byte DELTA_FRAME = 1;
+
+	//Largest quantised coordinate
+	public static final int QUANTA = 65535;
+
+	//Frames between key frames, so that colour changes reach viewers
+	protected static final int KEY_INTERVAL = 60;
+
+	/**
+	 * The state of the Universe at one moment, as sent to viewers
+	 */
+	protected static class Frame {
+
+		protected final double time;
+		protected final double[] bounds;
+
+		//Universe's scene version, which changes whenever the balls at each index may have
+		protected final int sceneVersion;
+
+		protected final int[] x;
+		protected final int[] y;
+		protected final float[] radius;
+		protected final int[] rgb;
+
+		protected Frame( double time, double[] bounds, int sceneVersion, int count ) {
+			this.time = time;
+			this.bounds = bounds;
+			this.sceneVersion = sceneVersion;
+
+			this.x = new int[count];
+			this.y = new int[count];
+			this.radius = new float[count];
+			this.rgb = new int[count];
+		}
+	}
+
+	/**
+	 * A connected viewer and the thread sending to it
+	 */
+	protected class Viewer implements Runnable {
+
+		protected final Socket socket;
+
+		//Newest frame not yet sent.  A frame arriving before the last is sent replaces it.
+		protected Frame pending;
+
+		//Last frame sent, which the next delta frame is taken from
+		protected Frame previous;
+		protected int sinceKey = 0;
+
+		protected Viewer( Socket socket ) {
+			this.socket = socket;
+		}
+
+		/**
+		 * Hands the viewer a frame to send, dropping any frame still waiting
+		 */
+		protected synchronized void offer( Frame frame ) {
+			if ( this.pending != null ) SnapshotPublisher.this.dropped.incrementAndGet();
+
+			this.pending = frame;
+			this.notify();
+		}
+
+		protected synchronized Frame take() throws InterruptedException {
+			while( this.pending == null ) {
+				this.wait();
+			}
+
+			Frame frame = this.pending;
+			this.pending = null;
+
+			return frame;
+		}
+
+		public void run() {
+			try {
+				OutputStream raw = new BufferedOutputStream( this.socket.getOutputStream() );
+				DataOutputStream out = new DataOutputStream( new DeflaterOutputStream( raw, new Deflater( Deflater.BEST_SPEED ), 1 << 14, true ) );
+
+				while( !SnapshotPublisher.this.closed ) {
+					Frame frame = this.take();
+
+					this.write( out, frame );
+					out.flush();
+
+					SnapshotPublisher.this.sent.incrementAndGet();
+				}
+			}
+			catch( IOException e ) {
+				//The viewer went away
+			}
+			catch( InterruptedException e ) {
+				//Shutting down
+			}
+			finally {
+				SnapshotPublisher.this.viewers.remove( this );
+				try { this.socket.close(); } catch( IOException e ) {}
+			}
+		}
+
+		/**
+		 * Writes a frame, as a delta from the last one sent when possible
+		 */
+		protected void write( DataOutputStream out, Frame frame ) throws IOException {
+
+			int count = frame.x.length;
+
+			boolean key = this.previous == null || this.previous.sceneVersion != frame.sceneVersion || this.previous.x.length != count;
+			key = key || this.sinceKey >= KEY_INTERVAL;
+
+			for( int k = 0; !key && k < 4; k++ ) {
+				key = frame.bounds[k] != this.previous.bounds[k];
+			}
+
+			out.writeByte( key ? KEY_FRAME : DELTA_FRAME );
+			out.writeDouble( frame.time );
+			out.writeInt( count );
+
+			if ( key ) {
+				for( int k = 0; k < 4; k++ ) {
+					out.writeDouble( frame.bounds[k] );
+				}
+
+				for( int i = 0; i < count; i++ ) {
+					out.writeFloat( frame.radius[i] );
+					out.writeInt( frame.rgb[i] );
+					SnapshotPublisher.writeVarint( out, frame.x[i] );
+					SnapshotPublisher.writeVarint( out, frame.y[i] );
+				}
+
+				this.sinceKey = 0;
+			}
+			else {
+				for( int i = 0; i < count; i++ ) {
+					SnapshotPublisher.writeVarint( out, SnapshotPublisher.zigzag( frame.x[i] - this.previous.x[i] ) );
+					SnapshotPublisher.writeVarint( out, SnapshotPublisher.zigzag( frame.y[i] - this.previous.y[i] ) );
+				}
+
+				this.sinceKey++;
+			}
+
+			this.previous = frame;
+		}
+	}
+
+	protected final ServerSocket server;
+	protected final List<Viewer> viewers = new CopyOnWriteArrayList<Viewer>();
+
+	//Shortest time between snapshots, in nanoseconds
+	protected long minInterval;
+	protected long lastSnapshot;
+
+	protected volatile boolean closed = false;
+
+	//Frames sent to and dropped for all viewers
+	protected final AtomicLong sent = new AtomicLong();
+	protected final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Starts listening for viewers
+	 * @param port Port to listen on, or 0 for any free port
+	 * @param loopbackOnly True to accept viewers on this machine only
+	 * @param maxFrameRate Most snapshots taken per second
+	 * @throws IOException If the port cannot be opened
+	 */
+	public SnapshotPublisher( int port, boolean loopbackOnly, double maxFrameRate ) throws IOException {
+
+		this.setMaxFrameRate( maxFrameRate );
+		this.lastSnapshot = System.nanoTime() - this.minInterval;
+
+		this.server = ( loopbackOnly ) ? new ServerSocket( port, 8, InetAddress.getLoopbackAddress() ) : new ServerSocket( port );
+
+		Thread acceptor = new Thread( new Runnable() {
+			public void run() {
+				SnapshotPublisher.this.accept();
+			}
+		}, "snapshot-acceptor" );
+
+		acceptor.setDaemon( true );
+		acceptor.start();
+	}
+
+	/**
+	 * Sets the most snapshots taken per second
+	 * @param maxFrameRate Frames per second
+	 */
+	public void setMaxFrameRate( double maxFrameRate ) {
+		if ( maxFrameRate <= 0 ) throw new IllegalArgumentException("Frame rate must be positive");
+
+		this.minInterval = (long) ( 1e9 / maxFrameRate );
+	}
+
+	/**
+	 * @return Returns the port viewers connect to
+	 */
+	public int getPort() {
+		return this.server.getLocalPort();
+	}
+
+	/**
+	 * @return Returns the number of viewers connected
+	 */
+	public int getViewerCount() {
+		return this.viewers.size();
+	}
+
+	public long getFramesSent() {
+		return this.sent.get();
+	}
+
+	/**
+	 * @return Returns the number of frames replaced by a newer one before they could be sent
+	 */
+	public long getFramesDropped() {
+		return this.dropped.get();
+	}
+
+	/**
+	 * Accepts viewers until closed
+	 */
+	protected void accept() {
+		while( !this.closed ) {
+			try {
+				Socket socket = this.server.accept();
+				socket.setTcpNoDelay( true );
+
+				Viewer viewer = new Viewer( socket );
+				this.viewers.add( viewer );
+
+				Thread sender = new Thread( viewer, "snapshot-sender" );
+				sender.setDaemon( true );
+				sender.start();
+			}
+			catch( IOException e ) {
+				//Closed, or a failed connection
+			}
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the Universe for the viewers, unless there are none or the last one was too recent.
+	 * Called from the thread running the Universe, and returns without waiting on any viewer.
+	 * @param universe The Universe
+	 */
+	public void publish( Universe universe ) {
+
+		if ( this.viewers.isEmpty() ) return;
+
+		long now = System.nanoTime();
+		if ( now - this.lastSnapshot < this.minInterval ) return;
+		this.lastSnapshot = now;
+
+		double[] lower = universe.lowerBounds.comps;
+		double[] upper = universe.upperBounds.comps;
+
+		double[] bounds = new double[] { lower[0], lower[1], upper[0], upper[1] };
+
+		double scaleX = QUANTA / ( upper[0] - lower[0] );
+		double scaleY = QUANTA / ( upper[1] - lower[1] );
+
+		ArrayList<Ball> actors = universe.actors;
+		Frame frame = new Frame( universe.getTime(), bounds, universe.getSceneVersion(), actors.size() );
+
+		for( int i = 0; i < actors.size(); i++ ) {
+			Ball ball = actors.get(i);
+
+			frame.x[i] = SnapshotPublisher.quantise( ( ball.pos.comps[0] - lower[0] ) * scaleX );
+			frame.y[i] = SnapshotPublisher.quantise( ( ball.pos.comps[1] - lower[1] ) * scaleY );
+			frame.radius[i] = (float) ball.radius;
+			frame.rgb[i] = ball.color.getRGB();
+		}
+
+		for( Viewer viewer : this.viewers ) {
+			viewer.offer( frame );
+		}
+	}
+
+	/**
+	 * Stops listening and disconnects every viewer
+	 */
+	public void close() {
+		this.closed = true;
+
+		try { this.server.close(); } catch( IOException e ) {}
+
+		for( Viewer viewer : this.viewers ) {
+			try { viewer.socket.close(); } catch( IOException e ) {}
+		}
+	}
+
+	/**
+	 * @return Returns a coordinate rounded and clamped to the quantised range
+	 */
+	private static int quantise( double value ) {
+		return (int) Math.max( 0, Math.min( QUANTA, Math.round( value ) ) );
+	}
+
+	/**
+	 * @return Returns a signed value mapped to an unsigned one, small in magnitude either way
+	 */
+	protected static int zigzag( int value ) {
+		return ( value << 1 ) ^ ( value >> 31 );
+	}
+
+	/**
+	 * Writes an unsigned value in 7 bit groups, low group first, the top bit of each byte marking that more follow
+	 */
+	protected static void writeVarint( DataOutputStream out, int value ) throws IOException {
+		while( ( value & ~0x7f ) != 0 ) {
+			out.writeByte( ( value & 0x7f ) | 0x80 );
+			value >>>= 7;
+		}
+
+		out.writeByte( value );
+	}
+
+	/**
+	 * Runs a headless Universe of random balls and publishes it to viewers on this machine
+	 * @param args Optional port, number of balls, and true to accept viewers from other machines as well
+	 * @throws IOException If the port cannot be opened
+	 */
+	public static void main( String[] args ) throws IOException {
+
+		int port = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : DEFAULT_PORT;
+		int balls = ( args.length > 1 ) ? Integer.parseInt( args[1] ) : 200;
+		boolean remote = ( args.length > 2 ) && Boolean.parseBoolean( args[2] );
+
+		Universe universe = new Universe( new DoubleVector( new double[] {0, 0} ), true );
+		universe.addRandomActors( balls, new Random() );
+
+		SnapshotPublisher publisher = new SnapshotPublisher( port, !remote, 30 );
+		universe.setPublisher( publisher );
+
+		System.out.println( "Publishing on port " + publisher.getPort() );
+
+		universe.run();
+	}
+}
@@ -0,0 +1,235 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+
+/**
+ * Shows a Universe running elsewhere, drawing the snapshots sent by a SnapshotPublisher
+ *
+ * @author Alex Weeks
+ *
+ */
+public class SnapshotViewer extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+
+	//Balls, bounds and time as of the last frame received, replaced whole with each frame
+	protected ArrayList<Ball> balls = new ArrayList<Ball>();
+	protected double[] bounds = new double[] {0, 0, 1, 1};
+	protected double time = 0;
+
+	//Quantised positions of the last frame received, which delta frames are added to, and the radii and colours of the last key frame.
+	//Only the thread reading frames uses these.
+	protected int[] x = new int[0];
+	protected int[] y = new int[0];
+	protected float[] radius = new float[0];
+	protected Color[] colors = new Color[0];
+
+	protected long framesReceived = 0;
+
+	protected BallRenderer renderer = new BallRenderer();
+
+	protected Socket socket;
+
+	/**
+	 * Connects to a publisher and starts receiving frames in the background
+	 * @param host Host running the publisher
+	 * @param port Port the publisher listens on
+	 * @throws IOException If the connection fails
+	 */
+	public void connect( String host, int port ) throws IOException {
+
+		this.socket = new Socket( host, port );
+
+		final DataInputStream in = new DataInputStream( new InflaterInputStream( new BufferedInputStream( this.socket.getInputStream() ), new Inflater(), 1 << 14 ) );
+
+		Thread reader = new Thread( new Runnable() {
+			public void run() {
+				try {
+					while( true ) {
+						SnapshotViewer.this.readFrame( in );
+						SnapshotViewer.this.repaint();
+					}
+				}
+				catch( EOFException e ) {
+					//Publisher closed
+				}
+				catch( IOException e ) {
+					//Connection lost
+				}
+			}
+		}, "snapshot-reader" );
+
+		reader.setDaemon( true );
+		reader.start();
+	}
+
+	/**
+	 * Disconnects from the publisher
+	 */
+	public void disconnect() {
+		try { if ( this.socket != null ) this.socket.close(); } catch( IOException e ) {}
+	}
+
+	/**
+	 * Reads a frame and updates the balls.  The frame is decoded before taking the lock painting takes, so the panel is not held up
+	 * while a frame arrives.
+	 * @param in Stream from the publisher
+	 * @throws IOException If the stream fails or is malformed
+	 */
+	protected void readFrame( DataInputStream in ) throws IOException {
+
+		byte type = in.readByte();
+		double time = in.readDouble();
+		int count = in.readInt();
+
+		//Only this thread replaces the bounds, so they can be read without the lock
+		double[] bounds = this.bounds;
+
+		if ( type == SnapshotPublisher.KEY_FRAME ) {
+			bounds = new double[4];
+			for( int k = 0; k < 4; k++ ) {
+				bounds[k] = in.readDouble();
+			}
+
+			this.x = new int[count];
+			this.y = new int[count];
+			this.radius = new float[count];
+			this.colors = new Color[count];
+
+			for( int i = 0; i < count; i++ ) {
+				this.radius[i] = in.readFloat();
+				this.colors[i] = new Color( in.readInt() );
+
+				this.x[i] = SnapshotViewer.readVarint( in );
+				this.y[i] = SnapshotViewer.readVarint( in );
+			}
+		}
+		else if ( type == SnapshotPublisher.DELTA_FRAME ) {
+			if ( count != this.x.length ) throw new IOException("Delta frame for " + count + " balls, expected " + this.x.length);
+
+			for( int i = 0; i < count; i++ ) {
+				this.x[i] += SnapshotViewer.unzigzag( SnapshotViewer.readVarint( in ) );
+				this.y[i] += SnapshotViewer.unzigzag( SnapshotViewer.readVarint( in ) );
+			}
+		}
+		else {
+			throw new IOException("Unknown frame type " + type);
+		}
+
+		double scaleX = ( bounds[2] - bounds[0] ) / SnapshotPublisher.QUANTA;
+		double scaleY = ( bounds[3] - bounds[1] ) / SnapshotPublisher.QUANTA;
+
+		ArrayList<Ball> balls = new ArrayList<Ball>( count );
+
+		for( int i = 0; i < count; i++ ) {
+			double[] pos = new double[] { bounds[0] + this.x[i] * scaleX, bounds[1] + this.y[i] * scaleY };
+
+			Ball ball = new Ball( 1, this.radius[i], pos, new double[2] );
+			ball.color = this.colors[i];
+			balls.add( ball );
+		}
+
+		synchronized( this ) {
+			this.time = time;
+			this.bounds = bounds;
+			this.balls = balls;
+
+			this.framesReceived++;
+		}
+	}
+
+	/**
+	 * @return Returns the number of frames received
+	 */
+	public synchronized long getFramesReceived() {
+		return this.framesReceived;
+	}
+
+	/**
+	 * @return Returns the time of the Universe as of the last frame
+	 */
+	public synchronized double getTime() {
+		return this.time;
+	}
+
+	/**
+	 * @return Returns a copy of the balls as of the last frame
+	 */
+	public synchronized ArrayList<Ball> getBalls() {
+		return new ArrayList<Ball>( this.balls );
+	}
+
+	/**
+	 * Paints the balls, scaled to fit the panel
+	 */
+	public void paintComponent( Graphics g ) {
+		super.paintComponent( g );
+
+		synchronized( this ) {
+			double scale = Math.min( this.getWidth() / ( this.bounds[2] - this.bounds[0] ), this.getHeight() / ( this.bounds[3] - this.bounds[1] ) );
+
+			this.renderer.setBackground( this.getBackground() );
+			this.renderer.setView( this.bounds[0], this.bounds[1], 1 );
+
+			g.drawImage( this.renderer.render( this.balls, this.getWidth(), this.getHeight(), scale, scale ), 0, 0, null );
+
+			g.setColor( Color.WHITE );
+			g.drawString( Double.toString( this.time ), 10, 20 );
+		}
+	}
+
+	/**
+	 * @return Returns the value of an unsigned varint
+	 */
+	protected static int readVarint( DataInputStream in ) throws IOException {
+		int value = 0;
+
+		for( int shift = 0; shift < 35; shift += 7 ) {
+			int b = in.readUnsignedByte();
+
+			value |= ( b & 0x7f ) << shift;
+
+			if ( ( b & 0x80 ) == 0 ) return value;
+		}
+
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * @return Returns the signed value of a zigzag encoded one
+	 */
+	protected static int unzigzag( int value ) {
+		return ( value >>> 1 ) ^ -( value & 1 );
+	}
+
+	/**
+	 * Opens a window showing a remote Universe
+	 * @param args Optional host and port of the publisher
+	 * @throws IOException If the connection fails
+	 */
+	public static void main( String[] args ) throws IOException {
+
+		String host = ( args.length > 0 ) ? args[0] : "localhost";
+		int port = ( args.length > 1 ) ? Integer.parseInt( args[1] ) : SnapshotPublisher.DEFAULT_PORT;
+
+		SnapshotViewer viewer = new SnapshotViewer();
+		viewer.setBackground( Color.GRAY );
+		viewer.connect( host, port );
+
+		JFrame frame = new JFrame( "Universe at " + host + ":" + port );
+		frame.setDefaultCloseOperation( JFrame.EXIT_ON_CLOSE );
+		frame.setSize( 720, 690 );
+		frame.getContentPane().add( viewer );
+		frame.setVisible( true );
+	}
+}
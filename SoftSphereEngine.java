@@ -0,0 +1,525 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A time-stepped soft sphere (discrete element) engine, for dense scenes where the exact event-driven approach bogs down in collisions.
+ * Balls are allowed to overlap slightly and push each other apart with a linear spring and dashpot, and are integrated with velocity Verlet
+ * at a fixed step well below the contact time.  Walls push back the same way.  Candidate contacts come from a Verlet neighbour list built
+ * over a grid of cells, and forces are summed in parallel.
+ *
+ * Obstacles are not simulated by this engine.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class SoftSphereEngine {
+
+	//Spring constant of a contact, force per unit overlap
+	protected double stiffness = 1e7;
+
+	//Fraction of the normal approach speed kept after a contact, 1 for perfectly elastic
+	protected double restitution = 1;
+
+	//Integration steps per contact duration
+	protected double stepsPerContact = 20;
+
+	//Extra distance, as a fraction of the largest radius, within which pairs are kept in the neighbour list
+	protected double skinFraction = 0.3;
+
+	//Index ranges smaller than this are summed on one thread
+	protected static final int FORCE_CHUNK = 512;
+
+	protected DoubleVector lowerBounds;
+	protected DoubleVector upperBounds;
+
+	protected HeapParticleStore store;
+	protected int order;
+	protected int size;
+
+	//Acceleration from contacts, gravity and force regions, indexed [component][particle]
+	protected double[][] accel;
+
+	//Force regions acting during the current run
+	protected List<ForceRegion> regions = Collections.<ForceRegion>emptyList();
+
+	//Neighbour list in compressed rows: the neighbours of i are neighbors[neighborStart[i]] up to neighbors[neighborStart[i + 1]]
+	protected int[] neighborStart;
+	protected int[] neighbors;
+
+	//Positions when the neighbour list was built, to tell when it must be rebuilt
+	protected double[][] builtPos;
+
+	protected double maxRadius;
+	protected double skin;
+
+	//Number of overlapping pairs and wall contacts in the last force calculation
+	protected int contacts;
+
+	/**
+	 * Creates a new engine
+	 * @param lowerBounds Lower boundary vector of the region
+	 * @param upperBounds Upper boundary vector of the region
+	 */
+	public SoftSphereEngine( DoubleVector lowerBounds, DoubleVector upperBounds ) {
+		this.lowerBounds = lowerBounds;
+		this.upperBounds = upperBounds;
+		this.order = lowerBounds.order;
+	}
+
+	/**
+	 * Sets the contact spring constant.  Stiffer contacts overlap less but need smaller steps.
+	 * @param stiffness Force per unit overlap
+	 */
+	public void setStiffness( double stiffness ) {
+		if ( !( stiffness > 0 ) ) throw new IllegalArgumentException("Stiffness must be positive");
+
+		this.stiffness = stiffness;
+	}
+
+	/**
+	 * Sets the coefficient of restitution of contacts
+	 * @param restitution Fraction of the normal approach speed kept, between 0 (exclusive) and 1
+	 */
+	public void setRestitution( double restitution ) {
+		if ( !( restitution > 0 && restitution <= 1 ) ) throw new IllegalArgumentException("Restitution must be in (0, 1]");
+
+		this.restitution = restitution;
+	}
+
+	/**
+	 * Runs the balls for the given time, reading their state at the start and writing it back at the end
+	 * @param balls The balls
+	 * @param time Time to run for
+	 * @param accelVec Acceleration (gravity) vector of the Universe
+	 * @param regions Force regions of the Universe, acting on each particle whose centre is in them
+	 * @param periodic True for periodic boundaries, false for walls
+	 */
+	public void runFor( List<Ball> balls, double time, DoubleVector accelVec, List<ForceRegion> regions, boolean periodic ) {
+
+		this.regions = regions;
+
+		this.load( balls );
+
+		if ( this.size > 0 && time > 0 ) {
+
+			int steps = (int) Math.ceil( time / this.maxStep() );
+			double dt = time / steps;
+
+			this.buildNeighbors( periodic );
+			this.computeForces( accelVec, periodic );
+
+			for( int s = 0; s < steps; s++ ) {
+				this.step( dt, accelVec, periodic );
+			}
+		}
+
+		this.writeBack( balls );
+	}
+
+	/**
+	 * Copies the balls into the engine's store
+	 */
+	protected void load( List<Ball> balls ) {
+
+		if ( this.store == null ) this.store = new HeapParticleStore( this.order, balls.size() );
+		else this.store.clear();
+
+		this.maxRadius = 0;
+
+		for( Ball ball : balls ) {
+			this.store.add( ball );
+			this.maxRadius = Math.max( this.maxRadius, ball.radius );
+		}
+
+		this.size = balls.size();
+		this.skin = this.skinFraction * this.maxRadius;
+
+		if ( this.accel == null || this.accel[0].length < this.size ) {
+			this.accel = new double[this.order][ Math.max( this.size, 1 ) ];
+			this.builtPos = new double[this.order][ Math.max( this.size, 1 ) ];
+		}
+	}
+
+	/**
+	 * Copies the state in the engine's store back to the balls
+	 */
+	protected void writeBack( List<Ball> balls ) {
+
+		for( int i = 0; i < this.size; i++ ) {
+			Ball ball = balls.get( i );
+
+			for( int n = 0; n < this.order; n++ ) {
+				ball.pos.comps[n] = this.store.pos[n][i];
+				ball.vel.comps[n] = this.store.vel[n][i];
+			}
+		}
+	}
+
+	/**
+	 * @return Returns the largest stable step: a fraction of the duration of a contact between the two lightest balls
+	 */
+	protected double maxStep() {
+		double minMass = Double.POSITIVE_INFINITY;
+
+		for( int i = 0; i < this.size; i++ ) {
+			minMass = Math.min( minMass, this.store.mass[i] );
+		}
+
+		double contactTime = Math.PI * Math.sqrt( 0.5 * minMass / this.stiffness );
+
+		return contactTime / this.stepsPerContact;
+	}
+
+	/**
+	 * Advances one velocity Verlet step: half kick, drift, new forces, half kick
+	 */
+	protected void step( double dt, DoubleVector accelVec, boolean periodic ) {
+
+		double maxDisplacement = 0;
+
+		for( int n = 0; n < this.order; n++ ) {
+			double[] p = this.store.pos[n];
+			double[] v = this.store.vel[n];
+			double[] a = this.accel[n];
+			double[] built = this.builtPos[n];
+
+			double lower = this.lowerBounds.getComp( n );
+			double size = this.upperBounds.getComp( n ) - lower;
+
+			for( int i = 0; i < this.size; i++ ) {
+				v[i] += 0.5 * a[i] * dt;
+				p[i] += v[i] * dt;
+
+				if ( periodic ) p[i] -= size * Math.floor( ( p[i] - lower ) / size );
+
+				double moved = p[i] - built[i];
+				if ( periodic ) moved -= size * Math.rint( moved / size );
+
+				maxDisplacement = Math.max( maxDisplacement, Math.abs( moved ) );
+			}
+		}
+
+		//Pairs can only have come into range once something has moved half the skin.  Checked per component, which is conservative enough
+		//for the skin to absorb.
+		if ( maxDisplacement * Math.sqrt( this.order ) > 0.5 * this.skin ) this.buildNeighbors( periodic );
+
+		this.computeForces( accelVec, periodic );
+
+		for( int n = 0; n < this.order; n++ ) {
+			double[] v = this.store.vel[n];
+			double[] a = this.accel[n];
+
+			for( int i = 0; i < this.size; i++ ) {
+				v[i] += 0.5 * a[i] * dt;
+			}
+		}
+	}
+
+	/**
+	 * Calculates every particle's acceleration in parallel
+	 */
+	protected void computeForces( DoubleVector accelVec, boolean periodic ) {
+		this.contacts = ForkJoinPool.commonPool().invoke( new ForceTask( 0, this.size, accelVec, periodic ) );
+	}
+
+	/**
+	 * Sums the forces on a range of particles.  Each particle only writes its own acceleration, so ranges can run concurrently.
+	 */
+	protected class ForceTask extends RecursiveTask<Integer> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final DoubleVector accelVec;
+		private final boolean periodic;
+
+		ForceTask( int from, int to, DoubleVector accelVec, boolean periodic ) {
+			this.from = from;
+			this.to = to;
+			this.accelVec = accelVec;
+			this.periodic = periodic;
+		}
+
+		protected Integer compute() {
+
+			if ( this.to - this.from > FORCE_CHUNK ) {
+				int mid = ( this.from + this.to ) / 2;
+
+				ForceTask left = new ForceTask( this.from, mid, this.accelVec, this.periodic );
+				left.fork();
+
+				int right = new ForceTask( mid, this.to, this.accelVec, this.periodic ).compute();
+
+				return left.join() + right;
+			}
+
+			int contacts = 0;
+			double[] delta = new double[order];
+
+			for( int i = this.from; i < this.to; i++ ) {
+				contacts += SoftSphereEngine.this.sumForces( i, this.accelVec, this.periodic, delta );
+			}
+
+			return contacts;
+		}
+	}
+
+	/**
+	 * Calculates the acceleration of one particle from its contacts, the walls, gravity and the force regions
+	 * @param delta Scratch array for the separation, and for the particle's position
+	 * @return Returns the number of contacts, counting ball pairs as one half each
+	 */
+	private int sumForces( int i, DoubleVector accelVec, boolean periodic, double[] delta ) {
+
+		double[][] pos = this.store.pos;
+		double[][] vel = this.store.vel;
+		double mi = this.store.mass[i];
+		double ri = this.store.radius[i];
+
+		for( int n = 0; n < this.order; n++ ) {
+			this.accel[n][i] = accelVec.getComp( n );
+		}
+
+		if ( !this.regions.isEmpty() ) {
+			for( int n = 0; n < this.order; n++ ) {
+				delta[n] = pos[n][i];
+			}
+
+			for( ForceRegion region : this.regions ) {
+				if ( !region.contains( delta ) ) continue;
+
+				for( int n = 0; n < this.order; n++ ) {
+					this.accel[n][i] += region.accel[n] + this.store.charge[i] / mi * region.field[n];
+				}
+			}
+		}
+
+		int contacts = 0;
+
+		for( int k = this.neighborStart[i]; k < this.neighborStart[i + 1]; k++ ) {
+			int j = this.neighbors[k];
+
+			double reach = ri + this.store.radius[j];
+			double distSquared = 0;
+
+			for( int n = 0; n < this.order; n++ ) {
+				double d = pos[n][i] - pos[n][j];
+
+				if ( periodic ) {
+					double size = this.upperBounds.getComp( n ) - this.lowerBounds.getComp( n );
+					d -= size * Math.rint( d / size );
+				}
+
+				delta[n] = d;
+				distSquared += d * d;
+			}
+
+			if ( distSquared >= reach * reach || distSquared == 0 ) continue;
+
+			double dist = Math.sqrt( distSquared );
+			double overlap = reach - dist;
+
+			//Normal relative velocity, positive when separating
+			double vNormal = 0;
+			for( int n = 0; n < this.order; n++ ) {
+				vNormal += ( vel[n][i] - vel[n][j] ) * delta[n] / dist;
+			}
+
+			double mj = this.store.mass[j];
+			double force = this.stiffness * overlap - this.dampingCoefficient( mi * mj / ( mi + mj ) ) * vNormal;
+
+			for( int n = 0; n < this.order; n++ ) {
+				this.accel[n][i] += force * delta[n] / dist / mi;
+			}
+
+			//Each pair is seen from both sides
+			if ( i < j ) contacts++;
+		}
+
+		if ( !periodic ) {
+			for( int n = 0; n < this.order; n++ ) {
+				double p = pos[n][i];
+				double v = vel[n][i];
+
+				double lowerOverlap = ri - ( p - this.lowerBounds.getComp( n ) );
+				double upperOverlap = ri - ( this.upperBounds.getComp( n ) - p );
+
+				if ( lowerOverlap > 0 ) {
+					this.accel[n][i] += ( this.stiffness * lowerOverlap - this.dampingCoefficient( mi ) * v ) / mi;
+					contacts++;
+				}
+				if ( upperOverlap > 0 ) {
+					this.accel[n][i] -= ( this.stiffness * upperOverlap + this.dampingCoefficient( mi ) * v ) / mi;
+					contacts++;
+				}
+			}
+		}
+
+		return contacts;
+	}
+
+	/**
+	 * @param effectiveMass Reduced mass of the contact
+	 * @return Returns the dashpot coefficient giving the engine's coefficient of restitution for a linear spring contact
+	 */
+	protected double dampingCoefficient( double effectiveMass ) {
+
+		if ( this.restitution >= 1 ) return 0;
+
+		double logE = Math.log( this.restitution );
+		double ratio = -logE / Math.sqrt( Math.PI * Math.PI + logE * logE );
+
+		return 2 * ratio * Math.sqrt( effectiveMass * this.stiffness );
+	}
+
+	/**
+	 * Rebuilds the neighbour list by binning the particles into cells at least as wide as the largest contact distance plus the skin
+	 */
+	protected void buildNeighbors( boolean periodic ) {
+
+		double cellSize = 2 * this.maxRadius + this.skin;
+
+		int[] cells = new int[this.order];
+		int totalCells = 1;
+
+		for( int n = 0; n < this.order; n++ ) {
+			double size = this.upperBounds.getComp( n ) - this.lowerBounds.getComp( n );
+
+			cells[n] = Math.max( 1, (int) ( size / cellSize ) );
+			totalCells *= cells[n];
+		}
+
+		//Counting sort of the particles by cell
+		int[] cellOf = new int[this.size];
+		int[] cellStart = new int[totalCells + 1];
+
+		for( int i = 0; i < this.size; i++ ) {
+			int cell = 0;
+
+			for( int n = this.order - 1; n >= 0; n-- ) {
+				double lower = this.lowerBounds.getComp( n );
+				double size = this.upperBounds.getComp( n ) - lower;
+
+				int c = (int) ( ( this.store.pos[n][i] - lower ) / size * cells[n] );
+				c = Math.max( 0, Math.min( cells[n] - 1, c ) );
+
+				cell = cell * cells[n] + c;
+			}
+
+			cellOf[i] = cell;
+			cellStart[cell + 1]++;
+		}
+
+		for( int c = 0; c < totalCells; c++ ) {
+			cellStart[c + 1] += cellStart[c];
+		}
+
+		int[] cellParticles = new int[this.size];
+		int[] fill = Arrays.copyOf( cellStart, totalCells );
+
+		for( int i = 0; i < this.size; i++ ) {
+			cellParticles[ fill[ cellOf[i] ]++ ] = i;
+		}
+
+		int images = 1;
+		for( int n = 0; n < this.order; n++ ) images *= 3;
+
+		int[] nearCells = new int[images];
+		int[] coords = new int[this.order];
+
+		this.neighborStart = new int[this.size + 1];
+		int[] list = new int[ Math.max( 16, this.neighbors == null ? 0 : this.neighbors.length ) ];
+		int count = 0;
+
+		for( int i = 0; i < this.size; i++ ) {
+
+			this.neighborStart[i] = count;
+
+			int cell = cellOf[i];
+			for( int n = 0; n < this.order; n++ ) {
+				coords[n] = cell % cells[n];
+				cell /= cells[n];
+			}
+
+			//The surrounding block of cells, wrapped when periodic.  Small grids can wrap onto the same cell twice, so duplicates are dropped.
+			int near = 0;
+
+			for( int image = 0; image < images; image++ ) {
+				int code = image;
+				int linear = 0;
+				int stride = 1;
+				boolean inside = true;
+
+				for( int n = 0; n < this.order; n++ ) {
+					int c = coords[n] + code % 3 - 1;
+					code /= 3;
+
+					if ( periodic ) c = ( c + cells[n] ) % cells[n];
+					else if ( c < 0 || c >= cells[n] ) inside = false;
+
+					linear += c * stride;
+					stride *= cells[n];
+				}
+
+				if ( inside ) nearCells[near++] = linear;
+			}
+
+			Arrays.sort( nearCells, 0, near );
+
+			for( int k = 0; k < near; k++ ) {
+				if ( k > 0 && nearCells[k] == nearCells[k - 1] ) continue;
+
+				int c = nearCells[k];
+
+				for( int m = cellStart[c]; m < cellStart[c + 1]; m++ ) {
+					int j = cellParticles[m];
+
+					if ( j == i || !this.inRange( i, j, periodic ) ) continue;
+
+					if ( count == list.length ) list = Arrays.copyOf( list, 2 * list.length );
+					list[count++] = j;
+				}
+			}
+		}
+
+		this.neighborStart[this.size] = count;
+		this.neighbors = list;
+
+		for( int n = 0; n < this.order; n++ ) {
+			System.arraycopy( this.store.pos[n], 0, this.builtPos[n], 0, this.size );
+		}
+	}
+
+	/**
+	 * @return Returns true if two particles are within contact distance plus the skin
+	 */
+	private boolean inRange( int i, int j, boolean periodic ) {
+
+		double reach = this.store.radius[i] + this.store.radius[j] + this.skin;
+		double distSquared = 0;
+
+		for( int n = 0; n < this.order; n++ ) {
+			double d = this.store.pos[n][i] - this.store.pos[n][j];
+
+			if ( periodic ) {
+				double size = this.upperBounds.getComp( n ) - this.lowerBounds.getComp( n );
+				d -= size * Math.rint( d / size );
+			}
+
+			distSquared += d * d;
+		}
+
+		return distSquared < reach * reach;
+	}
+
+	/**
+	 * @return Returns the number of overlapping pairs and wall contacts at the end of the last run
+	 */
+	public int getContacts() {
+		return this.contacts;
+	}
+}
@@ -0,0 +1,316 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Samples how the balls are arranged and moving at regular intervals of simulated time, and streams the samples into fixed size
+ * histograms: the pair correlation g(r), the mean number density over a grid of the region, and the distribution of each velocity
+ * component.  Nothing is kept per sample, so memory does not grow however long the Universe runs.
+ *
+ * Pairs are found through a CellGrid with cells the correlation range across, so a sample costs time proportional to the number of
+ * balls times the neighbours each has within the range, not to the square of the number of balls.
+ *
+ * With walls, g(r) is normalised as if the region were unbounded, so pairs missing beyond the walls pull it below 1 at ranges
+ * comparable to the region's width.  With periodic boundaries distances are to the nearest image and there is no such bias.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class StructureSampler {
+
+	//Region sampled.  References to the Universe's own bounds, so they are always current.
+	protected DoubleVector lowerBounds;
+	protected DoubleVector upperBounds;
+
+	protected final int order;
+
+	//Simulated time between samples, and the absolute time of the next
+	protected double interval;
+	protected double nextSample = 0;
+
+	protected int samples = 0;
+
+	//Pair distances counted in bins evenly dividing 0 to the range, and the counts an ideal gas would have given over the same samples
+	protected double range;
+	protected long[] pairCounts;
+	protected double[] idealCounts;
+
+	//Finds the pairs within range
+	protected CellGrid grid;
+
+	//Ball centres counted per density cell, cells indexed with the first axis varying fastest
+	protected int densityBins = 16;
+	protected long[] densityCounts;
+
+	//Velocity components counted per bin, indexed [compIndex][bin].  Bins evenly divide -velocityRange to velocityRange, the end bins also counting everything beyond.
+	protected double velocityRange = 400;
+	protected long[][] velocityCounts;
+
+	/**
+	 * Creates a sampler with 100 bins of pair distance, 16 density cells along each axis, and 64 bins of velocity components up to 400 each way
+	 * @param lowerBounds Lower boundary vector of the region
+	 * @param upperBounds Upper boundary vector of the region
+	 * @param interval Simulated time between samples
+	 * @param range Longest distance between balls g(r) is measured to
+	 */
+	public StructureSampler( DoubleVector lowerBounds, DoubleVector upperBounds, double interval, double range ) {
+
+		if ( !( interval > 0 ) ) throw new IllegalArgumentException("Interval must be positive");
+		if ( !( range > 0 ) ) throw new IllegalArgumentException("Range must be positive");
+
+		this.lowerBounds = lowerBounds;
+		this.upperBounds = upperBounds;
+		this.order = lowerBounds.order;
+		this.interval = interval;
+		this.range = range;
+
+		this.grid = new CellGrid( lowerBounds, upperBounds );
+
+		this.pairCounts = new long[100];
+		this.idealCounts = new double[100];
+		this.densityCounts = new long[this.densityCellCount()];
+		this.velocityCounts = new long[this.order][64];
+	}
+
+	/**
+	 * Sets the number of bins g(r) is measured in, clearing what has been sampled
+	 * @param bins The number of bins
+	 */
+	public void setPairBins( int bins ) {
+		if ( bins < 1 ) throw new IllegalArgumentException("Must have at least one bin");
+
+		this.pairCounts = new long[bins];
+		this.idealCounts = new double[bins];
+		this.clear();
+	}
+
+	/**
+	 * Sets the number of density cells along each axis, clearing what has been sampled
+	 * @param bins The number of cells along each axis
+	 */
+	public void setDensityBins( int bins ) {
+		if ( bins < 1 ) throw new IllegalArgumentException("Must have at least one bin");
+
+		this.densityBins = bins;
+		this.densityCounts = new long[this.densityCellCount()];
+		this.clear();
+	}
+
+	/**
+	 * Sets the bins velocity components are counted in, clearing what has been sampled
+	 * @param range Largest component counted each way, anything faster goes in the end bins
+	 * @param bins The number of bins
+	 */
+	public void setVelocityBins( double range, int bins ) {
+		if ( !( range > 0 ) ) throw new IllegalArgumentException("Range must be positive");
+		if ( bins < 1 ) throw new IllegalArgumentException("Must have at least one bin");
+
+		this.velocityRange = range;
+		this.velocityCounts = new long[this.order][bins];
+		this.clear();
+	}
+
+	/**
+	 * Forgets every sample
+	 */
+	public void clear() {
+		this.samples = 0;
+
+		Arrays.fill( this.pairCounts, 0 );
+		Arrays.fill( this.idealCounts, 0 );
+		Arrays.fill( this.densityCounts, 0 );
+
+		for( long[] counts : this.velocityCounts ) {
+			Arrays.fill( counts, 0 );
+		}
+	}
+
+	/**
+	 * Sets the absolute time of the next sample
+	 * @param time The time
+	 */
+	public void setNextSample( double time ) {
+		this.nextSample = time;
+	}
+
+	/**
+	 * @return Returns the absolute time the next sample is due
+	 */
+	public double getNextSample() {
+		return this.nextSample;
+	}
+
+	/**
+	 * Checks that g(r) can be measured over a region
+	 * @param lower Lower bounds of the region
+	 * @param upper Upper bounds of the region
+	 * @param periodic True if the boundaries are periodic, when the range must be no more than half the region's width, or the
+	 * nearest image would not be the only one within it
+	 */
+	public void checkRange( double[] lower, double[] upper, boolean periodic ) {
+
+		if ( !periodic ) return;
+
+		for( int d = 0; d < this.order; d++ ) {
+			if ( this.range > ( upper[d] - lower[d] ) / 2 ) throw new IllegalArgumentException("Range is more than half the width of the periodic region");
+		}
+	}
+
+	/**
+	 * Makes a new grid after the region's bounds have moved, as a CellGrid keeps copies of the bounds it was made with
+	 */
+	public void boundsChanged() {
+		this.grid = new CellGrid( this.lowerBounds, this.upperBounds );
+	}
+
+	/**
+	 * Takes a sample and schedules the next one an interval after it
+	 * @param balls Every ball, up to date at the time
+	 * @param time The current time
+	 * @param periodic True if the boundaries are periodic
+	 */
+	public void sample( List<Ball> balls, double time, boolean periodic ) {
+
+		int order = this.order;
+		int n = balls.size();
+
+		double[] lower = this.lowerBounds.comps;
+		double[] upper = this.upperBounds.comps;
+
+		double volume = 1;
+		for( int d = 0; d < order; d++ ) {
+			volume *= upper[d] - lower[d];
+		}
+
+		//Pair distances, against the pairs in each shell were the same balls spread evenly
+		this.grid.build( balls, this.range );
+		this.grid.countPairs( this.range, periodic, this.pairCounts );
+
+		double pairDensity = n * ( n - 1 ) / 2.0 / volume;
+		double binWidth = this.range / this.pairCounts.length;
+
+		for( int k = 0; k < this.pairCounts.length; k++ ) {
+			this.idealCounts[k] += pairDensity * ( this.ballVolume( ( k + 1 ) * binWidth ) - this.ballVolume( k * binWidth ) );
+		}
+
+		int velocityBins = this.velocityCounts[0].length;
+
+		for( Ball ball : balls ) {
+
+			int cell = 0;
+			for( int d = order - 1; d >= 0; d-- ) {
+				int x = (int) Math.floor( ( ball.pos.comps[d] - lower[d] ) / ( upper[d] - lower[d] ) * this.densityBins );
+				cell = cell * this.densityBins + Math.min( Math.max( x, 0 ), this.densityBins - 1 );
+			}
+			this.densityCounts[cell]++;
+
+			for( int d = 0; d < order; d++ ) {
+				int bin = (int) Math.floor( ( ball.vel.comps[d] + this.velocityRange ) / ( 2 * this.velocityRange ) * velocityBins );
+				this.velocityCounts[d][Math.min( Math.max( bin, 0 ), velocityBins - 1 )]++;
+			}
+		}
+
+		this.samples++;
+
+		//Samples missed while a soft sphere step ran past them are skipped rather than all taken at once
+		do {
+			this.nextSample += this.interval;
+		} while( this.nextSample <= time );
+	}
+
+	/**
+	 * @return Returns the volume of a ball of a given radius in the order of the region
+	 */
+	protected double ballVolume( double radius ) {
+
+		//V(d) = V(d - 2) * 2 pi r^2 / d, from V(0) = 1 and V(1) = 2r
+		double volume = ( this.order % 2 == 0 ) ? 1 : 2 * radius;
+
+		for( int d = ( this.order % 2 == 0 ) ? 2 : 3; d <= this.order; d += 2 ) {
+			volume *= 2 * Math.PI * radius * radius / d;
+		}
+
+		return volume;
+	}
+
+	/**
+	 * @return Returns the number of density cells over the region
+	 */
+	protected int densityCellCount() {
+
+		int cells = 1;
+		for( int d = 0; d < this.order; d++ ) {
+			cells *= this.densityBins;
+		}
+
+		return cells;
+	}
+
+	/**
+	 * @return Returns the number of samples taken
+	 */
+	public int getSamples() {
+		return this.samples;
+	}
+
+	/**
+	 * @return Returns g(r) averaged over the samples, bin k covering distances in [k * width, (k + 1) * width).  Bins no pairs could have fallen in are 0.
+	 */
+	public double[] getPairCorrelation() {
+
+		double[] g = new double[this.pairCounts.length];
+
+		for( int k = 0; k < g.length; k++ ) {
+			g[k] = ( this.idealCounts[k] > 0 ) ? this.pairCounts[k] / this.idealCounts[k] : 0;
+		}
+
+		return g;
+	}
+
+	/**
+	 * @return Returns the width of a g(r) bin
+	 */
+	public double getPairBinWidth() {
+		return this.range / this.pairCounts.length;
+	}
+
+	/**
+	 * @return Returns the number of balls per unit volume in each density cell averaged over the samples, cells indexed with the first axis varying fastest
+	 */
+	public double[] getDensity() {
+
+		double cellVolume = 1;
+		for( int d = 0; d < this.order; d++ ) {
+			cellVolume *= ( this.upperBounds.comps[d] - this.lowerBounds.comps[d] ) / this.densityBins;
+		}
+
+		double[] density = new double[this.densityCounts.length];
+
+		for( int c = 0; c < density.length; c++ ) {
+			density[c] = ( this.samples > 0 ) ? this.densityCounts[c] / ( this.samples * cellVolume ) : 0;
+		}
+
+		return density;
+	}
+
+	/**
+	 * @return Returns the number of density cells along each axis
+	 */
+	public int getDensityBins() {
+		return this.densityBins;
+	}
+
+	/**
+	 * @param compIndex The velocity component
+	 * @return Returns a copy of the histogram of a velocity component, summed over the samples.  Bin k counts components in [-range + k * width, -range + (k + 1) * width).
+	 */
+	public long[] getVelocityHistogram( int compIndex ) {
+		return this.velocityCounts[compIndex].clone();
+	}
+
+	/**
+	 * @return Returns the width of a velocity histogram bin
+	 */
+	public double getVelocityBinWidth() {
+		return 2 * this.velocityRange / this.velocityCounts[0].length;
+	}
+}
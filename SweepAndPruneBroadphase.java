@@ -0,0 +1,638 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Sweep and prune over swept bounding boxes.  Each ball's box holds everything the ball touches from the moment it was last updated until
+ * the horizon, following its parabola under its acceleration.  The ends of the boxes along x are kept sorted, and every pair of boxes overlapping
+ * along x is tracked as the ends pass each other, so the candidates of a ball are found by checking the other axes of just those pairs.
+ *
+ * A ball's trajectory changes little between updates, so its ends move only a few places and re-sorting them by insertion is cheap.
+ * Boxes added are different: their ends are appended, sorted in with the rest in one pass, and their overlaps found in one sweep, so
+ * adding many balls at once costs little more than adding one.  Removed boxes leave their ends behind, to be dropped at the next sort.
+ * Unlike a grid, the cost does not depend on how the radii are spread: a large ball simply overlaps more boxes.
+ *
+ * With periodic boundaries, a box reaching past a boundary gets ghost copies shifted by the size of the Universe, which find the balls
+ * near the opposite boundary.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class SweepAndPruneBroadphase extends Broadphase {
+
+	/**
+	 * One end of a box along x
+	 */
+	protected static class Endpoint {
+
+		protected final Box box;
+		protected final boolean isMin;
+		protected double value;
+
+		//Position in the sorted endpoints
+		protected int index;
+
+		protected Endpoint( Box box, boolean isMin ) {
+			this.box = box;
+			this.isMin = isMin;
+		}
+	}
+
+	/**
+	 * The swept bounding box of a ball, or a ghost of it
+	 */
+	protected static class Box {
+
+		protected final Ball ball;
+
+		protected final double[] lower;
+		protected final double[] upper;
+
+		protected final Endpoint min;
+		protected final Endpoint max;
+
+		//Identifies the box while its ends are sorted, -1 before it is inserted and after it is removed
+		protected int id = -1;
+
+		//Ids of the boxes overlapping this one along x
+		protected int[] overlaps = new int[4];
+		protected int overlapCount = 0;
+
+		//True once removed, while its ends may still be among the sorted endpoints
+		protected boolean dead = false;
+
+		//True while being inserted, and its position among the open boxes of each kind while sweeping
+		protected boolean fresh = false;
+		protected int activeIndex;
+		protected int freshIndex;
+
+		protected Box( Ball ball, int order ) {
+			this.ball = ball;
+
+			this.lower = new double[order];
+			this.upper = new double[order];
+
+			this.min = new Endpoint( this, true );
+			this.max = new Endpoint( this, false );
+		}
+
+		protected void addOverlap( int id ) {
+			if ( this.overlapCount == this.overlaps.length ) this.overlaps = Arrays.copyOf( this.overlaps, 2 * this.overlaps.length );
+
+			this.overlaps[this.overlapCount++] = id;
+		}
+
+		protected void removeOverlap( int id ) {
+			for( int k = 0; k < this.overlapCount; k++ ) {
+				if ( this.overlaps[k] == id ) {
+					this.overlaps[k] = this.overlaps[--this.overlapCount];
+					return;
+				}
+			}
+		}
+	}
+
+	//Orders endpoints by value, with minimums first among equals so that touching boxes overlap
+	protected static final Comparator<Endpoint> ENDPOINT_ORDER = new Comparator<Endpoint>() {
+		public int compare( Endpoint e1, Endpoint e2 ) {
+			if ( e1.value != e2.value ) return Double.compare( e1.value, e2.value );
+			if ( e1.isMin == e2.isMin ) return 0;
+			return e1.isMin ? -1 : 1;
+		}
+	};
+
+	protected final DoubleVector lowerBounds;
+	protected final DoubleVector upperBounds;
+
+	protected double horizon;
+
+	//Sorted ends of every box along x, and how many of them belong to removed boxes
+	protected Endpoint[] endpoints = new Endpoint[64];
+	protected int count = 0;
+	protected int deadCount = 0;
+
+	//Inserted boxes by id, and the ids of removed boxes free to be used again
+	protected Box[] byId = new Box[32];
+	protected int idCount = 0;
+	protected int[] freeIds = new int[32];
+	protected int freeCount = 0;
+
+	//Boxes of each ball, the ball's own box first and then its ghosts
+	protected HashMap<Ball, ArrayList<Box>> boxes = new HashMap<Ball, ArrayList<Box>>();
+
+	//Balls and ghosts added since the last update, inserted together when next needed
+	protected ArrayList<Ball> pending = new ArrayList<Ball>();
+	protected ArrayList<Box> pendingBoxes = new ArrayList<Box>();
+
+	//Open boxes while sweeping, all of them and the fresh ones
+	protected Box[] active = new Box[32];
+	protected Box[] activeFresh = new Box[32];
+
+	//Candidates already found during a query
+	protected HashSet<Ball> found = new HashSet<Ball>();
+
+	/**
+	 * Creates a new broadphase
+	 * @param lowerBounds Lower bounds of the Universe
+	 * @param upperBounds Upper bounds of the Universe
+	 * @param horizon Time each ball's box covers
+	 */
+	public SweepAndPruneBroadphase( DoubleVector lowerBounds, DoubleVector upperBounds, double horizon ) {
+		this.lowerBounds = lowerBounds;
+		this.upperBounds = upperBounds;
+
+		this.setHorizon( horizon );
+	}
+
+	/**
+	 * Sets the time each ball's box covers.  Longer horizons mean larger boxes and more candidates, shorter ones mean more frequent updates.
+	 * Takes effect for each ball at its next update.
+	 * @param horizon The time
+	 */
+	public void setHorizon( double horizon ) {
+		if ( horizon <= 0 ) throw new IllegalArgumentException("Horizon must be positive");
+
+		this.horizon = horizon;
+	}
+
+	public double getHorizon() {
+		return this.horizon;
+	}
+
+	/**
+	 * @return Returns the number of pairs of boxes overlapping along x
+	 */
+	public int getOverlapCount() {
+		int total = 0;
+
+		for( int i = 0; i < this.count; i++ ) {
+			if ( this.endpoints[i].isMin && !this.endpoints[i].box.dead ) total += this.endpoints[i].box.overlapCount;
+		}
+
+		return total / 2;
+	}
+
+	public void rebuild( List<Ball> balls ) {
+
+		this.boxes.clear();
+		this.pending.clear();
+		this.pendingBoxes.clear();
+
+		Arrays.fill( this.endpoints, 0, this.count, null );
+		Arrays.fill( this.byId, 0, this.idCount, null );
+		this.count = 0;
+		this.deadCount = 0;
+		this.idCount = 0;
+		this.freeCount = 0;
+
+		this.pending.addAll( balls );
+		this.flush();
+	}
+
+	public void add( Ball ball ) {
+		this.pending.add( ball );
+	}
+
+	public void remove( Ball ball ) {
+
+		if ( this.pending.remove( ball ) ) return;
+
+		ArrayList<Box> own = this.boxes.remove( ball );
+		if ( own == null ) return;
+
+		for( Box box : own ) {
+			this.removeBox( box );
+		}
+	}
+
+	public void update( Ball ball ) {
+
+		this.flush();
+
+		ArrayList<Box> own = this.boxes.get( ball );
+		if ( own == null ) return;
+
+		Box box = own.get(0);
+
+		double[] lower = new double[box.lower.length];
+		double[] upper = new double[box.upper.length];
+
+		this.sweep( ball, lower, upper );
+		this.moveBox( box, lower, upper );
+
+		if ( this.periodic || own.size() > 1 ) this.updateGhosts( own );
+	}
+
+	public void candidates( Ball ball, List<Ball> result ) {
+
+		this.flush();
+
+		ArrayList<Box> own = this.boxes.get( ball );
+		if ( own == null ) return;
+
+		this.found.clear();
+
+		for( Box box : own ) {
+			for( int k = 0; k < box.overlapCount; k++ ) {
+				Box other = this.byId[ box.overlaps[k] ];
+
+				if ( other.ball == ball || !SweepAndPruneBroadphase.overlapsBeyondX( box, other ) ) continue;
+
+				if ( this.found.add( other.ball ) ) result.add( other.ball );
+			}
+		}
+	}
+
+	/**
+	 * Inserts the balls and ghosts added since the last update
+	 */
+	protected void flush() {
+
+		if ( this.pending.isEmpty() && this.pendingBoxes.isEmpty() ) return;
+
+		for( Ball ball : this.pending ) {
+			ArrayList<Box> own = new ArrayList<Box>( 1 );
+
+			Box box = new Box( ball, ball.pos.order );
+			this.sweep( ball, box.lower, box.upper );
+			own.add( box );
+
+			if ( this.periodic ) this.addGhosts( own );
+
+			this.boxes.put( ball, own );
+			this.pendingBoxes.addAll( own );
+		}
+
+		this.pending.clear();
+
+		this.insertBoxes( this.pendingBoxes );
+		this.pendingBoxes.clear();
+	}
+
+	/**
+	 * Inserts boxes together: their ends are appended, the ends of removed boxes dropped, and everything sorted in one pass, which
+	 * costs little more than a pass over the ends already sorted.  One sweep then finds every overlap involving the new boxes.
+	 * @param added The boxes, with their corners set
+	 */
+	protected void insertBoxes( List<Box> added ) {
+
+		this.compact();
+
+		if ( this.count + 2 * added.size() > this.endpoints.length ) this.endpoints = Arrays.copyOf( this.endpoints, Math.max( 2 * this.endpoints.length, this.count + 2 * added.size() ) );
+
+		for( Box box : added ) {
+			this.assignId( box );
+			box.fresh = true;
+
+			box.min.value = box.lower[0];
+			box.max.value = box.upper[0];
+
+			this.endpoints[this.count++] = box.min;
+			this.endpoints[this.count++] = box.max;
+		}
+
+		//The ends already there are one sorted run, which the merge sort takes as it is
+		Arrays.sort( this.endpoints, 0, this.count, ENDPOINT_ORDER );
+
+		if ( this.active.length < this.idCount ) {
+			this.active = new Box[this.byId.length];
+			this.activeFresh = new Box[this.byId.length];
+		}
+
+		//Sweep along x.  A fresh box opening overlaps every open box, any other box only the open fresh ones, as its overlaps with
+		//the rest are already known.
+		int activeCount = 0;
+		int freshCount = 0;
+
+		for( int i = 0; i < this.count; i++ ) {
+			Endpoint e = this.endpoints[i];
+			Box box = e.box;
+
+			e.index = i;
+
+			if ( e.isMin ) {
+				if ( box.fresh ) {
+					for( int k = 0; k < activeCount; k++ ) {
+						this.addOverlap( box, this.active[k] );
+					}
+
+					box.freshIndex = freshCount;
+					this.activeFresh[freshCount++] = box;
+				}
+				else {
+					for( int k = 0; k < freshCount; k++ ) {
+						this.addOverlap( box, this.activeFresh[k] );
+					}
+				}
+
+				box.activeIndex = activeCount;
+				this.active[activeCount++] = box;
+			}
+			else {
+				Box last = this.active[--activeCount];
+				this.active[box.activeIndex] = last;
+				last.activeIndex = box.activeIndex;
+
+				if ( box.fresh ) {
+					last = this.activeFresh[--freshCount];
+					this.activeFresh[box.freshIndex] = last;
+					last.freshIndex = box.freshIndex;
+				}
+			}
+		}
+
+		for( Box box : added ) {
+			box.fresh = false;
+		}
+
+		Arrays.fill( this.active, 0, this.idCount, null );
+		Arrays.fill( this.activeFresh, 0, this.idCount, null );
+	}
+
+	/**
+	 * Drops the ends of removed boxes from the sorted endpoints
+	 */
+	protected void compact() {
+
+		if ( this.deadCount == 0 ) return;
+
+		int to = 0;
+
+		for( int i = 0; i < this.count; i++ ) {
+			Endpoint e = this.endpoints[i];
+			if ( e.box.dead ) continue;
+
+			e.index = to;
+			this.endpoints[to++] = e;
+		}
+
+		Arrays.fill( this.endpoints, to, this.count, null );
+
+		this.count = to;
+		this.deadCount = 0;
+	}
+
+	/**
+	 * Gives a box an id, reusing one freed by a removed box if there is one
+	 */
+	protected void assignId( Box box ) {
+
+		int id = ( this.freeCount > 0 ) ? this.freeIds[--this.freeCount] : this.idCount++;
+
+		if ( id == this.byId.length ) this.byId = Arrays.copyOf( this.byId, 2 * this.byId.length );
+
+		this.byId[id] = box;
+		box.id = id;
+	}
+
+	/**
+	 * Finds the box holding everything a ball touches from now until the horizon, flying under its acceleration
+	 * @param ball The ball
+	 * @param lower Filled with the lower corner of the box
+	 * @param upper Filled with the upper corner of the box
+	 */
+	protected void sweep( Ball ball, double[] lower, double[] upper ) {
+
+		double h = this.horizon;
+
+		for( int n = 0; n < lower.length; n++ ) {
+			double p = ball.pos.comps[n];
+			double v = ball.vel.comps[n];
+			double a = ball.accel.comps[n];
+
+			double end = p + v * h + a * h * h / 2;
+
+			double lo = Math.min( p, end );
+			double hi = Math.max( p, end );
+
+			//The parabola may turn around between the ends
+			if ( a != 0 ) {
+				double t = -v / a;
+
+				if ( t > 0 && t < h ) {
+					double turn = p + v * t + a * t * t / 2;
+
+					lo = Math.min( lo, turn );
+					hi = Math.max( hi, turn );
+				}
+			}
+
+			//A little slack so rounding cannot hide a grazing contact
+			double slack = Physics.DOUBLE_THRESHOLD * ( 1 + Math.abs( lo ) + Math.abs( hi ) );
+
+			lower[n] = lo - ball.radius - slack;
+			upper[n] = hi + ball.radius + slack;
+		}
+	}
+
+	/**
+	 * Adds ghosts for every way a ball's own box reaches past the boundaries
+	 * @param own The ball's boxes, holding only its own box
+	 */
+	protected void addGhosts( ArrayList<Box> own ) {
+
+		for( double[] shift : this.ghostShifts( own.get(0) ) ) {
+			Box ghost = new Box( own.get(0).ball, shift.length );
+			this.shiftBox( own.get(0), shift, ghost.lower, ghost.upper );
+
+			own.add( ghost );
+		}
+	}
+
+	/**
+	 * Moves, adds or removes a ball's ghosts to match its own box
+	 * @param own The ball's boxes
+	 */
+	protected void updateGhosts( ArrayList<Box> own ) {
+
+		Box box = own.get(0);
+
+		ArrayList<double[]> shifts = ( this.periodic ) ? this.ghostShifts( box ) : new ArrayList<double[]>();
+
+		int order = box.lower.length;
+
+		for( int k = 0; k < shifts.size(); k++ ) {
+			double[] lower = new double[order];
+			double[] upper = new double[order];
+
+			this.shiftBox( box, shifts.get(k), lower, upper );
+
+			if ( k + 1 < own.size() ) {
+				this.moveBox( own.get( k + 1 ), lower, upper );
+			}
+			else {
+				Box ghost = new Box( box.ball, order );
+				System.arraycopy( lower, 0, ghost.lower, 0, order );
+				System.arraycopy( upper, 0, ghost.upper, 0, order );
+
+				own.add( ghost );
+				this.pendingBoxes.add( ghost );
+			}
+		}
+
+		while( own.size() > shifts.size() + 1 ) {
+			this.removeBox( own.remove( own.size() - 1 ) );
+		}
+	}
+
+	/**
+	 * @return Returns the shifts of the ghosts a box needs, one for each combination of boundaries it reaches past
+	 */
+	protected ArrayList<double[]> ghostShifts( Box box ) {
+
+		int order = box.lower.length;
+
+		ArrayList<double[]> shifts = new ArrayList<double[]>();
+		shifts.add( new double[order] );
+
+		for( int n = 0; n < order; n++ ) {
+			double size = this.upperBounds.getComp( n ) - this.lowerBounds.getComp( n );
+
+			double shift = 0;
+			if ( box.lower[n] < this.lowerBounds.getComp( n ) ) shift = size;
+			else if ( box.upper[n] > this.upperBounds.getComp( n ) ) shift = -size;
+
+			if ( shift == 0 ) continue;
+
+			int existing = shifts.size();
+			for( int k = 0; k < existing; k++ ) {
+				double[] combined = shifts.get(k).clone();
+				combined[n] = shift;
+				shifts.add( combined );
+			}
+		}
+
+		//The first is no shift at all, which is the box itself
+		shifts.remove( 0 );
+
+		return shifts;
+	}
+
+	/**
+	 * Fills in the corners of a box moved by a shift
+	 */
+	protected void shiftBox( Box box, double[] shift, double[] lower, double[] upper ) {
+		for( int n = 0; n < shift.length; n++ ) {
+			lower[n] = box.lower[n] + shift[n];
+			upper[n] = box.upper[n] + shift[n];
+		}
+	}
+
+	/**
+	 * Removes a box and its overlaps.  Its ends are left among the sorted endpoints, ignored, until the next sort or until they are as
+	 * many as the live ones.
+	 * @param box The box
+	 */
+	protected void removeBox( Box box ) {
+
+		//Not inserted yet
+		if ( box.id < 0 ) {
+			this.pendingBoxes.remove( box );
+			return;
+		}
+
+		for( int k = 0; k < box.overlapCount; k++ ) {
+			this.byId[ box.overlaps[k] ].removeOverlap( box.id );
+		}
+		box.overlapCount = 0;
+
+		this.byId[box.id] = null;
+		if ( this.freeCount == this.freeIds.length ) this.freeIds = Arrays.copyOf( this.freeIds, 2 * this.freeIds.length );
+		this.freeIds[this.freeCount++] = box.id;
+
+		box.id = -1;
+		box.dead = true;
+
+		this.deadCount += 2;
+
+		if ( 2 * this.deadCount > this.count ) this.compact();
+	}
+
+	/**
+	 * Gives a box new corners, re-sorting its ends.  The ends are moved in an order that keeps the minimum below the maximum throughout.
+	 */
+	protected void moveBox( Box box, double[] lower, double[] upper ) {
+
+		System.arraycopy( lower, 0, box.lower, 0, lower.length );
+		System.arraycopy( upper, 0, box.upper, 0, upper.length );
+
+		if ( lower[0] < box.min.value ) {
+			box.min.value = lower[0];
+			this.resort( box.min );
+			box.max.value = upper[0];
+			this.resort( box.max );
+		}
+		else {
+			box.max.value = upper[0];
+			this.resort( box.max );
+			box.min.value = lower[0];
+			this.resort( box.min );
+		}
+	}
+
+	/**
+	 * Moves an endpoint to its place by insertion, updating the overlaps of the boxes whose ends it passes
+	 * @param e The endpoint
+	 */
+	protected void resort( Endpoint e ) {
+
+		int i = e.index;
+
+		//Down
+		while( i > 0 && ENDPOINT_ORDER.compare( e, this.endpoints[i - 1] ) < 0 ) {
+			Endpoint other = this.endpoints[i - 1];
+
+			//A minimum passing below a maximum starts an overlap, a maximum passing below a minimum ends one.  Removed boxes overlap nothing.
+			if ( !other.box.dead ) {
+				if ( e.isMin && !other.isMin ) this.addOverlap( e.box, other.box );
+				else if ( !e.isMin && other.isMin ) this.removeOverlap( e.box, other.box );
+			}
+
+			other.index = i;
+			this.endpoints[i] = other;
+			i--;
+		}
+
+		//Up
+		while( i < this.count - 1 && ENDPOINT_ORDER.compare( this.endpoints[i + 1], e ) < 0 ) {
+			Endpoint other = this.endpoints[i + 1];
+
+			if ( !other.box.dead ) {
+				if ( !e.isMin && other.isMin ) this.addOverlap( e.box, other.box );
+				else if ( e.isMin && !other.isMin ) this.removeOverlap( e.box, other.box );
+			}
+
+			other.index = i;
+			this.endpoints[i] = other;
+			i++;
+		}
+
+		e.index = i;
+		this.endpoints[i] = e;
+	}
+
+	protected void addOverlap( Box box1, Box box2 ) {
+		if ( box1.ball == box2.ball ) return;
+
+		box1.addOverlap( box2.id );
+		box2.addOverlap( box1.id );
+	}
+
+	protected void removeOverlap( Box box1, Box box2 ) {
+		box1.removeOverlap( box2.id );
+		box2.removeOverlap( box1.id );
+	}
+
+	/**
+	 * @return Returns true if two boxes overlap along every axis but x
+	 */
+	private static boolean overlapsBeyondX( Box box1, Box box2 ) {
+		for( int n = 1; n < box1.lower.length; n++ ) {
+			if ( box1.lower[n] > box2.upper[n] || box2.lower[n] > box1.upper[n] ) return false;
+		}
+		return true;
+	}
+}
@@ -1,6 +1,13 @@
 import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.swing.JComponent;
 import javax.swing.JLabel;
@@ -13,30 +20,162 @@ import javax.swing.JPanel;
  */
 public class Universe extends JPanel implements Runnable {
 
+	/**
+	 * Engines that can run the Universe.  AUTOMATIC hands dense scenes to the soft sphere engine when collisions become too frequent,
+	 * and hands them back once no balls are in contact.  The soft sphere engine knows nothing of obstacles, sources or sinks, so
+	 * scenes with any of them stay event-driven.
+	 */
+	public enum Engine { EVENT_DRIVEN, SOFT_SPHERE, AUTOMATIC }
+
+	/**
+	 * A change to a ball asked for from outside the thread running the Universe
+	 */
+	protected static class Edit {
+
+		protected final Ball ball;
+		protected final DoubleVector pos;
+		protected final DoubleVector vel;
+
+		protected Edit( Ball ball, DoubleVector pos, DoubleVector vel ) {
+			this.ball = ball;
+			this.pos = pos;
+			this.vel = vel;
+		}
+	}
+
 	protected ArrayList<Ball> actors = new ArrayList<Ball>();
 
+	//Changes whenever a ball is added or removed or the actors are reordered, so that anything keyed by index knows to start afresh
+	protected int sceneVersion = 0;
+
+	//Static obstacles, and the hierarchy used to find collisions with them
+	protected ArrayList<Obstacle> obstacles = new ArrayList<Obstacle>();
+	protected ObstacleTree obstacleTree;
+
 	protected double absoluteTime = 0;
 	protected double timeStep = 0.04;
 	protected DoubleVector gravity;
 
+	//Boxes adding their own acceleration to gravity, so that balls in different places or with different charges accelerate differently
+	protected ArrayList<ForceRegion> regions = new ArrayList<ForceRegion>();
+
+	//Acceleration being worked out for a ball, compared with the one it has
+	protected double[] newAccel;
+
 	protected JLabel timeField;
 
+	//A headless Universe is never displayed and never repaints
+	protected final boolean headless;
+
+	//Draws all the balls into one image
+	protected BallRenderer renderer = new BallRenderer();
+
+	//Streams snapshots to remote viewers, if set
+	protected SnapshotPublisher publisher;
+
 	protected double drawXScale = 1;
 	protected double drawYScale = 1;
 
-	protected Collision nextCollision;
+	//Pending collisions in order of absolute time.  An entry goes stale when the trajectory of a ball in it changes after it was predicted,
+	//and is discarded when it reaches the front of the queue.
+	protected EventScheduler collisions = new HeapScheduler();
+
+	//Sources feeding new balls in, and walls that absorb the balls hitting them, indexed [compIndex][0 for the lower wall, 1 for the upper wall]
+	protected ArrayList<BallSource> sources = new ArrayList<BallSource>();
+	protected boolean[][] sinks;
 
 	//Upper and lower bounds for the region, a wall collision will be done when these are hit
 	DoubleVector lowerBounds = new DoubleVector( new double[] {0,0} );
 	DoubleVector upperBounds = new DoubleVector( new double[] {700, 650} );
 
+	//When periodic, balls leaving through one boundary re-enter through the opposite one instead of bouncing off a wall
+	protected boolean periodic = false;
+
+	protected Engine engine = Engine.EVENT_DRIVEN;
+
+	//Time stepped engine, and whether it is the one currently running the Universe
+	protected SoftSphereEngine softSphere = new SoftSphereEngine( lowerBounds, upperBounds );
+	protected boolean softSphereActive = false;
+
+	//Under AUTOMATIC, the collision rate per ball per unit time above which the soft sphere engine takes over
+	protected double autoEventRate = 500;
+
+	//Finds the balls each ball could collide with
+	protected Broadphase broadphase = new AllPairsBroadphase();
+	protected ArrayList<Ball> candidates = new ArrayList<Ball>();
+
+	//Longest time ahead collisions are solved for.  Anything later is left to a re-prediction when the horizon passes.
+	protected double horizon = Double.POSITIVE_INFINITY;
+
+	//When positive, the horizon follows this many mean free times, capped by the horizon set
+	protected double horizonFactor = 0;
+	protected double adaptedHorizon = Double.POSITIVE_INFINITY;
+
+	//Mean free time between ball to ball collisions, measured over windows of collisions, and the totals for the current window
+	protected double meanFreeTime = Double.NaN;
+	protected double windowBallTime = 0;
+	protected int windowPairCollisions = 0;
+
+	//Offset to the periodic image of the other ball in the collision being performed
+	protected double[] imageShift = null;
+
+	//Predicts a ball's collisions with many others at once
+	protected BatchPredictor batch = new BatchPredictor();
+
+	//Pressure, temperature and speed distribution, accumulated as the simulation runs
+	protected Observables observables = new Observables( lowerBounds, upperBounds );
+
+	//Only one in this many collisions, and one in this many predictions, is offered to the flight recorder.  Each kind keeps its own
+	//count, as the two interleave in a regular pattern that a shared count would fall into step with, sampling one kind far too often.
+	protected int flightSampling = 1;
+	protected int collisionFlightCount = 0;
+	protected int predictionFlightCount = 0;
+
+	//Recent events and keyframes for rewinding, null if none are kept
+	protected EventHistory history = null;
+
+	//True once rewound, until the Universe runs on and the history after the time it was rewound to is forgotten
+	protected boolean rewound = false;
+
+	//Where the balls were at the last refresh, so that they can be picked out by position, e.g. from the event dispatch thread.
+	//Rebuilding it touches every ball, so it is only kept up to date while picking is switched on.
+	protected CellGrid pickGrid = new CellGrid( lowerBounds, upperBounds );
+	protected volatile boolean pickable = false;
+
+	//Chooses the broadphase, scheduler, horizon and engine from how the scene behaves, if set
+	protected Autotuner autotuner = null;
+
+	//Pairs handed to the narrow phase since the Universe was created
+	protected long pairChecks = 0;
+
+	//Samples g(r), density and velocity distributions as the Universe runs, if set
+	protected StructureSampler structure = null;
+
+	//Edits queued from other threads, applied by the thread running the Universe before its next step
+	protected ConcurrentLinkedQueue<Edit> edits = new ConcurrentLinkedQueue<Edit>();
+
 	/**
 	 * Constructs a new Universe
 	 * @param gravity Gravity acceleration vector
 	 */
 	public Universe( DoubleVector gravity ) {
+		this( gravity, false );
+	}
+
+	/**
+	 * Constructs a new Universe
+	 * @param gravity Gravity acceleration vector
+	 * @param headless True for a Universe that will never be displayed, e.g. one of many run in an ensemble
+	 */
+	public Universe( DoubleVector gravity, boolean headless ) {
 
 		this.gravity = gravity;
+		this.headless = headless;
+
+		this.sinks = new boolean[this.lowerBounds.order][2];
+		this.newAccel = new double[this.lowerBounds.order];
+
+		this.broadphase.rebuild( this.actors );
 
 		this.timeField = new JLabel();
 
@@ -57,214 +196,1730 @@ public class Universe extends JPanel implements Runnable {
 	 */
 	public void addActor( Ball ball ) {
 
-		this.add(ball);
+		FlightEvents.SceneEvent event = new FlightEvents.SceneEvent();
+		event.begin();
 
-		ball.setLocation(ball.getX(), ball.getY());
-		ball.setSize(ball.getDrawWidth(), ball.getDrawHeight());
-		ball.setLayout(null);
-		ball.setVisible(true);
+		this.insertActor( ball );
 
-		this.actors.add( ball );
+		this.refresh();
+
+		event.finish( "add", 1, this.actors.size() );
+	}
+
+	/**
+	 * Adds new balls to the Universe.  Only the new balls' collisions are calculated, and the Universe is repainted once.
+	 * @param balls The balls to add
+	 */
+	public void addActors( Collection<Ball> balls ) {
 
-		//With the new actor calculate the next collision and store it
-		this.nextCollision = this.nextCollision();
+		FlightEvents.SceneEvent event = new FlightEvents.SceneEvent();
+		event.begin();
+
+		for( Ball ball : balls ) {
+			this.insertActor( ball );
+		}
 
 		this.refresh();
 
+		event.finish( "add", balls.size(), this.actors.size() );
 	}
 
 	/**
-	 * Adds randomized balls to random locations in the Universe.  Checks to ensure a new ball is not placed inside another.
-	 * @param num Number of balls to add
+	 * Adds a new ball and calculates its collisions, without repainting
+	 * @param ball The ball to add
 	 */
-	public void addRandomActors( int num ) {
-		Random rnd = new Random();
+	protected void insertActor( Ball ball ) {
 
-		for( int k = 0; k < num; k ++) {
-			//Radius in the range 25...55
-			double r = rnd.nextDouble() * 20 + 10;
+		this.attachActor( ball );
 
-			//Something reasonable for the mass (In 2D at least...)
-			double m = r * r;
+		//Recorded as it is, rather than by a keyframe of every ball, unless the history after a time rewound to has still to be forgotten
+		if ( this.history != null ) {
+			if ( this.rewound ) this.history.sceneChanged();
+			else this.history.ballAdded( this.absoluteTime, ball );
+		}
 
-			double xRange = this.upperBounds.comps[0]-this.lowerBounds.comps[0];
-			double yRange = this.upperBounds.comps[1]-this.lowerBounds.comps[1];
+		//With the new actor calculate its collisions with everything else
+		this.predict( ball );
+	}
 
-			boolean inside;
-			DoubleVector pos;
-			DoubleVector vel = new DoubleVector( new double[] {rnd.nextDouble() * 300 - 150, rnd.nextDouble() * 300 - 150});
+	/**
+	 * Adds a new ball to the actors, without calculating its collisions
+	 * @param ball The ball to add
+	 */
+	protected void attachActor( Ball ball ) {
 
+		ball.time = this.absoluteTime;
+		this.accelerationOf( ball, ball.accel.comps );
 
-			do{
-				//Create a new x and y in a reasonable range (at least 20 units from the edge)
-				double x = this.lowerBounds.comps[0] + rnd.nextDouble() *  (xRange - 2*r - 40) + r + 20;
-				double y = this.lowerBounds.comps[1] + rnd.nextDouble() *  (yRange - 2*r - 40) + r + 20;
+		ball.actorIndex = this.actors.size();
+		this.actors.add( ball );
+		this.sceneVersion++;
+		this.broadphase.add( ball );
+		this.observables.addBall( ball );
+	}
 
-				pos = new DoubleVector( new double[] {x,y} );
+	/**
+	 * Removes a ball from the Universe.  Its pending collisions are dropped, nothing else is recalculated.
+	 * @param ball The ball to remove
+	 */
+	public void removeActor( Ball ball ) {
 
+		FlightEvents.SceneEvent event = new FlightEvents.SceneEvent();
+		event.begin();
 
+		boolean removed = this.takeActor( ball );
 
-				//Check to make sure we're not putting the ball inside another one
+		if ( removed ) this.detachActor( ball );
 
-				inside = false;
+		this.refresh();
 
-				for( Ball ball : actors ) {
-					if (ball.pos.subtract(pos).magnitude() < r + 30) {
-						inside = true;
-					}
-				}
+		event.finish( "remove", removed ? 1 : 0, this.actors.size() );
+	}
 
-			} while( inside );
+	/**
+	 * @param ball A ball
+	 * @return Returns true if the ball is one of this Universe's actors.  Takes constant time.
+	 */
+	public boolean isActor( Ball ball ) {
 
-			Ball newBall = new Ball(m, r, pos , vel);
+		int index = ball.actorIndex;
 
-			this.addActor( newBall);
+		return index >= 0 && index < this.actors.size() && this.actors.get( index ) == ball;
+	}
+
+	/**
+	 * Takes a ball out of the actors in constant time, moving the last actor into its place
+	 * @param ball The ball
+	 * @return Returns false if the ball was not an actor
+	 */
+	protected boolean takeActor( Ball ball ) {
+
+		if ( !this.isActor( ball ) ) return false;
+
+		Ball last = this.actors.remove( this.actors.size() - 1 );
+
+		if ( last != ball ) {
+			this.actors.set( ball.actorIndex, last );
+			last.actorIndex = ball.actorIndex;
+		}
+
+		ball.actorIndex = -1;
+		this.sceneVersion++;
+
+		//Recorded as it is, rather than by a keyframe of every ball, unless the history after a time rewound to has still to be forgotten
+		if ( this.history != null ) {
+			if ( this.rewound ) this.history.sceneChanged();
+			else this.history.ballRemoved( this.absoluteTime, ball );
 		}
+
+		return true;
 	}
 
 	/**
-	 * Repaints the Universe
+	 * @return Returns a count that changes whenever a ball is added or removed or the actors are reordered
 	 */
-	public void refresh() {
-		this.timeField.setText( Double.toString(this.absoluteTime ) );
-		this.paintImmediately(0, 0, this.getWidth(), this.getHeight());
+	public int getSceneVersion() {
+		return this.sceneVersion;
 	}
 
 	/**
-	 * @return Returns a string representation of the Universe
+	 * Removes balls from the Universe, in time proportional to their number rather than to the number of actors.  Balls that are not
+	 * actors are skipped.
+	 * @param balls The balls to remove
 	 */
-	public String toString() {
+	public void removeActors( Collection<Ball> balls ) {
 
-		StringBuffer result = new StringBuffer();
+		FlightEvents.SceneEvent event = new FlightEvents.SceneEvent();
+		event.begin();
 
-		result.append( "Time: " + this.absoluteTime + "\n");
+		int removed = 0;
 
-		for ( int n = 0; n < this.actors.size(); n++ ) {
+		for( Ball ball : balls ) {
+			if ( this.takeActor( ball ) ) {
+				this.detachActor( ball );
+				removed++;
+			}
+		}
 
-			result.append("Actor " + n + ": " + this.actors.get(n).toString() + "\n");
+		this.refresh();
+
+		event.finish( "remove", removed, this.actors.size() );
+	}
+
+	/**
+	 * Cleans up after a ball has been taken out of the actors
+	 * @param ball The ball
+	 */
+	protected void detachActor( Ball ball ) {
+
+		this.broadphase.remove( ball );
+		this.observables.removeBall( ball );
+
+		//Stales every pending collision involving the ball
+		ball.eventCount++;
+	}
+
+	/**
+	 * Moves a ball and changes its velocity.  Only the ball's collisions are recalculated.
+	 * @param ball The ball
+	 * @param pos New position
+	 * @param vel New velocity
+	 */
+	public void updateActor( Ball ball, DoubleVector pos, DoubleVector vel ) {
+
+		FlightEvents.SceneEvent event = new FlightEvents.SceneEvent();
+		event.begin();
+
+		this.changeActor( ball, pos, vel );
+
+		this.refresh();
+
+		event.finish( "update", 1, this.actors.size() );
+	}
+
+	/**
+	 * Sets the position and velocity of a ball and re-predicts its collisions, without repainting
+	 */
+	protected void changeActor( Ball ball, DoubleVector pos, DoubleVector vel ) {
+
+		this.observables.removeBall( ball );
+
+		ball.pos = pos;
+		ball.vel = vel;
+		ball.time = this.absoluteTime;
+		this.accelerationOf( ball, ball.accel.comps );
+
+		if ( this.history != null ) this.history.sceneChanged();
+
+		this.observables.addBall( ball );
+
+		ball.eventCount++;
+		this.predict( ball );
+	}
+
+	/**
+	 * Switches picking on or off.  While on, every refresh indexes where the balls are, taking about as long as drawing them,
+	 * e.g. only while the mouse is over the Universe.  Safe to call from any thread.  Takes effect at the next refresh.
+	 * @param pickable True to keep the balls indexed for pick
+	 */
+	public void setPickable( boolean pickable ) {
+		this.pickable = pickable;
+	}
+
+	/**
+	 * Finds the ball at a point, as it was at the last refresh while picking was on.  Safe to call from any thread, e.g. to pick a ball under the mouse
+	 * while the Universe runs.  Takes time proportional to the balls near the point, not to all of them.
+	 * @param point The point
+	 * @return Returns the ball covering the point, the one with the nearest centre if several do, or null if there is none
+	 */
+	public Ball pick( DoubleVector point ) {
+		return this.pickGrid.pick( point.comps );
+	}
+
+	/**
+	 * Queues a change to the position and velocity of a ball, to be made before the next step.  Safe to call from any thread,
+	 * e.g. to drag a ball with the mouse while the Universe runs.  Only the ball's collisions are re-predicted when it is made.
+	 * Edits to balls that have left the Universe by then are dropped.
+	 * @param ball The ball
+	 * @param pos The new position
+	 * @param vel The new velocity
+	 */
+	public void queueEdit( Ball ball, DoubleVector pos, DoubleVector vel ) {
+
+		if ( pos.order != this.lowerBounds.order || vel.order != this.lowerBounds.order ) throw new IllegalArgumentException("Position and velocity must match the order of the Universe");
+
+		//Copied, as the ball takes the vectors over and the caller may go on using its own
+		this.edits.add( new Edit( ball, new DoubleVector( pos.comps ), new DoubleVector( vel.comps ) ) );
+	}
+
+	/**
+	 * Makes the queued edits now and repaints.  Only to be called while the Universe is not running, since a running Universe makes them itself.
+	 */
+	public void applyEdits() {
+		if ( this.drainEdits() ) this.refresh();
+	}
+
+	/**
+	 * Makes the queued edits
+	 * @return Returns true if any ball was changed
+	 */
+	protected boolean drainEdits() {
+
+		if ( this.edits.isEmpty() ) return false;
+
+		FlightEvents.SceneEvent event = new FlightEvents.SceneEvent();
+		event.begin();
 
+		int changed = 0;
+
+		Edit edit;
+		while( ( edit = this.edits.poll() ) != null ) {
+
+			if ( !this.isActor( edit.ball ) ) continue;
+
+			//A ball dragged past a wall stops at it
+			this.clamp( edit.pos, edit.ball.radius );
+
+			this.changeActor( edit.ball, edit.pos, edit.vel );
+			changed++;
 		}
 
-		return result.toString();
+		event.finish( "edit", changed, this.actors.size() );
+
+		return changed > 0;
 	}
 
+
 	/**
-	 * Runs the Universe for the specified ammount of time
-	 * @param time
+	 * Copies the time, gravity, bounds, boundary mode and the state of every actor into a particle store, replacing what it held.  With a
+	 * memory mapped store this is a checkpoint.  Force regions, obstacles, sources and sinks are not part of it.
+	 * @param store The store
 	 */
-	public void runFor( double time ) {
+	public void writeTo( ParticleStore store ) {
 
-		if ( time < 0 ) throw new IllegalArgumentException("Negative time specified");
+		if ( store.order() != this.lowerBounds.order ) throw new IllegalArgumentException("Store must match the order of the Universe");
+
+		store.clear();
+		store.setScene( this.gravity, this.lowerBounds, this.upperBounds, this.periodic );
 
-		double timeRemaining = time;
+		for( Ball ball : this.actors ) {
+			store.add( ball );
+		}
+
+		store.setTime( this.absoluteTime );
+	}
 
-		while( this.nextCollision != null ) {
+	/**
+	 * Replaces the actors with the particles of a store and takes its time, gravity, bounds and boundary mode, e.g. to resume from a checkpoint
+	 * @param store The store
+	 */
+	public void readFrom( ParticleStore store ) {
 
-			//If the next collision is within our time frame, do it
-			if ( this.nextCollision.deltaT <= time  ) {
+		int order = this.lowerBounds.order;
 
-				//Update every actor's position to be the moment of the collision
-				this.updatePos( nextCollision.deltaT );
+		if ( store.order() != order ) throw new IllegalArgumentException("Store must match the order of the Universe");
 
-				//Subtract time
-				timeRemaining -= nextCollision.deltaT;
+		double[] lower = new double[order];
+		double[] upper = new double[order];
 
-				//Perform the collision calculation, updating the velocity vectors of the objects.
-				nextCollision.doCollision();
+		for( int n = 0; n < order; n++ ) {
+			lower[n] = store.getLowerBound( n );
+			upper[n] = store.getUpperBound( n );
 
-				//System.out.println("collision at t + " + this.absoluteTime + "seconds\n");
-				//System.out.println(this);
+			if ( !( lower[n] < upper[n] ) ) throw new IllegalArgumentException("Store holds no valid bounds");
+		}
 
-				//Perform the next collision calculation
-				this.nextCollision = this.nextCollision();
-			}
+		if ( this.structure != null ) this.structure.checkRange( lower, upper, store.isPeriodic() );
 
-			//If the collision is too far into the future, break
-			else break;
+		//Everything is rebuilt below, so there is no point removing the balls one at a time
+		this.broadphase.rebuild( Collections.<Ball>emptyList() );
 
+		for( Ball ball : this.actors ) {
+			this.detachActor( ball );
+			ball.actorIndex = -1;
 		}
+		this.actors.clear();
+		this.sceneVersion++;
 
-		//There are no more collisions in the time remaining, update everybody's position.
-		this.updatePos(timeRemaining);
+		this.absoluteTime = store.getTime();
+
+		for( int n = 0; n < order; n++ ) {
+			this.gravity.comps[n] = store.getGravity( n );
+		}
+
+		System.arraycopy( lower, 0, this.lowerBounds.comps, 0, order );
+		System.arraycopy( upper, 0, this.upperBounds.comps, 0, order );
+
+		this.pickGrid = new CellGrid( this.lowerBounds, this.upperBounds );
+		if ( this.structure != null ) this.structure.boundsChanged();
+
+		this.periodic = store.isPeriodic();
+		this.broadphase.setPeriodic( this.periodic );
 
-		if (this.nextCollision != null ) this.nextCollision.deltaT -= timeRemaining;
+		for( int i = 0; i < store.size(); i++ ) {
+			this.attachActor( store.toBall( i ) );
+		}
+
+		if ( this.history != null ) this.history.sceneChanged();
+
+		this.recomputeCollisions();
 
 		this.refresh();
+	}
 
+	/**
+	 * Chooses the engine that runs the Universe
+	 * @param engine The engine
+	 */
+	public void setEngine( Engine engine ) {
+
+		if ( engine == Engine.SOFT_SPHERE && !this.isSoftSphereCapable() ) throw new IllegalStateException("The soft sphere engine cannot run a scene with obstacles, sources or sinks");
+
+		this.engine = engine;
+
+		if ( engine == Engine.SOFT_SPHERE ) this.softSphereActive = true;
+		else if ( engine == Engine.EVENT_DRIVEN && this.softSphereActive ) this.resumeEventDriven();
+	}
+
+	/**
+	 * @return Returns the soft sphere engine, to adjust its contact parameters
+	 */
+	public SoftSphereEngine getSoftSphereEngine() {
+		return this.softSphere;
 	}
 
+	/**
+	 * Sets the collision rate at which AUTOMATIC switches to the soft sphere engine
+	 * @param autoEventRate Collisions per ball per unit time
+	 */
+	public void setAutoEventRate( double autoEventRate ) {
+		this.autoEventRate = autoEventRate;
+	}
 
 	/**
-	 * Integrates and updates positions of all actors without regard for collisions for deltaT time from the current absolute time.  Updates current absolute time.
-	 * @param deltaT Time interval to integrate over
+	 * @return Returns true if the soft sphere engine can run the scene: it has no obstacles to collide with, and no sources or sinks, which only events drive
 	 */
-	public void updatePos( double deltaT ) {
+	public boolean isSoftSphereCapable() {
 
-		for( Ball ball : this.actors ) {
+		if ( !this.obstacles.isEmpty() || !this.sources.isEmpty() ) return false;
+
+		for( boolean[] walls : this.sinks ) {
+			if ( walls[0] || walls[1] ) return false;
+		}
 
-			//new position: p = p0 + v * t
-			ball.pos.addTo( ball.vel.scalarMult( deltaT ) );
+		return true;
+	}
 
-			//new position = p0 + 1/2 a * t^2
-			ball.pos.addTo( this.gravity.scalarMult( deltaT * deltaT / 2 ) );
+	/**
+	 * Makes sure the scene can be given something the soft sphere engine cannot run
+	 */
+	protected void checkEventDriven() {
+		if ( this.engine == Engine.SOFT_SPHERE ) throw new IllegalStateException("The soft sphere engine cannot run a scene with obstacles, sources or sinks");
+	}
 
-			//new velocity: v = v0 + a * t
-			ball.vel.addTo( this.gravity.scalarMult( deltaT));
+	/**
+	 * Hands the Universe back from the soft sphere engine to the event-driven one, whose predictions are all out of date
+	 */
+	protected void resumeEventDriven() {
+		this.softSphereActive = false;
 
+		for( Ball ball : this.actors ) {
+			ball.eventCount++;
 		}
 
-		this.absoluteTime += deltaT;
+		this.recomputeCollisions();
 	}
 
 	/**
-	 * Calculates the exact deltaT (as limited by the precision of double arithmaic) from the current absolute time to the next collision between actors, or between an actor and a wall.
-	 * @return Returns a new Collision object containing the calculated deltaT and references to both colliding objects, or a single object and a wall.
+	 * Adds a source of new balls
+	 * @param source The source
 	 */
-	public Collision nextCollision( ) {
-		//Find collision routine
+	public void addSource( BallSource source ) {
+		this.checkEventDriven();
 
-		ArrayList<Collision> collisions = new ArrayList<Collision>();
+		source.start( this.absoluteTime );
 
-		Collision check;
+		this.sources.add( source );
 
-		for ( Ball ball1 : this. actors) {
-			for ( Ball ball2 : this. actors) {
+		if ( this.softSphereActive ) this.resumeEventDriven();
+	}
 
-				//Don't check for collisions with self
-				if ( ball1 == ball2 ) continue;
+	/**
+	 * Makes a wall absorb or reflect the balls that hit it
+	 * @param compIndex Direction normal to the wall
+	 * @param upper True for the upper wall, false for the lower wall
+	 * @param absorbing True to absorb balls, false to reflect them
+	 */
+	public void setSink( int compIndex, boolean upper, boolean absorbing ) {
+		if ( absorbing ) this.checkEventDriven();
 
-				check = Physics.checkCollision(ball1, ball2);
+		this.sinks[compIndex][ upper ? 1 : 0 ] = absorbing;
 
-				if ( check != null ) {
-					collisions.add(check);
-				}
+		if ( absorbing && this.softSphereActive ) this.resumeEventDriven();
+	}
 
-			}
+	/**
+	 * Moves the walls of the Universe.  The bounds are changed in place, so everything holding them sees the change, but a broadphase
+	 * made with bounds of its own should be set again afterwards.  Every collision is recomputed.
+	 * @param lower Lower bounds
+	 * @param upper Upper bounds
+	 */
+	public void setBounds( double[] lower, double[] upper ) {
 
-			check = Physics.checkWallCollision(ball1, lowerBounds, upperBounds, gravity);
-			if ( check != null ) {
-				collisions.add(check);
-			}
+		if ( lower.length != this.lowerBounds.order || upper.length != this.upperBounds.order ) throw new IllegalArgumentException("Bounds must match the order of the Universe");
 
+		for( int n = 0; n < lower.length; n++ ) {
+			if ( !( lower[n] < upper[n] ) ) throw new IllegalArgumentException("Lower bounds must be below upper bounds");
 		}
 
-		//If there are no collisions, return null
-		if ( collisions.size() == 0 ) {
-			return null;
-		}
+		if ( this.structure != null ) this.structure.checkRange( lower, upper, this.periodic );
 
+		System.arraycopy( lower, 0, this.lowerBounds.comps, 0, lower.length );
+		System.arraycopy( upper, 0, this.upperBounds.comps, 0, upper.length );
 
-		//If there are, find the soonest one, and return it
-		Collision result = collisions.get(0);
+		this.pickGrid = new CellGrid( this.lowerBounds, this.upperBounds );
+		if ( this.structure != null ) this.structure.boundsChanged();
 
-		for( Collision next : collisions ) {
-			if( next.deltaT < result.deltaT ) result = next;
-		}
+		this.recomputeCollisions();
+	}
+
+	/**
+	 * Adds a force region to the Universe.  Every collision is recomputed.
+	 * @param region The region
+	 */
+	public void addForceRegion( ForceRegion region ) {
 
+		if ( region.getOrder() != this.lowerBounds.order ) throw new IllegalArgumentException("Region must match the order of the Universe");
 
-		//System.out.println("collisions caculated");
-		return result;
+		this.regions.add( region );
+
+		this.recomputeCollisions();
+	}
+
+	/**
+	 * Removes a force region from the Universe.  Every collision is recomputed.
+	 * @param region The region
+	 */
+	public void removeForceRegion( ForceRegion region ) {
 
+		if ( this.regions.remove( region ) ) this.recomputeCollisions();
+	}
+
+	/**
+	 * Works out the acceleration of a ball from gravity and the force regions its centre is in
+	 * @param ball The ball, up to date
+	 * @param accel Filled with the components of the acceleration
+	 */
+	protected void accelerationOf( Ball ball, double[] accel ) {
+
+		System.arraycopy( this.gravity.comps, 0, accel, 0, accel.length );
+
+		for( int i = 0; i < this.regions.size(); i++ ) {
+			ForceRegion region = this.regions.get(i);
+
+			if ( region.contains( ball ) ) region.addAcceleration( ball.charge, ball.mass, accel );
+		}
+	}
+
+	/**
+	 * Brings the acceleration of a ball in the Universe up to date, after it has crossed into or out of a force region or gravity has changed
+	 * @param ball The ball, up to date
+	 */
+	protected void accelerate( Ball ball ) {
+
+		this.accelerationOf( ball, this.newAccel );
+
+		if ( Arrays.equals( this.newAccel, ball.accel.comps ) ) return;
+
+		//The observables keep totals over every ball's acceleration
+		this.observables.removeBall( ball );
+		System.arraycopy( this.newAccel, 0, ball.accel.comps, 0, this.newAccel.length );
+		this.observables.addBall( ball );
+	}
+
+	/**
+	 * Adds a static obstacle to the Universe
+	 * @param obstacle The obstacle to add
+	 */
+	public void addObstacle( Obstacle obstacle ) {
+		this.checkEventDriven();
+
+		this.obstacles.add( obstacle );
+
+		this.obstaclesChanged();
+	}
+
+	/**
+	 * Adds static obstacles to the Universe.  Cheaper than adding them one at a time, as the obstacle hierarchy is only rebuilt once.
+	 * @param obstacles The obstacles to add
+	 */
+	public void addObstacles( Collection<? extends Obstacle> obstacles ) {
+		this.checkEventDriven();
+
+		this.obstacles.addAll( obstacles );
+
+		this.obstaclesChanged();
+	}
+
+	/**
+	 * Adds a closed polygon to the Universe, as one segment per edge
+	 * @param vertices Vertices of the polygon in order
+	 */
+	public void addPolygon( DoubleVector[] vertices ) {
+		ArrayList<Obstacle> edges = new ArrayList<Obstacle>();
+
+		for( int n = 0; n < vertices.length; n++ ) {
+			edges.add( new Segment( vertices[n], vertices[ ( n + 1 ) % vertices.length ] ) );
+		}
+
+		this.addObstacles( edges );
+	}
+
+	/**
+	 * Rebuilds the obstacle hierarchy and the collision that depends on it
+	 */
+	protected void obstaclesChanged() {
+		this.obstacleTree = new ObstacleTree( this.obstacles );
+
+		//The soft sphere engine would let balls through the obstacles
+		this.softSphereActive = false;
+
+		this.recomputeCollisions();
+
+		this.refresh();
+	}
+
+	/**
+	 * Switches between reflecting walls and periodic boundaries
+	 * @param periodic True for periodic boundaries
+	 */
+	public void setPeriodic( boolean periodic ) {
+		if ( this.structure != null ) this.structure.checkRange( this.lowerBounds.comps, this.upperBounds.comps, periodic );
+
+		this.periodic = periodic;
+		this.broadphase.setPeriodic( periodic );
+
+		this.recomputeCollisions();
+	}
+
+	/**
+	 * Chooses the queue pending collisions are kept in.  A calendar queue suits large scenes dominated by collisions.
+	 * @param scheduler The scheduler
+	 */
+	public void setScheduler( EventScheduler scheduler ) {
+		this.collisions = scheduler;
+
+		this.recomputeCollisions();
+	}
+
+	/**
+	 * Starts keeping a history of recent events, so the Universe can be rewound.  Any history kept before is forgotten.
+	 * @param history The history, or null to stop keeping one
+	 */
+	public void setHistory( EventHistory history ) {
+
+		this.history = history;
+		this.rewound = false;
+
+		if ( history != null ) this.takeKeyframe();
+	}
+
+	/**
+	 * @return Returns the history being kept, or null if there is none
+	 */
+	public EventHistory getHistory() {
+		return this.history;
+	}
+
+	/**
+	 * Sets the autotuner choosing how the Universe runs as it goes.  It starts by profiling the next steps under the current choice.
+	 * @param autotuner The autotuner, or null to leave the choice as it is from now on
+	 */
+	public void setAutotuner( Autotuner autotuner ) {
+		this.autotuner = autotuner;
+	}
+
+	/**
+	 * @return Returns the autotuner, null if none is set
+	 */
+	public Autotuner getAutotuner() {
+		return this.autotuner;
+	}
+
+	/**
+	 * Sets the sampler streaming g(r), density and velocity distributions as the Universe runs.  It takes its first sample now.
+	 * With periodic boundaries its range must be no more than half the Universe's width.
+	 * @param structure The sampler, or null to stop sampling
+	 */
+	public void setStructureSampler( StructureSampler structure ) {
+		if ( structure != null ) structure.checkRange( this.lowerBounds.comps, this.upperBounds.comps, this.periodic );
+
+		this.structure = structure;
+
+		if ( structure != null ) structure.setNextSample( this.absoluteTime );
+	}
+
+	/**
+	 * @return Returns the structure sampler, null if none is set
+	 */
+	public StructureSampler getStructureSampler() {
+		return this.structure;
+	}
+
+	/**
+	 * Puts every ball back to its state at a past time held in the history, without running anything.  The history after the time is
+	 * kept, so the Universe can be moved back and forth through it, until the Universe is next run and goes on from the time instead.
+	 * @param time The time, between the history's earliest and latest times
+	 */
+	public void rewindTo( double time ) {
+
+		if ( this.history == null ) throw new IllegalStateException("No history is being kept");
+
+		if ( !( time >= this.history.getEarliestTime() && time <= this.history.getLatestTime() ) ) throw new IllegalArgumentException("Time is outside the history kept");
+
+		for( Ball ball : this.actors ) {
+			this.observables.removeBall( ball );
+			ball.actorIndex = -1;
+		}
+
+		//Balls removed since come back, and balls added since go
+		EventHistory.Keyframe keyframe = this.history.restore( time, this.actors );
+		this.sceneVersion++;
+
+		for( int i = 0; i < this.actors.size(); i++ ) {
+			Ball ball = this.actors.get(i);
+
+			ball.actorIndex = i;
+			ball.eventCount++;
+			this.observables.addBall( ball );
+		}
+
+		System.arraycopy( keyframe.gravity, 0, this.gravity.comps, 0, this.gravity.order );
+
+		this.absoluteTime = time;
+
+		//Predicted again once the Universe runs on
+		this.collisions.clear();
+		this.rewound = true;
+
+		this.refresh();
+	}
+
+	/**
+	 * Records the state of every ball in the history
+	 */
+	protected void takeKeyframe() {
+
+		this.syncAll();
+
+		this.history.addKeyframe( this.absoluteTime, this.actors, this.gravity );
+	}
+
+	/**
+	 * Sets how often collisions and predictions are offered to the flight recorder, when it has their events enabled
+	 * @param every One in this many is recorded
+	 */
+	public void setFlightSampling( int every ) {
+
+		if ( every < 1 ) throw new IllegalArgumentException("Flight sampling must be at least 1");
+
+		this.flightSampling = every;
+	}
+
+	/**
+	 * @return Returns true if the next collision is one to offer to the flight recorder
+	 */
+	protected boolean sampleCollisionFlight() {
+
+		if ( ++this.collisionFlightCount < this.flightSampling ) return false;
+
+		this.collisionFlightCount = 0;
+
+		return true;
+	}
+
+	/**
+	 * @return Returns true if the next prediction is one to offer to the flight recorder
+	 */
+	protected boolean samplePredictionFlight() {
+
+		if ( ++this.predictionFlightCount < this.flightSampling ) return false;
+
+		this.predictionFlightCount = 0;
+
+		return true;
+	}
+
+	/**
+	 * Chooses how the balls each ball could collide with are found.  Sweep and prune suits large scenes, particularly ones with a wide spread of radii.
+	 * @param broadphase The broadphase
+	 */
+	public void setBroadphase( Broadphase broadphase ) {
+		this.broadphase = broadphase;
+		this.broadphase.setPeriodic( this.periodic );
+
+		this.recomputeCollisions();
+	}
+
+	/**
+	 * Adds randomized balls to random locations in the Universe.  Checks to ensure a new ball is not placed inside another.
+	 * @param num Number of balls to add
+	 */
+	public void addRandomActors( int num ) {
+		this.addRandomActors( num, new Random() );
+	}
+
+	/**
+	 * Adds randomized balls to random locations in the Universe.  The same generator state always produces the same balls, so seeded scenes can be reproduced exactly.
+	 * @param num Number of balls to add
+	 * @param rnd Random number generator for the balls' sizes, positions and velocities
+	 */
+	public void addRandomActors( int num, Random rnd ) {
+
+		for( int k = 0; k < num; k ++) {
+			//Radius in the range 25...55
+			double r = rnd.nextDouble() * 20 + 10;
+
+			//Something reasonable for the mass (In 2D at least...)
+			double m = r * r;
+
+			double xRange = this.upperBounds.comps[0]-this.lowerBounds.comps[0];
+			double yRange = this.upperBounds.comps[1]-this.lowerBounds.comps[1];
+
+			boolean inside;
+			DoubleVector pos;
+			DoubleVector vel = new DoubleVector( new double[] {rnd.nextDouble() * 300 - 150, rnd.nextDouble() * 300 - 150});
+
+
+			do{
+				//Create a new x and y in a reasonable range (at least 20 units from the edge)
+				double x = this.lowerBounds.comps[0] + rnd.nextDouble() *  (xRange - 2*r - 40) + r + 20;
+				double y = this.lowerBounds.comps[1] + rnd.nextDouble() *  (yRange - 2*r - 40) + r + 20;
+
+				pos = new DoubleVector( new double[] {x,y} );
+
+
+
+				//Check to make sure we're not putting the ball inside another one
+
+				inside = false;
+
+				for( Ball ball : actors ) {
+					if (ball.pos.subtract(pos).magnitude() < r + 30) {
+						inside = true;
+					}
+				}
+
+				//Or inside an obstacle
+				for( Obstacle obstacle : obstacles ) {
+					if ( obstacle.distanceTo(pos) < r ) {
+						inside = true;
+					}
+				}
+
+			} while( inside );
+
+			Ball newBall = new Ball(m, r, pos , vel);
+
+			this.addActor( newBall);
+		}
+	}
+
+	/**
+	 * Repaints the Universe
+	 */
+	public void refresh() {
+
+		FlightEvents.RefreshEvent event = new FlightEvents.RefreshEvent();
+		event.begin();
+
+		if ( this.publisher != null ) this.publisher.publish( this );
+
+		if ( this.pickable ) this.pickGrid.build( this.actors );
+
+		if ( !this.headless ) {
+			this.timeField.setText( Double.toString(this.absoluteTime ) );
+			this.paintImmediately(0, 0, this.getWidth(), this.getHeight());
+		}
+
+		event.end();
+
+		if ( event.shouldCommit() ) {
+			event.balls = this.actors.size();
+			event.headless = this.headless;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Paints the Universe, its balls and its obstacles
+	 */
+	public void paintComponent( Graphics g ) {
+		super.paintComponent( g );
+
+		this.renderer.setBackground( this.getBackground() );
+		g.drawImage( this.renderer.render( this.actors, this.getWidth(), this.getHeight(), Ball.drawXScale, Ball.drawYScale ), 0, 0, null );
+
+		//Obstacles are few, so they are drawn with Java2D in the renderer's view
+		Graphics2D g2 = (Graphics2D) g.create();
+		g2.scale( this.renderer.getZoom() * Ball.drawXScale, this.renderer.getZoom() * Ball.drawYScale );
+		g2.translate( -this.renderer.getOriginX(), -this.renderer.getOriginY() );
+
+		for( Obstacle obstacle : this.obstacles ) {
+			obstacle.paint( g2 );
+		}
+
+		for( ForceRegion region : this.regions ) {
+			region.paint( g2 );
+		}
+
+		g2.dispose();
+	}
+
+	/**
+	 * Sets the publisher streaming snapshots of the Universe to remote viewers.  A snapshot is offered each time the Universe is refreshed.
+	 * @param publisher The publisher, or null to stop publishing
+	 */
+	public void setPublisher( SnapshotPublisher publisher ) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * @return Returns the renderer drawing the balls, whose view can be zoomed and moved
+	 */
+	public BallRenderer getRenderer() {
+		return this.renderer;
+	}
+
+	/**
+	 * @return Returns a string representation of the Universe
+	 */
+	public String toString() {
+
+		StringBuffer result = new StringBuffer();
+
+		result.append( "Time: " + this.absoluteTime + "\n");
+
+		for ( int n = 0; n < this.actors.size(); n++ ) {
+
+			result.append("Actor " + n + ": " + this.actors.get(n).toString() + "\n");
+
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * Runs the Universe for the specified ammount of time
+	 * @param time
+	 */
+	public void runFor( double time ) {
+
+		if ( time < 0 ) throw new IllegalArgumentException("Negative time specified");
+
+		FlightEvents.StepEvent step = new FlightEvents.StepEvent();
+		step.begin();
+
+		long started = System.nanoTime();
+
+		//Going on from a time rewound to, so what happened after it the first time round no longer has
+		if ( this.rewound ) {
+			this.rewound = false;
+			this.history.truncate( this.absoluteTime );
+			this.recomputeCollisions();
+		}
+
+		this.drainEdits();
+
+		if ( this.softSphereActive ) {
+			this.runSoftSphere( time );
+			if ( this.autotuner != null ) this.autotuner.afterStep( this, time, 0, 0, System.nanoTime() - started );
+			step.finish( time, 0, this.actors.size(), 0, true );
+			return;
+		}
+
+		double endTime = this.absoluteTime + time;
+		int events = 0;
+		int horizons = 0;
+
+		while( true ) {
+
+			if ( this.history != null && this.history.isKeyframeDue() ) this.takeKeyframe();
+
+			Collision next = this.nextCollision();
+			BallSource source = this.nextSource();
+
+			//Sample the structure if that comes first
+			if ( this.structure != null ) {
+				//A sample missed by rewinding is taken now
+				double sampleTime = Math.max( this.structure.getNextSample(), this.absoluteTime );
+
+				if ( sampleTime <= endTime && ( next == null || sampleTime <= next.time ) && ( source == null || sampleTime <= source.nextEmission ) ) {
+
+					this.updatePos( sampleTime - this.absoluteTime );
+					this.syncAll();
+
+					this.structure.sample( this.actors, this.absoluteTime, this.periodic );
+
+					continue;
+				}
+			}
+
+			//Emit a new ball if that comes first, as long as there is room for it
+			if ( source != null && source.nextEmission <= endTime && ( next == null || source.nextEmission < next.time ) ) {
+
+				this.updatePos( source.nextEmission - this.absoluteTime );
+
+				Ball ball = source.emit( this.lowerBounds, this.upperBounds );
+
+				if ( this.isFree( ball ) ) this.insertActor( ball );
+
+				continue;
+			}
+
+			//If the collision is too far into the future, break
+			if ( next == null || next.time > endTime ) break;
+
+			this.collisions.poll();
+			events++;
+
+			double gap = next.time - this.absoluteTime;
+
+			if ( this.autotuner != null ) this.autotuner.sampleGap( gap );
+
+			//Move the clock to the moment of the collision, and the balls in it
+			this.updatePos( gap );
+
+			this.sync( next.ball1 );
+			if ( next.ball2 != null ) this.sync( next.ball2 );
+
+			if ( next.isWallCollision && this.sinks[next.wallCompIndex][ next.ball1.vel.getComp( next.wallCompIndex ) > 0 ? 1 : 0 ] ) {
+
+				//The wall absorbs the ball
+				this.takeActor( next.ball1 );
+				this.detachActor( next.ball1 );
+
+				continue;
+			}
+
+			//The ball's candidates have run out, find them again
+			if ( next.isHorizon ) {
+				horizons++;
+				next.ball1.eventCount++;
+				this.predict( next.ball1 );
+
+				continue;
+			}
+
+			//Records do not keep the periodic image a pair was predicted against, but at contact it is the nearest one
+			if ( this.periodic && next.ball2 != null ) next.imageShift = this.nearestImageShift( next.ball1, next.ball2 );
+
+			FlightEvents.CollisionEvent recorded = this.sampleCollisionFlight() ? FlightEvents.CollisionEvent.start() : null;
+
+			//Perform the collision calculation, updating the velocity vectors of the objects.
+			this.observables.beforeCollision( next );
+			if ( this.history != null ) this.history.beforeEvent( next );
+			next.doCollision();
+			this.observables.afterCollision( next );
+
+			if ( recorded != null ) recorded.finish( next, gap );
+
+			//Rounding must not leave a ball outside the Universe
+			this.clamp( next.ball1 );
+			if ( next.ball2 != null ) this.clamp( next.ball2 );
+
+			//A ball crossing into or out of a force region, or wrapped to the other side of the Universe, may now accelerate differently
+			this.accelerate( next.ball1 );
+			if ( next.ball2 != null ) this.accelerate( next.ball2 );
+
+			if ( this.history != null ) this.history.afterEvent( next );
+
+			if ( next.ball2 != null ) this.countPairCollision();
+
+			//System.out.println("collision at t + " + this.absoluteTime + "seconds\n");
+			//System.out.println(this);
+
+			//Only the balls involved have new trajectories, so only their collisions need calculating
+			next.ball1.eventCount++;
+			if ( next.ball2 != null ) next.ball2.eventCount++;
+
+			this.predict( next.ball1 );
+			if ( next.ball2 != null ) this.predict( next.ball2 );
+		}
+
+		//There are no more collisions in the time remaining, update everybody's position.
+		this.updatePos( endTime - this.absoluteTime );
+		this.syncAll();
+
+		if ( this.history != null ) this.history.markTime( this.absoluteTime );
+
+		//Too many collisions for the event-driven engine to keep up, let the soft sphere engine take over if it can run the scene
+		if ( this.engine == Engine.AUTOMATIC && time > 0 && events > this.autoEventRate * this.actors.size() * time && this.isSoftSphereCapable() ) {
+			this.softSphereActive = true;
+		}
+
+		this.refresh();
+
+		if ( this.autotuner != null ) this.autotuner.afterStep( this, time, events, horizons, System.nanoTime() - started );
+
+		step.finish( time, events, this.actors.size(), this.collisions.size(), false );
+	}
+
+	/**
+	 * Runs the Universe for the specified amount of time with the soft sphere engine.  The scene has no obstacles, sources or sinks, which this engine cannot run.
+	 * @param time
+	 */
+	protected void runSoftSphere( double time ) {
+
+		//The observables cannot follow individual contacts, so they see the step as a pause followed by a change of state
+		this.observables.hold( time );
+
+		for( Ball ball : this.actors ) {
+			this.observables.removeBall( ball );
+		}
+
+		this.softSphere.runFor( this.actors, time, this.gravity, this.regions, this.periodic );
+
+		this.absoluteTime += time;
+
+		for( Ball ball : this.actors ) {
+			ball.time = this.absoluteTime;
+			this.observables.addBall( ball );
+		}
+
+		if ( this.structure != null && this.structure.getNextSample() <= this.absoluteTime ) this.structure.sample( this.actors, this.absoluteTime, this.periodic );
+
+		//Soft sphere steps have no events to record, so each ends in a keyframe
+		if ( this.history != null ) this.takeKeyframe();
+
+		//Once nothing is in contact, exact events are cheap again
+		if ( this.engine == Engine.AUTOMATIC && this.softSphere.getContacts() == 0 ) this.resumeEventDriven();
+
+		this.refresh();
+	}
+
+	/**
+	 * Checks whether a ball could be added without overlapping anything.  Only the balls the broadphase gives as candidates for it are
+	 * checked, and only they are brought up to date, so this takes time proportional to the balls near it rather than to all of them.
+	 * @param ball A ball not yet in the Universe, up to date at the current time
+	 * @return Returns true if the ball would not overlap any ball or obstacle
+	 */
+	protected boolean isFree( Ball ball ) {
+
+		ball.time = this.absoluteTime;
+		this.accelerationOf( ball, ball.accel.comps );
+
+		//A ball overlapping the new one would collide with it at once, so it is among the candidates
+		this.candidates.clear();
+
+		this.broadphase.add( ball );
+		this.broadphase.candidates( ball, this.candidates );
+		this.broadphase.remove( ball );
+
+		for( int i = 0; i < this.candidates.size(); i++ ) {
+			Ball other = this.candidates.get(i);
+
+			this.sync( other );
+
+			double distSquared = 0;
+
+			for( int n = 0; n < ball.pos.order; n++ ) {
+				double d = ball.pos.comps[n] - other.pos.comps[n];
+
+				//The nearest periodic image
+				if ( this.periodic ) {
+					double size = this.upperBounds.comps[n] - this.lowerBounds.comps[n];
+					d -= size * Math.rint( d / size );
+				}
+
+				distSquared += d * d;
+			}
+
+			double radiusSum = ball.radius + other.radius;
+
+			if ( distSquared < radiusSum * radiusSum ) return false;
+		}
+
+		for( Obstacle obstacle : this.obstacles ) {
+			if ( obstacle.distanceTo( ball.pos ) < ball.radius ) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return Returns the source with the soonest emission, or null if there are no sources
+	 */
+	protected BallSource nextSource() {
+		BallSource result = null;
+
+		for( BallSource source : this.sources ) {
+			if ( result == null || source.nextEmission < result.nextEmission ) result = source;
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Advances the current absolute time by deltaT without regard for collisions.  The actors' positions follow lazily: each is brought
+	 * up to date by sync when it is next needed, and all of them by syncAll.
+	 * @param deltaT Time interval to integrate over
+	 */
+	public void updatePos( double deltaT ) {
+
+		this.observables.advance( deltaT );
+
+		this.windowBallTime += this.actors.size() * deltaT;
+
+		this.absoluteTime += deltaT;
+	}
+
+	/**
+	 * Brings a ball's position and velocity up to the current time.  Each ball is moved in one step from the last time it was
+	 * brought up to date, rather than a little at every collision anywhere, so rounding error does not build up.  Its acceleration
+	 * cannot have changed in between, as that takes an event of its own.
+	 * @param ball The ball
+	 */
+	protected void sync( Ball ball ) {
+
+		double deltaT = this.absoluteTime - ball.time;
+
+		if ( deltaT == 0 ) return;
+
+		double[] a = ball.accel.comps;
+		double halfTSquared = deltaT * deltaT / 2;
+
+		double[] p = ball.pos.comps;
+		double[] v = ball.vel.comps;
+
+		boolean accelerated = false;
+
+		for( int n = 0; n < p.length; n++ ) {
+			//new position: p = p0 + v * t + 1/2 a * t^2
+			p[n] = p[n] + v[n] * deltaT + a[n] * halfTSquared;
+
+			//new velocity: v = v0 + a * t
+			v[n] = v[n] + a[n] * deltaT;
+
+			accelerated |= a[n] != 0;
+		}
+
+		ball.time = this.absoluteTime;
+
+		//Only acceleration changes a speed between events
+		if ( accelerated ) this.observables.speedChanged( ball );
+	}
+
+	/**
+	 * Brings every ball up to the current time.  runFor does this before it returns, so the balls are only out of date while it runs.
+	 */
+	public void syncAll() {
+
+		for( Ball ball : this.actors ) {
+			this.sync( ball );
+		}
+	}
+
+	/**
+	 * Puts a ball back inside the walls if rounding has carried its surface past one, or with periodic boundaries puts its centre back inside the region
+	 * @param ball The ball
+	 */
+	protected void clamp( Ball ball ) {
+		this.clamp( ball.pos, ball.radius );
+	}
+
+	/**
+	 * Puts the centre of a ball of a given radius inside the walls, or with periodic boundaries inside the region
+	 * @param pos Position of the centre, changed in place
+	 * @param radius Radius of the ball
+	 */
+	protected void clamp( DoubleVector pos, double radius ) {
+
+		double[] p = pos.comps;
+
+		double r = ( this.periodic ) ? 0 : radius;
+
+		for( int n = 0; n < p.length; n++ ) {
+			double lower = this.lowerBounds.comps[n] + r;
+			double upper = this.upperBounds.comps[n] - r;
+
+			//A ball too big to fit is left alone
+			if ( lower > upper ) continue;
+
+			if ( p[n] < lower ) p[n] = lower;
+			else if ( p[n] > upper ) p[n] = upper;
+		}
+	}
+
+	/**
+	 * Counts the balls that have got out of the Universe, past a wall or outside the periodic region
+	 * @param tolerance Distance a ball may be out by before it counts
+	 * @return Returns the number of balls out
+	 */
+	public int countEscapes( double tolerance ) {
+
+		this.syncAll();
+
+		int escapes = 0;
+
+		for( Ball ball : this.actors ) {
+			double r = ( this.periodic ) ? 0 : ball.radius;
+
+			for( int n = 0; n < ball.pos.order; n++ ) {
+				double p = ball.pos.comps[n];
+
+				if ( p - r < this.lowerBounds.comps[n] - tolerance || p + r > this.upperBounds.comps[n] + tolerance ) {
+					escapes++;
+					break;
+				}
+			}
+		}
+
+		return escapes;
+	}
+
+	/**
+	 * Counts the pairs of balls overlapping each other, using the broadphase to find pairs close enough to
+	 * @param tolerance Depth two balls may overlap by before they count
+	 * @return Returns the number of overlapping pairs
+	 */
+	public int countOverlaps( double tolerance ) {
+
+		this.syncAll();
+
+		int overlaps = 0;
+
+		for( Ball ball : this.actors ) {
+			this.candidates.clear();
+			this.broadphase.candidates( ball, this.candidates );
+
+			for( Ball other : this.candidates ) {
+				double distSquared = 0;
+
+				for( int n = 0; n < ball.pos.order; n++ ) {
+					double d = ball.pos.comps[n] - other.pos.comps[n];
+
+					if ( this.periodic ) {
+						double size = this.upperBounds.comps[n] - this.lowerBounds.comps[n];
+						d -= size * Math.rint( d / size );
+					}
+
+					distSquared += d * d;
+				}
+
+				double reach = ball.radius + other.radius - tolerance;
+
+				if ( reach > 0 && distSquared < reach * reach ) overlaps++;
+			}
+		}
+
+		//Each pair was found from both ends
+		return overlaps / 2;
+	}
+
+	/**
+	 * Discards stale collisions from the front of the queue
+	 * @return Returns the soonest pending collision, or null if there is none
+	 */
+	public Collision nextCollision( ) {
+
+		Collision next = this.collisions.peek();
+
+		while( next != null && !next.isValid() ) {
+			this.collisions.poll();
+			next = this.collisions.peek();
+		}
+
+		return next;
+	}
+
+	/**
+	 * Throws away every pending collision and calculates all of them again.  Needed whenever something affecting every trajectory changes, such as gravity.
+	 */
+	public void recomputeCollisions() {
+
+		FlightEvents.PredictionEvent recorded = FlightEvents.PredictionEvent.start();
+		int candidateCount = 0;
+
+		this.syncAll();
+
+		//Gravity, the force regions or the boundaries may have changed
+		for( Ball ball : this.actors ) {
+			this.accelerate( ball );
+		}
+
+		if ( this.history != null ) this.history.sceneChanged();
+
+		this.collisions.clear();
+
+		this.broadphase.rebuild( this.actors );
+
+		HashSet<Ball> done = new HashSet<Ball>();
+
+		for ( int i = 0; i < this.actors.size(); i++ ) {
+			Ball ball1 = this.actors.get(i);
+
+			//Each pair only needs checking once
+			this.candidates.clear();
+			this.broadphase.candidates( ball1, this.candidates );
+
+			for( int k = this.candidates.size() - 1; k >= 0; k-- ) {
+				if ( done.contains( this.candidates.get(k) ) ) this.candidates.remove( k );
+			}
+
+			this.predictPairs( ball1, this.candidates );
+			candidateCount += this.candidates.size();
+
+			this.predictBoundaries( ball1 );
+			this.predictHorizon( ball1 );
+
+			done.add( ball1 );
+		}
+
+		if ( recorded != null ) recorded.finish( this.actors.size(), candidateCount, this.getHorizon() );
+	}
+
+	/**
+	 * Calculates the exact time (as limited by the precision of double arithmaic) of every future collision of a ball, with other actors, walls and obstacles, and queues them.
+	 * @param ball The ball
+	 */
+	protected void predict( Ball ball ) {
+
+		FlightEvents.PredictionEvent recorded = this.samplePredictionFlight() ? FlightEvents.PredictionEvent.start() : null;
+
+		this.sync( ball );
+
+		this.broadphase.update( ball );
+
+		this.candidates.clear();
+		this.broadphase.candidates( ball, this.candidates );
+
+		this.predictPairs( ball, this.candidates );
+
+		this.predictBoundaries( ball );
+		this.predictHorizon( ball );
+
+		if ( recorded != null ) recorded.finish( 1, this.candidates.size(), this.getHorizon() );
+
+		//Stale entries pile up as balls collide, clear them out once they dominate the queue
+		if ( this.collisions.size() > 16 * this.actors.size() + 256 ) this.purgeCollisions();
+	}
+
+	/**
+	 * Queues the next collisions between a ball and each of a list of others
+	 * @param ball The ball
+	 * @param others The balls to check, not including the ball itself
+	 */
+	protected void predictPairs( Ball ball, ArrayList<Ball> others ) {
+
+		int size = others.size();
+		this.pairChecks += size;
+
+		double horizon = this.getHorizon();
+
+		//Periodic images are handled one pair at a time.  Only the balls being checked need to be up to date.
+		if ( this.periodic ) {
+			for ( int i = 0; i < size; i++ ) {
+				this.sync( others.get(i) );
+				if ( this.canMeetWithin( ball, others.get(i), horizon ) ) this.predictPair( ball, others.get(i) );
+			}
+			return;
+		}
+
+		this.batch.clear( size );
+
+		for ( int i = 0; i < size; i++ ) {
+			Ball other = others.get(i);
+
+			this.sync( other );
+
+			//Only pairs accelerating alike close on a straight line, as the batch assumes.  The rest are solved as quartics.
+			if ( !this.batch.add( ball, other ) ) this.predictPair( ball, other );
+		}
+
+		double[] times = this.batch.predict( horizon );
+
+		for ( int i = 0; i < this.batch.size(); i++ ) {
+			if ( times[i] < Double.POSITIVE_INFINITY ) this.collisions.addPair( ball, this.batch.getCandidate(i), this.absoluteTime + times[i], times[i] );
+		}
+	}
+
+	/**
+	 * Queues the next collision between two balls, if there is one
+	 * @param ball1 The first ball
+	 * @param ball2 The second ball
+	 */
+	protected void predictPair( Ball ball1, Ball ball2 ) {
+
+		double t;
+
+		double horizon = this.getHorizon();
+
+		if ( this.periodic ) t = Physics.pairCollisionTime(ball1, ball2, this.lowerBounds, this.upperBounds, horizon);
+		else t = Physics.pairCollisionTime(ball1, ball2, horizon);
+
+		if ( t < Double.POSITIVE_INFINITY ) this.collisions.addPair( ball1, ball2, this.absoluteTime + t, t );
+	}
+
+	/**
+	 * Checks whether two balls could come into contact within a time, going by how fast the gap between them can close.
+	 * Only the nearest periodic image is measured, so any reach over half the Universe is let through.
+	 * @param ball1 The first ball
+	 * @param ball2 The second ball
+	 * @param limit The time
+	 * @return Returns false if the balls cannot touch within the time
+	 */
+	protected boolean canMeetWithin( Ball ball1, Ball ball2, double limit ) {
+
+		if ( limit == Double.POSITIVE_INFINITY ) return true;
+
+		double distSquared = 0;
+		double speedSquared = 0;
+		double accelSquared = 0;
+
+		for( int n = 0; n < ball1.pos.order; n++ ) {
+			double d = ball1.pos.comps[n] - ball2.pos.comps[n];
+
+			if ( this.periodic ) {
+				double size = this.upperBounds.comps[n] - this.lowerBounds.comps[n];
+				d -= size * Math.rint( d / size );
+			}
+
+			double v = ball1.vel.comps[n] - ball2.vel.comps[n];
+			double a = ball1.accel.comps[n] - ball2.accel.comps[n];
+
+			distSquared += d * d;
+			speedSquared += v * v;
+			accelSquared += a * a;
+		}
+
+		//The gap closes no faster than the relative speed, and what the relative acceleration adds to it
+		double reach = ball1.radius + ball2.radius + Math.sqrt( speedSquared ) * limit + Math.sqrt( accelSquared ) * limit * limit / 2;
+
+		if ( this.periodic ) {
+			for( int n = 0; n < ball1.pos.order; n++ ) {
+				if ( 2 * reach >= this.upperBounds.comps[n] - this.lowerBounds.comps[n] ) return true;
+			}
+		}
+
+		return distSquared <= reach * reach * ( 1 + Physics.DOUBLE_THRESHOLD );
+	}
+
+	/**
+	 * Queues the next collision of a ball with a wall or obstacle, its next periodic boundary crossing, and its next force region crossing
+	 * @param ball The ball
+	 */
+	protected void predictBoundaries( Ball ball ) {
+
+		double horizon = this.getHorizon();
+
+		//Soonest boundary event found so far, written straight into the scheduler once known rather than kept as a Collision
+		double soonestT = Double.POSITIVE_INFINITY;
+		int soonestN = -1;
+		double soonestShift = 0;
+
+		//With periodic boundaries the ball wraps around instead of hitting a wall
+		if ( this.reachesBoundary( ball, horizon ) ) {
+			for( int n = 0; n < ball.pos.order; n++ ) {
+				if ( this.periodic ) {
+					double size = this.upperBounds.comps[n] - this.lowerBounds.comps[n];
+					double lowerT = Physics.wrapCrossingTime( ball, this.lowerBounds, this.upperBounds, ball.accel, n, false );
+					double upperT = Physics.wrapCrossingTime( ball, this.lowerBounds, this.upperBounds, ball.accel, n, true );
+
+					if ( lowerT < soonestT ) {
+						soonestT = lowerT;
+						soonestN = n;
+						soonestShift = size;
+					}
+					if ( upperT < soonestT ) {
+						soonestT = upperT;
+						soonestN = n;
+						soonestShift = -size;
+					}
+				}
+				else {
+					double t = Physics.wallCollisionTime( ball, this.lowerBounds, this.upperBounds, ball.accel, n );
+
+					if ( t < soonestT ) {
+						soonestT = t;
+						soonestN = n;
+					}
+				}
+			}
+		}
+		if ( soonestN >= 0 && soonestT <= horizon ) {
+			if ( this.periodic ) this.collisions.addWrap( ball, this.absoluteTime + soonestT, soonestT, soonestN, soonestShift );
+			else this.collisions.addWall( ball, this.absoluteTime + soonestT, soonestT, soonestN );
+		}
+
+		double limit = Math.min( soonestT, horizon );
+
+		//Obstacles are only of interest if they are hit before the wall, or before the ball is wrapped away from them
+		if ( this.obstacleTree != null ) {
+			double t = this.obstacleTree.nextCollisionTime( ball, ball.accel, limit );
+			if ( t < Double.POSITIVE_INFINITY ) {
+				this.collisions.addObstacle( ball, this.obstacleTree.getFoundObstacle(), this.absoluteTime + t, t );
+				limit = Math.min( t, limit );
+			}
+		}
+
+		//Likewise a force region crossing, the first of which ends the ball's acceleration
+		ForceRegion crossed = null;
+		double crossingT = Double.POSITIVE_INFINITY;
+
+		for( int i = 0; i < this.regions.size(); i++ ) {
+			double t = this.regions.get(i).crossingTime( ball );
+
+			if ( t < crossingT ) {
+				crossingT = t;
+				crossed = this.regions.get(i);
+			}
+		}
+
+		if ( crossed != null && crossingT <= limit ) this.collisions.addRegion( ball, crossed, this.absoluteTime + crossingT, crossingT );
+	}
+
+	/**
+	 * Checks whether a ball could hit a wall, or cross a periodic boundary, within a time
+	 * @param ball The ball
+	 * @param limit The time
+	 * @return Returns false if the ball stays clear of every boundary until then
+	 */
+	protected boolean reachesBoundary( Ball ball, double limit ) {
+
+		if ( limit == Double.POSITIVE_INFINITY ) return true;
+
+		//Walls are hit by the surface, periodic boundaries crossed by the centre
+		double r = ( this.periodic ) ? 0 : ball.radius;
+
+		for( int n = 0; n < ball.pos.order; n++ ) {
+			double p = ball.pos.comps[n];
+			double v = ball.vel.comps[n];
+			double a = ball.accel.comps[n];
+
+			double end = p + v * limit + a * limit * limit / 2;
+
+			double lo = Math.min( p, end );
+			double hi = Math.max( p, end );
+
+			//The parabola may turn around before the limit
+			if ( a != 0 && -v / a > 0 && -v / a < limit ) {
+				double turn = p - v * v / ( 2 * a );
+
+				lo = Math.min( lo, turn );
+				hi = Math.max( hi, turn );
+			}
+
+			if ( lo - r <= this.lowerBounds.comps[n] || hi + r >= this.upperBounds.comps[n] ) return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Queues a re-prediction of a ball for when its horizon passes
+	 * @param ball The ball
+	 */
+	protected void predictHorizon( Ball ball ) {
+
+		double horizon = this.getHorizon();
+
+		if ( horizon < Double.POSITIVE_INFINITY ) this.collisions.addHorizon( ball, this.absoluteTime + horizon, horizon );
+	}
+
+	/**
+	 * Finds the periodic image of one ball nearest another
+	 * @param ball1 The ball measured from
+	 * @param ball2 The ball whose image is wanted
+	 * @return Returns the offset from ball2 to the image, in an array reused on every call
+	 */
+	protected double[] nearestImageShift( Ball ball1, Ball ball2 ) {
+
+		int order = ball1.pos.order;
+
+		if ( this.imageShift == null || this.imageShift.length != order ) this.imageShift = new double[order];
+
+		for( int n = 0; n < order; n++ ) {
+			double size = this.upperBounds.comps[n] - this.lowerBounds.comps[n];
+			this.imageShift[n] = size * Math.rint( ( ball1.pos.comps[n] - ball2.pos.comps[n] ) / size );
+		}
+
+		return this.imageShift;
+	}
+
+	/**
+	 * Counts a collision between two balls towards the mean free time, and adapts the horizon at the end of each window
+	 */
+	protected void countPairCollision() {
+
+		this.windowPairCollisions++;
+
+		//Each collision ends a free path for two balls.  A window of one collision per ball keeps the estimate steady.
+		if ( this.windowPairCollisions < Math.max( 64, this.actors.size() ) ) return;
+
+		double measured = this.windowBallTime / ( 2 * this.windowPairCollisions );
+
+		this.meanFreeTime = ( Double.isNaN( this.meanFreeTime ) ) ? measured : ( this.meanFreeTime + measured ) / 2;
+
+		this.windowBallTime = 0;
+		this.windowPairCollisions = 0;
+
+		if ( this.horizonFactor > 0 ) this.adaptHorizon();
+	}
+
+	/**
+	 * Sets the horizon from the mean free time, and hands it to the broadphase so its boxes cover the same time
+	 */
+	protected void adaptHorizon() {
+
+		//Not adapting, or nothing measured yet, leaves the horizon set
+		boolean adapting = this.horizonFactor > 0 && !Double.isNaN( this.meanFreeTime );
+
+		this.adaptedHorizon = adapting ? this.horizonFactor * this.meanFreeTime : Double.POSITIVE_INFINITY;
+
+		double horizon = Math.min( this.horizon, this.adaptedHorizon );
+
+		if ( horizon < Double.POSITIVE_INFINITY ) this.broadphase.setHorizon( horizon );
+	}
+
+	/**
+	 * @return Returns the time ahead collisions are currently solved for
+	 */
+	public double getHorizon() {
+		return Math.min( Math.min( this.horizon, this.adaptedHorizon ), this.broadphase.getHorizon() );
+	}
+
+	/**
+	 * Sets the longest time ahead collisions are solved for.  Later collisions are found when a ball is re-predicted at its horizon,
+	 * which keeps the queue small in dilute scenes where most far predictions never happen.
+	 * @param horizon The time, infinite for no limit
+	 */
+	public void setHorizon( double horizon ) {
+		if ( !( horizon > 0 ) ) throw new IllegalArgumentException("Horizon must be positive");
+
+		this.horizon = horizon;
+		this.adaptHorizon();
+	}
+
+	/**
+	 * Makes the horizon follow the measured mean free time.  Until enough collisions have been seen, the horizon set is used.
+	 * @param factor Mean free times the horizon covers, or 0 to stop adapting
+	 */
+	public void setAdaptiveHorizon( double factor ) {
+		if ( factor < 0 ) throw new IllegalArgumentException("Horizon factor must not be negative");
+
+		this.horizonFactor = factor;
+
+		this.adaptHorizon();
+	}
+
+	/**
+	 * @return Returns the mean time between collisions with other balls, per ball, or NaN before enough collisions have been seen
+	 */
+	public double getMeanFreeTime() {
+		return this.meanFreeTime;
+	}
+
+	/**
+	 * Removes every stale collision from the queue
+	 */
+	protected void purgeCollisions() {
+		this.collisions.purge();
+	}
+
+	/**
+	 * @return Returns the current absolute time
+	 */
+	public double getTime() {
+		return this.absoluteTime;
+	}
+
+	/**
+	 * @return Returns the observables accumulated for the Universe
+	 */
+	public Observables getObservables() {
+		return this.observables;
 	}
 
 	/**
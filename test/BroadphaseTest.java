@@ -0,0 +1,86 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that a sweep and prune broadphase kept up to date through adds, removes and updates finds the same candidates as one
+ * rebuilt from scratch
+ *
+ * @author Alex Weeks
+ *
+ */
+public class BroadphaseTest {
+
+	@Test
+	public void incrementalChangesMatchARebuild() {
+		check( false );
+	}
+
+	@Test
+	public void incrementalChangesMatchARebuildWithPeriodicBoundaries() {
+		check( true );
+	}
+
+	/**
+	 * Adds balls in bulk and one at a time, removes some, moves the rest, and compares every ball's candidates with a rebuild's
+	 */
+	private static void check( boolean periodic ) {
+
+		DoubleVector lower = new DoubleVector( new double[] {0, 0} );
+		DoubleVector upper = new DoubleVector( new double[] {16 * 20, 16 * 20} );
+
+		ArrayList<Ball> balls = TestScenes.lattice( 16, 20, 2, 8, 100, 7 );
+
+		SweepAndPruneBroadphase broadphase = new SweepAndPruneBroadphase( lower, upper, 0.1 );
+		broadphase.setPeriodic( periodic );
+		broadphase.rebuild( balls.subList( 0, 100 ) );
+
+		//In bulk, then one at a time with queries in between
+		for( Ball ball : balls.subList( 100, 200 ) ) broadphase.add( ball );
+		for( Ball ball : balls.subList( 200, balls.size() ) ) {
+			broadphase.add( ball );
+			broadphase.candidates( ball, new ArrayList<Ball>() );
+		}
+
+		ArrayList<Ball> kept = new ArrayList<Ball>();
+		for( int i = 0; i < balls.size(); i++ ) {
+			if ( i % 3 == 0 ) broadphase.remove( balls.get(i) );
+			else kept.add( balls.get(i) );
+		}
+
+		//Moving balls past the boundaries makes and drops ghosts
+		Random rnd = new Random( 1 );
+		for( int step = 0; step < 5; step++ ) {
+			for( Ball ball : kept ) {
+				for( int n = 0; n < 2; n++ ) {
+					double size = upper.comps[n] - lower.comps[n];
+					ball.pos.comps[n] = ( ( ball.pos.comps[n] + ( rnd.nextDouble() - 0.5 ) * 40 ) % size + size ) % size;
+				}
+				broadphase.update( ball );
+			}
+		}
+
+		SweepAndPruneBroadphase rebuilt = new SweepAndPruneBroadphase( lower, upper, 0.1 );
+		rebuilt.setPeriodic( periodic );
+		rebuilt.rebuild( kept );
+
+		assertEquals( rebuilt.getOverlapCount(), broadphase.getOverlapCount() );
+
+		for( Ball ball : kept ) {
+			assertEquals( candidates( rebuilt, ball ), candidates( broadphase, ball ) );
+		}
+	}
+
+	private static HashSet<Ball> candidates( Broadphase broadphase, Ball ball ) {
+
+		List<Ball> result = new ArrayList<Ball>();
+		broadphase.candidates( ball, result );
+
+		return new HashSet<Ball>( result );
+	}
+}
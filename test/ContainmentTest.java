@@ -0,0 +1,143 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Runs long scenes and checks, every few steps, that no ball has got out of the Universe, into another ball or into an obstacle.
+ * Rounding gets its chance to lose a ball at every event, so each scene runs for a quarter of a million events, a couple of million
+ * over the suite.  -Dcontainment.events runs each scene for longer.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class ContainmentTest {
+
+	private static final long EVENTS = Long.getLong( "containment.events", 250000L );
+
+	//Distance a ball may be out, or into another, before it counts
+	private static final double TOLERANCE = 1e-9;
+
+	@Test
+	public void wallsKeepBallsIn() {
+		EventRecorder recorder = TestScenes.box( 14 * 20, 0 );
+		recorder.getUniverse().addActors( TestScenes.lattice( 14, 20, 2, 8, 100, 0 ) );
+
+		run( recorder );
+	}
+
+	@Test
+	public void wallsKeepBallsInUnderGravity() {
+		EventRecorder recorder = TestScenes.box( 14 * 20, 300 );
+		recorder.getUniverse().addActors( TestScenes.lattice( 14, 20, 2, 8, 100, 1 ) );
+
+		run( recorder );
+	}
+
+	@Test
+	public void periodicBoundariesKeepBallsIn() {
+		EventRecorder recorder = TestScenes.box( 14 * 20, 0 );
+		recorder.getUniverse().addActors( TestScenes.lattice( 14, 20, 2, 8, 100, 2 ) );
+		recorder.getUniverse().setPeriodic( true );
+
+		run( recorder );
+	}
+
+	@Test
+	public void periodicBoundariesKeepBallsInUnderGravity() {
+		EventRecorder recorder = TestScenes.box( 14 * 20, 300 );
+		recorder.getUniverse().addActors( TestScenes.lattice( 14, 20, 2, 8, 100, 3 ) );
+		recorder.getUniverse().setPeriodic( true );
+
+		run( recorder );
+	}
+
+	@Test
+	public void densePackingKeepsBallsApart() {
+		EventRecorder recorder = TestScenes.box( 20 * 10.5, 0 );
+		recorder.getUniverse().addActors( TestScenes.lattice( 20, 10.5, 5, 5, 100, 4 ) );
+
+		run( recorder );
+	}
+
+	@Test
+	public void sweepAndPruneWithAnAdaptiveHorizonKeepsBallsApart() {
+		EventRecorder recorder = TestScenes.box( 14 * 20, 0 );
+		Universe universe = recorder.getUniverse();
+
+		universe.addActors( TestScenes.lattice( 14, 20, 2, 8, 100, 5 ) );
+		universe.setBroadphase( new SweepAndPruneBroadphase( universe.lowerBounds, universe.upperBounds, 1.0 ) );
+		universe.setAdaptiveHorizon( 3 );
+
+		run( recorder );
+	}
+
+	@Test
+	public void calendarQueueUnderGravityKeepsBallsApart() {
+		EventRecorder recorder = TestScenes.box( 14 * 20, 300 );
+		Universe universe = recorder.getUniverse();
+
+		universe.addActors( TestScenes.lattice( 14, 20, 2, 8, 100, 6 ) );
+		universe.setScheduler( new CalendarScheduler() );
+
+		run( recorder );
+	}
+
+	@Test
+	public void obstaclesKeepBallsOut() {
+		EventRecorder recorder = TestScenes.box( 14 * 20, 300 );
+		Universe universe = recorder.getUniverse();
+
+		Obstacle disc = new FixedDisc( new DoubleVector( new double[] {70, 70} ), 15 );
+		Obstacle segment = new Segment( new DoubleVector( new double[] {150, 40} ), new DoubleVector( new double[] {250, 120} ) );
+
+		ArrayList<Ball> balls = TestScenes.lattice( 14, 20, 2, 8, 100, 7 );
+		TestScenes.clear( balls, disc );
+		TestScenes.clear( balls, segment );
+
+		universe.addObstacle( disc );
+		universe.addObstacle( segment );
+		universe.addActors( balls );
+
+		run( recorder );
+	}
+
+	/**
+	 * Runs a scene in short steps for the number of events wanted, checking it as it goes and at the end
+	 */
+	private static void run( EventRecorder recorder ) {
+
+		Universe universe = recorder.getUniverse();
+
+		int balls = universe.actors.size();
+		int steps = 0;
+
+		while( recorder.getEvents() < EVENTS ) {
+			universe.runFor( 0.02 );
+
+			if ( ++steps % 50 == 0 ) check( universe, balls );
+		}
+
+		check( universe, balls );
+	}
+
+	/**
+	 * Checks that every ball is still there, inside the Universe and clear of the other balls and the obstacles
+	 */
+	private static void check( Universe universe, int balls ) {
+
+		String when = " at time " + universe.getTime();
+
+		assertEquals( "Balls lost" + when, balls, universe.actors.size() );
+		assertEquals( "Balls escaped" + when, 0, universe.countEscapes( TOLERANCE ) );
+		assertEquals( "Balls overlapping" + when, 0, universe.countOverlaps( TOLERANCE ) );
+
+		for( Obstacle obstacle : universe.obstacles ) {
+			for( Ball ball : universe.actors ) {
+				assertTrue( "Ball inside an obstacle" + when, obstacle.distanceTo( ball.pos ) >= ball.radius - TOLERANCE );
+			}
+		}
+	}
+}
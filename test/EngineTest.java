@@ -0,0 +1,108 @@
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Checks when the Universe hands a scene to the soft sphere engine
+ *
+ * @author Alex Weeks
+ *
+ */
+public class EngineTest {
+
+	private static EventRecorder dense() {
+		EventRecorder recorder = TestScenes.box( 20 * 10.5, 0 );
+		recorder.getUniverse().addActors( TestScenes.lattice( 20, 10.5, 5, 5, 100, 0 ) );
+
+		return recorder;
+	}
+
+	@Test
+	public void automaticHandsDenseScenesToSoftSpheres() {
+		Universe universe = dense().getUniverse();
+
+		universe.setAutoEventRate( 1 );
+		universe.setEngine( Universe.Engine.AUTOMATIC );
+		universe.runFor( 0.02 );
+
+		assertTrue( universe.softSphereActive );
+	}
+
+	@Test
+	public void automaticKeepsScenesWithObstaclesEventDriven() {
+		EventRecorder recorder = TestScenes.box( 20 * 10.5, 0 );
+		Universe universe = recorder.getUniverse();
+
+		Obstacle disc = new FixedDisc( new DoubleVector( new double[] {50, 50} ), 10 );
+
+		ArrayList<Ball> balls = TestScenes.lattice( 20, 10.5, 5, 5, 100, 0 );
+		TestScenes.clear( balls, disc );
+
+		universe.addObstacle( disc );
+		universe.addActors( balls );
+
+		universe.setAutoEventRate( 1 );
+		universe.setEngine( Universe.Engine.AUTOMATIC );
+		universe.runFor( 0.02 );
+
+		assertFalse( universe.softSphereActive );
+	}
+
+	@Test
+	public void automaticKeepsScenesWithSinksEventDriven() {
+		Universe universe = dense().getUniverse();
+
+		universe.setSink( 0, true, true );
+		universe.setAutoEventRate( 1 );
+		universe.setEngine( Universe.Engine.AUTOMATIC );
+		universe.runFor( 0.02 );
+
+		assertFalse( universe.softSphereActive );
+	}
+
+	@Test
+	public void obstacleHandsSoftSpheresBack() {
+		Universe universe = dense().getUniverse();
+
+		universe.setAutoEventRate( 1 );
+		universe.setEngine( Universe.Engine.AUTOMATIC );
+		universe.runFor( 0.02 );
+
+		universe.addObstacle( new FixedDisc( new DoubleVector( new double[] {-100, -100} ), 10 ) );
+
+		assertFalse( universe.softSphereActive );
+	}
+
+	@Test
+	public void autotunerProposesSoftSpheresOnlyForCapableScenes() {
+		Universe universe = dense().getUniverse();
+		Autotuner autotuner = new Autotuner( true );
+
+		double storm = universe.autoEventRate;
+
+		assertTrue( autotuner.propose( universe, 400, 10, storm ).automatic );
+
+		universe.addObstacle( new FixedDisc( new DoubleVector( new double[] {-100, -100} ), 10 ) );
+
+		assertFalse( autotuner.propose( universe, 400, 10, storm ).automatic );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void softSpheresRefuseObstacles() {
+		Universe universe = dense().getUniverse();
+
+		universe.addObstacle( new FixedDisc( new DoubleVector( new double[] {-100, -100} ), 10 ) );
+		universe.setEngine( Universe.Engine.SOFT_SPHERE );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void softSpheresRefuseSinks() {
+		Universe universe = dense().getUniverse();
+
+		universe.setEngine( Universe.Engine.SOFT_SPHERE );
+		universe.setSink( 1, false, true );
+	}
+}
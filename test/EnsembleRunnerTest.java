@@ -0,0 +1,142 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+import org.junit.Test;
+
+/**
+ * Checks that an ensemble stops at the first failure and throws it on, and that a dense run is cut short close to its time budget
+ *
+ * @author Alex Weeks
+ *
+ */
+public class EnsembleRunnerTest {
+
+	@Test
+	public void aggregatorExceptionStopsTheRuns() throws InterruptedException {
+
+		final AtomicInteger built = new AtomicInteger();
+		final IllegalStateException thrown = new IllegalStateException("Aggregator failed");
+
+		EnsembleRunner<Integer> runner = new EnsembleRunner<Integer>( new LongFunction<Universe>() {
+			public Universe apply( long seed ) {
+				built.incrementAndGet();
+				return scene( 4, seed );
+			}
+		}, count() );
+
+		runner.setParallelism( 1 );
+		runner.setMaxInFlight( 1 );
+
+		try {
+			runner.run( 0, 10, 0.01, 10000, new Consumer<EnsembleRunner.Result<Integer>>() {
+				public void accept( EnsembleRunner.Result<Integer> result ) {
+					throw thrown;
+				}
+			});
+			fail( "The aggregator's exception was not thrown on" );
+		}
+		catch( IllegalStateException e ) {
+			assertSame( thrown, e );
+		}
+
+		assertEquals( 1, built.get() );
+	}
+
+	@Test
+	public void factoryErrorStopsTheRuns() throws InterruptedException {
+
+		final AtomicInteger built = new AtomicInteger();
+		final Error thrown = new Error("Factory failed");
+
+		EnsembleRunner<Integer> runner = new EnsembleRunner<Integer>( new LongFunction<Universe>() {
+			public Universe apply( long seed ) {
+				built.incrementAndGet();
+				throw thrown;
+			}
+		}, count() );
+
+		runner.setParallelism( 1 );
+		runner.setMaxInFlight( 1 );
+
+		final List<EnsembleRunner.Result<Integer>> results = new ArrayList<EnsembleRunner.Result<Integer>>();
+
+		try {
+			runner.run( 0, 10, 0.01, 10000, new Consumer<EnsembleRunner.Result<Integer>>() {
+				public void accept( EnsembleRunner.Result<Integer> result ) {
+					results.add( result );
+				}
+			});
+			fail( "The factory's Error was not thrown on" );
+		}
+		catch( Error e ) {
+			assertSame( thrown, e );
+		}
+
+		assertEquals( 1, built.get() );
+		assertTrue( results.isEmpty() );
+	}
+
+	@Test
+	public void denseRunStopsNearItsBudget() throws InterruptedException {
+
+		final long budgetMillis = 200;
+
+		EnsembleRunner<Integer> runner = new EnsembleRunner<Integer>( new LongFunction<Universe>() {
+			public Universe apply( long seed ) {
+				return scene( 20, seed );
+			}
+		}, count() );
+
+		runner.setParallelism( 1 );
+
+		final List<EnsembleRunner.Result<Integer>> results = new ArrayList<EnsembleRunner.Result<Integer>>();
+
+		long start = System.nanoTime();
+
+		runner.run( 0, 1, 1000, budgetMillis, new Consumer<EnsembleRunner.Result<Integer>>() {
+			public void accept( EnsembleRunner.Result<Integer> result ) {
+				results.add( result );
+			}
+		});
+
+		double millis = ( System.nanoTime() - start ) / 1e6;
+
+		assertEquals( 1, results.size() );
+		assertFalse( results.get(0).completed );
+		assertTrue( results.get(0).simulatedTime > 0 );
+
+		//Building the scene and the last slice come on top of the budget, but not several times over
+		assertTrue( "Took " + millis + " ms", millis < 3 * budgetMillis );
+	}
+
+	/**
+	 * @return Returns a densely packed headless Universe with side * side balls
+	 */
+	private static Universe scene( int side, long seed ) {
+		Universe universe = TestScenes.box( side * 10, 0 ).getUniverse();
+		universe.addActors( TestScenes.lattice( side, 10, 4, 4.8, 100, seed ) );
+
+		return universe;
+	}
+
+	/**
+	 * @return Returns a measurement counting the balls
+	 */
+	private static Function<Universe, Integer> count() {
+		return new Function<Universe, Integer>() {
+			public Integer apply( Universe universe ) {
+				return universe.actors.size();
+			}
+		};
+	}
+}
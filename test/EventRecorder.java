@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Observables that also count every event a Universe performs, and optionally write each one down as a line of text naming the
+ * balls by their index in the Universe when recording started.  Set on a Universe before any balls are added, so its totals cover them.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class EventRecorder extends Observables {
+
+	protected final Universe universe;
+
+	protected long events = 0;
+
+	//Index of each ball, and the events written down, null while only counting
+	protected IdentityHashMap<Ball, Integer> indices = null;
+	protected ArrayList<String> lines = null;
+
+	/**
+	 * Creates a recorder and sets it as a Universe's observables
+	 * @param universe The Universe, with no balls yet
+	 */
+	public EventRecorder( Universe universe ) {
+		super( universe.lowerBounds, universe.upperBounds );
+
+		this.universe = universe;
+		universe.observables = this;
+	}
+
+	/**
+	 * Starts writing events down
+	 * @param balls The balls, indexed by their place in the list
+	 */
+	public void record( List<Ball> balls ) {
+		this.indices = new IdentityHashMap<Ball, Integer>();
+		this.lines = new ArrayList<String>();
+
+		for( int i = 0; i < balls.size(); i++ ) {
+			this.indices.put( balls.get(i), i );
+		}
+	}
+
+	public void afterCollision( Collision c ) {
+		super.afterCollision( c );
+
+		this.events++;
+
+		if ( this.lines == null ) return;
+
+		int i = this.indices.get( c.ball1 );
+
+		if ( c.ball2 != null ) {
+			int j = this.indices.get( c.ball2 );
+			this.lines.add( c.time + " pair " + Math.min( i, j ) + " " + Math.max( i, j ) );
+		}
+		else if ( c.isWallCollision ) this.lines.add( c.time + " wall " + i + " " + c.wallCompIndex );
+		else if ( c.isWrapCrossing ) this.lines.add( c.time + " wrap " + i + " " + c.wallCompIndex );
+		else if ( c.isRegionCrossing ) this.lines.add( c.time + " region " + i );
+		else this.lines.add( c.time + " obstacle " + i );
+	}
+
+	/**
+	 * Writes down the state of every ball being recorded, in the same form the events take
+	 */
+	public void recordState() {
+		Universe universe = this.universe;
+
+		universe.syncAll();
+
+		for( Ball ball : universe.actors ) {
+			double[] p = ball.pos.comps;
+			double[] v = ball.vel.comps;
+
+			this.lines.add( universe.getTime() + " ball " + this.indices.get( ball ) + " " + p[0] + " " + p[1] + " " + v[0] + " " + v[1] );
+		}
+	}
+
+	/**
+	 * @return Returns the Universe recorded
+	 */
+	public Universe getUniverse() {
+		return this.universe;
+	}
+
+	/**
+	 * @return Returns the number of events performed since the recorder was set
+	 */
+	public long getEvents() {
+		return this.events;
+	}
+
+	/**
+	 * @return Returns the lines written down
+	 */
+	public List<String> getLines() {
+		return this.lines;
+	}
+}
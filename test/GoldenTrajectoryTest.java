@@ -0,0 +1,152 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Runs seeded scenes and compares every event, and the state of every ball at the end, with reference runs stored under golden/.
+ * The references were made with the original engine, which found each collision by checking every pair and wall afresh, so
+ * anything done to make the Universe faster must still give the same physics.
+ *
+ * Hard sphere dynamics amplify rounding with every collision, so the runs are only as long as keeps the difference from the reference
+ * orders of magnitude inside the tolerance.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class GoldenTrajectoryTest {
+
+	//Difference allowed in times, and in positions and velocities relative to their size
+	private static final double TOLERANCE = 1e-6;
+
+	/**
+	 * Ways of running the same scene, all of which must give the same events
+	 */
+	private enum Setup { DEFAULT, SWEEP_AND_PRUNE, CALENDAR_WITH_HORIZON }
+
+	@Test
+	public void freeBallsMatchTheReference() throws IOException {
+		this.check( "free", 30, 30, 0, 3.5 );
+	}
+
+	@Test
+	public void ballsUnderGravityMatchTheReference() throws IOException {
+		this.check( "gravity", 30, 31, 400, 1.2 );
+	}
+
+	@Test
+	public void crowdedBallsMatchTheReference() throws IOException {
+		this.check( "crowded", 50, 32, 0, 1.5 );
+	}
+
+	/**
+	 * Runs a scene every way and compares each run with the reference
+	 */
+	private void check( String name, int balls, long seed, double gravity, double time ) throws IOException {
+
+		List<String> expected = read( "/golden/" + name + ".txt" );
+
+		for( Setup setup : Setup.values() ) {
+			List<String> actual = run( setup, balls, seed, gravity, time );
+
+			compare( name + " " + setup, expected, actual );
+		}
+	}
+
+	/**
+	 * Runs a scene in steps the size the GUI takes, recording its events and the final state of its balls
+	 */
+	static List<String> run( Setup setup, int balls, long seed, double gravity, double time ) {
+
+		Universe universe = new Universe( new DoubleVector( new double[] {0, gravity} ), true );
+		EventRecorder recorder = new EventRecorder( universe );
+
+		universe.addRandomActors( balls, new Random( seed ) );
+		recorder.record( universe.actors );
+
+		switch( setup ) {
+		case SWEEP_AND_PRUNE:
+			universe.setBroadphase( new SweepAndPruneBroadphase( universe.lowerBounds, universe.upperBounds, 0.1 ) );
+			break;
+
+		case CALENDAR_WITH_HORIZON:
+			universe.setScheduler( new CalendarScheduler() );
+			universe.setHorizon( 0.05 );
+			break;
+
+		default:
+		}
+
+		while( universe.getTime() < time ) {
+			universe.runFor( Math.min( 0.04, time - universe.getTime() ) );
+		}
+
+		recorder.recordState();
+
+		return recorder.getLines();
+	}
+
+	/**
+	 * Compares recorded lines, each a time, a kind, the balls involved and for a ball's state its position and velocity
+	 */
+	private static void compare( String run, List<String> expected, List<String> actual ) {
+
+		for( int k = 0; k < Math.min( expected.size(), actual.size() ); k++ ) {
+			String[] e = expected.get(k).split( " " );
+			String[] a = actual.get(k).split( " " );
+
+			String where = run + ", line " + k + ": expected " + expected.get(k) + " but was " + actual.get(k);
+
+			boolean state = e[1].equals( "ball" );
+
+			//The kind of event and the balls and axis in it must match exactly
+			assertEquals( where, e[1] + " " + e[2] + ( state ? "" : " " + e[3] ), a[1] + " " + a[2] + ( state ? "" : " " + a[3] ) );
+
+			assertEquals( where, Double.parseDouble( e[0] ), Double.parseDouble( a[0] ), TOLERANCE );
+
+			if ( state ) {
+				for( int n = 3; n < e.length; n++ ) {
+					double value = Double.parseDouble( e[n] );
+					assertEquals( where, value, Double.parseDouble( a[n] ), TOLERANCE * Math.max( 1, Math.abs( value ) ) );
+				}
+			}
+		}
+
+		if ( expected.size() != actual.size() ) fail( run + ": expected " + expected.size() + " lines but was " + actual.size() );
+	}
+
+	/**
+	 * Reads a reference run, leaving out its comments
+	 */
+	private static List<String> read( String resource ) throws IOException {
+
+		InputStream in = GoldenTrajectoryTest.class.getResourceAsStream( resource );
+		assertNotNull( "Missing " + resource, in );
+
+		ArrayList<String> lines = new ArrayList<String>();
+
+		BufferedReader reader = new BufferedReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) );
+
+		try {
+			String line;
+			while( ( line = reader.readLine() ) != null ) {
+				if ( !line.startsWith( "#" ) && !line.isEmpty() ) lines.add( line );
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		return lines;
+	}
+}
@@ -0,0 +1,108 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that a Universe rewound to a past time has the balls it had then, in the state they were in, and that the events it went
+ * through can be read back
+ *
+ * @author Alex Weeks
+ *
+ */
+public class HistoryTest {
+
+	//Difference allowed in a position after rewinding
+	private static final double TOLERANCE = 1e-6;
+
+	@Test
+	public void rewindingBringsBackBallsEmittedAndAbsorbedSince() {
+		EventRecorder recorder = TestScenes.box( 10 * 20, 0 );
+		Universe universe = recorder.getUniverse();
+
+		universe.addActors( TestScenes.lattice( 10, 20, 2, 8, 100, 0 ) );
+		universe.addSource( new BallSource( 0, false, 50, 4, 2, 100, new Random( 1 ) ) );
+		universe.setSink( 0, true, true );
+		universe.setHistory( new EventHistory( 2, 64L << 20 ) );
+
+		universe.runFor( 0.5 );
+
+		double time = universe.getTime();
+		universe.syncAll();
+
+		IdentityHashMap<Ball, double[]> positions = new IdentityHashMap<Ball, double[]>();
+		for( Ball ball : universe.actors ) positions.put( ball, ball.pos.comps.clone() );
+
+		int count = universe.actors.size();
+
+		universe.runFor( 1.0 );
+
+		//Balls came and went in the meantime
+		assertTrue( !positions.keySet().containsAll( universe.actors ) || universe.actors.size() != count );
+
+		universe.rewindTo( time );
+
+		assertEquals( positions.size(), universe.actors.size() );
+
+		for( Ball ball : universe.actors ) {
+			double[] pos = positions.get( ball );
+
+			assertNotNull( pos );
+			assertEquals( pos[0], ball.pos.comps[0], TOLERANCE );
+			assertEquals( pos[1], ball.pos.comps[1], TOLERANCE );
+		}
+
+		universe.runFor( 0.1 );
+
+		assertEquals( 0, universe.countOverlaps( 1e-9 ) );
+	}
+
+	@Test
+	public void eventsKeepTheVelocitiesBeforeAndAfter() {
+		EventRecorder recorder = TestScenes.box( 10 * 20, 0 );
+		Universe universe = recorder.getUniverse();
+
+		universe.addActors( TestScenes.lattice( 10, 20, 2, 8, 100, 2 ) );
+		universe.setHistory( new EventHistory( 2, 64L << 20 ) );
+
+		universe.runFor( 0.5 );
+
+		List<EventHistory.RecordedEvent> events = universe.getHistory().getEvents( 0, universe.getTime() );
+
+		assertEquals( recorder.getEvents(), events.size() );
+
+		for( EventHistory.RecordedEvent event : events ) {
+			Ball b1 = event.ball1;
+
+			if ( event.ball2 == null ) {
+				//A wall turns the ball round without changing its speed
+				assertEquals( norm( event.preVel1 ), norm( event.postVel1 ), TOLERANCE );
+				assertTrue( event.preVel1[0] != event.postVel1[0] || event.preVel1[1] != event.postVel1[1] );
+				continue;
+			}
+
+			Ball b2 = event.ball2;
+
+			for( int n = 0; n < 2; n++ ) {
+				double before = b1.mass * event.preVel1[n] + b2.mass * event.preVel2[n];
+				double after = b1.mass * event.postVel1[n] + b2.mass * event.postVel2[n];
+
+				assertEquals( before, after, TOLERANCE * ( 1 + Math.abs( before ) ) );
+			}
+
+			double before = b1.mass * norm( event.preVel1 ) * norm( event.preVel1 ) + b2.mass * norm( event.preVel2 ) * norm( event.preVel2 );
+			double after = b1.mass * norm( event.postVel1 ) * norm( event.postVel1 ) + b2.mass * norm( event.postVel2 ) * norm( event.postVel2 );
+
+			assertEquals( before, after, TOLERANCE * before );
+		}
+	}
+
+	private static double norm( double[] v ) {
+		return Math.sqrt( v[0] * v[0] + v[1] * v[1] );
+	}
+}
@@ -0,0 +1,111 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Checks the observables accumulated from the event stream against the balls themselves, and the pressure of a dilute gas against
+ * the ideal gas law
+ *
+ * @author Alex Weeks
+ *
+ */
+public class ObservablesTest {
+
+	//Relative difference allowed between a running total and the same total summed over the balls
+	private static final double TOLERANCE = 1e-9;
+
+	@Test
+	public void energyAndMomentumFollowTheBalls() {
+
+		Universe universe = TestScenes.box( 10 * 20, -200 ).getUniverse();
+		universe.addActors( TestScenes.lattice( 10, 20, 2, 8, 100, 5 ) );
+
+		//A region of its own acceleration, so balls accelerate differently and change acceleration between events
+		DoubleVector lower = new DoubleVector( new double[] {50, 50} );
+		DoubleVector upper = new DoubleVector( new double[] {150, 150} );
+		universe.addForceRegion( new ForceRegion( lower, upper, new DoubleVector( new double[] {80, 0} ) ) );
+
+		Observables observables = universe.getObservables();
+
+		for( int step = 0; step < 10; step++ ) {
+			universe.runFor( 0.1 );
+
+			double energy = 0;
+			double[] momentum = new double[2];
+
+			for( Ball ball : universe.actors ) {
+				energy += 0.5 * ball.mass * ball.vel.squareSumOfComps();
+
+				for( int n = 0; n < 2; n++ ) momentum[n] += ball.mass * ball.vel.comps[n];
+			}
+
+			assertEquals( energy, observables.getKineticEnergy(), TOLERANCE * energy );
+
+			//The walls and the fields change the momentum, so it is compared against the scale of the individual terms
+			double scale = Math.sqrt( 2 * energy * totalMass( universe.actors ) );
+
+			for( int n = 0; n < 2; n++ ) {
+				assertEquals( momentum[n], observables.getMomentum( n ), TOLERANCE * scale );
+			}
+		}
+	}
+
+	@Test
+	public void speedHistogramIsTakenAtTheSampleTime() {
+
+		Universe universe = TestScenes.box( 10 * 20, -200 ).getUniverse();
+		universe.addActors( TestScenes.lattice( 10, 20, 2, 8, 100, 6 ) );
+
+		Observables observables = universe.getObservables();
+
+		universe.runFor( 0.5 );
+
+		int[] expected = new int[ observables.getSpeedHistogram().length ];
+		for( Ball ball : universe.actors ) expected[ observables.speedBin( ball.vel.magnitude() ) ]++;
+
+		assertEquals( Arrays.toString( expected ), Arrays.toString( observables.getSpeedHistogram() ) );
+	}
+
+	@Test
+	public void diluteGasPressureMatchesTheIdealGasLaw() {
+
+		double size = 20 * 10;
+
+		Universe universe = TestScenes.box( size, 0 ).getUniverse();
+
+		//Radii small enough that the balls take up well under a percent of the box
+		ArrayList<Ball> balls = TestScenes.lattice( 20, 10, 0.2, 0.5, 100, 7 );
+		universe.addActors( balls );
+
+		Observables observables = universe.getObservables();
+
+		universe.runFor( 20 );
+
+		//P A = N k T, with the area of the box and k = 1
+		double expected = balls.size() * observables.getTemperature() / ( size * size );
+
+		double mean = 0;
+		for( int n = 0; n < 2; n++ ) {
+			mean += ( observables.getPressure( n, false ) + observables.getPressure( n, true ) ) / 4;
+		}
+
+		assertEquals( expected, mean, 0.03 * expected );
+
+		//Each wall on its own, with the fewer hits it takes
+		for( int n = 0; n < 2; n++ ) {
+			assertEquals( expected, observables.getPressure( n, false ), 0.1 * expected );
+			assertEquals( expected, observables.getPressure( n, true ), 0.1 * expected );
+		}
+	}
+
+	private static double totalMass( ArrayList<Ball> balls ) {
+		double mass = 0;
+
+		for( Ball ball : balls ) mass += ball.mass;
+
+		return mass;
+	}
+}
@@ -0,0 +1,107 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Checks that a Universe checkpointed to a memory mapped file and restored from it in a fresh Universe is the same scene, and that
+ * the file is little endian
+ *
+ * @author Alex Weeks
+ *
+ */
+public class ParticleStoreTest {
+
+	//Difference allowed in a position after both scenes have run on
+	private static final double TOLERANCE = 1e-6;
+
+	@Test
+	public void mappedCheckpointReproducesTheScene() throws Exception {
+
+		double size = 10 * 20;
+
+		Universe universe = TestScenes.box( size, -30 ).getUniverse();
+		universe.setPeriodic( true );
+
+		ArrayList<Ball> balls = TestScenes.lattice( 10, 20, 2, 8, 100, 3 );
+		for( int i = 0; i < balls.size(); i++ ) balls.get(i).setCharge( i % 3 - 1 );
+
+		universe.addActors( balls );
+		universe.runFor( 0.2 );
+
+		File file = File.createTempFile( "particles", ".store" );
+		file.deleteOnExit();
+
+		OffHeapParticleStore store = OffHeapParticleStore.map( file, 2, 200 );
+		universe.writeTo( store );
+		store.force();
+
+		//The header, then the first position column, read back as little endian whatever the machine
+		RandomAccessFile raf = new RandomAccessFile( file, "r" );
+		ByteBuffer bytes = ByteBuffer.allocate( OffHeapParticleStore.HEADER_SIZE + 3 * 8 * 2 + 8 ).order( ByteOrder.LITTLE_ENDIAN );
+		try {
+			raf.getChannel().read( bytes, 0 );
+		}
+		finally {
+			raf.close();
+		}
+
+		assertEquals( OffHeapParticleStore.MAGIC, bytes.getInt( 0 ) );
+		assertEquals( universe.actors.size(), bytes.getInt( 12 ) );
+		assertEquals( universe.getTime(), bytes.getDouble( 16 ), 0 );
+		assertEquals( universe.actors.get(0).pos.comps[0], bytes.getDouble( OffHeapParticleStore.HEADER_SIZE + 3 * 8 * 2 ), 0 );
+
+		//A second mapping of the same file, as another process resuming would have
+		OffHeapParticleStore reopened = OffHeapParticleStore.map( file, 2, 1 );
+
+		Universe restored = new Universe( new DoubleVector( new double[] {0, 0} ), true );
+		restored.readFrom( reopened );
+
+		assertEquals( universe.getTime(), restored.getTime(), 0 );
+		assertEquals( -30, restored.gravity.comps[1], 0 );
+		assertEquals( size, restored.upperBounds.comps[0], 0 );
+		assertEquals( size, restored.upperBounds.comps[1], 0 );
+		assertEquals( true, restored.periodic );
+		assertEquals( universe.actors.size(), restored.actors.size() );
+
+		for( int i = 0; i < universe.actors.size(); i++ ) {
+			Ball ball = universe.actors.get(i);
+			Ball copy = restored.actors.get(i);
+
+			for( int n = 0; n < 2; n++ ) {
+				assertEquals( ball.pos.comps[n], copy.pos.comps[n], 0 );
+				assertEquals( ball.vel.comps[n], copy.vel.comps[n], 0 );
+				assertEquals( ball.accel.comps[n], copy.accel.comps[n], 0 );
+				assertEquals( ball.accel.comps[n], reopened.getAccel( i, n ), 0 );
+			}
+
+			assertEquals( ball.mass, copy.mass, 0 );
+			assertEquals( ball.radius, copy.radius, 0 );
+			assertEquals( ball.charge, copy.charge, 0 );
+			assertEquals( ball.eventCount, copy.eventCount );
+		}
+
+		universe.runFor( 0.1 );
+		restored.runFor( 0.1 );
+
+		for( int i = 0; i < universe.actors.size(); i++ ) {
+			for( int n = 0; n < 2; n++ ) {
+				assertEquals( universe.actors.get(i).pos.comps[n], restored.actors.get(i).pos.comps[n], TOLERANCE );
+			}
+		}
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void storeWithoutBoundsIsRejected() {
+
+		HeapParticleStore store = new HeapParticleStore( 2, 1 );
+		store.add( 1, 1, new double[] {5, 5}, new double[] {0, 0} );
+
+		new Universe( new DoubleVector( new double[] {0, 0} ), true ).readFrom( store );
+	}
+}
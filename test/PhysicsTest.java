@@ -0,0 +1,226 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Analytic cases for collision prediction and response, each with an answer worked out by hand
+ *
+ * @author Alex Weeks
+ *
+ */
+public class PhysicsTest {
+
+	private static final double EPSILON = 1e-12;
+
+	private static final DoubleVector NO_ACCEL = new DoubleVector( new double[] {0, 0} );
+
+	private static final DoubleVector LOWER = new DoubleVector( new double[] {0, 0} );
+	private static final DoubleVector UPPER = new DoubleVector( new double[] {100, 100} );
+
+	private static Ball ball( double radius, double x, double y, double vx, double vy ) {
+		return new Ball( radius * radius, radius, new double[] {x, y}, new double[] {vx, vy} );
+	}
+
+	@Test
+	public void headOnBallsMeetWhenTheGapCloses() {
+		Ball b1 = ball( 1, 0, 0, 10, 0 );
+		Ball b2 = ball( 1, 10, 0, -10, 0 );
+
+		//A gap of 8 closing at 20
+		Collision c = Physics.checkCollision( b1, b2 );
+
+		assertNotNull( c );
+		assertEquals( 0.4, c.deltaT, EPSILON );
+	}
+
+	@Test
+	public void glancingBallsMeetAtTheRadiusSum() {
+		Ball b1 = ball( 1, 0, 0, 10, 0 );
+		Ball b2 = ball( 1, 10, 1, 0, 0 );
+
+		//Centres 2 apart when (x - 10)^2 + 1 = 4
+		Collision c = Physics.checkCollision( b1, b2 );
+
+		assertNotNull( c );
+		assertEquals( ( 10 - Math.sqrt( 3 ) ) / 10, c.deltaT, EPSILON );
+	}
+
+	@Test
+	public void separatingAndMissingBallsNeverMeet() {
+		assertNull( Physics.checkCollision( ball( 1, 0, 0, -10, 0 ), ball( 1, 10, 0, 10, 0 ) ) );
+		assertNull( Physics.checkCollision( ball( 1, 0, 0, 10, 0 ), ball( 1, 10, 3, 0, 0 ) ) );
+		assertNull( Physics.checkCollision( ball( 1, 0, 0, 5, 5 ), ball( 1, 10, 0, 5, 5 ) ) );
+	}
+
+	@Test
+	public void touchingBallsCollideOnlyWhileApproaching() {
+		Collision c = Physics.checkCollision( ball( 1, 0, 0, 1, 0 ), ball( 1, 2, 0, 0, 0 ) );
+
+		assertNotNull( c );
+		assertEquals( 0, c.deltaT, 0 );
+
+		assertNull( Physics.checkCollision( ball( 1, 0, 0, -1, 0 ), ball( 1, 2, 0, 0, 0 ) ) );
+		assertNull( Physics.checkCollision( ball( 1, 0, 0, -1, 0 ), ball( 1, 1.5, 0, 0, 0 ) ) );
+	}
+
+	@Test
+	public void limitCutsOffLaterCollisions() {
+		assertNull( Physics.checkCollision( ball( 1, 0, 0, 10, 0 ), ball( 1, 10, 0, -10, 0 ), 0.3 ) );
+		assertNotNull( Physics.checkCollision( ball( 1, 0, 0, 10, 0 ), ball( 1, 10, 0, -10, 0 ), 0.5 ) );
+	}
+
+	@Test
+	public void relativeAccelerationClosesTheGap() {
+		Ball b1 = ball( 1, 0, 0, 0, 0 );
+		Ball b2 = ball( 1, 10, 0, 0, 0 );
+
+		b1.accel.comps[0] = 2;
+
+		//A gap of 8 closing as t^2
+		Collision c = Physics.checkCollision( b1, b2 );
+
+		assertNotNull( c );
+		assertEquals( Math.sqrt( 8 ), c.deltaT, 1e-9 );
+	}
+
+	@Test
+	public void sharedAccelerationDoesNotChangeThePairTime() {
+		Ball b1 = ball( 1, 0, 0, 10, 0 );
+		Ball b2 = ball( 1, 10, 0, -10, 0 );
+
+		b1.accel.comps[1] = 400;
+		b2.accel.comps[1] = 400;
+
+		assertEquals( 0.4, Physics.checkCollision( b1, b2 ).deltaT, EPSILON );
+	}
+
+	@Test
+	public void periodicPairsMeetThroughTheNearestImage() {
+		Ball b1 = ball( 0.5, 1, 5, -10, 0 );
+		Ball b2 = ball( 0.5, 99, 5, 0, 0 );
+
+		//The image of b2 at -1 is 2 away, a gap of 1 closing at 10
+		Collision c = Physics.checkCollision( b1, b2, new DoubleVector( new double[] {100, 100} ) );
+
+		assertNotNull( c );
+		assertEquals( 0.1, c.deltaT, EPSILON );
+		assertEquals( -100, c.imageShift[0], EPSILON );
+		assertEquals( 0, c.imageShift[1], EPSILON );
+	}
+
+	@Test
+	public void ballHitsTheWallItHeadsFor() {
+		//The surface reaches x = 100 after travelling 45
+		Collision c = Physics.checkWallCollision( ball( 5, 50, 50, 10, 0 ), LOWER, UPPER, NO_ACCEL );
+
+		assertNotNull( c );
+		assertEquals( 4.5, c.deltaT, EPSILON );
+		assertEquals( 0, c.wallCompIndex );
+
+		c = Physics.checkWallCollision( ball( 5, 50, 50, 0, -20 ), LOWER, UPPER, NO_ACCEL );
+
+		assertEquals( 2.25, c.deltaT, EPSILON );
+		assertEquals( 1, c.wallCompIndex );
+	}
+
+	@Test
+	public void fallingBallHitsTheFloor() {
+		//Falling 15 from rest as 5 t^2
+		Collision c = Physics.checkWallCollision( ball( 5, 50, 20, 0, 0 ), LOWER, UPPER, new DoubleVector( new double[] {0, -10} ) );
+
+		assertNotNull( c );
+		assertEquals( Math.sqrt( 3 ), c.deltaT, EPSILON );
+		assertEquals( 1, c.wallCompIndex );
+
+		//Thrown up at 10 first rises 5, then falls 20
+		c = Physics.checkWallCollision( ball( 5, 50, 20, 0, 10 ), LOWER, UPPER, new DoubleVector( new double[] {0, -10} ) );
+
+		assertEquals( 1 + 2, c.deltaT, EPSILON );
+	}
+
+	@Test
+	public void restingBallHitsNoWall() {
+		assertNull( Physics.checkWallCollision( ball( 5, 50, 50, 0, 0 ), LOWER, UPPER, NO_ACCEL ) );
+	}
+
+	@Test
+	public void ballAtAWallHitsItOnlyWhileHeadingOut() {
+		Collision c = Physics.checkWallCollision( ball( 5, 95, 50, 10, 0 ), LOWER, UPPER, NO_ACCEL );
+
+		assertNotNull( c );
+		assertEquals( 0, c.deltaT, 0 );
+
+		//Just bounced, so the next wall is the far one
+		c = Physics.checkWallCollision( ball( 5, 95, 50, -10, 0 ), LOWER, UPPER, NO_ACCEL );
+
+		assertEquals( 9, c.deltaT, EPSILON );
+	}
+
+	@Test
+	public void quadraticGivesTheLeastPositiveRoot() {
+		assertEquals( 1, Physics.leastPositiveQuadraticSolution( 1, -3, 2 ), EPSILON );
+		assertEquals( 1, Physics.leastPositiveQuadraticSolution( 1, 0, -1 ), EPSILON );
+		assertEquals( 0.5, Physics.leastPositiveQuadraticSolution( -2, 3, -1 ), EPSILON );
+
+		//A root at zero is the collision just done, not the next one
+		assertEquals( 1, Physics.leastPositiveQuadraticSolution( 1, -1, 0 ), EPSILON );
+	}
+
+	@Test
+	public void quadraticWithoutPositiveRootsGivesNull() {
+		assertNull( Physics.leastPositiveQuadraticSolution( 1, 0, 1 ) );
+		assertNull( Physics.leastPositiveQuadraticSolution( 1, 3, 2 ) );
+		assertNull( Physics.leastPositiveQuadraticSolution( 1, -2, 1 ) );
+	}
+
+	@Test
+	public void equalBallsSwapVelocitiesHeadOn() {
+		Ball b1 = ball( 1, 0, 0, 10, 0 );
+		Ball b2 = ball( 1, 2, 0, -4, 0 );
+
+		Physics.doElasticCollision( b1, b2 );
+
+		assertEquals( -4, b1.vel.comps[0], EPSILON );
+		assertEquals( 10, b2.vel.comps[0], EPSILON );
+	}
+
+	@Test
+	public void obliqueCollisionConservesMomentumAndEnergy() {
+		Ball b1 = ball( 1, 0, 0, 10, 3 );
+		Ball b2 = ball( 2, 2, 2, -4, 1 );
+
+		double[] momentum = momentum( b1, b2 );
+		double energy = energy( b1 ) + energy( b2 );
+
+		Physics.doElasticCollision( b1, b2 );
+
+		double[] after = momentum( b1, b2 );
+
+		assertEquals( momentum[0], after[0], 1e-10 );
+		assertEquals( momentum[1], after[1], 1e-10 );
+		assertEquals( energy, energy( b1 ) + energy( b2 ), 1e-10 );
+
+		//Only the components along the line of centres change
+		assertEquals( 10 - 3, b1.vel.comps[0] - b1.vel.comps[1], EPSILON );
+	}
+
+	@Test
+	public void wallReversesTheNormalComponent() {
+		Ball b = ball( 1, 0, 0, 10, 3 );
+
+		Physics.doWallCollision( b, 0 );
+
+		assertEquals( -10, b.vel.comps[0], 0 );
+		assertEquals( 3, b.vel.comps[1], 0 );
+	}
+
+	private static double[] momentum( Ball b1, Ball b2 ) {
+		return new double[] { b1.mass * b1.vel.comps[0] + b2.mass * b2.vel.comps[0], b1.mass * b1.vel.comps[1] + b2.mass * b2.vel.comps[1] };
+	}
+
+	private static double energy( Ball b ) {
+		return 0.5 * b.mass * DoubleVector.dotProduct( b.vel, b.vel );
+	}
+}
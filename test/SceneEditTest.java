@@ -0,0 +1,87 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Checks that balls added, removed and edited leave the actors consistent
+ *
+ * @author Alex Weeks
+ *
+ */
+public class SceneEditTest {
+
+	@Test
+	public void removedBallsAreNoLongerActors() {
+		Universe universe = TestScenes.box( 10 * 20, 0 ).getUniverse();
+
+		ArrayList<Ball> balls = TestScenes.lattice( 10, 20, 2, 8, 100, 0 );
+		universe.addActors( balls );
+
+		ArrayList<Ball> gone = new ArrayList<Ball>();
+		for( int i = 0; i < balls.size(); i += 3 ) gone.add( balls.get(i) );
+
+		universe.removeActor( balls.get(1) );
+		universe.removeActors( gone );
+
+		//Removing again does nothing
+		universe.removeActors( gone );
+
+		assertEquals( balls.size() - gone.size() - 1, universe.actors.size() );
+
+		for( Ball ball : balls ) {
+			boolean kept = ball != balls.get(1) && !gone.contains( ball );
+
+			assertEquals( kept, universe.isActor( ball ) );
+		}
+
+		//Every actor can still be found where it is kept
+		for( int i = 0; i < universe.actors.size(); i++ ) {
+			assertSame( universe.actors.get(i), universe.actors.get( universe.actors.get(i).actorIndex ) );
+		}
+
+		universe.runFor( 0.1 );
+
+		assertEquals( 0, universe.countOverlaps( 1e-9 ) );
+	}
+
+	@Test
+	public void queuedEditsLeaveTheCallersVectorsAlone() {
+		Universe universe = TestScenes.box( 10 * 20, 0 ).getUniverse();
+
+		ArrayList<Ball> balls = TestScenes.lattice( 10, 20, 2, 8, 100, 1 );
+		universe.addActors( balls );
+
+		DoubleVector pos = new DoubleVector( new double[] {-50, 100} );
+		DoubleVector vel = new DoubleVector( new double[] {10, 0} );
+
+		universe.queueEdit( balls.get(0), pos, vel );
+		universe.applyEdits();
+
+		//The ball is clamped inside the Universe, the caller's position is not
+		assertEquals( -50, pos.getComp(0), 0 );
+		assertTrue( balls.get(0).pos.getComp(0) >= balls.get(0).radius );
+		assertFalse( balls.get(0).vel == vel );
+	}
+
+	@Test
+	public void editsToRemovedBallsAreDropped() {
+		Universe universe = TestScenes.box( 10 * 20, 0 ).getUniverse();
+
+		ArrayList<Ball> balls = TestScenes.lattice( 10, 20, 2, 8, 100, 2 );
+		universe.addActors( balls );
+
+		Ball ball = balls.get(5);
+		universe.removeActor( ball );
+
+		universe.queueEdit( ball, new DoubleVector( new double[] {100, 100} ), new DoubleVector( new double[] {0, 0} ) );
+		universe.applyEdits();
+
+		assertFalse( universe.isActor( ball ) );
+		assertEquals( balls.size() - 1, universe.actors.size() );
+	}
+}
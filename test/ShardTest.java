@@ -0,0 +1,162 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+/**
+ * Runs a ShardCoordinator with ShardWorkers on threads of their own, connected over loopback, and checks that the balls handed from
+ * slab to slab are neither lost nor doubled and that energy and momentum come out as they went in
+ *
+ * @author Alex Weeks
+ *
+ */
+public class ShardTest {
+
+	//Relative difference allowed in the totals
+	private static final double TOLERANCE = 1e-9;
+
+	private static final int WORKERS = 3;
+
+	@Test
+	public void heavyOnLightCollisionRedoesTheEpoch() throws Exception {
+
+		//A heavy ball on its own keeps its speed, so the epochs chosen for it are never too long
+		ArrayList<Ball> balls = new ArrayList<Ball>();
+		balls.add( new Ball( 1000, 4, new double[] {575, 400}, new double[] {-100, 0} ) );
+
+		assertEquals( 0, run( balls, 0.4 ).getRedoneEpochs() );
+
+		//A light ball at rest in its way leaves with close to twice its speed, across the slab boundary at 533
+		balls.set( 0, new Ball( 1000, 4, new double[] {575, 400}, new double[] {-100, 0} ) );
+		balls.add( new Ball( 1, 2, new double[] {565, 400}, new double[] {0, 0} ) );
+
+		assertTrue( run( balls, 0.4 ).getRedoneEpochs() > 0 );
+	}
+
+	@Test
+	public void ballsAwayFromTheWallsKeepTheMomentum() throws Exception {
+
+		//The balls stay clear of the walls for the whole run, so nothing but collisions between them changes the momentum
+		ArrayList<Ball> balls = TestScenes.lattice( 16, 25, 2, 4, 50, 11 );
+		for( Ball ball : balls ) {
+			ball.pos.comps[0] += 200;
+			ball.pos.comps[1] += 200;
+		}
+
+		run( balls, 0.4 );
+	}
+
+	@Test
+	public void ballsCrossingSlabsAndBouncingOffWallsKeepTheEnergy() throws Exception {
+		run( TestScenes.lattice( 32, 25, 2, 4, 100, 12 ), 2 );
+	}
+
+	/**
+	 * Runs balls on the workers in an 800 square box with no gravity, and compares the balls gathered at the end with those put in.
+	 * Momentum is only compared if no ball can have reached a wall.
+	 * @return Returns the closed coordinator
+	 */
+	private static ShardCoordinator run( List<Ball> balls, double time ) throws Exception {
+
+		double[] momentum = new double[2];
+		double energy = 0;
+		double mass = 0;
+		boolean walls = false;
+
+		for( Ball ball : balls ) {
+			for( int n = 0; n < 2; n++ ) {
+				momentum[n] += ball.mass * ball.vel.comps[n];
+				walls |= ball.pos.comps[n] < 200 - ball.radius || ball.pos.comps[n] > 600 + ball.radius;
+			}
+
+			energy += 0.5 * ball.mass * ball.vel.squareSumOfComps();
+			mass += ball.mass;
+		}
+
+		DoubleVector lower = new DoubleVector( new double[] {0, 0} );
+		DoubleVector upper = new DoubleVector( new double[] {800, 800} );
+
+		final ShardCoordinator coordinator = new ShardCoordinator( 0, lower, upper, new DoubleVector( new double[] {0, 0} ), 30 );
+		final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+
+		ArrayList<Thread> workers = new ArrayList<Thread>();
+		for( int k = 0; k < WORKERS; k++ ) {
+			Thread worker = new Thread( new Runnable() {
+				public void run() {
+					try {
+						Socket socket = new Socket( InetAddress.getLoopbackAddress(), coordinator.getPort() );
+
+						try {
+							new ShardWorker().serve( socket );
+						}
+						finally {
+							socket.close();
+						}
+					}
+					catch( Exception e ) {
+						failures.add( e );
+					}
+				}
+			});
+			worker.start();
+			workers.add( worker );
+		}
+
+		HeapParticleStore store = new HeapParticleStore( 2, balls.size() );
+
+		try {
+			coordinator.accept( WORKERS );
+			coordinator.addBalls( balls );
+			coordinator.runFor( time );
+			coordinator.writeTo( store );
+		}
+		finally {
+			coordinator.close();
+
+			for( Thread worker : workers ) worker.join( 10000 );
+		}
+
+		assertTrue( failures.toString(), failures.isEmpty() );
+		assertTrue( coordinator.getEpochs() > 1 );
+		assertEquals( time, store.getTime(), 1e-12 );
+		assertEquals( balls.size(), store.size() );
+
+		double[] momentumAfter = new double[2];
+		double energyAfter = 0;
+
+		for( int i = 0; i < store.size(); i++ ) {
+			double square = 0;
+
+			for( int n = 0; n < 2; n++ ) {
+				double v = store.getVel( i, n );
+
+				momentumAfter[n] += store.getMass( i ) * v;
+				square += v * v;
+
+				assertTrue( store.getPos( i, n ) > store.getRadius( i ) * ( 1 - TOLERANCE ) );
+				assertTrue( store.getPos( i, n ) < 800 - store.getRadius( i ) * ( 1 - TOLERANCE ) );
+			}
+
+			energyAfter += 0.5 * store.getMass( i ) * square;
+		}
+
+		assertEquals( energy, energyAfter, TOLERANCE * energy );
+
+		//Against the momentum the balls would have all moving one way at the same energy
+		if ( !walls ) {
+			double scale = Math.sqrt( 2 * energy * mass );
+
+			for( int n = 0; n < 2; n++ ) {
+				assertEquals( momentum[n], momentumAfter[n], TOLERANCE * scale );
+			}
+		}
+
+		return coordinator;
+	}
+}
@@ -0,0 +1,73 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Checks that a viewer connected over loopback sees the balls a publisher sends, to within the quantisation step
+ *
+ * @author Alex Weeks
+ *
+ */
+public class SnapshotTest {
+
+	//Longest wait for the other end of the connection
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	@Test
+	public void viewerDecodesThePublishersFrames() throws Exception {
+
+		double size = 10 * 20;
+
+		Universe universe = TestScenes.box( size, 0 ).getUniverse();
+		universe.addActors( TestScenes.lattice( 10, 20, 2, 8, 100, 0 ) );
+
+		SnapshotPublisher publisher = new SnapshotPublisher( 0, true, 1000 );
+		SnapshotViewer viewer = new SnapshotViewer();
+
+		try {
+			viewer.connect( InetAddress.getLoopbackAddress().getHostAddress(), publisher.getPort() );
+
+			long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			while( publisher.getViewerCount() == 0 && System.currentTimeMillis() < deadline ) Thread.sleep( 5 );
+
+			universe.setPublisher( publisher );
+
+			//A key frame and then delta frames, as the balls stay the same
+			for( int k = 0; k < 20; k++ ) {
+				universe.runFor( 0.01 );
+				Thread.sleep( 5 );
+			}
+
+			//The newest frame is never dropped
+			Thread.sleep( 5 );
+			universe.refresh();
+
+			while( viewer.getTime() != universe.getTime() && System.currentTimeMillis() < deadline ) Thread.sleep( 5 );
+
+			assertEquals( universe.getTime(), viewer.getTime(), 0 );
+			assertTrue( viewer.getFramesReceived() > 1 );
+
+			ArrayList<Ball> balls = viewer.getBalls();
+			double step = size / SnapshotPublisher.QUANTA;
+
+			assertEquals( universe.actors.size(), balls.size() );
+
+			for( int i = 0; i < balls.size(); i++ ) {
+				Ball ball = universe.actors.get(i);
+
+				assertEquals( ball.pos.comps[0], balls.get(i).pos.comps[0], step );
+				assertEquals( ball.pos.comps[1], balls.get(i).pos.comps[1], step );
+				assertEquals( ball.radius, balls.get(i).radius, 1e-5 );
+				assertEquals( ball.color, balls.get(i).color );
+			}
+		}
+		finally {
+			viewer.disconnect();
+			publisher.close();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Checks that g(r) comes out flat for an ideal gas, and that the structure sampler keeps up with the bounds of its Universe
+ *
+ * @author Alex Weeks
+ *
+ */
+public class StructureTest {
+
+	@Test
+	public void idealGasHasFlatPairCorrelation() {
+
+		double size = 20 * 10;
+
+		Universe universe = TestScenes.box( size, 0 ).getUniverse();
+		universe.setPeriodic( true );
+
+		//Balls so small they hardly ever meet, which spread evenly over the box as they fly
+		universe.addActors( TestScenes.lattice( 20, 10, 0.05, 0.1, 100, 9 ) );
+		universe.runFor( 5 );
+
+		StructureSampler sampler = new StructureSampler( universe.lowerBounds, universe.upperBounds, 0.1, size / 4 );
+		sampler.setPairBins( 20 );
+		universe.setStructureSampler( sampler );
+
+		universe.runFor( 20 );
+
+		assertTrue( sampler.getSamples() >= 200 );
+
+		double[] g = sampler.getPairCorrelation();
+		double mean = 0;
+
+		for( int k = 0; k < g.length; k++ ) {
+			assertEquals( "g at bin " + k, 1, g[k], 0.1 );
+			mean += g[k] / g.length;
+		}
+
+		assertEquals( 1, mean, 0.02 );
+	}
+
+	@Test
+	public void rangeWiderThanHalfThePeriodicRegionIsRefused() {
+
+		Universe universe = TestScenes.box( 200, 0 ).getUniverse();
+
+		StructureSampler sampler = new StructureSampler( universe.lowerBounds, universe.upperBounds, 0.1, 120 );
+		universe.setStructureSampler( sampler );
+
+		//Fine with walls, but not once the region wraps around
+		try {
+			universe.setPeriodic( true );
+			fail( "Periodic boundaries were allowed with the range more than half the width" );
+		}
+		catch( IllegalArgumentException e ) {
+			assertEquals( false, universe.periodic );
+		}
+
+		universe.setStructureSampler( null );
+		universe.setPeriodic( true );
+
+		try {
+			universe.setStructureSampler( sampler );
+			fail( "A sampler was allowed with the range more than half the width" );
+		}
+		catch( IllegalArgumentException e ) {
+			assertEquals( null, universe.getStructureSampler() );
+		}
+
+		universe.setStructureSampler( new StructureSampler( universe.lowerBounds, universe.upperBounds, 0.1, 50 ) );
+
+		try {
+			universe.setBounds( new double[] {0, 0}, new double[] {90, 90} );
+			fail( "The periodic region was allowed to shrink below twice the range" );
+		}
+		catch( IllegalArgumentException e ) {
+			assertEquals( 200, universe.upperBounds.comps[0], 0 );
+		}
+	}
+
+	@Test
+	public void pairsAreFoundAcrossMovedPeriodicBounds() {
+
+		Universe universe = TestScenes.box( 200, 0 ).getUniverse();
+		universe.setPeriodic( true );
+
+		StructureSampler sampler = new StructureSampler( universe.lowerBounds, universe.upperBounds, 0.1, 20 );
+		universe.setStructureSampler( sampler );
+
+		universe.setBounds( new double[] {0, 0}, new double[] {100, 100} );
+
+		//Four apart across the boundary at 100, but 96 apart in the region as it was
+		ArrayList<Ball> balls = new ArrayList<Ball>();
+		balls.add( new Ball( 1, 1, new double[] {2, 50}, new double[] {0, 0} ) );
+		balls.add( new Ball( 1, 1, new double[] {98, 50}, new double[] {0, 0} ) );
+		universe.addActors( balls );
+
+		sampler.clear();
+		sampler.sample( universe.actors, universe.getTime(), true );
+
+		long pairs = 0;
+		double width = sampler.getPairBinWidth();
+
+		for( int k = 0; k < sampler.pairCounts.length; k++ ) {
+			if ( sampler.pairCounts[k] > 0 ) assertEquals( 4, ( k + 0.5 ) * width, width );
+			pairs += sampler.pairCounts[k];
+		}
+
+		assertEquals( 1, pairs );
+	}
+}
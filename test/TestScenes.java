@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds the scenes the tests run: square headless Universes, and lattices of balls with random radii and velocities to fill them
+ *
+ * @author Alex Weeks
+ *
+ */
+public class TestScenes {
+
+	/**
+	 * Creates a square headless Universe recording its events
+	 * @param size Length of each side
+	 * @param gravity Acceleration along the second axis
+	 * @return Returns the recorder of the new Universe
+	 */
+	public static EventRecorder box( double size, double gravity ) {
+
+		Universe universe = new Universe( new DoubleVector( new double[] {0, gravity} ), true );
+		EventRecorder recorder = new EventRecorder( universe );
+
+		universe.setBounds( new double[] {0, 0}, new double[] {size, size} );
+
+		return recorder;
+	}
+
+	/**
+	 * Creates balls on a square lattice, filling a box side * spacing across
+	 * @param side Balls along each side of the lattice
+	 * @param spacing Distance between neighbouring lattice points
+	 * @param minRadius Smallest radius
+	 * @param maxRadius Largest radius, at most half the spacing
+	 * @param speed Largest velocity component
+	 * @param seed Seed for the radii and velocities
+	 * @return Returns the balls
+	 */
+	public static ArrayList<Ball> lattice( int side, double spacing, double minRadius, double maxRadius, double speed, long seed ) {
+
+		Random rnd = new Random( seed );
+
+		ArrayList<Ball> balls = new ArrayList<Ball>();
+
+		for( int i = 0; i < side; i++ ) {
+			for( int j = 0; j < side; j++ ) {
+				double r = minRadius + rnd.nextDouble() * ( maxRadius - minRadius );
+
+				double[] pos = { spacing / 2 + i * spacing, spacing / 2 + j * spacing };
+				double[] vel = { ( rnd.nextDouble() * 2 - 1 ) * speed, ( rnd.nextDouble() * 2 - 1 ) * speed };
+
+				balls.add( new Ball( r * r, r, pos, vel ) );
+			}
+		}
+
+		return balls;
+	}
+
+	/**
+	 * Removes the balls touching an obstacle from a list
+	 * @param balls The balls
+	 * @param obstacle The obstacle
+	 */
+	public static void clear( List<Ball> balls, Obstacle obstacle ) {
+
+		for( int k = balls.size() - 1; k >= 0; k-- ) {
+			if ( obstacle.distanceTo( balls.get(k).pos ) < balls.get(k).radius + 1 ) balls.remove( k );
+		}
+	}
+}
@@ -0,0 +1,91 @@
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Guards the event rate of canonical scenes against regressions.  The floors are several times below what an ordinary desktop
+ * manages, so that only a change making the engine markedly slower trips them, not a busy machine.  A slower machine can scale
+ * them down with -Dthroughput.floorScale.
+ *
+ * @author Alex Weeks
+ *
+ */
+public class ThroughputTest {
+
+	//Wall clock time each scene is measured over, after a run of the same length to warm up
+	private static final long MEASURE_NANOS = 1000000000L;
+
+	private static final double FLOOR_SCALE = Double.parseDouble( System.getProperty( "throughput.floorScale", "1" ) );
+
+	@Test
+	public void gasInSweepAndPrune() {
+		EventRecorder recorder = TestScenes.box( 32 * 20, 0 );
+		Universe universe = recorder.getUniverse();
+
+		universe.addActors( TestScenes.lattice( 32, 20, 2, 8, 100, 1 ) );
+		universe.setBroadphase( new SweepAndPruneBroadphase( universe.lowerBounds, universe.upperBounds, 0.1 ) );
+		universe.setAdaptiveHorizon( 3 );
+
+		assertRate( "Gas of 1024 balls", recorder, 2500 );
+	}
+
+	@Test
+	public void gasUnderGravityInACalendarQueue() {
+		EventRecorder recorder = TestScenes.box( 32 * 20, 400 );
+		Universe universe = recorder.getUniverse();
+
+		universe.addActors( TestScenes.lattice( 32, 20, 2, 8, 100, 2 ) );
+		universe.setBroadphase( new SweepAndPruneBroadphase( universe.lowerBounds, universe.upperBounds, 0.1 ) );
+		universe.setScheduler( new CalendarScheduler() );
+
+		assertRate( "Gas of 1024 balls under gravity", recorder, 2500 );
+	}
+
+	@Test
+	public void smallSceneWithAllPairs() {
+		EventRecorder recorder = TestScenes.box( 10 * 20, 0 );
+		Universe universe = recorder.getUniverse();
+
+		universe.addActors( TestScenes.lattice( 10, 20, 2, 8, 100, 3 ) );
+
+		assertRate( "100 balls with every pair checked", recorder, 10000 );
+	}
+
+	/**
+	 * Runs a scene to warm up, then measures how many events it performs per second and checks the rate against a floor
+	 */
+	private static void assertRate( String scene, EventRecorder recorder, double floor ) {
+
+		Universe universe = recorder.getUniverse();
+
+		run( universe, MEASURE_NANOS );
+
+		long events = recorder.getEvents();
+		long nanos = run( universe, MEASURE_NANOS );
+
+		double rate = ( recorder.getEvents() - events ) * 1e9 / nanos;
+
+		floor *= FLOOR_SCALE;
+
+		System.out.println( scene + ": " + Math.round( rate ) + " events/s" );
+
+		assertTrue( scene + " ran at " + Math.round( rate ) + " events/s, below the floor of " + Math.round( floor ), rate >= floor );
+	}
+
+	/**
+	 * Runs a Universe in short steps for at least a time on the wall clock
+	 * @return Returns the time taken in nanoseconds
+	 */
+	private static long run( Universe universe, long nanos ) {
+
+		long started = System.nanoTime();
+		long elapsed;
+
+		do {
+			universe.runFor( 0.01 );
+			elapsed = System.nanoTime() - started;
+		} while( elapsed < nanos );
+
+		return elapsed;
+	}
+}